@@ -29,7 +29,9 @@ import org.mapsforge.core.model.GeoPoint;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.hydrologis.geopaparazzi.GeopaparazziApplication;
@@ -83,7 +85,8 @@ public class DaoBookmarks {
             values.put(COLUMN_SOUTHBOUND, south);
             values.put(COLUMN_WESTBOUND, west);
             values.put(COLUMN_EASTBOUND, east);
-            sqliteDatabase.insertOrThrow(TABLE_BOOKMARKS, null, values);
+            long id = sqliteDatabase.insertOrThrow(TABLE_BOOKMARKS, null, values);
+            DaoSearch.indexBookmark(sqliteDatabase, id, text);
 
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
@@ -108,6 +111,7 @@ public class DaoBookmarks {
             String query = "delete from " + TABLE_BOOKMARKS + " where " + COLUMN_ID + " = " + id;
             SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
             sqlUpdate.execute();
+            DaoSearch.deleteBookmark(sqliteDatabase, id);
 
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
@@ -142,6 +146,7 @@ public class DaoBookmarks {
             SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
             sqlUpdate.execute();
             sqlUpdate.close();
+            DaoSearch.indexBookmark(sqliteDatabase, id, newName);
 
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
@@ -228,6 +233,60 @@ public class DaoBookmarks {
         return bookmarks;
     }
 
+    /**
+     * Search the bookmarks by their name.
+     *
+     * @param text   the typed text.
+     * @param offset the position of the first bookmark of the page.
+     * @param limit  the maximum number of bookmarks of the page.
+     * @return the page of matching bookmarks, best match first.
+     * @throws IOException  if something goes wrong.
+     */
+    public static List<Bookmark> searchBookmarks( String text, int offset, int limit ) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        List<Long> ids = DaoSearch.searchBookmarks(sqliteDatabase, text, offset, limit);
+        List<Bookmark> bookmarks = new ArrayList<Bookmark>();
+        if (ids.size() == 0) {
+            return bookmarks;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for( Long id : ids ) {
+            if (sb.length() > 0)
+                sb.append(",");
+            sb.append(id);
+        }
+        String query = "SELECT _id, lon, lat, text, zoom, bnorth, bsouth, bwest, beast FROM " + TABLE_BOOKMARKS
+                + " WHERE _id IN (" + sb + ")";
+
+        Map<Long, Bookmark> bookmarksMap = new HashMap<Long, Bookmark>();
+        Cursor c = sqliteDatabase.rawQuery(query, null);
+        try {
+            while( c.moveToNext() ) {
+                long id = c.getLong(0);
+                double lon = c.getDouble(1);
+                double lat = c.getDouble(2);
+                String name = c.getString(3);
+                double zoom = c.getDouble(4);
+                double n = c.getDouble(5);
+                double s = c.getDouble(6);
+                double w = c.getDouble(7);
+                double e = c.getDouble(8);
+
+                bookmarksMap.put(id, new Bookmark(id, name, lon, lat, zoom, n, s, w, e));
+            }
+        } finally {
+            c.close();
+        }
+        // keep the rank order
+        for( Long id : ids ) {
+            Bookmark bookmark = bookmarksMap.get(id);
+            if (bookmark != null)
+                bookmarks.add(bookmark);
+        }
+        return bookmarks;
+    }
+
     /**
      * @param marker the marker to use.
      * @return the list of {@link OverlayItem}s
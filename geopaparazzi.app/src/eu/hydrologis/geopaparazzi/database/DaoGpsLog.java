@@ -22,7 +22,6 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
 import android.graphics.Paint;
-import android.location.Location;
 import android.util.Log;
 
 import com.vividsolutions.jts.geom.Coordinate;
@@ -37,6 +36,8 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.IGpsLogDbHelper;
@@ -51,6 +52,8 @@ import eu.geopaparazzi.library.util.TimeUtilities;
 import eu.hydrologis.geopaparazzi.GeopaparazziApplication;
 import eu.hydrologis.geopaparazzi.maps.LogMapItem;
 import eu.hydrologis.geopaparazzi.util.GpsLogInfo;
+import eu.hydrologis.geopaparazzi.util.GpsLogPoints;
+import eu.hydrologis.geopaparazzi.util.GpsLogStats;
 import eu.hydrologis.geopaparazzi.util.Line;
 
 import static eu.geopaparazzi.library.util.LibraryConstants.DEFAULT_LOG_WIDTH;
@@ -63,9 +66,32 @@ import static eu.hydrologis.geopaparazzi.database.TableDescriptions.TABLE_GPSLOG
 @SuppressWarnings("nls")
 public class DaoGpsLog implements IGpsLogDbHelper {
 
+    /**
+     * The maximum number of points kept in a block of the {@link TableDescriptions#TABLE_GPSLOG_BLOCKS} table.
+     */
+    public static final int BLOCK_SIZE = 128;
+
     private static SimpleDateFormat dateFormatter = TimeUtilities.INSTANCE.TIME_FORMATTER_SQLITE_UTC;
     private static SimpleDateFormat dateFormatterForLabelInLocalTime = TimeUtilities.INSTANCE.TIMESTAMPFORMATTER_LOCAL;
 
+    /*
+     * per database, the last block points were added to, see addPointToBlocks,
+     * and whether the point table is there, see hasDataTable
+     */
+    private static final Object openBlocksLock = new Object();
+    private static final Map<SQLiteDatabase, OpenBlock> openBlocks = new WeakHashMap<SQLiteDatabase, OpenBlock>();
+    private static final Map<SQLiteDatabase, Boolean> dataTables = new WeakHashMap<SQLiteDatabase, Boolean>();
+
+    private static class OpenBlock {
+        final GpsLogBlockCodec.OpenBlock points = new GpsLogBlockCodec.OpenBlock(BLOCK_SIZE);
+        final long logId;
+        long blockId = -1;
+
+        OpenBlock(long logId) {
+            this.logId = logId;
+        }
+    }
+
     /**
      * Create log tables.
      *
@@ -192,6 +218,580 @@ public class DaoGpsLog implements IGpsLogDbHelper {
 
     }
 
+    /**
+     * Create the table holding the blocks of encoded gps log points.
+     * <p/>
+     * <p>Points are stored in blocks of up to {@link #BLOCK_SIZE} points, encoded by
+     * the {@link GpsLogBlockCodec}, together with their bounds and time range. The
+     * last block of a log is rewritten as points are added, until it is full.</p>
+     * <p/>
+     * <p>The points are read from the blocks. They are also still written to the
+     * {@link TableDescriptions#TABLE_GPSLOG_DATA} table, which other tools reading the
+     * project database rely on, unless that has been dropped through {@link #dropDataTable(SQLiteDatabase)}.</p>
+     *
+     * @param sqliteDatabase the database to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void createBlocksTable(SQLiteDatabase sqliteDatabase) throws IOException {
+        StringBuilder sB = new StringBuilder();
+        sB.append("CREATE TABLE IF NOT EXISTS ");
+        sB.append(TABLE_GPSLOG_BLOCKS);
+        sB.append(" (");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_ID.getFieldName()).append(" INTEGER PRIMARY KEY AUTOINCREMENT, ");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName()).append(" INTEGER NOT NULL ");
+        sB.append("CONSTRAINT ");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName());
+        sB.append(" REFERENCES ");
+        sB.append(TABLE_GPSLOGS);
+        sB.append("(" + GpsLogsTableFields.COLUMN_ID.getFieldName() + ") ON DELETE CASCADE, ");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_POINTSCOUNT.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_FIRSTTS.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_LASTTS.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_MINLON.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_MINLAT.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_MAXLON.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_MAXLAT.getFieldName()).append(" REAL NOT NULL, ");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_DATA.getFieldName()).append(" BLOB NOT NULL");
+        sB.append(");");
+        String CREATE_TABLE_GPSLOGS_BLOCKS = sB.toString();
+
+        sB = new StringBuilder();
+        sB.append("CREATE INDEX IF NOT EXISTS gpslogsblocks_logid_ts_idx ON ");
+        sB.append(TABLE_GPSLOG_BLOCKS);
+        sB.append(" ( ");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName());
+        sB.append(", ");
+        sB.append(GpsLogsBlocksTableFields.COLUMN_FIRSTTS.getFieldName());
+        sB.append(" );");
+        String CREATE_INDEX_GPSLOGS_BLOCKS = sB.toString();
+
+        if (GPLog.LOG_ANDROID)
+            Log.i("DAOGPSLOG", "Create the gpslogs blocks table with: \n" + CREATE_TABLE_GPSLOGS_BLOCKS);
+        sqliteDatabase.beginTransaction();
+        try {
+            sqliteDatabase.execSQL(CREATE_TABLE_GPSLOGS_BLOCKS);
+            sqliteDatabase.execSQL(CREATE_INDEX_GPSLOGS_BLOCKS);
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Copy the points of the {@link TableDescriptions#TABLE_GPSLOG_DATA} table into blocks.
+     * <p/>
+     * <p>The points are copied log by log, replacing the blocks the log might have. The
+     * point table is kept.</p>
+     *
+     * @param sqliteDatabase the database to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void migrateToBlocks(SQLiteDatabase sqliteDatabase) throws IOException {
+        String logIdField = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName();
+        List<Long> logIds = new ArrayList<Long>();
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.rawQuery("select name from sqlite_master where type='table' and name='" + TABLE_GPSLOG_DATA
+                    + "'", null);
+            if (!c.moveToFirst()) {
+                // nothing to migrate
+                return;
+            }
+            c.close();
+            c = sqliteDatabase.rawQuery("select distinct " + logIdField + " from " + TABLE_GPSLOG_DATA, null);
+            while (c.moveToNext()) {
+                logIds.add(c.getLong(0));
+            }
+        } finally {
+            if (c != null)
+                c.close();
+        }
+
+        for (Long logId : logIds) {
+            sqliteDatabase.beginTransaction();
+            try {
+                GpsLogPoints points = getDataTablePoints(sqliteDatabase, logId);
+                sqliteDatabase.delete(TABLE_GPSLOG_BLOCKS, GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName() + "="
+                        + logId, null);
+                for (int from = 0; from < points.size(); from = from + BLOCK_SIZE) {
+                    writeBlock(sqliteDatabase, -1, logId, points, from, Math.min(from + BLOCK_SIZE, points.size()));
+                }
+                sqliteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
+                throw new IOException(e.getLocalizedMessage());
+            } finally {
+                sqliteDatabase.endTransaction();
+            }
+            if (GPLog.LOG_HEAVY)
+                GPLog.addLogEntry("DAOGPSLOG", "Copied the points of log " + logId + " to blocks.");
+        }
+        forgetOpenBlock(sqliteDatabase);
+    }
+
+    /**
+     * Drop the {@link TableDescriptions#TABLE_GPSLOG_DATA} table, after which the points
+     * are kept only in the blocks.
+     * <p/>
+     * <p>This is an explicit choice of the user, see {@link eu.hydrologis.geopaparazzi.util.Constants#PREFS_KEY_GPSLOG_DROP_DATA_TABLE},
+     * since tools reading the project database might expect the table.</p>
+     *
+     * @param sqliteDatabase the database to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void dropDataTable(SQLiteDatabase sqliteDatabase) throws IOException {
+        synchronized (openBlocksLock) {
+            try {
+                // the indexes of the table (gpslog_id_idx, gpslog_ts_idx, ...) go with it
+                sqliteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_GPSLOG_DATA);
+            } catch (Exception e) {
+                GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
+                throw new IOException(e.getLocalizedMessage());
+            }
+            dataTables.put(sqliteDatabase, Boolean.FALSE);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the points are still written to the {@link TableDescriptions#TABLE_GPSLOG_DATA} table.
+     */
+    private static boolean hasDataTable(SQLiteDatabase sqliteDatabase) {
+        synchronized (openBlocksLock) {
+            Boolean hasTable = dataTables.get(sqliteDatabase);
+            if (hasTable == null) {
+                Cursor c = sqliteDatabase.rawQuery("select name from sqlite_master where type='table' and name='"
+                        + TABLE_GPSLOG_DATA + "'", null);
+                try {
+                    hasTable = c.moveToFirst();
+                } finally {
+                    c.close();
+                }
+                dataTables.put(sqliteDatabase, hasTable);
+            }
+            return hasTable;
+        }
+    }
+
+    /**
+     * Read the points of a log from the {@link TableDescriptions#TABLE_GPSLOG_DATA} table.
+     */
+    private static GpsLogPoints getDataTablePoints(SQLiteDatabase sqliteDatabase, long logId) {
+        GpsLogPoints points = new GpsLogPoints();
+        String asColumnsToReturn[] = { //
+                GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), //
+                GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(), //
+                GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName(), //
+                GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() //
+        };
+        String strSortOrder = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
+        String strWhere = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, strWhere, null, null, null, strSortOrder);
+            while (c.moveToNext()) {
+                points.add(c.getDouble(0), c.getDouble(1), c.getDouble(2), c.getLong(3));
+            }
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        return points;
+    }
+
+    /**
+     * Get all the points of a log, ordered by timestamp.
+     *
+     * @param sqliteDatabase the database to use.
+     * @param logId          the id of the log.
+     * @return the points.
+     * @throws IOException if something goes wrong.
+     */
+    public static GpsLogPoints getLogPoints(SQLiteDatabase sqliteDatabase, long logId) throws IOException {
+        GpsLogPoints points = new GpsLogPoints();
+
+        String[] blockColumns = {GpsLogsBlocksTableFields.COLUMN_DATA.getFieldName()};
+        String blockWhere = GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
+        String blockOrder = GpsLogsBlocksTableFields.COLUMN_FIRSTTS.getFieldName() + ", "
+                + GpsLogsBlocksTableFields.COLUMN_ID.getFieldName();
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.query(TABLE_GPSLOG_BLOCKS, blockColumns, blockWhere, null, null, null, blockOrder);
+            while (c.moveToNext()) {
+                GpsLogBlockCodec.decode(c.getBlob(0), points);
+            }
+        } finally {
+            if (c != null)
+                c.close();
+        }
+
+        points.sortByTimestamp();
+        return points;
+    }
+
+    /**
+     * Add a point to the last block of a log, or to a new block if that is full
+     * or the point is older than its last point.
+     * <p/>
+     * <p>The last block is kept encoded in memory, one per database, so that it is read and decoded only
+     * when points start to be added to another log. It is written only if it still has the points it had
+     * when it was read, else it is read again.</p>
+     */
+    private static void addPointToBlocks(SQLiteDatabase sqliteDatabase, long logId, double lon, double lat,
+                                         double altim, long timestamp) throws IOException {
+        synchronized (openBlocksLock) {
+            OpenBlock openBlock = openBlocks.get(sqliteDatabase);
+            if (openBlock == null || openBlock.logId != logId) {
+                openBlock = readOpenBlock(sqliteDatabase, logId);
+            }
+            if (!addPointToOpenBlock(sqliteDatabase, openBlock, lon, lat, altim, timestamp)) {
+                // the block was changed by something else since it was read
+                openBlock = readOpenBlock(sqliteDatabase, logId);
+                if (!addPointToOpenBlock(sqliteDatabase, openBlock, lon, lat, altim, timestamp)) {
+                    openBlocks.remove(sqliteDatabase);
+                    throw new IOException("Unable to write the gps log block.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget the open block of a database, to be called whenever its blocks are changed
+     * other than by addPointToBlocks or a transaction adding points failed.
+     */
+    private static void forgetOpenBlock(SQLiteDatabase sqliteDatabase) {
+        synchronized (openBlocksLock) {
+            openBlocks.remove(sqliteDatabase);
+        }
+    }
+
+    /**
+     * Read the last block of a log into a new open block, which stays empty if the last block is full.
+     */
+    private static OpenBlock readOpenBlock(SQLiteDatabase sqliteDatabase, long logId) throws IOException {
+        openBlocks.remove(sqliteDatabase);
+        OpenBlock openBlock = new OpenBlock(logId);
+
+        String[] columns = {//
+                GpsLogsBlocksTableFields.COLUMN_ID.getFieldName(), //
+                GpsLogsBlocksTableFields.COLUMN_POINTSCOUNT.getFieldName(), //
+                GpsLogsBlocksTableFields.COLUMN_DATA.getFieldName() //
+        };
+        String where = GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
+        String order = GpsLogsBlocksTableFields.COLUMN_ID.getFieldName() + " DESC";
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.query(TABLE_GPSLOG_BLOCKS, columns, where, null, null, null, order, "1");
+            if (c.moveToFirst() && c.getInt(1) < BLOCK_SIZE) {
+                GpsLogPoints points = new GpsLogPoints(BLOCK_SIZE);
+                GpsLogBlockCodec.decode(c.getBlob(2), points);
+                for (int i = 0; i < points.size(); i++) {
+                    openBlock.points.add(points.getLon(i), points.getLat(i), points.getElev(i), points.getTimestamp(i));
+                }
+                openBlock.blockId = c.getLong(0);
+            }
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        openBlocks.put(sqliteDatabase, openBlock);
+        return openBlock;
+    }
+
+    /**
+     * Add a point to the open block and write it.
+     *
+     * @return <code>false</code> if the stored block no longer is the open block.
+     */
+    private static boolean addPointToOpenBlock(SQLiteDatabase sqliteDatabase, OpenBlock openBlock, double lon,
+                                               double lat, double altim, long timestamp) {
+        GpsLogBlockCodec.OpenBlock points = openBlock.points;
+        if (!points.accepts(timestamp)) {
+            openBlock.blockId = -1;
+            points.clear();
+        }
+        points.add(lon, lat, altim, timestamp);
+
+        ContentValues values = new ContentValues();
+        values.put(GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName(), openBlock.logId);
+        values.put(GpsLogsBlocksTableFields.COLUMN_POINTSCOUNT.getFieldName(), points.size());
+        values.put(GpsLogsBlocksTableFields.COLUMN_FIRSTTS.getFieldName(), points.getFirstTs());
+        values.put(GpsLogsBlocksTableFields.COLUMN_LASTTS.getFieldName(), points.getLastTs());
+        values.put(GpsLogsBlocksTableFields.COLUMN_MINLON.getFieldName(), points.getMinLon());
+        values.put(GpsLogsBlocksTableFields.COLUMN_MINLAT.getFieldName(), points.getMinLat());
+        values.put(GpsLogsBlocksTableFields.COLUMN_MAXLON.getFieldName(), points.getMaxLon());
+        values.put(GpsLogsBlocksTableFields.COLUMN_MAXLAT.getFieldName(), points.getMaxLat());
+        values.put(GpsLogsBlocksTableFields.COLUMN_DATA.getFieldName(), points.toBlock());
+        if (openBlock.blockId == -1) {
+            openBlock.blockId = sqliteDatabase.insertOrThrow(TABLE_GPSLOG_BLOCKS, null, values);
+            return true;
+        }
+        // a deleted, merged or rolled back block is not found
+        String where = GpsLogsBlocksTableFields.COLUMN_ID.getFieldName() + "=" + openBlock.blockId + " AND "
+                + GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName() + "=" + openBlock.logId + " AND "
+                + GpsLogsBlocksTableFields.COLUMN_POINTSCOUNT.getFieldName() + "=" + (points.size() - 1);
+        return sqliteDatabase.update(TABLE_GPSLOG_BLOCKS, values, where, null) == 1;
+    }
+
+    /**
+     * Insert a new block or, if the id is not -1, replace an existing one.
+     */
+    private static void writeBlock(SQLiteDatabase sqliteDatabase, long blockId, long logId, GpsLogPoints points, int from,
+                                   int to) {
+        double minLon = Double.POSITIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        long firstTs = Long.MAX_VALUE;
+        long lastTs = Long.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            double lon = points.getLon(i);
+            double lat = points.getLat(i);
+            long ts = points.getTimestamp(i);
+            if (lon < minLon) minLon = lon;
+            if (lon > maxLon) maxLon = lon;
+            if (lat < minLat) minLat = lat;
+            if (lat > maxLat) maxLat = lat;
+            if (ts < firstTs) firstTs = ts;
+            if (ts > lastTs) lastTs = ts;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName(), logId);
+        values.put(GpsLogsBlocksTableFields.COLUMN_POINTSCOUNT.getFieldName(), to - from);
+        values.put(GpsLogsBlocksTableFields.COLUMN_FIRSTTS.getFieldName(), firstTs);
+        values.put(GpsLogsBlocksTableFields.COLUMN_LASTTS.getFieldName(), lastTs);
+        values.put(GpsLogsBlocksTableFields.COLUMN_MINLON.getFieldName(), minLon);
+        values.put(GpsLogsBlocksTableFields.COLUMN_MINLAT.getFieldName(), minLat);
+        values.put(GpsLogsBlocksTableFields.COLUMN_MAXLON.getFieldName(), maxLon);
+        values.put(GpsLogsBlocksTableFields.COLUMN_MAXLAT.getFieldName(), maxLat);
+        values.put(GpsLogsBlocksTableFields.COLUMN_DATA.getFieldName(), GpsLogBlockCodec.encode(points, from, to));
+        if (blockId == -1) {
+            sqliteDatabase.insertOrThrow(TABLE_GPSLOG_BLOCKS, null, values);
+        } else {
+            sqliteDatabase.update(TABLE_GPSLOG_BLOCKS, values,
+                    GpsLogsBlocksTableFields.COLUMN_ID.getFieldName() + "=" + blockId, null);
+        }
+    }
+
+    /**
+     * Create the table holding the per log statistics.
+     *
+     * @param sqliteDatabase the database to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void createStatsTable(SQLiteDatabase sqliteDatabase) throws IOException {
+        StringBuilder sB = new StringBuilder();
+        sB.append("CREATE TABLE IF NOT EXISTS ");
+        sB.append(TABLE_GPSLOG_STATS);
+        sB.append(" (");
+        GpsLogsStatsTableFields[] fields = GpsLogsStatsTableFields.values();
+        for (int i = 0; i < fields.length; i++) {
+            GpsLogsStatsTableFields field = fields[i];
+            if (i > 0) {
+                sB.append(", ");
+            }
+            sB.append(field.getFieldName());
+            if (field == GpsLogsStatsTableFields.COLUMN_LOGID) {
+                sB.append(" INTEGER PRIMARY KEY CONSTRAINT ");
+                sB.append(field.getFieldName());
+                sB.append(" REFERENCES ");
+                sB.append(TABLE_GPSLOGS);
+                sB.append("(" + GpsLogsTableFields.COLUMN_ID.getFieldName() + ") ON DELETE CASCADE");
+            } else {
+                sB.append(field.getFieldClass() == Long.class ? " INTEGER" : " REAL");
+                if (isDefinedWithoutPoints(field)) {
+                    sB.append(" NOT NULL");
+                }
+            }
+        }
+        sB.append(");");
+        String CREATE_TABLE_GPSLOGS_STATS = sB.toString();
+
+        if (GPLog.LOG_ANDROID)
+            Log.i("DAOGPSLOG", "Create the gpslogs statistics table with: \n" + CREATE_TABLE_GPSLOGS_STATS);
+        try {
+            sqliteDatabase.execSQL(CREATE_TABLE_GPSLOGS_STATS);
+        } catch (Exception e) {
+            GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Create the table holding the per log statistics again and fill it.
+     *
+     * @param sqliteDatabase the database to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void recreateStatsTable(SQLiteDatabase sqliteDatabase) throws IOException {
+        try {
+            sqliteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_GPSLOG_STATS);
+        } catch (Exception e) {
+            GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        }
+        createStatsTable(sqliteDatabase);
+        createMissingLogStats(sqliteDatabase);
+    }
+
+    /**
+     * @return <code>true</code> for the statistics that have a value also for a log
+     * without points, the others are <code>null</code> then.
+     */
+    private static boolean isDefinedWithoutPoints(GpsLogsStatsTableFields field) {
+        return field == GpsLogsStatsTableFields.COLUMN_LOGID || field == GpsLogsStatsTableFields.COLUMN_POINTSCOUNT
+                || field == GpsLogsStatsTableFields.COLUMN_LENGTHM || field == GpsLogsStatsTableFields.COLUMN_ELEVGAIN
+                || field == GpsLogsStatsTableFields.COLUMN_ELEVLOSS;
+    }
+
+    /**
+     * Create the statistics of the logs that have none yet.
+     * <p/>
+     * <p>This reads the points of those logs once, after that the statistics are
+     * updated as points are added.</p>
+     *
+     * @param sqliteDatabase the database to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void createMissingLogStats(SQLiteDatabase sqliteDatabase) throws IOException {
+        String idField = GpsLogsTableFields.COLUMN_ID.getFieldName();
+        String query = "select " + idField + " from " + TABLE_GPSLOGS + " where " + idField + " not in (select "
+                + GpsLogsStatsTableFields.COLUMN_LOGID.getFieldName() + " from " + TABLE_GPSLOG_STATS + ")";
+        List<Long> logIds = new ArrayList<Long>();
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.rawQuery(query, null);
+            while (c.moveToNext()) {
+                logIds.add(c.getLong(0));
+            }
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        sqliteDatabase.beginTransaction();
+        try {
+            for (Long logId : logIds) {
+                writeLogStats(sqliteDatabase, computeLogStats(sqliteDatabase, logId));
+            }
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Get the statistics of a log.
+     *
+     * @param logId the id of the log.
+     * @return the statistics.
+     * @throws IOException if something goes wrong.
+     */
+    public static GpsLogStats getLogStats(long logId) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        GpsLogStats stats = readLogStats(sqliteDatabase, logId);
+        if (stats == null) {
+            stats = computeLogStats(sqliteDatabase, logId);
+            writeLogStats(sqliteDatabase, stats);
+        }
+        return stats;
+    }
+
+    private static GpsLogStats readLogStats(SQLiteDatabase sqliteDatabase, long logId) {
+        GpsLogsStatsTableFields[] fields = GpsLogsStatsTableFields.values();
+        String[] columns = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            columns[i] = fields[i].getFieldName();
+        }
+        String where = GpsLogsStatsTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.query(TABLE_GPSLOG_STATS, columns, where, null, null, null, null);
+            if (!c.moveToFirst()) {
+                return null;
+            }
+            int i = 1;
+            GpsLogStats stats = new GpsLogStats(logId);
+            stats.pointsCount = c.getLong(i++);
+            if (stats.pointsCount == 0) {
+                // the other statistics are null
+                return stats;
+            }
+            stats.minLon = c.getDouble(i++);
+            stats.minLat = c.getDouble(i++);
+            stats.maxLon = c.getDouble(i++);
+            stats.maxLat = c.getDouble(i++);
+            stats.minElev = c.getDouble(i++);
+            stats.maxElev = c.getDouble(i++);
+            stats.lengthm = c.getDouble(i++);
+            stats.elevGain = c.getDouble(i++);
+            stats.elevLoss = c.getDouble(i++);
+            stats.firstLon = c.getDouble(i++);
+            stats.firstLat = c.getDouble(i++);
+            stats.firstElev = c.getDouble(i++);
+            stats.firstTs = c.getLong(i++);
+            stats.lastLon = c.getDouble(i++);
+            stats.lastLat = c.getDouble(i++);
+            stats.lastElev = c.getDouble(i++);
+            stats.lastTs = c.getLong(i);
+            return stats;
+        } finally {
+            if (c != null)
+                c.close();
+        }
+    }
+
+    private static void writeLogStats(SQLiteDatabase sqliteDatabase, GpsLogStats stats) {
+        ContentValues values = new ContentValues();
+        values.put(GpsLogsStatsTableFields.COLUMN_LOGID.getFieldName(), stats.logId);
+        values.put(GpsLogsStatsTableFields.COLUMN_POINTSCOUNT.getFieldName(), stats.pointsCount);
+        values.put(GpsLogsStatsTableFields.COLUMN_LENGTHM.getFieldName(), stats.lengthm);
+        values.put(GpsLogsStatsTableFields.COLUMN_ELEVGAIN.getFieldName(), stats.elevGain);
+        values.put(GpsLogsStatsTableFields.COLUMN_ELEVLOSS.getFieldName(), stats.elevLoss);
+        if (stats.pointsCount == 0) {
+            // no bounds and no first or last point
+            for (GpsLogsStatsTableFields field : GpsLogsStatsTableFields.values()) {
+                if (!isDefinedWithoutPoints(field)) {
+                    values.putNull(field.getFieldName());
+                }
+            }
+            sqliteDatabase.insertWithOnConflict(TABLE_GPSLOG_STATS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            return;
+        }
+        values.put(GpsLogsStatsTableFields.COLUMN_MINLON.getFieldName(), stats.minLon);
+        values.put(GpsLogsStatsTableFields.COLUMN_MINLAT.getFieldName(), stats.minLat);
+        values.put(GpsLogsStatsTableFields.COLUMN_MAXLON.getFieldName(), stats.maxLon);
+        values.put(GpsLogsStatsTableFields.COLUMN_MAXLAT.getFieldName(), stats.maxLat);
+        values.put(GpsLogsStatsTableFields.COLUMN_MINELEV.getFieldName(), stats.minElev);
+        values.put(GpsLogsStatsTableFields.COLUMN_MAXELEV.getFieldName(), stats.maxElev);
+        values.put(GpsLogsStatsTableFields.COLUMN_FIRSTLON.getFieldName(), stats.firstLon);
+        values.put(GpsLogsStatsTableFields.COLUMN_FIRSTLAT.getFieldName(), stats.firstLat);
+        values.put(GpsLogsStatsTableFields.COLUMN_FIRSTELEV.getFieldName(), stats.firstElev);
+        values.put(GpsLogsStatsTableFields.COLUMN_FIRSTTS.getFieldName(), stats.firstTs);
+        values.put(GpsLogsStatsTableFields.COLUMN_LASTLON.getFieldName(), stats.lastLon);
+        values.put(GpsLogsStatsTableFields.COLUMN_LASTLAT.getFieldName(), stats.lastLat);
+        values.put(GpsLogsStatsTableFields.COLUMN_LASTELEV.getFieldName(), stats.lastElev);
+        values.put(GpsLogsStatsTableFields.COLUMN_LASTTS.getFieldName(), stats.lastTs);
+        sqliteDatabase.insertWithOnConflict(TABLE_GPSLOG_STATS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Compute the statistics of a log from its points.
+     */
+    private static GpsLogStats computeLogStats(SQLiteDatabase sqliteDatabase, long logId) throws IOException {
+        GpsLogPoints points = getLogPoints(sqliteDatabase, logId);
+        GpsLogStats stats = new GpsLogStats(logId);
+        for (int i = 0; i < points.size(); i++) {
+            stats.addPoint(points.getLon(i), points.getLat(i), points.getElev(i), points.getTimestamp(i));
+        }
+        return stats;
+    }
+
     public SQLiteDatabase getDatabase() throws Exception {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
         return sqliteDatabase;
@@ -252,13 +852,53 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             return;
         }
 
-        ContentValues values = new ContentValues();
-        values.put(GpsLogsDataTableFields.COLUMN_LOGID.getFieldName(), (int) gpslogId);
-        values.put(GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), lon);
-        values.put(GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(), lat);
-        values.put(GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName(), altim);
-        values.put(GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName(), timestamp);
-        sqliteDatabase.insertOrThrow(TABLE_GPSLOG_DATA, null, values);
+        // the point and the statistics are written together, so that they never disagree
+        sqliteDatabase.beginTransaction();
+        try {
+            GpsLogStats stats = readLogStats(sqliteDatabase, gpslogId);
+            if (stats == null) {
+                stats = computeLogStats(sqliteDatabase, gpslogId);
+            }
+
+            addPointToBlocks(sqliteDatabase, gpslogId, lon, lat, altim, timestamp);
+            if (hasDataTable(sqliteDatabase)) {
+                ContentValues values = new ContentValues();
+                values.put(GpsLogsDataTableFields.COLUMN_LOGID.getFieldName(), (int) gpslogId);
+                values.put(GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), lon);
+                values.put(GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(), lat);
+                values.put(GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName(), altim);
+                values.put(GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName(), timestamp);
+                sqliteDatabase.insertOrThrow(TABLE_GPSLOG_DATA, null, values);
+            }
+
+            if (stats.pointsCount > 0 && timestamp < stats.lastTs) {
+                // the point does not go at the end of the log
+                stats = computeLogStats(sqliteDatabase, gpslogId);
+            } else {
+                stats.addPoint(lon, lat, altim, timestamp);
+            }
+            writeLogStats(sqliteDatabase, stats);
+            markLogDirty(sqliteDatabase, gpslogId);
+
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            // the open block is rolled back with the transaction
+            forgetOpenBlock(sqliteDatabase);
+            GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Set the dirty flag of a log, so that its new points are synced also if it
+     * is being synced right now.
+     */
+    private static void markLogDirty(SQLiteDatabase sqliteDatabase, long logId) {
+        String dirtyField = GpsLogsTableFields.COLUMN_LOG_ISDIRTY.getFieldName();
+        sqliteDatabase.execSQL("UPDATE " + TABLE_GPSLOGS + " SET " + dirtyField + "=" + DaoSync.DIRTY + " WHERE "
+                + GpsLogsTableFields.COLUMN_ID.getFieldName() + "=" + logId + " AND " + dirtyField + "<>" + DaoSync.DIRTY);
     }
 
     /**
@@ -284,13 +924,18 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             sqlUpdate.close();
 
             // delete data
-            query = "delete from " + TABLE_GPSLOG_DATA + " where " + GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + " = " + id;
-            sqlUpdate = sqliteDatabase.compileStatement(query);
-            sqlUpdate.execute();
-            sqlUpdate.close();
+            forgetOpenBlock(sqliteDatabase);
+            sqliteDatabase.delete(TABLE_GPSLOG_BLOCKS, GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName() + " = " + id, null);
+            if (hasDataTable(sqliteDatabase)) {
+                sqliteDatabase.delete(TABLE_GPSLOG_DATA, GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + " = " + id, null);
+            }
+
+            // delete statistics
+            sqliteDatabase.delete(TABLE_GPSLOG_STATS, GpsLogsStatsTableFields.COLUMN_LOGID.getFieldName() + " = " + id, null);
 
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
+            forgetOpenBlock(sqliteDatabase);
             GPLog.error("DOAGPSLOG", e.getLocalizedMessage(), e);
             throw new IOException(e.getLocalizedMessage());
         } finally {
@@ -315,7 +960,8 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             sb.append("UPDATE ");
             sb.append(TABLE_GPSLOGS);
             sb.append(" SET ");
-            sb.append(GpsLogsTableFields.COLUMN_LOG_ENDTS.getFieldName()).append("=").append(endTimestamp);
+            sb.append(GpsLogsTableFields.COLUMN_LOG_ENDTS.getFieldName()).append("=").append(endTimestamp).append(", ");
+            sb.append(GpsLogsTableFields.COLUMN_LOG_ISDIRTY.getFieldName()).append("=1");
             sb.append(" WHERE ").append(GpsLogsTableFields.COLUMN_ID.getFieldName()).append("=").append(logId);
 
             String query = sb.toString();
@@ -344,7 +990,8 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             sb.append("UPDATE ");
             sb.append(TABLE_GPSLOGS);
             sb.append(" SET ");
-            sb.append(GpsLogsTableFields.COLUMN_LOG_LENGTHM.getFieldName()).append("=").append(lengthm).append(" ");
+            sb.append(GpsLogsTableFields.COLUMN_LOG_LENGTHM.getFieldName()).append("=").append(lengthm).append(", ");
+            sb.append(GpsLogsTableFields.COLUMN_LOG_ISDIRTY.getFieldName()).append("=1 ");
             sb.append("WHERE ").append(GpsLogsTableFields.COLUMN_ID.getFieldName()).append("=").append(logid);
 
             String query = sb.toString();
@@ -532,42 +1179,22 @@ public class DaoGpsLog implements IGpsLogDbHelper {
 
     private static List<GeoPoint> getGpslogGeoPoints(SQLiteDatabase sqliteDatabase, long logId, int pointsNum)
             throws IOException {
+        GpsLogPoints points = getLogPoints(sqliteDatabase, logId);
+        int count = points.size();
+        int jump = 1;
+        if (pointsNum != -1 && count > pointsNum) {
+            jump = (int) Math.ceil((double) count / pointsNum);
+        }
 
-        String asColumnsToReturn[] = {GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName()};
-        String strSortOrder = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
-        String strWhere = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
-        Cursor c = null;
-        try {
-            c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, strWhere, null, null, null, strSortOrder);
-            int count = c.getCount();
-            int jump = 0;
-            if (pointsNum != -1 && count > pointsNum) {
-                jump = (int) Math.ceil((double) count / pointsNum);
-            }
-
-            c.moveToFirst();
-            List<GeoPoint> line = new ArrayList<GeoPoint>();
-            while (!c.isAfterLast()) {
-                double lon = c.getDouble(0);
-                double lat = c.getDouble(1);
-                try {
-                    line.add(new GeoPoint(lat, lon));
-                } catch (Exception e) {
-                    // ignore invalid coordinates
-                }
-                c.moveToNext();
-                for (int i = 1; i < jump; i++) {
-                    c.moveToNext();
-                    if (c.isAfterLast()) {
-                        break;
-                    }
-                }
+        List<GeoPoint> line = new ArrayList<GeoPoint>();
+        for (int i = 0; i < count; i = i + jump) {
+            try {
+                line.add(new GeoPoint(points.getLat(i), points.getLon(i)));
+            } catch (Exception e) {
+                // ignore invalid coordinates
             }
-            return line;
-        } finally {
-            if (c != null)
-                c.close();
         }
+        return line;
     }
 
     /**
@@ -608,7 +1235,8 @@ public class DaoGpsLog implements IGpsLogDbHelper {
                 sb.append("UPDATE ");
                 sb.append(TABLE_GPSLOGS);
                 sb.append(" SET ");
-                sb.append(GpsLogsTableFields.COLUMN_LOG_TEXT.getFieldName()).append("='").append(name).append("' ");
+                sb.append(GpsLogsTableFields.COLUMN_LOG_TEXT.getFieldName()).append("='").append(name).append("', ");
+                sb.append(GpsLogsTableFields.COLUMN_LOG_ISDIRTY.getFieldName()).append("=1 ");
                 sb.append("WHERE ").append(GpsLogsTableFields.COLUMN_ID.getFieldName()).append("=").append(logid);
 
                 query = sb.toString();
@@ -673,6 +1301,13 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
         sqliteDatabase.beginTransaction();
         try {
+            GpsLogStats removedStats = readLogStats(sqliteDatabase, logidToRemove);
+            if (removedStats == null)
+                removedStats = computeLogStats(sqliteDatabase, logidToRemove);
+            GpsLogStats destinationStats = readLogStats(sqliteDatabase, destinationLogId);
+            if (destinationStats == null)
+                destinationStats = computeLogStats(sqliteDatabase, destinationLogId);
+
 
             StringBuilder sb = new StringBuilder();
             sb.append("delete from ");
@@ -698,23 +1333,49 @@ public class DaoGpsLog implements IGpsLogDbHelper {
             sqlUpdate.execute();
             sqlUpdate.close();
 
+            // the last block of the destination is not the last one any more
+            forgetOpenBlock(sqliteDatabase);
+            ContentValues blockValues = new ContentValues();
+            blockValues.put(GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName(), destinationLogId);
+            sqliteDatabase.update(TABLE_GPSLOG_BLOCKS, blockValues,
+                    GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName() + "=" + logidToRemove, null);
+            if (hasDataTable(sqliteDatabase)) {
+                ContentValues dataValues = new ContentValues();
+                dataValues.put(GpsLogsDataTableFields.COLUMN_LOGID.getFieldName(), destinationLogId);
+                sqliteDatabase.update(TABLE_GPSLOG_DATA, dataValues,
+                        GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logidToRemove, null);
+            }
+
+            // the destination log changed and needs to be synced
             sb = new StringBuilder();
             sb.append("UPDATE ");
-            sb.append(TABLE_GPSLOG_DATA);
+            sb.append(TABLE_GPSLOGS);
             sb.append(" SET ");
-            sb.append(GpsLogsDataTableFields.COLUMN_LOGID.getFieldName()).append("='").append(destinationLogId).append("' ");
-            sb.append("WHERE ").append(GpsLogsDataTableFields.COLUMN_LOGID.getFieldName()).append("=").append(logidToRemove);
-
+            sb.append(GpsLogsTableFields.COLUMN_LOG_ISDIRTY.getFieldName()).append("=1 ");
+            sb.append("WHERE ").append(GpsLogsTableFields.COLUMN_ID.getFieldName()).append("=").append(destinationLogId);
             query = sb.toString();
-            if (GPLog.LOG_HEAVY)
-                GPLog.addLogEntry("DAOGPSLOG", query);
-            // sqliteDatabase.execSQL(query);
             sqlUpdate = sqliteDatabase.compileStatement(query);
             sqlUpdate.execute();
             sqlUpdate.close();
 
+            // merge the statistics, reading the points only if the logs overlap in time
+            if (!destinationStats.append(removedStats)) {
+                // the points are not appended, the server needs the whole log again
+                DaoSync.forgetSyncedPoints(sqliteDatabase, destinationLogId);
+                if (removedStats.append(destinationStats)) {
+                    removedStats.logId = destinationLogId;
+                    destinationStats = removedStats;
+                } else {
+                    destinationStats = computeLogStats(sqliteDatabase, destinationLogId);
+                }
+            }
+            writeLogStats(sqliteDatabase, destinationStats);
+            sqliteDatabase.delete(TABLE_GPSLOG_STATS,
+                    GpsLogsStatsTableFields.COLUMN_LOGID.getFieldName() + " = " + logidToRemove, null);
+
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
+            forgetOpenBlock(sqliteDatabase);
             GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
             throw new IOException(e.getLocalizedMessage());
         } finally {
@@ -811,36 +1472,30 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
         LinkedHashMap<Long, Line> linesMap = new LinkedHashMap<Long, Line>();
 
-        String asColumnsToReturn[] = {//
-                GpsLogsDataTableFields.COLUMN_LOGID.getFieldName(),//
-                GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(),//
-                GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(),//
-                GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName(),//
-                GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName()//
-        };
-        String strSortOrder = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "," + GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
+        List<Long> logIds = new ArrayList<Long>();
+        String[] columns = {GpsLogsTableFields.COLUMN_ID.getFieldName()};
         Cursor c = null;
         try {
-            c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, null, null, null, null, strSortOrder);
-            c.moveToFirst();
-            while (!c.isAfterLast()) {
-                long logid = c.getLong(0);
-                double lon = c.getDouble(1);
-                double lat = c.getDouble(2);
-                double altim = c.getDouble(3);
-                String date = c.getString(4);
-                Line line = linesMap.get(logid);
-                if (line == null) {
-                    line = new Line("log_" + logid);
-                    linesMap.put(logid, line);
-                }
-                line.addPoint(lon, lat, altim, date);
-                c.moveToNext();
+            c = sqliteDatabase.query(TABLE_GPSLOGS, columns, null, null, null, null, GpsLogsTableFields.COLUMN_ID.getFieldName());
+            while (c.moveToNext()) {
+                logIds.add(c.getLong(0));
             }
         } finally {
             if (c != null)
                 c.close();
         }
+
+        for (Long logid : logIds) {
+            GpsLogPoints points = getLogPoints(sqliteDatabase, logid);
+            if (points.size() == 0) {
+                continue;
+            }
+            Line line = new Line("log_" + logid);
+            for (int i = 0; i < points.size(); i++) {
+                line.addPoint(points.getLon(i), points.getLat(i), points.getElev(i), String.valueOf(points.getTimestamp(i)));
+            }
+            linesMap.put(logid, line);
+        }
         return linesMap;
     }
 
@@ -858,12 +1513,6 @@ public class DaoGpsLog implements IGpsLogDbHelper {
     public static STRtree getGpsLogInfoTree(double n, double s, double e, double w) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
 
-        String idField1 = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName();
-        String lonField = GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName();
-        String latField = GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName();
-        String altimField = GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName();
-        String tsField = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName();
-
         String idField = GpsLogsTableFields.COLUMN_ID.getFieldName();
         String nameField = GpsLogsTableFields.COLUMN_LOG_TEXT.getFieldName();
 
@@ -871,38 +1520,45 @@ public class DaoGpsLog implements IGpsLogDbHelper {
         String colorField = GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_COLOR.getFieldName();
         String visibleField = GpsLogsPropertiesTableFields.COLUMN_PROPERTIES_VISIBLE.getFieldName();
 
-
-        String sql = "select d." + lonField + ", d." + latField + ", d." + altimField + ", d." + tsField +
-                ", g." + nameField + ", p." + colorField + ", p." + visibleField +
-                " from " + TableDescriptions.TABLE_GPSLOG_DATA + " d, " + TableDescriptions.TABLE_GPSLOGS +
-                " g, " + TableDescriptions.TABLE_GPSLOG_PROPERTIES + " p where " +
-                "d." + idField1 + "=g." + idField + " and p." + idField2 + "=g." + idField + " and " +
-                "d." + lonField + " > " + w + " and d." + lonField + " < " + e + " and " +
-                "d." + latField + " > " + s + " and d." + latField + " < " + n;
-
         STRtree tree = new STRtree();
         Cursor c = null;
+
+        /*
+         * the points are stored in blocks, only the blocks touching the area are decoded
+         */
+        String blockIdField = GpsLogsBlocksTableFields.COLUMN_LOGID.getFieldName();
+        String blockMinLonField = GpsLogsBlocksTableFields.COLUMN_MINLON.getFieldName();
+        String blockMaxLonField = GpsLogsBlocksTableFields.COLUMN_MAXLON.getFieldName();
+        String blockMinLatField = GpsLogsBlocksTableFields.COLUMN_MINLAT.getFieldName();
+        String blockMaxLatField = GpsLogsBlocksTableFields.COLUMN_MAXLAT.getFieldName();
+        String blocksSql = "select b." + GpsLogsBlocksTableFields.COLUMN_DATA.getFieldName() +
+                ", g." + nameField + ", p." + colorField +
+                " from " + TableDescriptions.TABLE_GPSLOG_BLOCKS + " b, " + TableDescriptions.TABLE_GPSLOGS +
+                " g, " + TableDescriptions.TABLE_GPSLOG_PROPERTIES + " p where " +
+                "b." + blockIdField + "=g." + idField + " and p." + idField2 + "=g." + idField + " and " +
+                "p." + visibleField + "=1 and " +
+                "b." + blockMaxLonField + " > " + w + " and b." + blockMinLonField + " < " + e + " and " +
+                "b." + blockMaxLatField + " > " + s + " and b." + blockMinLatField + " < " + n;
+        GpsLogPoints points = new GpsLogPoints(BLOCK_SIZE);
         try {
-            c = sqliteDatabase.rawQuery(sql, null);
-            c.moveToFirst();
-            while (!c.isAfterLast()) {
-                int i = 0;
-                double lon = c.getDouble(i++);
-                double lat = c.getDouble(i++);
-                double altim = c.getDouble(i++);
-                long ts = c.getLong(i++);
-                String name = c.getString(i++);
-                String color = c.getString(i++);
-                int visible = c.getInt(i++);
-                if (visible == 1) {
-                    GpsLogInfo gli = new GpsLogInfo();
-                    gli.pointXYZ = new Coordinate(lon, lat, altim);
-                    gli.timestamp = ts;
-                    gli.logName = name;
-                    gli.color = color;
-                    tree.insert(new Envelope(gli.pointXYZ), gli);
+            c = sqliteDatabase.rawQuery(blocksSql, null);
+            while (c.moveToNext()) {
+                String name = c.getString(1);
+                String color = c.getString(2);
+                points.clear();
+                GpsLogBlockCodec.decode(c.getBlob(0), points);
+                for (int i = 0; i < points.size(); i++) {
+                    double lon = points.getLon(i);
+                    double lat = points.getLat(i);
+                    if (lon > w && lon < e && lat > s && lat < n) {
+                        GpsLogInfo gli = new GpsLogInfo();
+                        gli.pointXYZ = new Coordinate(lon, lat, points.getElev(i));
+                        gli.timestamp = points.getTimestamp(i);
+                        gli.logName = name;
+                        gli.color = color;
+                        tree.insert(new Envelope(gli.pointXYZ), gli);
+                    }
                 }
-                c.moveToNext();
             }
         } finally {
             if (c != null)
@@ -922,46 +1578,18 @@ public class DaoGpsLog implements IGpsLogDbHelper {
      */
     public static Line getGpslogAsLine(long logId, int pointsNum) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        GpsLogPoints points = getLogPoints(sqliteDatabase, logId);
+        int count = points.size();
+        int jump = 1;
+        if (pointsNum != -1 && count > pointsNum) {
+            jump = (int) Math.ceil((double) count / pointsNum);
+        }
 
-        String asColumnsToReturn[] = {//
-                GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), //
-                GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(), //
-                GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName(),//
-                GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName()//
-        };
-        String strSortOrder = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
-        String strWhere = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
-        Cursor c = null;
-        try {
-            c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, strWhere, null, null, null, strSortOrder);
-            int count = c.getCount();
-            int jump = 0;
-            if (pointsNum != -1 && count > pointsNum) {
-                jump = (int) Math.ceil((double) count / pointsNum);
-            }
-
-            c.moveToFirst();
-            Line line = new Line("log_" + logId);
-            while (!c.isAfterLast()) {
-                double lon = c.getDouble(0);
-                double lat = c.getDouble(1);
-
-                double altim = c.getDouble(2);
-                String date = c.getString(3);
-                line.addPoint(lon, lat, altim, date);
-                c.moveToNext();
-                for (int i = 1; i < jump; i++) {
-                    c.moveToNext();
-                    if (c.isAfterLast()) {
-                        break;
-                    }
-                }
-            }
-            return line;
-        } finally {
-            if (c != null)
-                c.close();
+        Line line = new Line("log_" + logId);
+        for (int i = 0; i < count; i = i + jump) {
+            line.addPoint(points.getLon(i), points.getLat(i), points.getElev(i), String.valueOf(points.getTimestamp(i)));
         }
+        return line;
     }
 
     /**
@@ -972,30 +1600,11 @@ public class DaoGpsLog implements IGpsLogDbHelper {
      * @throws IOException if something goes wrong.
      */
     public static double[] getGpslogFirstPoint(long logId) throws IOException {
-        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
-
-        String asColumnsToReturn[] = {//
-                GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), //
-                GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(), //
-                GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName(), //
-                GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() //
-        };
-        String strSortOrder = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
-        String strWhere = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
-        Cursor c = null;
-        try {
-            c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, strWhere, null, null, null, strSortOrder, "1");
-            c.moveToFirst();
-            double[] lonLat = new double[2];
-            if (!c.isAfterLast()) {
-                lonLat[0] = c.getDouble(0);
-                lonLat[1] = c.getDouble(1);
-            }
-            return lonLat;
-        } finally {
-            if (c != null)
-                c.close();
+        GpsLogStats stats = getLogStats(logId);
+        if (stats.pointsCount == 0) {
+            return new double[2];
         }
+        return new double[]{stats.firstLon, stats.firstLat};
     }
 
     /**
@@ -1006,31 +1615,11 @@ public class DaoGpsLog implements IGpsLogDbHelper {
      * @throws IOException if something goes wrong.
      */
     public static double[] getGpslogLastPoint(long logId) throws IOException {
-        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
-
-        String asColumnsToReturn[] = {//
-                GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), //
-                GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(), //
-                GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName(), //
-                GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() //
-        };
-        String strSortOrder = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " DESC";
-        String strWhere = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
-        Cursor c = null;
-        try {
-            c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, strWhere, null, null, null, strSortOrder, "1");
-            c.moveToFirst();
-            double[] lonLat = new double[2];
-            while (!c.isAfterLast()) {
-                lonLat[0] = c.getDouble(0);
-                lonLat[1] = c.getDouble(1);
-                break;
-            }
-            return lonLat;
-        } finally {
-            if (c != null)
-                c.close();
+        GpsLogStats stats = getLogStats(logId);
+        if (stats.pointsCount == 0) {
+            return new double[2];
         }
+        return new double[]{stats.lastLon, stats.lastLat};
     }
 
     /**
@@ -1247,85 +1836,35 @@ public class DaoGpsLog implements IGpsLogDbHelper {
 
     /**
      * update the length of a log
+     * <p/>
+     * <p>The statistics of the log are recomputed from its points along the way.</p>
      *
      * @param logId the id of the log.
      * @return log length as double
      * @throws IOException if something goes wrong.
      */
     public static double updateLogLength(long logId) throws IOException {
-
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        sqliteDatabase.beginTransaction();
         try {
-            // get the log data, sum up the distances
-            SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
-            String asColumnsToReturn[] = { //
-                    GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(), //
-                    GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(), //
-                    GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() //
-            };
-            String strSortOrder = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
-            String strWhere = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + "=" + logId;
-            Cursor c = null;
-            double summedDistance = 0.0;
-            double lon = 0.0;
-            double lat = 0.0;
-            double prevLon = 0.0;
-            double prevLat = 0.0;
-
-            if (GPLog.LOG_ABSURD)
-                GPLog.addLogEntry("DAOGPSLOG", strWhere);
-            try {
-                c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, strWhere, null, null, null, strSortOrder);
-                c.moveToFirst();
-                while (!c.isAfterLast()) {
-                    lon = c.getDouble(0);
-                    lat = c.getDouble(1);
-
-                    Location newLoc = new Location("tempLoc1"); //$NON-NLS-1$
-                    newLoc.setLongitude(lon);
-                    newLoc.setLatitude(lat);
-                    Location prevLoc = new Location("tempLoc2"); //$NON-NLS-1$
-
-                    if (GPLog.LOG_ABSURD) {
-                        GPLog.addLogEntry("DAOGPSLOG", "lon: " + String.valueOf(lon));
-                        GPLog.addLogEntry("DAOGPSLOG", "lat: " + String.valueOf(lat));
-                        GPLog.addLogEntry("DAOGPSLOG", "prevlon: " + String.valueOf(prevLon));
-                        GPLog.addLogEntry("DAOGPSLOG", "prevlat: " + String.valueOf(prevLat));
-                    }
-                    if (prevLon == 0.0) {
-                        prevLon = lon;
-                        prevLat = lat;
-                    }
-                    prevLoc.setLongitude(prevLon);
-                    prevLoc.setLatitude(prevLat);
-                    double lastDistance = newLoc.distanceTo(prevLoc);
-                    if (GPLog.LOG_ABSURD) {
-                        GPLog.addLogEntry("DAOGPSLOG", "distance: " + String.valueOf(lastDistance));
-                    }
-                    summedDistance = summedDistance + lastDistance;
-                    prevLon = lon;
-                    prevLat = lat;
-
-                    c.moveToNext();
-                }
-            } finally {
-                if (c != null)
-                    c.close();
-            }
+            GpsLogStats stats = computeLogStats(sqliteDatabase, logId);
+            writeLogStats(sqliteDatabase, stats);
 
             // update the gpslogs table with the summed distance
-            sqliteDatabase.beginTransaction();
-            String query = "update " + TABLE_GPSLOGS + " set lengthm = " + summedDistance + " where " + GpsLogsTableFields.COLUMN_ID.getFieldName() + " = " + logId;
+            String query = "update " + TABLE_GPSLOGS + " set " + GpsLogsTableFields.COLUMN_LOG_LENGTHM.getFieldName() + " = "
+                    + stats.lengthm + ", " + GpsLogsTableFields.COLUMN_LOG_ISDIRTY.getFieldName() + " = 1 where " + GpsLogsTableFields.COLUMN_ID.getFieldName() + " = " + logId;
             SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
             sqlUpdate.execute();
             sqlUpdate.close();
             sqliteDatabase.setTransactionSuccessful();
-            sqliteDatabase.endTransaction();
 
             // send the summed distance back so we don't have to query the table again
-            return (summedDistance);
-        } catch (IOException e) {
-            GPLog.error("DAOMAPS", e.getLocalizedMessage(), e);
+            return stats.lengthm;
+        } catch (Exception e) {
+            GPLog.error("DAOGPSLOG", e.getLocalizedMessage(), e);
             throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
         }
     }
 }
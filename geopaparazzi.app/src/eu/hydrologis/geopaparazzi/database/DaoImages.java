@@ -21,6 +21,8 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.drawable.Drawable;
 import android.util.Log;
 
@@ -29,10 +31,12 @@ import org.mapsforge.core.model.GeoPoint;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.Exception;
 import java.util.ArrayList;
 import java.util.List;
 
+import eu.geopaparazzi.library.database.ChunkedBlobInputStream;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.IImagesDbHelper;
 import eu.geopaparazzi.library.images.ImageUtilities;
@@ -148,6 +152,51 @@ public class DaoImages implements IImagesDbHelper {
     }
 
 
+    /**
+     * Create the table holding the lazily created image renditions.
+     *
+     * @param sqliteDatabase the db to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void createRenditionsTable(SQLiteDatabase sqliteDatabase) throws IOException {
+        StringBuilder sB = new StringBuilder();
+        sB.append("CREATE TABLE IF NOT EXISTS ");
+        sB.append(TABLE_IMAGE_RENDITIONS);
+        sB.append(" (");
+        sB.append(ImageRenditionsTableFields.COLUMN_ID.getFieldName());
+        sB.append(" INTEGER PRIMARY KEY AUTOINCREMENT, ");
+        sB.append(ImageRenditionsTableFields.COLUMN_IMAGEDATA_ID.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(ImageRenditionsTableFields.COLUMN_SIZE.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(ImageRenditionsTableFields.COLUMN_DATA.getFieldName()).append(" BLOB NOT NULL");
+        sB.append(");");
+        String CREATE_TABLE_RENDITIONS = sB.toString();
+
+        sB = new StringBuilder();
+        sB.append("CREATE UNIQUE INDEX IF NOT EXISTS imagerenditions_dataid_size_idx ON ");
+        sB.append(TABLE_IMAGE_RENDITIONS);
+        sB.append(" ( ");
+        sB.append(ImageRenditionsTableFields.COLUMN_IMAGEDATA_ID.getFieldName());
+        sB.append(", ");
+        sB.append(ImageRenditionsTableFields.COLUMN_SIZE.getFieldName());
+        sB.append(" );");
+        String CREATE_INDEX_RENDITIONS = sB.toString();
+
+        if (GPLog.LOG_HEAVY)
+            Log.i("DAOIMAGES", "Create the image renditions table.");
+
+        sqliteDatabase.beginTransaction();
+        try {
+            sqliteDatabase.execSQL(CREATE_TABLE_RENDITIONS);
+            sqliteDatabase.execSQL(CREATE_INDEX_RENDITIONS);
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e("DAOIMAGES", e.getLocalizedMessage(), e);
+            throw new IOException(e);
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+    }
+
     public long addImage(double lon, double lat, double altim, double azim, long timestamp, String text, byte[] image, byte[] thumb, long noteId)
             throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
@@ -206,14 +255,17 @@ public class DaoImages implements IImagesDbHelper {
             Cursor c = sqliteDatabase.query(TABLE_IMAGES, asColumnsToReturn, imageIdsWhereStr, null, null, null, null);
             c.moveToFirst();
             String imageDataIdsWhereStr = "";
+            String renditionsWhereStr = "";
             count = 0;
             while (!c.isAfterLast()) {
                 long imageDataId = c.getLong(0);
                 c.moveToNext();
                 if (count > 0) {
                     imageDataIdsWhereStr = imageDataIdsWhereStr + " || ";
+                    renditionsWhereStr = renditionsWhereStr + " OR ";
                 }
                 imageDataIdsWhereStr = imageDataIdsWhereStr + ImageDataTableFields.COLUMN_ID.getFieldName() + " = " + imageDataId;
+                renditionsWhereStr = renditionsWhereStr + ImageRenditionsTableFields.COLUMN_IMAGEDATA_ID.getFieldName() + " = " + imageDataId;
                 count++;
 
             }
@@ -230,6 +282,13 @@ public class DaoImages implements IImagesDbHelper {
             deleteStmt = sqliteDatabase.compileStatement(query);
             deleteStmt.execute();
 
+            // delete renditions
+            if (renditionsWhereStr.length() > 0) {
+                query = "delete from " + TABLE_IMAGE_RENDITIONS + " where " + renditionsWhereStr;
+                deleteStmt = sqliteDatabase.compileStatement(query);
+                deleteStmt.execute();
+            }
+
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOIMAGES", e.getLocalizedMessage(), e);
@@ -262,14 +321,17 @@ public class DaoImages implements IImagesDbHelper {
             Cursor c = sqliteDatabase.query(TABLE_IMAGES, asColumnsToReturn, notesIdsWhereStr, null, null, null, null);
             c.moveToFirst();
             String imageDataIdsWhereStr = "";
+            String renditionsWhereStr = "";
             count = 0;
             while (!c.isAfterLast()) {
                 long imageDataId = c.getLong(0);
                 c.moveToNext();
                 if (count > 0) {
                     imageDataIdsWhereStr = imageDataIdsWhereStr + " || ";
+                    renditionsWhereStr = renditionsWhereStr + " OR ";
                 }
                 imageDataIdsWhereStr = imageDataIdsWhereStr + ImageDataTableFields.COLUMN_ID.getFieldName() + " = " + imageDataId;
+                renditionsWhereStr = renditionsWhereStr + ImageRenditionsTableFields.COLUMN_IMAGEDATA_ID.getFieldName() + " = " + imageDataId;
                 count++;
 
             }
@@ -286,6 +348,13 @@ public class DaoImages implements IImagesDbHelper {
             deleteStmt = sqliteDatabase.compileStatement(query);
             deleteStmt.execute();
 
+            // delete renditions
+            if (renditionsWhereStr.length() > 0) {
+                query = "delete from " + TABLE_IMAGE_RENDITIONS + " where " + renditionsWhereStr;
+                deleteStmt = sqliteDatabase.compileStatement(query);
+                deleteStmt.execute();
+            }
+
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
             GPLog.error("DAOIMAGES", e.getLocalizedMessage(), e);
@@ -369,7 +438,7 @@ public class DaoImages implements IImagesDbHelper {
         String strSortOrder = "_id ASC";
         String whereString = null;
         if (onlyDirty) {
-            whereString = ImageTableFields.COLUMN_ISDIRTY.getFieldName() + " = " + 1;
+            whereString = ImageTableFields.COLUMN_ISDIRTY.getFieldName() + " <> 0";
         }
         if (onlyStandalone) {
             if (whereString != null) {
@@ -481,44 +550,20 @@ public class DaoImages implements IImagesDbHelper {
             }
         } catch (Exception ex) {
             if (ex.getLocalizedMessage().contains("Couldn't read row")) {
-                String sizeQuery = "SELECT " + ImageDataTableFields.COLUMN_ID.getFieldName() +//
-                        ", length(" + ImageDataTableFields.COLUMN_IMAGE.getFieldName() + ") " +//
-                        "FROM " + TABLE_IMAGE_DATA +//
-                        " WHERE " + whereStr;
-                //"length(" + ImageDataTableFields.COLUMN_IMAGE.getFieldName() + ") > 1000000";
-                Cursor sizeCursor = sqliteDatabase.rawQuery(sizeQuery, null);
-                sizeCursor.moveToFirst();
-                long blobSize = 0;
-                if (!sizeCursor.isAfterLast()) {
-                    blobSize = sizeCursor.getLong(1);
-                }
-                sizeCursor.close();
-
+                // too big for the cursor window, read it in chunks
+                InputStream imageStream = getImageDataStreamById(imageDataId, sqliteDatabase);
                 ByteArrayOutputStream bout = new ByteArrayOutputStream();
-
-                int maxBlobSize = ImageUtilities.MAXBLOBSIZE;
-                if (blobSize > maxBlobSize) {
-                    for (long i = 1; i <= blobSize; i = i + maxBlobSize) {
-                        long from = i;
-                        long size = maxBlobSize;
-                        if (from + size > blobSize) {
-                            size = blobSize - from + 1;
-                        }
-                        String tmpQuery = "SELECT substr(" + ImageDataTableFields.COLUMN_IMAGE.getFieldName() + //
-                                "," + from + ", " + size + ") FROM " + TABLE_IMAGE_DATA + " WHERE " + whereStr;
-                        if (GPLog.LOG_HEAVY)
-                            GPLog.addLogEntry(this, "ISSUE QUERY: " + tmpQuery);
-                        Cursor imageCunchCursor = sqliteDatabase.rawQuery(tmpQuery, null);
-                        imageCunchCursor.moveToFirst();
-                        if (!imageCunchCursor.isAfterLast()) {
-                            byte[] blobData = imageCunchCursor.getBlob(0);
-                            bout.write(blobData);
-                        }
-                        imageCunchCursor.close();
+                try {
+                    byte[] buffer = new byte[ImageUtilities.STREAMBUFFERSIZE];
+                    int read;
+                    while ((read = imageStream.read(buffer)) != -1) {
+                        bout.write(buffer, 0, read);
                     }
-                    imageData = bout.toByteArray();
-                    bout.close();
+                } finally {
+                    imageStream.close();
                 }
+                imageData = bout.toByteArray();
+                bout.close();
             } else {
                 GPLog.error(this, null, ex);
             }
@@ -530,6 +575,36 @@ public class DaoImages implements IImagesDbHelper {
     }
 
 
+    public InputStream getImageDataStream(long imageId) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        String[] asColumnsToReturn = { //
+                ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName()//
+        };
+        String whereStr = ImageTableFields.COLUMN_ID.getFieldName() + " = " + imageId;
+        Cursor c = sqliteDatabase.query(TABLE_IMAGES, asColumnsToReturn, whereStr, null, null, null, null);
+        c.moveToFirst();
+        long imageDataId = -1;
+        if (!c.isAfterLast()) {
+            imageDataId = c.getLong(0);
+        }
+        c.close();
+
+        if (imageDataId != -1) {
+            return getImageDataStreamById(imageDataId, sqliteDatabase);
+        }
+
+        return null;
+    }
+
+    public InputStream getImageDataStreamById(long imageDataId, SQLiteDatabase sqliteDatabase) throws IOException {
+        if (sqliteDatabase == null) {
+            sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        }
+        String whereStr = ImageDataTableFields.COLUMN_ID.getFieldName() + " = " + imageDataId;
+        return new ChunkedBlobInputStream(sqliteDatabase, TABLE_IMAGE_DATA, ImageDataTableFields.COLUMN_IMAGE.getFieldName(),
+                whereStr);
+    }
+
     public byte[] getImageThumbnail(long imageId) throws Exception {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
         String[] asColumnsToReturn = { //
@@ -573,6 +648,77 @@ public class DaoImages implements IImagesDbHelper {
         return imageData;
     }
 
+    public byte[] getImageRendition(long imageId, int size) throws Exception {
+        int renditionSize = ImageUtilities.getRenditionSize(size);
+        if (renditionSize <= ImageUtilities.THUMBNAILWIDTH) {
+            return getImageThumbnail(imageId);
+        }
+
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        String[] asColumnsToReturn = { //
+                ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName()//
+        };
+        String whereStr = ImageTableFields.COLUMN_ID.getFieldName() + " = " + imageId;
+        Cursor c = sqliteDatabase.query(TABLE_IMAGES, asColumnsToReturn, whereStr, null, null, null, null);
+        c.moveToFirst();
+        long imageDataId = -1;
+        if (!c.isAfterLast()) {
+            imageDataId = c.getLong(0);
+        }
+        c.close();
+        if (imageDataId == -1) {
+            return null;
+        }
+
+        // check if the rendition has already been created
+        asColumnsToReturn = new String[]{ //
+                ImageRenditionsTableFields.COLUMN_DATA.getFieldName()//
+        };
+        whereStr = ImageRenditionsTableFields.COLUMN_IMAGEDATA_ID.getFieldName() + " = " + imageDataId + " AND "
+                + ImageRenditionsTableFields.COLUMN_SIZE.getFieldName() + " = " + renditionSize;
+        c = sqliteDatabase.query(TABLE_IMAGE_RENDITIONS, asColumnsToReturn, whereStr, null, null, null, null);
+        try {
+            c.moveToFirst();
+            if (!c.isAfterLast()) {
+                return c.getBlob(0);
+            }
+        } finally {
+            c.close();
+        }
+
+        // create it from the subsampled original, which is streamed to get its bounds first
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream imageStream = getImageDataStreamById(imageDataId, sqliteDatabase);
+        try {
+            BitmapFactory.decodeStream(imageStream, null, options);
+        } finally {
+            imageStream.close();
+        }
+        options.inSampleSize = ImageUtilities.getSampleSize(options.outWidth, options.outHeight, renditionSize);
+        options.inJustDecodeBounds = false;
+        Bitmap sampledImage;
+        imageStream = getImageDataStreamById(imageDataId, sqliteDatabase);
+        try {
+            sampledImage = BitmapFactory.decodeStream(imageStream, null, options);
+        } finally {
+            imageStream.close();
+        }
+        if (sampledImage == null) {
+            return null;
+        }
+        byte[] renditionData = ImageUtilities.getRenditionData(sampledImage, renditionSize);
+        sampledImage.recycle();
+
+        ContentValues values = new ContentValues();
+        values.put(ImageRenditionsTableFields.COLUMN_IMAGEDATA_ID.getFieldName(), imageDataId);
+        values.put(ImageRenditionsTableFields.COLUMN_SIZE.getFieldName(), renditionSize);
+        values.put(ImageRenditionsTableFields.COLUMN_DATA.getFieldName(), renditionData);
+        // another loader might have been faster, in which case the existing one is kept
+        sqliteDatabase.insertWithOnConflict(TABLE_IMAGE_RENDITIONS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        return renditionData;
+    }
+
     /**
      * Get all image overlays.
      *
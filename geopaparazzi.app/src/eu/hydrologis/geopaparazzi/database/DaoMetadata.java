@@ -162,6 +162,27 @@ public class DaoMetadata {
         sqliteDatabase.update(TABLE_METADATA, updatedValues, where, null);
     }
 
+    /**
+     * Set a value of the metadata, adding the key if it doesn't exist yet.
+     *
+     * @param key   the key to use (from {@link eu.hydrologis.geopaparazzi.database.TableDescriptions.MetadataTableFields}).
+     * @param value the value to set.
+     * @throws java.io.IOException if something goes wrong.
+     */
+    public static void setOrAddValue(String key, String value) throws IOException {
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(MetadataTableFields.COLUMN_VALUE.getFieldName(), value);
+
+        String where = MetadataTableFields.COLUMN_KEY.getFieldName() + "='" + key + "'";
+
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        int updated = sqliteDatabase.update(TABLE_METADATA, updatedValues, where, null);
+        if (updated == 0) {
+            updatedValues.put(MetadataTableFields.COLUMN_KEY.getFieldName(), key);
+            sqliteDatabase.insertOrThrow(TABLE_METADATA, null, updatedValues);
+        }
+    }
+
     /**
      * Get the metadata.
      *
@@ -30,7 +30,9 @@ import org.mapsforge.core.model.GeoPoint;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.util.LibraryConstants;
@@ -183,6 +185,7 @@ public class DaoNotes {
             values.put(NotesTableFields.COLUMN_STYLE.getFieldName(), style);
         values.put(NotesTableFields.COLUMN_ISDIRTY.getFieldName(), 1);
         long noteId = sqliteDatabase.insertOrThrow(TABLE_NOTES, null, values);
+        DaoSearch.indexNote(sqliteDatabase, noteId, text, description, form);
         return noteId;
     }
 
@@ -200,6 +203,7 @@ public class DaoNotes {
             String query = "delete from " + TABLE_NOTES + " where " + NotesTableFields.COLUMN_ID.getFieldName() + " = " + id;
             SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
             sqlUpdate.execute();
+            DaoSearch.deleteNote(sqliteDatabase, id);
 
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
@@ -223,6 +227,7 @@ public class DaoNotes {
             String query = "delete from " + TABLE_NOTES + " where " + NotesTableFields.COLUMN_DESCRIPTION.getFieldName() + " = " + LibraryConstants.OSM;
             SQLiteStatement sqlUpdate = sqliteDatabase.compileStatement(query);
             sqlUpdate.execute();
+            DaoSearch.deleteMissingNotes(sqliteDatabase);
 
             sqliteDatabase.setTransactionSuccessful();
         } catch (Exception e) {
@@ -245,6 +250,7 @@ public class DaoNotes {
     public static void updateForm(long id, String noteText, String jsonStr) throws IOException {
         ContentValues updatedValues = new ContentValues();
         updatedValues.put(NotesTableFields.COLUMN_FORM.getFieldName(), jsonStr);
+        updatedValues.put(NotesTableFields.COLUMN_ISDIRTY.getFieldName(), 1);
         if (noteText != null && noteText.length() > 0) {
             updatedValues.put(NotesTableFields.COLUMN_TEXT.getFieldName(), noteText);
         }
@@ -253,8 +259,18 @@ public class DaoNotes {
         String[] whereArgs = null;
 
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        sqliteDatabase.beginTransaction();
+        try {
+            sqliteDatabase.update(TABLE_NOTES, updatedValues, where, whereArgs);
+            DaoSearch.reindexNote(sqliteDatabase, id);
 
-        sqliteDatabase.update(TABLE_NOTES, updatedValues, where, whereArgs);
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("DAONOTES", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
     }
 
     /**
@@ -298,7 +314,7 @@ public class DaoNotes {
             query = query.replaceFirst("XXX", String.valueOf(nswe[0]));
         }
         if (onlyDirty)
-            query = query + " AND " + NotesTableFields.COLUMN_ISDIRTY.getFieldName() + " = 1";
+            query = query + " AND " + NotesTableFields.COLUMN_ISDIRTY.getFieldName() + " <> 0";
 
         Cursor c = sqliteDatabase.rawQuery(query, null);
         List<Note> notes = new ArrayList<Note>();
@@ -323,6 +339,82 @@ public class DaoNotes {
         return notes;
     }
 
+    /**
+     * Search the notes by their text, description and form values.
+     *
+     * @param text   the typed text.
+     * @param offset the position of the first note of the page.
+     * @param limit  the maximum number of notes of the page.
+     * @return the page of matching notes, best match first.
+     * @throws IOException if something goes wrong.
+     */
+    public static List<Note> searchNotes(String text, int offset, int limit) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        List<Long> ids = DaoSearch.searchNotes(sqliteDatabase, text, offset, limit);
+        List<Note> notes = new ArrayList<Note>();
+        if (ids.size() == 0) {
+            return notes;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Long id : ids) {
+            if (sb.length() > 0)
+                sb.append(",");
+            sb.append(id);
+        }
+        String query = "SELECT " +//
+                NotesTableFields.COLUMN_ID.getFieldName() +
+                ", " +//
+                NotesTableFields.COLUMN_LON.getFieldName() +
+                ", " +//
+                NotesTableFields.COLUMN_LAT.getFieldName() +
+                ", " +//
+                NotesTableFields.COLUMN_ALTIM.getFieldName() +
+                ", " +//
+                NotesTableFields.COLUMN_TEXT.getFieldName() +
+                ", " +//
+                NotesTableFields.COLUMN_TS.getFieldName() +
+                ", " +//
+                NotesTableFields.COLUMN_DESCRIPTION.getFieldName() +
+                ", " +//
+                NotesTableFields.COLUMN_STYLE.getFieldName() +
+                ", " +//
+                NotesTableFields.COLUMN_FORM.getFieldName() +//
+                ", " +//
+                NotesTableFields.COLUMN_ISDIRTY.getFieldName() +//
+                " FROM " + TABLE_NOTES +//
+                " WHERE " + NotesTableFields.COLUMN_ID.getFieldName() + " IN (" + sb + ")";
+
+        Map<Long, Note> notesMap = new HashMap<Long, Note>();
+        Cursor c = sqliteDatabase.rawQuery(query, null);
+        try {
+            while (c.moveToNext()) {
+                long id = c.getLong(0);
+                double lon = c.getDouble(1);
+                double lat = c.getDouble(2);
+                double altim = c.getDouble(3);
+                String noteText = c.getString(4);
+                long timestamp = c.getLong(5);
+                String description = c.getString(6);
+                String style = c.getString(7);
+                String form = c.getString(8);
+                int isDirty = c.getInt(9);
+
+                Note note = new Note(id, noteText, description, timestamp, lon, lat, altim, form, isDirty, style);
+                notesMap.put(id, note);
+            }
+        } finally {
+            c.close();
+        }
+        // keep the rank order
+        for (Long id : ids) {
+            Note note = notesMap.get(id);
+            if (note != null)
+                notes.add(note);
+        }
+        return notes;
+    }
+
     public static Note getNoteById(long checkId) throws IOException {
 
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
@@ -0,0 +1,276 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.geopaparazzi.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.geopaparazzi.library.database.FullTextSearch;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.forms.FormUtilities;
+
+import static eu.hydrologis.geopaparazzi.database.TableDescriptions.*;
+
+/**
+ * The full text indexes of the notes, with the values of their forms, and of the bookmarks.
+ * <p/>
+ * <p>The indexes are sqlite FTS4 tables whose docid is the id of the indexed item. They are
+ * kept up to date by the daos of the items, in the same transaction as the change of the item,
+ * and searched through {@link FullTextSearch}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class DaoSearch {
+
+    /**
+     * The column weights of the notes index: text, description, form.
+     */
+    private static final double[] NOTES_WEIGHTS = {2.0, 0.5, 1.0};
+
+    /**
+     * The column weights of the bookmarks index: text.
+     */
+    private static final double[] BOOKMARKS_WEIGHTS = {1.0};
+
+    /**
+     * Create the index tables.
+     *
+     * @param sqliteDatabase the db to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void createTables(SQLiteDatabase sqliteDatabase) throws IOException {
+        // prefix indexes for the short prefixes of the first typed characters
+        String CREATE_TABLE_NOTES_SEARCH = "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_NOTES_SEARCH
+                + " USING fts4(text, description, form, prefix=\"2,3\");";
+        String CREATE_TABLE_BOOKMARKS_SEARCH = "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_BOOKMARKS_SEARCH
+                + " USING fts4(text, prefix=\"2,3\");";
+
+        if (GPLog.LOG_ANDROID)
+            Log.i("DAOSEARCH", "Create the search tables.");
+        sqliteDatabase.beginTransaction();
+        try {
+            sqliteDatabase.execSQL(CREATE_TABLE_NOTES_SEARCH);
+            sqliteDatabase.execSQL(CREATE_TABLE_BOOKMARKS_SEARCH);
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("DAOSEARCH", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Index again all the notes and bookmarks.
+     *
+     * @param sqliteDatabase the db to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void rebuildIndexes(SQLiteDatabase sqliteDatabase) throws IOException {
+        sqliteDatabase.beginTransaction();
+        Cursor c = null;
+        try {
+            sqliteDatabase.execSQL("DELETE FROM " + TABLE_NOTES_SEARCH);
+            sqliteDatabase.execSQL("DELETE FROM " + TABLE_BOOKMARKS_SEARCH);
+
+            c = sqliteDatabase.rawQuery("SELECT " + NotesTableFields.COLUMN_ID.getFieldName() + ", "
+                    + NotesTableFields.COLUMN_TEXT.getFieldName() + ", "
+                    + NotesTableFields.COLUMN_DESCRIPTION.getFieldName() + ", "
+                    + NotesTableFields.COLUMN_FORM.getFieldName() + " FROM " + TABLE_NOTES, null);
+            while (c.moveToNext()) {
+                indexNote(sqliteDatabase, c.getLong(0), c.getString(1), c.getString(2), c.getString(3));
+            }
+            c.close();
+
+            c = sqliteDatabase.rawQuery("SELECT _id, text FROM " + DaoBookmarks.TABLE_BOOKMARKS, null);
+            while (c.moveToNext()) {
+                indexBookmark(sqliteDatabase, c.getLong(0), c.getString(1));
+            }
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("DAOSEARCH", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            if (c != null)
+                c.close();
+            sqliteDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Index a note, replacing its previous entry.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param id             the note id.
+     * @param text           the note text.
+     * @param description    the note description.
+     * @param form           the json form of the note or <code>null</code>.
+     */
+    public static void indexNote(SQLiteDatabase sqliteDatabase, long id, String text, String description, String form) {
+        deleteNote(sqliteDatabase, id);
+        SQLiteStatement insert = sqliteDatabase.compileStatement("INSERT INTO " + TABLE_NOTES_SEARCH
+                + " (docid, text, description, form) VALUES (?, ?, ?, ?)");
+        try {
+            insert.bindLong(1, id);
+            insert.bindString(2, FullTextSearch.normalize(text));
+            insert.bindString(3, FullTextSearch.normalize(description));
+            insert.bindString(4, FullTextSearch.normalize(getFormText(form)));
+            insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Index a note again from its row.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param id             the note id.
+     */
+    public static void reindexNote(SQLiteDatabase sqliteDatabase, long id) {
+        Cursor c = sqliteDatabase.rawQuery("SELECT " + NotesTableFields.COLUMN_TEXT.getFieldName() + ", "
+                + NotesTableFields.COLUMN_DESCRIPTION.getFieldName() + ", "
+                + NotesTableFields.COLUMN_FORM.getFieldName() + " FROM " + TABLE_NOTES + " WHERE "
+                + NotesTableFields.COLUMN_ID.getFieldName() + "=" + id, null);
+        try {
+            if (c.moveToFirst()) {
+                indexNote(sqliteDatabase, id, c.getString(0), c.getString(1), c.getString(2));
+            } else {
+                deleteNote(sqliteDatabase, id);
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Remove a note from the index.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param id             the note id.
+     */
+    public static void deleteNote(SQLiteDatabase sqliteDatabase, long id) {
+        sqliteDatabase.execSQL("DELETE FROM " + TABLE_NOTES_SEARCH + " WHERE docid=" + id);
+    }
+
+    /**
+     * Remove the notes that no longer exist from the index.
+     *
+     * @param sqliteDatabase the db to use.
+     */
+    public static void deleteMissingNotes(SQLiteDatabase sqliteDatabase) {
+        sqliteDatabase.execSQL("DELETE FROM " + TABLE_NOTES_SEARCH + " WHERE docid NOT IN (SELECT "
+                + NotesTableFields.COLUMN_ID.getFieldName() + " FROM " + TABLE_NOTES + ")");
+    }
+
+    /**
+     * Index a bookmark, replacing its previous entry.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param id             the bookmark id.
+     * @param text           the bookmark name.
+     */
+    public static void indexBookmark(SQLiteDatabase sqliteDatabase, long id, String text) {
+        deleteBookmark(sqliteDatabase, id);
+        SQLiteStatement insert = sqliteDatabase.compileStatement("INSERT INTO " + TABLE_BOOKMARKS_SEARCH
+                + " (docid, text) VALUES (?, ?)");
+        try {
+            insert.bindLong(1, id);
+            insert.bindString(2, FullTextSearch.normalize(text));
+            insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Remove a bookmark from the index.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param id             the bookmark id.
+     */
+    public static void deleteBookmark(SQLiteDatabase sqliteDatabase, long id) {
+        sqliteDatabase.execSQL("DELETE FROM " + TABLE_BOOKMARKS_SEARCH + " WHERE docid=" + id);
+    }
+
+    /**
+     * Search the notes.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param text           the typed text.
+     * @param offset         the position of the first result.
+     * @param limit          the maximum number of results.
+     * @return the ids of the matching notes, best first.
+     */
+    public static List<Long> searchNotes(SQLiteDatabase sqliteDatabase, String text, int offset, int limit) {
+        return search(sqliteDatabase, TABLE_NOTES_SEARCH, NOTES_WEIGHTS, text, offset, limit);
+    }
+
+    /**
+     * Search the bookmarks.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param text           the typed text.
+     * @param offset         the position of the first result.
+     * @param limit          the maximum number of results.
+     * @return the ids of the matching bookmarks, best first.
+     */
+    public static List<Long> searchBookmarks(SQLiteDatabase sqliteDatabase, String text, int offset, int limit) {
+        return search(sqliteDatabase, TABLE_BOOKMARKS_SEARCH, BOOKMARKS_WEIGHTS, text, offset, limit);
+    }
+
+    private static List<Long> search(SQLiteDatabase sqliteDatabase, String table, double[] weights, String text,
+                                     int offset, int limit) {
+        String matchQuery = FullTextSearch.toMatchQuery(text);
+        if (matchQuery == null) {
+            return new ArrayList<Long>();
+        }
+        // only the docids and match statistics are read, the rows are loaded for the page
+        Cursor c = sqliteDatabase.rawQuery("SELECT docid, matchinfo(" + table + ", 'pcx') FROM " + table + " WHERE "
+                + table + " MATCH ?", new String[]{matchQuery});
+        try {
+            FullTextSearch.Match[] matches = new FullTextSearch.Match[c.getCount()];
+            int index = 0;
+            while (c.moveToNext()) {
+                matches[index++] = new FullTextSearch.Match(c.getLong(0), FullTextSearch.score(c.getBlob(1), weights));
+            }
+            return FullTextSearch.getPage(matches, offset, limit);
+        } finally {
+            c.close();
+        }
+    }
+
+    private static String getFormText(String form) {
+        if (form == null || form.length() == 0) {
+            return "";
+        }
+        try {
+            return FormUtilities.formToPlainText(form, true);
+        } catch (Exception e) {
+            // not a form that can be read, index it as it is
+            return form;
+        }
+    }
+}
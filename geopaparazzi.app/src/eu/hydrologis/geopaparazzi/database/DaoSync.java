@@ -0,0 +1,598 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.geopaparazzi.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import eu.geopaparazzi.library.database.ChunkedBlobInputStream;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.webproject.ChangesetWriter;
+import eu.hydrologis.geopaparazzi.GeopaparazziApplication;
+import eu.hydrologis.geopaparazzi.util.GpsLogPoints;
+
+import static eu.hydrologis.geopaparazzi.database.TableDescriptions.*;
+
+/**
+ * Data access object for the incremental project sync.
+ * <p/>
+ * <p>Changesets contain the notes, gps logs and images that have the
+ * <code>isdirty</code> flag set. Next to every changeset a properties file
+ * keeps the ids of the rows it contains, so that exactly those rows are
+ * marked as synced once the upload completed.</p>
+ * <p/>
+ * <p>Before being written, the dirty rows are moved to the {@link #SYNCING} state.
+ * The daos set the flag back to {@link #DIRTY} on every edit, so a row changed
+ * while its changeset or the project is on the way stays dirty: only the rows
+ * still in the syncing state are marked as synced.</p>
+ * <p/>
+ * <p>Of the gps logs only the points added since the last sync are written, as long as
+ * the points the server has are still the first of the log. The rows deleted from the
+ * notes, gps logs and images tables are recorded by triggers and written as deletions.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class DaoSync {
+
+    /**
+     * The extension of changeset files.
+     */
+    public static final String CHANGESET_EXT = ".gpcs";
+    /**
+     * The value of the <code>isdirty</code> flag of a row that has been changed since the last sync.
+     */
+    public static final int DIRTY = 1;
+    /**
+     * The value of the <code>isdirty</code> flag of a row that is being synced and has not been changed since.
+     */
+    public static final int SYNCING = 2;
+    private static final String IDS_EXT = ".ids";
+    private static final int MAX_IDS_PER_UPDATE = 500;
+    private static final String SYNCED_FROM_SYNCING = GpsLogsSyncTableFields.COLUMN_SYNCEDCOUNT.getFieldName() + "="
+            + GpsLogsSyncTableFields.COLUMN_SYNCINGCOUNT.getFieldName() + ", "
+            + GpsLogsSyncTableFields.COLUMN_SYNCEDLASTTS.getFieldName() + "="
+            + GpsLogsSyncTableFields.COLUMN_SYNCINGLASTTS.getFieldName();
+    private static final String[] SYNCED_TABLES = {TABLE_NOTES, TABLE_GPSLOGS, TABLE_IMAGES};
+
+    /**
+     * Create the tables of the synced gps log points and of the deleted rows, together
+     * with the triggers recording the deletions.
+     *
+     * @param sqliteDatabase the db to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void createTables(SQLiteDatabase sqliteDatabase) throws IOException {
+        StringBuilder sB = new StringBuilder();
+        sB.append("CREATE TABLE IF NOT EXISTS ");
+        sB.append(TABLE_GPSLOG_SYNC);
+        sB.append(" (");
+        sB.append(GpsLogsSyncTableFields.COLUMN_LOGID.getFieldName()).append(" INTEGER PRIMARY KEY, ");
+        sB.append(GpsLogsSyncTableFields.COLUMN_SYNCEDCOUNT.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsSyncTableFields.COLUMN_SYNCEDLASTTS.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsSyncTableFields.COLUMN_SYNCINGCOUNT.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(GpsLogsSyncTableFields.COLUMN_SYNCINGLASTTS.getFieldName()).append(" INTEGER NOT NULL");
+        sB.append(");");
+        String CREATE_TABLE_GPSLOGS_SYNC = sB.toString();
+
+        sB = new StringBuilder();
+        sB.append("CREATE TABLE IF NOT EXISTS ");
+        sB.append(TABLE_SYNC_DELETED);
+        sB.append(" (");
+        sB.append(SyncDeletedTableFields.COLUMN_ID.getFieldName()).append(" INTEGER PRIMARY KEY AUTOINCREMENT, ");
+        sB.append(SyncDeletedTableFields.COLUMN_TABLE.getFieldName()).append(" TEXT NOT NULL, ");
+        sB.append(SyncDeletedTableFields.COLUMN_ITEMID.getFieldName()).append(" INTEGER NOT NULL, ");
+        sB.append(SyncDeletedTableFields.COLUMN_ISDIRTY.getFieldName()).append(" INTEGER NOT NULL");
+        sB.append(");");
+        String CREATE_TABLE_SYNC_DELETED = sB.toString();
+
+        if (GPLog.LOG_ANDROID)
+            Log.i("DAOSYNC", "Create the sync tables.");
+        sqliteDatabase.beginTransaction();
+        try {
+            sqliteDatabase.execSQL(CREATE_TABLE_GPSLOGS_SYNC);
+            sqliteDatabase.execSQL(CREATE_TABLE_SYNC_DELETED);
+            for (String table : SYNCED_TABLES) {
+                // every delete path is covered, also the cascades
+                sB = new StringBuilder();
+                sB.append("CREATE TRIGGER IF NOT EXISTS ").append(table).append("_syncdeleted");
+                sB.append(" AFTER DELETE ON ").append(table).append(" BEGIN ");
+                sB.append("INSERT INTO ").append(TABLE_SYNC_DELETED).append(" (");
+                sB.append(SyncDeletedTableFields.COLUMN_TABLE.getFieldName()).append(", ");
+                sB.append(SyncDeletedTableFields.COLUMN_ITEMID.getFieldName()).append(", ");
+                sB.append(SyncDeletedTableFields.COLUMN_ISDIRTY.getFieldName()).append(") VALUES ('");
+                sB.append(table).append("', OLD._id, ").append(DIRTY).append("); ");
+                if (table.equals(TABLE_GPSLOGS)) {
+                    sB.append("DELETE FROM ").append(TABLE_GPSLOG_SYNC).append(" WHERE ");
+                    sB.append(GpsLogsSyncTableFields.COLUMN_LOGID.getFieldName()).append(" = OLD._id; ");
+                }
+                sB.append("END;");
+                sqliteDatabase.execSQL(sB.toString());
+            }
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("DAOSYNC", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Get a changeset that has been created but not yet uploaded successfully.
+     *
+     * @param folder the folder in which changesets are created.
+     * @return the pending changeset or <code>null</code>.
+     */
+    public static File getPendingChangeset(File folder) {
+        File[] changesets = folder.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String filename) {
+                return filename.endsWith(CHANGESET_EXT);
+            }
+        });
+        if (changesets == null) {
+            return null;
+        }
+        for (File changeset : changesets) {
+            if (getIdsFile(changeset).exists()) {
+                return changeset;
+            }
+            // incomplete, probably crashed while writing
+            changeset.delete();
+        }
+        return null;
+    }
+
+    /**
+     * Write all dirty rows to a new changeset.
+     * <p/>
+     * <p>The rows left in the syncing state by a changeset that has been discarded
+     * are written again.</p>
+     *
+     * @param folder the folder in which to create the changeset.
+     * @return the changeset file or <code>null</code>, if nothing changed since the last sync.
+     * @throws IOException if something goes wrong.
+     */
+    public static File createChangeset(File folder) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        markAllSyncing(sqliteDatabase);
+
+        File changesetFile = new File(folder, "changeset_" + System.currentTimeMillis() + CHANGESET_EXT);
+
+        List<Long> deletedIds = new ArrayList<Long>();
+        List<Long> noteIds = new ArrayList<Long>();
+        List<Long> logIds = new ArrayList<Long>();
+        List<Long> imageIds = new ArrayList<Long>();
+        ChangesetWriter writer = new ChangesetWriter(changesetFile);
+        try {
+            // before the rows, an id might have been used again
+            writeDeletions(sqliteDatabase, writer, deletedIds);
+            writeDirtyNotes(sqliteDatabase, writer, noteIds);
+            writeDirtyLogs(sqliteDatabase, writer, logIds);
+            writeDirtyImages(sqliteDatabase, writer, imageIds);
+        } finally {
+            writer.close();
+        }
+
+        if (writer.getRecordsCount() == 0) {
+            changesetFile.delete();
+            return null;
+        }
+
+        Properties ids = new Properties();
+        ids.setProperty(TABLE_SYNC_DELETED, toIdsString(deletedIds));
+        ids.setProperty(TABLE_NOTES, toIdsString(noteIds));
+        ids.setProperty(TABLE_GPSLOGS, toIdsString(logIds));
+        ids.setProperty(TABLE_IMAGES, toIdsString(imageIds));
+        FileOutputStream idsStream = new FileOutputStream(getIdsFile(changesetFile));
+        try {
+            ids.store(idsStream, null);
+        } finally {
+            idsStream.close();
+        }
+        return changesetFile;
+    }
+
+    /**
+     * Clear the dirty flag of the rows contained in an uploaded changeset and remove it.
+     * <p/>
+     * <p>The rows changed after the changeset has been written are left dirty.</p>
+     *
+     * @param changesetFile the uploaded changeset.
+     * @throws IOException if something goes wrong.
+     */
+    public static void markChangesetSynced(File changesetFile) throws IOException {
+        File idsFile = getIdsFile(changesetFile);
+        Properties ids = new Properties();
+        FileInputStream idsStream = new FileInputStream(idsFile);
+        try {
+            ids.load(idsStream);
+        } finally {
+            idsStream.close();
+        }
+
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        sqliteDatabase.beginTransaction();
+        try {
+            clearDirty(sqliteDatabase, TABLE_NOTES, NotesTableFields.COLUMN_ISDIRTY.getFieldName(),
+                    NotesTableFields.COLUMN_ID.getFieldName(), ids.getProperty(TABLE_NOTES, ""));
+            clearDirty(sqliteDatabase, TABLE_GPSLOGS, GpsLogsTableFields.COLUMN_LOG_ISDIRTY.getFieldName(),
+                    GpsLogsTableFields.COLUMN_ID.getFieldName(), ids.getProperty(TABLE_GPSLOGS, ""));
+            clearDirty(sqliteDatabase, TABLE_IMAGES, ImageTableFields.COLUMN_ISDIRTY.getFieldName(),
+                    ImageTableFields.COLUMN_ID.getFieldName(), ids.getProperty(TABLE_IMAGES, ""));
+            deleteIds(sqliteDatabase, TABLE_SYNC_DELETED, SyncDeletedTableFields.COLUMN_ID.getFieldName(),
+                    ids.getProperty(TABLE_SYNC_DELETED, ""));
+            // the points written are on the server, also if the log changed since
+            sqliteDatabase.execSQL("UPDATE " + TABLE_GPSLOG_SYNC + " SET " + SYNCED_FROM_SYNCING + " WHERE "
+                    + GpsLogsSyncTableFields.COLUMN_LOGID.getFieldName() + " IN ("
+                    + toSqlIds(ids.getProperty(TABLE_GPSLOGS, "")) + ")");
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("DAOSYNC", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+
+        idsFile.delete();
+        changesetFile.delete();
+    }
+
+    /**
+     * Remove a changeset without marking its rows as synced, for example because
+     * the whole project is uploaded instead.
+     *
+     * @param changesetFile the changeset.
+     */
+    public static void discardChangeset(File changesetFile) {
+        getIdsFile(changesetFile).delete();
+        changesetFile.delete();
+    }
+
+    /**
+     * Move all dirty rows to the syncing state, to be used before the whole project is uploaded.
+     * <p/>
+     * <p>The current number of points of every gps log is kept as the one being synced.</p>
+     *
+     * @throws IOException if something goes wrong.
+     */
+    public static void markAllSyncing() throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        markAllSyncing(sqliteDatabase);
+
+        String logIdField = GpsLogsSyncTableFields.COLUMN_LOGID.getFieldName();
+        StringBuilder sb = new StringBuilder();
+        sb.append("INSERT OR REPLACE INTO ").append(TABLE_GPSLOG_SYNC).append(" (");
+        sb.append(logIdField).append(", ");
+        sb.append(GpsLogsSyncTableFields.COLUMN_SYNCEDCOUNT.getFieldName()).append(", ");
+        sb.append(GpsLogsSyncTableFields.COLUMN_SYNCEDLASTTS.getFieldName()).append(", ");
+        sb.append(GpsLogsSyncTableFields.COLUMN_SYNCINGCOUNT.getFieldName()).append(", ");
+        sb.append(GpsLogsSyncTableFields.COLUMN_SYNCINGLASTTS.getFieldName()).append(") SELECT s.");
+        sb.append(GpsLogsStatsTableFields.COLUMN_LOGID.getFieldName()).append(", ifnull(y.");
+        sb.append(GpsLogsSyncTableFields.COLUMN_SYNCEDCOUNT.getFieldName()).append(", 0), ifnull(y.");
+        sb.append(GpsLogsSyncTableFields.COLUMN_SYNCEDLASTTS.getFieldName()).append(", 0), s.");
+        sb.append(GpsLogsStatsTableFields.COLUMN_POINTSCOUNT.getFieldName()).append(", ifnull(s.");
+        sb.append(GpsLogsStatsTableFields.COLUMN_LASTTS.getFieldName()).append(", 0) FROM ");
+        sb.append(TABLE_GPSLOG_STATS).append(" s LEFT JOIN ").append(TABLE_GPSLOG_SYNC).append(" y ON y.");
+        sb.append(logIdField).append(" = s.").append(GpsLogsStatsTableFields.COLUMN_LOGID.getFieldName());
+        try {
+            sqliteDatabase.execSQL(sb.toString());
+        } catch (Exception e) {
+            GPLog.error("DAOSYNC", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Clear the dirty flag of all rows in the syncing state, to be used after the whole
+     * project has been uploaded.
+     * <p/>
+     * <p>The rows changed since {@link #markAllSyncing()} are left dirty.</p>
+     *
+     * @throws IOException if something goes wrong.
+     */
+    public static void markAllSynced() throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        sqliteDatabase.beginTransaction();
+        try {
+            setDirtyState(sqliteDatabase, TABLE_NOTES, NotesTableFields.COLUMN_ISDIRTY.getFieldName(), SYNCING, 0);
+            setDirtyState(sqliteDatabase, TABLE_GPSLOGS, GpsLogsTableFields.COLUMN_LOG_ISDIRTY.getFieldName(), SYNCING, 0);
+            setDirtyState(sqliteDatabase, TABLE_IMAGES, ImageTableFields.COLUMN_ISDIRTY.getFieldName(), SYNCING, 0);
+            // the uploaded project has no trace of the deleted rows
+            sqliteDatabase.delete(TABLE_SYNC_DELETED, SyncDeletedTableFields.COLUMN_ISDIRTY.getFieldName() + "="
+                    + SYNCING, null);
+            sqliteDatabase.execSQL("UPDATE " + TABLE_GPSLOG_SYNC + " SET " + SYNCED_FROM_SYNCING);
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("DAOSYNC", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+    }
+
+    private static void markAllSyncing(SQLiteDatabase sqliteDatabase) throws IOException {
+        sqliteDatabase.beginTransaction();
+        try {
+            setDirtyState(sqliteDatabase, TABLE_NOTES, NotesTableFields.COLUMN_ISDIRTY.getFieldName(), DIRTY, SYNCING);
+            setDirtyState(sqliteDatabase, TABLE_GPSLOGS, GpsLogsTableFields.COLUMN_LOG_ISDIRTY.getFieldName(), DIRTY, SYNCING);
+            setDirtyState(sqliteDatabase, TABLE_IMAGES, ImageTableFields.COLUMN_ISDIRTY.getFieldName(), DIRTY, SYNCING);
+            setDirtyState(sqliteDatabase, TABLE_SYNC_DELETED, SyncDeletedTableFields.COLUMN_ISDIRTY.getFieldName(), DIRTY,
+                    SYNCING);
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("DAOSYNC", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+    }
+
+    private static void setDirtyState(SQLiteDatabase sqliteDatabase, String table, String dirtyField, int fromState,
+                                      int toState) {
+        sqliteDatabase.execSQL("UPDATE " + table + " SET " + dirtyField + "=" + toState + " WHERE " + dirtyField + "="
+                + fromState);
+    }
+
+    /**
+     * Forget which points of a log the server has, so that the next sync sends all of them.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param logId          the id of the log.
+     */
+    public static void forgetSyncedPoints(SQLiteDatabase sqliteDatabase, long logId) {
+        sqliteDatabase.delete(TABLE_GPSLOG_SYNC, GpsLogsSyncTableFields.COLUMN_LOGID.getFieldName() + "=" + logId, null);
+    }
+
+    private static void writeDeletions(SQLiteDatabase sqliteDatabase, ChangesetWriter writer, List<Long> deletedIds)
+            throws IOException {
+        String asColumnsToReturn[] = { //
+                SyncDeletedTableFields.COLUMN_ID.getFieldName(),//
+                SyncDeletedTableFields.COLUMN_TABLE.getFieldName(),//
+                SyncDeletedTableFields.COLUMN_ITEMID.getFieldName()//
+        };
+        String whereStr = SyncDeletedTableFields.COLUMN_ISDIRTY.getFieldName() + " = " + SYNCING;
+        String orderStr = SyncDeletedTableFields.COLUMN_ID.getFieldName();
+        Cursor c = sqliteDatabase.query(TABLE_SYNC_DELETED, asColumnsToReturn, whereStr, null, null, null, orderStr);
+        try {
+            while (c.moveToNext()) {
+                writer.writeDelete(c.getString(1), c.getLong(2));
+                deletedIds.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    private static void writeDirtyNotes(SQLiteDatabase sqliteDatabase, ChangesetWriter writer, List<Long> noteIds)
+            throws IOException {
+        String asColumnsToReturn[] = { //
+                NotesTableFields.COLUMN_ID.getFieldName(),//
+                NotesTableFields.COLUMN_LON.getFieldName(),//
+                NotesTableFields.COLUMN_LAT.getFieldName(),//
+                NotesTableFields.COLUMN_ALTIM.getFieldName(),//
+                NotesTableFields.COLUMN_TS.getFieldName(),//
+                NotesTableFields.COLUMN_TEXT.getFieldName(),//
+                NotesTableFields.COLUMN_DESCRIPTION.getFieldName(),//
+                NotesTableFields.COLUMN_FORM.getFieldName(),//
+                NotesTableFields.COLUMN_STYLE.getFieldName()//
+        };
+        String whereStr = NotesTableFields.COLUMN_ISDIRTY.getFieldName() + " = " + SYNCING;
+        Cursor c = sqliteDatabase.query(TABLE_NOTES, asColumnsToReturn, whereStr, null, null, null, null);
+        try {
+            c.moveToFirst();
+            while (!c.isAfterLast()) {
+                long id = c.getLong(0);
+                writer.writeNote(id, c.getDouble(1), c.getDouble(2), c.getDouble(3), c.getLong(4), c.getString(5),
+                        c.getString(6), c.getString(7), c.getString(8));
+                noteIds.add(id);
+                c.moveToNext();
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    private static void writeDirtyLogs(SQLiteDatabase sqliteDatabase, ChangesetWriter writer, List<Long> logIds)
+            throws IOException {
+        String asColumnsToReturn[] = { //
+                GpsLogsTableFields.COLUMN_ID.getFieldName(),//
+                GpsLogsTableFields.COLUMN_LOG_STARTTS.getFieldName(),//
+                GpsLogsTableFields.COLUMN_LOG_ENDTS.getFieldName(),//
+                GpsLogsTableFields.COLUMN_LOG_LENGTHM.getFieldName(),//
+                GpsLogsTableFields.COLUMN_LOG_TEXT.getFieldName()//
+        };
+        String whereStr = GpsLogsTableFields.COLUMN_LOG_ISDIRTY.getFieldName() + " = " + SYNCING;
+        Cursor c = sqliteDatabase.query(TABLE_GPSLOGS, asColumnsToReturn, whereStr, null, null, null, null);
+        try {
+            c.moveToFirst();
+            while (!c.isAfterLast()) {
+                long logId = c.getLong(0);
+                GpsLogPoints points = DaoGpsLog.getLogPoints(sqliteDatabase, logId);
+                int pointsCount = points.size();
+                int from = getSyncedPointsCount(sqliteDatabase, logId, points);
+
+                writer.writeGpsLog(logId, c.getLong(1), c.getLong(2), c.getDouble(3), c.getString(4), from,
+                        pointsCount - from);
+
+                for (int i = from; i < pointsCount; i++) {
+                    writer.writeGpsLogPoint(points.getLon(i), points.getLat(i), points.getElev(i), points.getTimestamp(i));
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(GpsLogsSyncTableFields.COLUMN_LOGID.getFieldName(), logId);
+                values.put(GpsLogsSyncTableFields.COLUMN_SYNCEDCOUNT.getFieldName(), from);
+                values.put(GpsLogsSyncTableFields.COLUMN_SYNCEDLASTTS.getFieldName(),
+                        from > 0 ? points.getTimestamp(from - 1) : 0);
+                values.put(GpsLogsSyncTableFields.COLUMN_SYNCINGCOUNT.getFieldName(), pointsCount);
+                values.put(GpsLogsSyncTableFields.COLUMN_SYNCINGLASTTS.getFieldName(),
+                        pointsCount > 0 ? points.getTimestamp(pointsCount - 1) : 0);
+                sqliteDatabase.insertWithOnConflict(TABLE_GPSLOG_SYNC, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+
+                logIds.add(logId);
+                c.moveToNext();
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * @return the number of points at the start of the log the server has, 0 if they changed since.
+     */
+    private static int getSyncedPointsCount(SQLiteDatabase sqliteDatabase, long logId, GpsLogPoints points) {
+        String[] columns = { //
+                GpsLogsSyncTableFields.COLUMN_SYNCEDCOUNT.getFieldName(),//
+                GpsLogsSyncTableFields.COLUMN_SYNCEDLASTTS.getFieldName()//
+        };
+        String whereStr = GpsLogsSyncTableFields.COLUMN_LOGID.getFieldName() + " = " + logId;
+        Cursor c = sqliteDatabase.query(TABLE_GPSLOG_SYNC, columns, whereStr, null, null, null, null);
+        try {
+            if (!c.moveToFirst()) {
+                return 0;
+            }
+            long syncedCount = c.getLong(0);
+            if (syncedCount <= 0 || syncedCount > points.size()) {
+                return 0;
+            }
+            // a point inserted before the synced ones moves them
+            int from = (int) syncedCount;
+            return points.getTimestamp(from - 1) == c.getLong(1) ? from : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    private static void writeDirtyImages(SQLiteDatabase sqliteDatabase, ChangesetWriter writer, List<Long> imageIds)
+            throws IOException {
+        String asColumnsToReturn[] = { //
+                ImageTableFields.COLUMN_ID.getFieldName(),//
+                ImageTableFields.COLUMN_LON.getFieldName(),//
+                ImageTableFields.COLUMN_LAT.getFieldName(),//
+                ImageTableFields.COLUMN_ALTIM.getFieldName(),//
+                ImageTableFields.COLUMN_AZIM.getFieldName(),//
+                ImageTableFields.COLUMN_TS.getFieldName(),//
+                ImageTableFields.COLUMN_TEXT.getFieldName(),//
+                ImageTableFields.COLUMN_NOTE_ID.getFieldName(),//
+                ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName()//
+        };
+        String whereStr = ImageTableFields.COLUMN_ISDIRTY.getFieldName() + " = " + SYNCING;
+        Cursor c = sqliteDatabase.query(TABLE_IMAGES, asColumnsToReturn, whereStr, null, null, null, null);
+        try {
+            c.moveToFirst();
+            while (!c.isAfterLast()) {
+                long id = c.getLong(0);
+                long imageDataId = c.getLong(8);
+                String dataWhereStr = ImageDataTableFields.COLUMN_ID.getFieldName() + " = " + imageDataId;
+                ChunkedBlobInputStream imageStream = new ChunkedBlobInputStream(sqliteDatabase, TABLE_IMAGE_DATA,
+                        ImageDataTableFields.COLUMN_IMAGE.getFieldName(), dataWhereStr);
+                try {
+                    writer.writeImage(id, c.getDouble(1), c.getDouble(2), c.getDouble(3), c.getDouble(4), c.getLong(5),
+                            c.getString(6), c.getLong(7), imageStream.getBlobSize(), imageStream);
+                } finally {
+                    imageStream.close();
+                }
+                imageIds.add(id);
+                c.moveToNext();
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    private static void clearDirty(SQLiteDatabase sqliteDatabase, String table, String dirtyField, String idField,
+                                   String idsString) {
+        if (idsString.length() == 0) {
+            return;
+        }
+        String[] ids = idsString.split(",");
+        for (int i = 0; i < ids.length; i = i + MAX_IDS_PER_UPDATE) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("UPDATE ").append(table);
+            sb.append(" SET ").append(dirtyField).append("=0");
+            sb.append(" WHERE ").append(dirtyField).append("=").append(SYNCING);
+            sb.append(" AND ").append(idField).append(" IN (");
+            int end = Math.min(ids.length, i + MAX_IDS_PER_UPDATE);
+            for (int j = i; j < end; j++) {
+                if (j > i) {
+                    sb.append(",");
+                }
+                sb.append(Long.parseLong(ids[j].trim()));
+            }
+            sb.append(")");
+            sqliteDatabase.execSQL(sb.toString());
+        }
+    }
+
+    private static void deleteIds(SQLiteDatabase sqliteDatabase, String table, String idField, String idsString) {
+        if (idsString.length() == 0) {
+            return;
+        }
+        String[] ids = idsString.split(",");
+        for (int i = 0; i < ids.length; i = i + MAX_IDS_PER_UPDATE) {
+            StringBuilder sb = new StringBuilder();
+            int end = Math.min(ids.length, i + MAX_IDS_PER_UPDATE);
+            for (int j = i; j < end; j++) {
+                if (j > i) {
+                    sb.append(",");
+                }
+                sb.append(Long.parseLong(ids[j].trim()));
+            }
+            sqliteDatabase.delete(table, idField + " IN (" + sb + ")", null);
+        }
+    }
+
+    /**
+     * @return the ids as sql list, which is never empty.
+     */
+    private static String toSqlIds(String idsString) {
+        StringBuilder sb = new StringBuilder("-1");
+        if (idsString.length() > 0) {
+            for (String id : idsString.split(",")) {
+                sb.append(",").append(Long.parseLong(id.trim()));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String toIdsString(List<Long> ids) {
+        StringBuilder sb = new StringBuilder();
+        for (Long id : ids) {
+            if (sb.length() > 0) {
+                sb.append(",");
+            }
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+
+    private static File getIdsFile(File changesetFile) {
+        return new File(changesetFile.getParentFile(), changesetFile.getName() + IDS_EXT);
+    }
+}
@@ -18,7 +18,9 @@
 package eu.hydrologis.geopaparazzi.database;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.sqlite.SQLiteDatabase;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 import java.io.File;
@@ -28,6 +30,7 @@ import java.util.Locale;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.util.ResourcesManager;
 import eu.geopaparazzi.library.util.debug.Debug;
+import eu.hydrologis.geopaparazzi.util.Constants;
 
 /**
  * The database manager.
@@ -40,7 +43,7 @@ public class DatabaseManager {
     /**
      * The db version.
      */
-    public static final int DATABASE_VERSION = 9;
+    public static final int DATABASE_VERSION = 15;
 
     private static final String DEBUG_TAG = "DATABASEMANAGER";
 
@@ -113,6 +116,9 @@ public class DatabaseManager {
                 int dbVersion = db.getVersion();
                 if (DATABASE_VERSION > dbVersion)
                     upgrade(DATABASE_VERSION, dbVersion, context);
+                SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+                if (preferences.getBoolean(Constants.PREFS_KEY_GPSLOG_DROP_DATA_TABLE, false))
+                    DaoGpsLog.dropDataTable(db);
             } else {
                 if (Debug.D) {
                     Log.i("SQLiteHelper", "Creating database at " + databaseFile);
@@ -148,8 +154,13 @@ public class DatabaseManager {
             DaoMetadata.initProjectMetadata(null, null, null, null);
             DaoNotes.createTables();
             DaoGpsLog.createTables();
+            DaoGpsLog.createStatsTable(db);
+            DaoGpsLog.createBlocksTable(db);
             DaoBookmarks.createTables();
             DaoImages.createTables();
+            DaoImages.createRenditionsTable(db);
+            DaoSearch.createTables(db);
+            DaoSync.createTables(db);
         }
 
         /**
@@ -193,16 +204,46 @@ public class DatabaseManager {
 //                    DaoGpsLog.addFieldGPSTables(db, "gpslogs", "lengthm", "REAL");
 //                }
 //            }
-//            db.beginTransaction();
-//            try {
-//                db.setTransactionSuccessful();
-//                db.setVersion(newDbVersion);
-//            } catch (Exception e) {
-//                Log.e("DATABASEMANAGER", e.getLocalizedMessage(), e);
-//                throw new IOException(e.getLocalizedMessage());
-//            } finally {
-//                db.endTransaction();
-//            }
+            if (oldDbVersion <= 9) {
+                Log.i(DEBUG_TAG, "Db upgrade to 10");
+                DaoImages.createRenditionsTable(db);
+            }
+            if (oldDbVersion <= 10) {
+                Log.i(DEBUG_TAG, "Db upgrade to 11");
+                DaoGpsLog.createStatsTable(db);
+            }
+            if (oldDbVersion <= 11) {
+                Log.i(DEBUG_TAG, "Db upgrade to 12");
+                DaoGpsLog.createBlocksTable(db);
+                DaoGpsLog.migrateToBlocks(db);
+                // the statistics are computed from the points, which are read from the blocks
+                DaoGpsLog.createMissingLogStats(db);
+            }
+            if (oldDbVersion <= 12) {
+                Log.i(DEBUG_TAG, "Db upgrade to 13");
+                DaoSearch.createTables(db);
+                DaoSearch.rebuildIndexes(db);
+            }
+            if (oldDbVersion <= 13) {
+                Log.i(DEBUG_TAG, "Db upgrade to 14");
+                // the logs synced before are sent whole once more
+                DaoSync.createTables(db);
+            }
+            if (oldDbVersion <= 14) {
+                Log.i(DEBUG_TAG, "Db upgrade to 15");
+                // the bounds of logs without points become null
+                DaoGpsLog.recreateStatsTable(db);
+            }
+            db.beginTransaction();
+            try {
+                db.setVersion(newDbVersion);
+                db.setTransactionSuccessful();
+            } catch (Exception e) {
+                Log.e("DATABASEMANAGER", e.getLocalizedMessage(), e);
+                throw new IOException(e.getLocalizedMessage());
+            } finally {
+                db.endTransaction();
+            }
         }
 
         public SQLiteDatabase getWritableDatabase( Context context ) throws IOException {
@@ -0,0 +1,293 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.geopaparazzi.database;
+
+import java.io.IOException;
+
+import eu.hydrologis.geopaparazzi.util.GpsLogPoints;
+
+/**
+ * Encoder and decoder of the gps log point blocks.
+ * <p/>
+ * <p>A block is a version byte, the number of points as varint and then, for every point,
+ * the differences to the previous point of lon, lat, elevation and timestamp as zigzag
+ * varints. The first point is stored as difference to 0. Coordinates are stored as
+ * 1E-7 degrees (about 1cm), elevations as centimeters and timestamps as milliseconds,
+ * so that consecutive fixes usually need 1-3 bytes per value.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class GpsLogBlockCodec {
+    /**
+     * The block format version.
+     */
+    public static final byte VERSION = 1;
+
+    private static final double LONLAT_SCALE = 1E7;
+    private static final double ELEV_SCALE = 100.0;
+
+    private GpsLogBlockCodec() {
+    }
+
+    /**
+     * Encode a range of points.
+     *
+     * @param points the points.
+     * @param from   the index of the first point to encode.
+     * @param to     the index after the last point to encode.
+     * @return the encoded block.
+     */
+    public static byte[] encode(GpsLogPoints points, int from, int to) {
+        int count = to - from;
+        // worst case is 10 bytes per value
+        byte[] buffer = new byte[1 + 5 + count * 40];
+        int pos = 0;
+        buffer[pos++] = VERSION;
+        pos = writeVarint(buffer, pos, count);
+
+        long prevLon = 0;
+        long prevLat = 0;
+        long prevElev = 0;
+        long prevTs = 0;
+        double[] lons = points.getLons();
+        double[] lats = points.getLats();
+        double[] elevs = points.getElevs();
+        long[] timestamps = points.getTimestamps();
+        for (int i = from; i < to; i++) {
+            long lon = Math.round(lons[i] * LONLAT_SCALE);
+            long lat = Math.round(lats[i] * LONLAT_SCALE);
+            long elev = Math.round(elevs[i] * ELEV_SCALE);
+            long ts = timestamps[i];
+            pos = writeVarint(buffer, pos, zigzag(lon - prevLon));
+            pos = writeVarint(buffer, pos, zigzag(lat - prevLat));
+            pos = writeVarint(buffer, pos, zigzag(elev - prevElev));
+            pos = writeVarint(buffer, pos, zigzag(ts - prevTs));
+            prevLon = lon;
+            prevLat = lat;
+            prevElev = elev;
+            prevTs = ts;
+        }
+        byte[] block = new byte[pos];
+        System.arraycopy(buffer, 0, block, 0, pos);
+        return block;
+    }
+
+    /**
+     * Decode a block, appending its points.
+     *
+     * @param block  the encoded block.
+     * @param points the points to add to.
+     * @return the number of points decoded.
+     * @throws IOException if the block is corrupted or of an unknown version.
+     */
+    public static int decode(byte[] block, GpsLogPoints points) throws IOException {
+        if (block == null || block.length == 0 || block[0] != VERSION) {
+            throw new IOException("Unknown gps log block format.");
+        }
+        try {
+            int[] pos = new int[]{1};
+            int count = (int) readVarint(block, pos);
+            long lon = 0;
+            long lat = 0;
+            long elev = 0;
+            long ts = 0;
+            for (int i = 0; i < count; i++) {
+                lon = lon + unzigzag(readVarint(block, pos));
+                lat = lat + unzigzag(readVarint(block, pos));
+                elev = elev + unzigzag(readVarint(block, pos));
+                ts = ts + unzigzag(readVarint(block, pos));
+                points.add(lon / LONLAT_SCALE, lat / LONLAT_SCALE, elev / ELEV_SCALE, ts);
+            }
+            return count;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated gps log block.");
+        }
+    }
+
+    /**
+     * A block being filled, one point at a time.
+     * <p/>
+     * <p>Every added point is encoded right away as difference to the previous one, so that
+     * the last block of a log can be grown and written without being decoded and encoded
+     * again. {@link #toBlock()} gives the same bytes {@link GpsLogBlockCodec#encode} would.</p>
+     */
+    public static class OpenBlock {
+        private final int capacity;
+        private final byte[] body;
+        private int bodyLength;
+        private int count;
+
+        private long prevLon;
+        private long prevLat;
+        private long prevElev;
+        private long prevTs;
+
+        private double minLon;
+        private double minLat;
+        private double maxLon;
+        private double maxLat;
+        private long firstTs;
+        private long lastTs;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity the maximum number of points of the block.
+         */
+        public OpenBlock(int capacity) {
+            this.capacity = capacity;
+            // worst case is 10 bytes per value
+            body = new byte[capacity * 40];
+            clear();
+        }
+
+        /**
+         * Remove all points.
+         */
+        public void clear() {
+            bodyLength = 0;
+            count = 0;
+            prevLon = 0;
+            prevLat = 0;
+            prevElev = 0;
+            prevTs = 0;
+            minLon = Double.POSITIVE_INFINITY;
+            minLat = Double.POSITIVE_INFINITY;
+            maxLon = Double.NEGATIVE_INFINITY;
+            maxLat = Double.NEGATIVE_INFINITY;
+            firstTs = Long.MAX_VALUE;
+            lastTs = Long.MIN_VALUE;
+        }
+
+        /**
+         * @param ts the timestamp of a new point.
+         * @return <code>true</code> if the block is not full and the point does not come before its last one.
+         */
+        public boolean accepts(long ts) {
+            return count < capacity && (count == 0 || ts >= lastTs);
+        }
+
+        /**
+         * Add a point, which has to be {@link #accepts(long) accepted}.
+         *
+         * @param lon  lon.
+         * @param lat  lat.
+         * @param elev elevation.
+         * @param ts   the timestamp.
+         */
+        public void add(double lon, double lat, double elev, long ts) {
+            if (count == capacity) {
+                throw new IllegalStateException("The block is full.");
+            }
+            long lonValue = Math.round(lon * LONLAT_SCALE);
+            long latValue = Math.round(lat * LONLAT_SCALE);
+            long elevValue = Math.round(elev * ELEV_SCALE);
+            bodyLength = writeVarint(body, bodyLength, zigzag(lonValue - prevLon));
+            bodyLength = writeVarint(body, bodyLength, zigzag(latValue - prevLat));
+            bodyLength = writeVarint(body, bodyLength, zigzag(elevValue - prevElev));
+            bodyLength = writeVarint(body, bodyLength, zigzag(ts - prevTs));
+            prevLon = lonValue;
+            prevLat = latValue;
+            prevElev = elevValue;
+            prevTs = ts;
+            count++;
+
+            if (lon < minLon) minLon = lon;
+            if (lon > maxLon) maxLon = lon;
+            if (lat < minLat) minLat = lat;
+            if (lat > maxLat) maxLat = lat;
+            if (ts < firstTs) firstTs = ts;
+            if (ts > lastTs) lastTs = ts;
+        }
+
+        /**
+         * @return the encoded block.
+         */
+        public byte[] toBlock() {
+            byte[] header = new byte[6];
+            header[0] = VERSION;
+            int headerLength = writeVarint(header, 1, count);
+            byte[] block = new byte[headerLength + bodyLength];
+            System.arraycopy(header, 0, block, 0, headerLength);
+            System.arraycopy(body, 0, block, headerLength, bodyLength);
+            return block;
+        }
+
+        /**
+         * @return the number of points.
+         */
+        public int size() {
+            return count;
+        }
+
+        public double getMinLon() {
+            return minLon;
+        }
+
+        public double getMinLat() {
+            return minLat;
+        }
+
+        public double getMaxLon() {
+            return maxLon;
+        }
+
+        public double getMaxLat() {
+            return maxLat;
+        }
+
+        public long getFirstTs() {
+            return firstTs;
+        }
+
+        public long getLastTs() {
+            return lastTs;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int writeVarint(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long readVarint(byte[] buffer, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buffer[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -40,6 +40,10 @@ public class TableDescriptions {
      * Image data table name.
      */
     public static final String TABLE_IMAGE_DATA = "imagedata";
+    /**
+     * Image renditions table name.
+     */
+    public static final String TABLE_IMAGE_RENDITIONS = "imagerenditions";
     /**
      * gpslog table name.
      */
@@ -52,6 +56,30 @@ public class TableDescriptions {
      * gpslog properties table name.
      */
     public static final String TABLE_GPSLOG_PROPERTIES = "gpslogsproperties";
+    /**
+     * gpslog statistics table name.
+     */
+    public static final String TABLE_GPSLOG_STATS = "gpslogsstats";
+    /**
+     * gpslog point blocks table name.
+     */
+    public static final String TABLE_GPSLOG_BLOCKS = "gpslogsblocks";
+    /**
+     * Notes full text index table name.
+     */
+    public static final String TABLE_NOTES_SEARCH = "notessearch";
+    /**
+     * Bookmarks full text index table name.
+     */
+    public static final String TABLE_BOOKMARKS_SEARCH = "bookmarkssearch";
+    /**
+     * gpslog synced points table name.
+     */
+    public static final String TABLE_GPSLOG_SYNC = "gpslogssync";
+    /**
+     * Deleted rows to sync table name.
+     */
+    public static final String TABLE_SYNC_DELETED = "syncdeleted";
 
     public static enum MetadataTableFields {
         /**
@@ -89,7 +117,11 @@ public class TableDescriptions {
         /**
          * The last user working on the project key to use.
          */
-        KEY_LASTUSER("lastuser", String.class);
+        KEY_LASTUSER("lastuser", String.class),
+        /**
+         * The timestamp of the last successful cloud sync key to use.
+         */
+        KEY_LASTSYNCTS("lastsyncts", Long.class);
 
         private String fieldName;
         private Class fieldClass;
@@ -258,6 +290,41 @@ public class TableDescriptions {
         }
     }
 
+    public static enum ImageRenditionsTableFields {
+        /**
+         * id of the rendition, Generated by the db.
+         */
+        COLUMN_ID("_id", Long.class),
+        /**
+         * The id of the image data the rendition was created from.
+         */
+        COLUMN_IMAGEDATA_ID("imagedata_id", Long.class),
+        /**
+         * The size of the longest side of the rendition.
+         */
+        COLUMN_SIZE("size", Integer.class),
+        /**
+         * The rendition image data.
+         */
+        COLUMN_DATA("data", byte[].class);
+
+        private String fieldName;
+        private Class fieldClass;
+
+        ImageRenditionsTableFields(String fieldName, Class fieldClass) {
+            this.fieldName = fieldName;
+            this.fieldClass = fieldClass;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Class getFieldClass() {
+            return fieldClass;
+        }
+    }
+
     public static enum GpsLogsTableFields {
         /**
          * id of the log, Generated by the db.
@@ -382,4 +449,232 @@ public class TableDescriptions {
             return fieldClass;
         }
     }
+
+    public static enum GpsLogsStatsTableFields {
+        /**
+         * the id of the gps log, also the primary key.
+         */
+        COLUMN_LOGID("logid", Long.class),
+        /**
+         * the number of points of the log.
+         */
+        COLUMN_POINTSCOUNT("pointscount", Long.class),
+        /**
+         * the minimum longitude of the points.
+         */
+        COLUMN_MINLON("minlon", Double.class),
+        /**
+         * the minimum latitude of the points.
+         */
+        COLUMN_MINLAT("minlat", Double.class),
+        /**
+         * the maximum longitude of the points.
+         */
+        COLUMN_MAXLON("maxlon", Double.class),
+        /**
+         * the maximum latitude of the points.
+         */
+        COLUMN_MAXLAT("maxlat", Double.class),
+        /**
+         * the minimum elevation of the points.
+         */
+        COLUMN_MINELEV("minelev", Double.class),
+        /**
+         * the maximum elevation of the points.
+         */
+        COLUMN_MAXELEV("maxelev", Double.class),
+        /**
+         * the length of the log in meters.
+         */
+        COLUMN_LENGTHM("lengthm", Double.class),
+        /**
+         * the summed up elevation gain.
+         */
+        COLUMN_ELEVGAIN("elevgain", Double.class),
+        /**
+         * the summed up elevation loss.
+         */
+        COLUMN_ELEVLOSS("elevloss", Double.class),
+        /**
+         * the longitude of the first point.
+         */
+        COLUMN_FIRSTLON("firstlon", Double.class),
+        /**
+         * the latitude of the first point.
+         */
+        COLUMN_FIRSTLAT("firstlat", Double.class),
+        /**
+         * the elevation of the first point.
+         */
+        COLUMN_FIRSTELEV("firstelev", Double.class),
+        /**
+         * the UTC timestamp of the first point.
+         */
+        COLUMN_FIRSTTS("firstts", Long.class),
+        /**
+         * the longitude of the last point.
+         */
+        COLUMN_LASTLON("lastlon", Double.class),
+        /**
+         * the latitude of the last point.
+         */
+        COLUMN_LASTLAT("lastlat", Double.class),
+        /**
+         * the elevation of the last point.
+         */
+        COLUMN_LASTELEV("lastelev", Double.class),
+        /**
+         * the UTC timestamp of the last point.
+         */
+        COLUMN_LASTTS("lastts", Long.class);
+
+        private String fieldName;
+        private Class fieldClass;
+
+        GpsLogsStatsTableFields(String fieldName, Class fieldClass) {
+            this.fieldName = fieldName;
+            this.fieldClass = fieldClass;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Class getFieldClass() {
+            return fieldClass;
+        }
+    }
+
+    public static enum GpsLogsBlocksTableFields {
+        /**
+         * id of the block, Generated by the db.
+         */
+        COLUMN_ID("_id", Long.class),
+        /**
+         * the id of the parent gps log.
+         */
+        COLUMN_LOGID("logid", Long.class),
+        /**
+         * the number of points in the block.
+         */
+        COLUMN_POINTSCOUNT("pointscount", Integer.class),
+        /**
+         * the UTC timestamp of the first point of the block.
+         */
+        COLUMN_FIRSTTS("firstts", Long.class),
+        /**
+         * the UTC timestamp of the last point of the block.
+         */
+        COLUMN_LASTTS("lastts", Long.class),
+        /**
+         * the minimum longitude of the block.
+         */
+        COLUMN_MINLON("minlon", Double.class),
+        /**
+         * the minimum latitude of the block.
+         */
+        COLUMN_MINLAT("minlat", Double.class),
+        /**
+         * the maximum longitude of the block.
+         */
+        COLUMN_MAXLON("maxlon", Double.class),
+        /**
+         * the maximum latitude of the block.
+         */
+        COLUMN_MAXLAT("maxlat", Double.class),
+        /**
+         * the points, as encoded by the {@link GpsLogBlockCodec}.
+         */
+        COLUMN_DATA("data", byte[].class);
+
+        private String fieldName;
+        private Class fieldClass;
+
+        GpsLogsBlocksTableFields(String fieldName, Class fieldClass) {
+            this.fieldName = fieldName;
+            this.fieldClass = fieldClass;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Class getFieldClass() {
+            return fieldClass;
+        }
+    }
+
+    public static enum GpsLogsSyncTableFields {
+        /**
+         * the id of the gps log, also the primary key.
+         */
+        COLUMN_LOGID("logid", Long.class),
+        /**
+         * the number of points the server has.
+         */
+        COLUMN_SYNCEDCOUNT("syncedcount", Long.class),
+        /**
+         * the UTC timestamp of the last point the server has.
+         */
+        COLUMN_SYNCEDLASTTS("syncedlastts", Long.class),
+        /**
+         * the number of points being synced.
+         */
+        COLUMN_SYNCINGCOUNT("syncingcount", Long.class),
+        /**
+         * the UTC timestamp of the last point being synced.
+         */
+        COLUMN_SYNCINGLASTTS("syncinglastts", Long.class);
+
+        private String fieldName;
+        private Class fieldClass;
+
+        GpsLogsSyncTableFields(String fieldName, Class fieldClass) {
+            this.fieldName = fieldName;
+            this.fieldClass = fieldClass;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Class getFieldClass() {
+            return fieldClass;
+        }
+    }
+
+    public static enum SyncDeletedTableFields {
+        /**
+         * id of the deletion, Generated by the db.
+         */
+        COLUMN_ID("_id", Long.class),
+        /**
+         * the name of the table the row was deleted from.
+         */
+        COLUMN_TABLE("tablename", String.class),
+        /**
+         * the id of the deleted row.
+         */
+        COLUMN_ITEMID("itemid", Long.class),
+        /**
+         * the sync state of the deletion.
+         */
+        COLUMN_ISDIRTY("isdirty", Integer.class);
+
+        private String fieldName;
+        private Class fieldClass;
+
+        SyncDeletedTableFields(String fieldName, Class fieldClass) {
+            this.fieldName = fieldName;
+            this.fieldClass = fieldClass;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public Class getFieldClass() {
+            return fieldClass;
+        }
+    }
 }
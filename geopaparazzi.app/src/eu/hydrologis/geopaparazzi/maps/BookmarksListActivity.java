@@ -34,6 +34,7 @@ import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
 import android.widget.ImageView;
@@ -63,7 +64,12 @@ import eu.hydrologis.geopaparazzi.util.Bookmark;
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class BookmarksListActivity extends ListActivity {
-    private String[] bookmarksNames;
+    /**
+     * The bookmarks loaded at a time while searching.
+     */
+    private static final int SEARCH_PAGE_SIZE = 50;
+
+    private List<String> bookmarksNames = new ArrayList<String>();
     private Map<String, Bookmark> bookmarksMap = new HashMap<String, Bookmark>();
     private Comparator<Bookmark> bookmarksSorter = new ItemComparators.BookmarksComparator(false);
 
@@ -76,6 +82,19 @@ public class BookmarksListActivity extends ListActivity {
 
         filterText = (EditText) findViewById(R.id.search_box);
         filterText.addTextChangedListener(filterTextWatcher);
+
+        getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // ignore
+            }
+
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (searchHasMore && firstVisibleItem + visibleItemCount >= totalItemCount - 5) {
+                    loadSearchPage();
+                    arrayAdapter.notifyDataSetChanged();
+                }
+            }
+        });
     }
 
     @Override
@@ -92,18 +111,18 @@ public class BookmarksListActivity extends ListActivity {
     private void refreshList() {
         if (GPLog.LOG_HEAVY)
             GPLog.addLogEntry(this, "refreshing bookmarks list"); //$NON-NLS-1$
+        searchText = null;
+        searchHasMore = false;
         try {
             List<Bookmark> bookmarksList = DaoBookmarks.getAllBookmarks();
 
             Collections.sort(bookmarksList, bookmarksSorter);
-            bookmarksNames = new String[bookmarksList.size()];
+            bookmarksNames.clear();
             bookmarksMap.clear();
-            int index = 0;
             for (Bookmark bookmark : bookmarksList) {
                 String name = bookmark.getName();
                 bookmarksMap.put(name, bookmark);
-                bookmarksNames[index] = name;
-                index++;
+                bookmarksNames.add(name);
             }
         } catch (IOException e) {
             GPLog.error(this, e.getLocalizedMessage(), e);
@@ -116,29 +135,35 @@ public class BookmarksListActivity extends ListActivity {
     private void filterList(String filterText) {
         if (GPLog.LOG_HEAVY)
             GPLog.addLogEntry(this, "filter bookmarks list"); //$NON-NLS-1$
-        try {
-            List<Bookmark> bookmarksList = DaoBookmarks.getAllBookmarks();
-            Collections.sort(bookmarksList, bookmarksSorter);
+        if (filterText.trim().length() == 0) {
+            refreshList();
+            return;
+        }
+        // the bookmarks are searched in the full text index a page at a time
+        searchText = filterText;
+        searchOffset = 0;
+        searchHasMore = true;
+        bookmarksNames.clear();
+        bookmarksMap.clear();
+        loadSearchPage();
+        redoAdapter();
+    }
 
-            bookmarksMap.clear();
-            filterText = ".*" + filterText.toLowerCase() + ".*"; //$NON-NLS-1$ //$NON-NLS-2$
-            List<String> namesList = new ArrayList<String>();
-            for (Bookmark bookmark : bookmarksList) {
+    private void loadSearchPage() {
+        try {
+            List<Bookmark> bookmarksPage = DaoBookmarks.searchBookmarks(searchText, searchOffset, SEARCH_PAGE_SIZE);
+            for (Bookmark bookmark : bookmarksPage) {
                 String name = bookmark.getName();
-                String nameLower = name.toLowerCase();
-                if (nameLower.matches(filterText)) {
-                    namesList.add(name);
-                    bookmarksMap.put(name, bookmark);
+                if (bookmarksMap.put(name, bookmark) == null) {
+                    bookmarksNames.add(name);
                 }
             }
-
-            bookmarksNames = namesList.toArray(new String[0]);
+            searchOffset = searchOffset + bookmarksPage.size();
+            searchHasMore = bookmarksPage.size() == SEARCH_PAGE_SIZE;
         } catch (IOException e) {
             GPLog.error(this, e.getLocalizedMessage(), e);
-            e.printStackTrace();
+            searchHasMore = false;
         }
-
-        redoAdapter();
     }
 
     private void redoAdapter() {
@@ -149,7 +174,7 @@ public class BookmarksListActivity extends ListActivity {
                 final View rowView = inflater.inflate(R.layout.bookmark_row, null);
 
                 final TextView bookmarkText = (TextView) rowView.findViewById(R.id.bookmarkrowtext);
-                bookmarkText.setText(bookmarksNames[position]);
+                bookmarkText.setText(bookmarksNames.get(position));
 
                 final ImageView renameButton = (ImageView) rowView.findViewById(R.id.renamebutton);
                 renameButton.setOnClickListener(new View.OnClickListener() {
@@ -299,5 +324,8 @@ public class BookmarksListActivity extends ListActivity {
     };
     private ArrayAdapter<String> arrayAdapter;
     private EditText filterText;
+    private String searchText;
+    private int searchOffset;
+    private boolean searchHasMore;
 
 }
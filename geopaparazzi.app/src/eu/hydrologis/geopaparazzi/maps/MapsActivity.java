@@ -116,6 +116,7 @@ import eu.geopaparazzi.library.util.activities.GeocodeActivity;
 import eu.geopaparazzi.library.util.activities.InsertCoordActivity;
 import eu.geopaparazzi.library.util.debug.Debug;
 import eu.geopaparazzi.mapsforge.mapsdirmanager.MapsDirManager;
+import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.TilePrefetcher;
 import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
 import eu.geopaparazzi.spatialite.database.spatial.activities.DataListActivity;
 import eu.geopaparazzi.spatialite.database.spatial.activities.EditableLayersListActivity;
@@ -167,6 +168,7 @@ public class MapsActivity extends MapActivity implements OnTouchListener, OnClic
     private static final String ARE_BUTTONSVISIBLE_OPEN = "ARE_BUTTONSVISIBLE_OPEN"; //$NON-NLS-1$
     private DecimalFormat formatter = new DecimalFormat("00"); //$NON-NLS-1$
     private MapView mapView;
+    private TilePrefetcher tilePrefetcher;
     private SlidingDrawer osmSlidingDrawer;
     private SharedPreferences preferences;
     private boolean doOsm;
@@ -268,6 +270,8 @@ public class MapsActivity extends MapActivity implements OnTouchListener, OnClic
         mapView.setClickable(true);
         mapView.setBuiltInZoomControls(false);
         mapView.setOnTouchListener(this);
+        tilePrefetcher = new TilePrefetcher(mapView);
+        tilePrefetcher.start();
 
         // TODO
         // boolean persistent = preferences.getBoolean("cachePersistence", false);
@@ -463,6 +467,9 @@ public class MapsActivity extends MapActivity implements OnTouchListener, OnClic
         if (dataOverlay != null)
             dataOverlay.dispose();
 
+        if (tilePrefetcher != null)
+            tilePrefetcher.stop();
+
         if (mapView != null) {
             MapGenerator mapGenerator = mapView.getMapGenerator();
             if (mapGenerator != null) {
@@ -1421,6 +1428,10 @@ public class MapsActivity extends MapActivity implements OnTouchListener, OnClic
                 if (GPLog.LOG_ABSURD)
                     GPLog.addLogEntry(this, "recentering triggered"); //$NON-NLS-1$
             }
+            // the prefetch assumes a view that follows the gps
+            if (centerOnGps && lastGpsServiceStatus == GpsServiceStatus.GPS_FIX && lastGpsPositionExtras != null) {
+                tilePrefetcher.onGpsUpdate(lon, lat, lastGpsPositionExtras[1], lastGpsPositionExtras[2]);
+            }
         } catch (Exception e) {
             GPLog.error(this, "On location change error", e); //$NON-NLS-1$
             // finish the activity to reset
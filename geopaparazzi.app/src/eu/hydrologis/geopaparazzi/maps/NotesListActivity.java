@@ -33,6 +33,7 @@ import android.view.MenuItem;
 import android.view.SubMenu;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.ArrayAdapter;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
@@ -44,6 +45,7 @@ import android.widget.Toast;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -54,6 +56,7 @@ import eu.geopaparazzi.library.database.IImagesDbHelper;
 import eu.geopaparazzi.library.database.Image;
 import eu.geopaparazzi.library.forms.FormActivity;
 import eu.geopaparazzi.library.forms.FormUtilities;
+import eu.geopaparazzi.library.images.AsyncImageLoader;
 import eu.geopaparazzi.library.images.ImageUtilities;
 import eu.geopaparazzi.library.share.ShareUtilities;
 import eu.geopaparazzi.library.util.LibraryConstants;
@@ -72,6 +75,11 @@ import eu.hydrologis.geopaparazzi.util.Note;
  * @author Andrea Antonello (www.hydrologis.com)
  */
 public class NotesListActivity extends ListActivity {
+    /**
+     * The notes loaded at a time while searching.
+     */
+    private static final int SEARCH_PAGE_SIZE = 50;
+
     private String SHARE_NOTE_WITH = "";
     private List<ANote> allNotesList = new ArrayList<ANote>();
     private List<ANote> visibleNotesList = new ArrayList<ANote>();
@@ -79,6 +87,9 @@ public class NotesListActivity extends ListActivity {
 
     private ArrayAdapter<ANote> arrayAdapter;
     private EditText filterText;
+    private String searchText;
+    private int searchOffset;
+    private boolean searchHasMore;
 
     private String share;
     private String edit;
@@ -112,6 +123,19 @@ public class NotesListActivity extends ListActivity {
 
         filterText = (EditText) findViewById(R.id.search_box);
         filterText.addTextChangedListener(filterTextWatcher);
+
+        getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // ignore
+            }
+
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (searchHasMore && firstVisibleItem + visibleItemCount >= totalItemCount - 5) {
+                    loadSearchPage();
+                    arrayAdapter.notifyDataSetChanged();
+                }
+            }
+        });
     }
 
 
@@ -129,6 +153,8 @@ public class NotesListActivity extends ListActivity {
     private void refreshList() {
         if (GPLog.LOG_HEAVY)
             GPLog.addLogEntry(this, "refreshing notes list"); //$NON-NLS-1$
+        searchText = null;
+        searchHasMore = false;
         try {
             visibleNotesList.clear();
             collectAllNotes();
@@ -153,23 +179,40 @@ public class NotesListActivity extends ListActivity {
     private void filterList(String filterText) {
         if (GPLog.LOG_HEAVY)
             GPLog.addLogEntry(this, "filter notes list"); //$NON-NLS-1$
+        if (filterText.trim().length() == 0) {
+            refreshList();
+            return;
+        }
+        // the notes are searched in the full text index a page at a time
+        searchText = filterText;
+        searchOffset = 0;
+        searchHasMore = true;
+        visibleNotesList.clear();
+        loadSearchPage();
+        redoAdapter();
+    }
+
+    /**
+     * Add the next page of the searched notes and, after the last one, the matching images.
+     */
+    private void loadSearchPage() {
         try {
-            collectAllNotes();
-            visibleNotesList.clear();
-            filterText = filterText.toLowerCase();
+            List<Note> notesPage = DaoNotes.searchNotes(searchText, searchOffset, SEARCH_PAGE_SIZE);
+            visibleNotesList.addAll(notesPage);
+            searchOffset = searchOffset + notesPage.size();
+            searchHasMore = notesPage.size() == SEARCH_PAGE_SIZE;
+        } catch (IOException e) {
+            GPLog.error(this, e.getLocalizedMessage(), e);
+            searchHasMore = false;
+        }
+        if (!searchHasMore) {
+            String filterLower = searchText.toLowerCase();
             for (ANote note : allNotesList) {
-                String name = note.getName();
-                String nameLower = name.toLowerCase();
-                if (nameLower.contains(filterText)) {
+                if (note instanceof Image && note.getName().toLowerCase().contains(filterLower)) {
                     visibleNotesList.add(note);
                 }
             }
-        } catch (IOException e) {
-            GPLog.error(this, e.getLocalizedMessage(), e);
-            e.printStackTrace();
         }
-
-        redoAdapter();
     }
 
     private void redoAdapter() {
@@ -195,6 +238,15 @@ public class NotesListActivity extends ListActivity {
                 final TextView notesText = (TextView) rowView.findViewById(R.id.bookmarkrowtext);
                 notesText.setText(currentNote.getName());
 
+                final ImageView thumbnailView = (ImageView) rowView.findViewById(R.id.notethumbnail);
+                if (currentNote instanceof Image) {
+                    thumbnailView.setVisibility(View.VISIBLE);
+                    AsyncImageLoader.INSTANCE.loadImage(thumbnailView, currentNote.getId(), ImageUtilities.THUMBNAILWIDTH);
+                } else {
+                    AsyncImageLoader.INSTANCE.cancel(thumbnailView);
+                    thumbnailView.setVisibility(View.GONE);
+                }
+
                 final ImageView goButton = (ImageView) rowView.findViewById(R.id.gobutton);
                 goButton.setOnClickListener(new View.OnClickListener() {
                     public void onClick(View v) {
@@ -315,8 +367,8 @@ public class NotesListActivity extends ListActivity {
                             String imageName = image.getName();
                             imageFile = new File(tempDir, imageName);
 
-                            byte[] imageData = imageHelper.getImageDataById(image.getImageDataId(), null);
-                            ImageUtilities.writeImageDataToFile(imageData, imageFile.getAbsolutePath());
+                            InputStream imageStream = imageHelper.getImageDataStreamById(image.getImageDataId(), null);
+                            ImageUtilities.writeImageDataToFile(imageStream, imageFile.getAbsolutePath());
                         }
                         if (imageFile != null) {
                             ShareUtilities.shareTextAndImage(NotesListActivity.this, SHARE_NOTE_WITH, formText,
@@ -339,8 +391,8 @@ public class NotesListActivity extends ListActivity {
                 if (image.getName().endsWith(".png"))
                     ext = ".png";
                 File imageFile = new File(tempDir, ImageUtilities.getTempImageName(ext));
-                byte[] imageData = new DaoImages().getImageData(image.getId());
-                ImageUtilities.writeImageDataToFile(imageData, imageFile.getAbsolutePath());
+                InputStream imageStream = new DaoImages().getImageDataStream(image.getId());
+                ImageUtilities.writeImageDataToFile(imageStream, imageFile.getAbsolutePath());
                 if (imageFile.exists()) {
                     ShareUtilities.shareTextAndImage(NotesListActivity.this, SHARE_NOTE_WITH, osmUrl, imageFile);
                 } else {
@@ -388,8 +440,8 @@ public class NotesListActivity extends ListActivity {
                 if (image.getName().endsWith(".png"))
                     ext = ".png";
                 File imageFile = new File(tempDir, ImageUtilities.getTempImageName(ext));
-                byte[] imageData = new DaoImages().getImageData(image.getId());
-                ImageUtilities.writeImageDataToFile(imageData, imageFile.getAbsolutePath());
+                InputStream imageStream = new DaoImages().getImageDataStream(image.getId());
+                ImageUtilities.writeImageDataToFile(imageStream, imageFile.getAbsolutePath());
 
                 intent.setDataAndType(Uri.fromFile(imageFile), "image/*"); //$NON-NLS-1$
                 this.startActivity(intent);
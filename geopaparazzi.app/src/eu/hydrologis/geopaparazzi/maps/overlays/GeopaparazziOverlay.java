@@ -21,16 +21,13 @@ import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Paint.Align;
 import android.graphics.Path;
 import android.graphics.Point;
-import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.preference.PreferenceManager;
 
-import com.vividsolutions.jts.android.PointTransformation;
 import com.vividsolutions.jts.android.ShapeWriter;
 import com.vividsolutions.jts.android.geom.DrawableShape;
 import com.vividsolutions.jts.android.geom.PathShape;
@@ -48,6 +45,7 @@ import org.mapsforge.core.model.GeoPoint;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -62,11 +60,11 @@ import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.ResourcesManager;
 import eu.geopaparazzi.library.util.Utilities;
 import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
-import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryType;
 import eu.geopaparazzi.spatialite.database.spatial.core.geometry.GeometryIterator;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
+import eu.geopaparazzi.spatialite.database.spatial.util.CancellationToken;
 import eu.geopaparazzi.spatialite.database.spatial.util.Style;
 import eu.hydrologis.geopaparazzi.GeopaparazziApplication;
 import eu.hydrologis.geopaparazzi.R;
@@ -140,6 +138,13 @@ public abstract class GeopaparazziOverlay extends Overlay {
     private GpsServiceStatus gpsServiceStatus = GpsServiceStatus.GPS_OFF;
     private GpsLoggingStatus gpsLoggingStatus = GpsLoggingStatus.GPS_DATABASELOGGING_OFF;
 
+    /**
+     * The token of the frame being drawn, used to abandon its spatialite queries.
+     */
+    private volatile CancellationToken drawingToken;
+    private final SpatialiteLayerCompositor layerCompositor = new SpatialiteLayerCompositor();
+    private final LabelEngine labelEngine = new LabelEngine();
+
     /**
      * Create a {@link OverlayWay} wrapped type.
      *
@@ -376,7 +381,15 @@ public abstract class GeopaparazziOverlay extends Overlay {
         /*
          * first spatialite layers, if any
          */
-        drawFromSpatialite(canvas, drawPosition, projection, drawZoomLevel);
+        CancellationToken token = new CancellationToken(){
+            @Override
+            public boolean isCancelled() {
+                // also polled by the database while a query is running
+                return super.isCancelled() || stopDrawing();
+            }
+        };
+        drawingToken = token;
+        drawFromSpatialite(canvas, drawPosition, projection, drawZoomLevel, token);
 
         /*
          * WAYS
@@ -601,7 +614,8 @@ public abstract class GeopaparazziOverlay extends Overlay {
 
     }
 
-    private void drawFromSpatialite(Canvas canvas, Point drawPosition, Projection projection, byte drawZoomLevel) {
+    private void drawFromSpatialite(Canvas canvas, Point drawPosition, Projection projection, final byte drawZoomLevel,
+                                    final CancellationToken token) {
         /*
          * draw from spatialite
          */
@@ -619,207 +633,184 @@ public abstract class GeopaparazziOverlay extends Overlay {
         } catch (java.lang.Exception e2) {
             GPLog.error(this, "Problems retrieving viewport bounds", e2); //$NON-NLS-1$
         }
-        Envelope canvasEnvelope = new Envelope(w, e, s, n);
+        final Envelope canvasEnvelope = new Envelope(w, e, s, n);
         try {
             SpatialDatabasesManager sdManager = SpatialDatabasesManager.getInstance();
             List<SpatialVectorTable> spatialVectorTables = sdManager.getSpatialVectorTables(false);
+            // zoom and position are the same for the whole frame
+            final MapsforgePointTransformation pointTransformer = new MapsforgePointTransformation(drawPosition,
+                    drawZoomLevel);
             /*
-             * draw geometries
+             * draw geometries, layer by layer in parallel
              */
+            labelEngine.beginFrame();
+            List<SpatialVectorTable> visibleTables = new ArrayList<SpatialVectorTable>();
             for (SpatialVectorTable spatialTable : spatialVectorTables) {
-                if (stopDrawing()) {
-                    // stop working
-                    return;
-                }
                 Style style4Table = spatialTable.getStyle();
                 if (style4Table.enabled == 0) {
                     continue;
                 }
-                // TODO enable this again only when updating of bound when adding geometries has been done
-                //                if (!envelope.intersects(spatialTable.getTableEnvelope())) {
-                //                    continue;
-                //                }
+                if (!spatialTable.mayIntersect(canvasEnvelope)) {
+                    // no data in view, skip the database round trip
+                    continue;
+                }
                 if (drawZoomLevel < style4Table.minZoom || drawZoomLevel > style4Table.maxZoom) {
                     // we do not draw outside of the zoom levels
                     continue;
                 }
-                AbstractSpatialDatabaseHandler spatialDatabaseHandler = sdManager.getVectorHandler(spatialTable);
-                if (!(spatialDatabaseHandler instanceof SpatialiteDatabaseHandler)) {
-                    return;
-                }
-                GeometryIterator geometryIterator = null;
-                try {
-                    Paint fill = null;
-                    Paint stroke = null;
-                    if (style4Table.fillcolor != null && style4Table.fillcolor.trim().length() > 0)
-                        fill = ((SpatialiteDatabaseHandler) spatialDatabaseHandler).getFillPaint4Style(style4Table);
-                    if (style4Table.strokecolor != null && style4Table.strokecolor.trim().length() > 0)
-                        stroke = ((SpatialiteDatabaseHandler) spatialDatabaseHandler).getStrokePaint4Style(style4Table);
-                    PointTransformation pointTransformer = new MapsforgePointTransformation(projection, drawPosition,
-                            drawZoomLevel);
-                    ShapeWriter shapeWriter;
-                    ShapeWriter shape_writer_point = null;
-                    if (spatialTable.isPoint()) {
-                        shapeWriter = new ShapeWriter(pointTransformer, spatialTable.getStyle().shape,
-                                spatialTable.getStyle().size);
-                    } else {
-                        shapeWriter = new ShapeWriter(pointTransformer);
-                        if (spatialTable.isGeometryCollection()) {
-                            shape_writer_point = new ShapeWriter(pointTransformer, spatialTable.getStyle().shape,
-                                    spatialTable.getStyle().size);
-                        }
-                    }
-                    shapeWriter.setRemoveDuplicatePoints(true);
-                    shapeWriter.setDecimation(spatialTable.getStyle().decimationFactor);
-                    geometryIterator = ((SpatialiteDatabaseHandler) spatialDatabaseHandler).getGeometryIteratorInBounds(
-                            LibraryConstants.SRID_WGS84_4326, spatialTable, n, s, e, w);
-                    while (geometryIterator.hasNext()) {
-                        Geometry geom = geometryIterator.next();
-                        if (geom != null) {
-                            if (!canvasEnvelope.intersects(geom.getEnvelopeInternal())) {
-                                // TODO check the performance impact of this
-                                continue;
-                            }
-                            if (spatialTable.isGeometryCollection()) {
-                                int geometriesCount = geom.getNumGeometries();
-                                // GPLog.androidLog(-1,"GeopaparazziOverlay.drawFromSpatialite type["+s_geometry_type+"]: count_geometries["+i_count_geometries+"]: ["+drawZoomLevel+"]");
-                                for (int j = 0; j < geometriesCount; j++) {
-                                    Geometry geom_collect = geom.getGeometryN(j);
-                                    if (geom_collect != null) {
-                                        String geometryType = geom_collect.getGeometryType();
-                                        // GPLog.androidLog(-1,"GeopaparazziOverlay.drawFromSpatialite type["+s_geometry_type+"]: ["+drawZoomLevel+"]");
-                                        if (geometryType.toUpperCase().contains("POINT")) {
-                                            drawGeometry(geom_collect, canvas, shape_writer_point, fill, stroke);
-                                        } else {
-                                            drawGeometry(geom_collect, canvas, shapeWriter, fill, stroke);
-                                        }
-                                        if (stopDrawing()) { // stop working
-                                            return;
-                                        }
-                                    }
-                                }
-                            } else {
-                                drawGeometry(geom, canvas, shapeWriter, fill, stroke);
-                                if (stopDrawing()) { // stop working
-                                    return;
-                                }
-                            }
-                        } else {
-                            GPLog.error(this, "GeopaparazziOverlay.drawFromSpatialite  [geom == null] description["
-                                    + spatialTable.getTableName() + "]", new NullPointerException());
-                        }
-                    }
-                } finally {
-                    if (geometryIterator != null)
-                        geometryIterator.close();
+                visibleTables.add(spatialTable);
+            }
+            boolean drawn = layerCompositor.draw(canvas, visibleTables, new SpatialiteLayerCompositor.LayerRenderer(){
+                public boolean drawLayer(Canvas layerCanvas, SpatialVectorTable spatialTable,
+                                         SpatialiteDatabaseHandler handler) throws Exception {
+                    return drawSpatialTable(layerCanvas, spatialTable, handler, pointTransformer, canvasEnvelope,
+                            drawZoomLevel, token);
                 }
+            }, token);
+            if (!drawn) {
+                // stop working
+                return;
             }
             /*
-             * draw labels
+             * draw the labels collected while drawing the geometries
              */
-            for (SpatialVectorTable spatialTable : spatialVectorTables) {
-                if (stopDrawing()) {
-                    // stop working
-                    return;
-                }
-                Style style4Table = spatialTable.getStyle();
-                if (style4Table.enabled == 0 || style4Table.labelvisible == 0) {
-                    continue;
-                }
-                // TODO enable this again only when updating of bound when adding geometries has been done
-                //                if (!canvasEnvelope.intersects(spatialTable.getTableEnvelope())) {
-                //                    continue;
-                //                }
-                if (drawZoomLevel < style4Table.minZoom || drawZoomLevel > style4Table.maxZoom) {
-                    // we do not draw outside of the zoom levels
-                    continue;
-                }
-
-                float delta = style4Table.size / 2f;
-                if (delta < 2) {
-                    delta = 2;
-                }
+            labelEngine.drawLabels(canvas, drawZoomLevel, token);
+        } catch (java.lang.Exception e1) {
+            GPLog.error(this, "GeopaparazziOverlay.drawFromSpatialite [failed]", e1); //$NON-NLS-1$
+        }
+    }
 
-                Paint dbTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-                dbTextPaint.setStyle(Paint.Style.FILL);
-                dbTextPaint.setColor(Color.BLACK);
-                dbTextPaint.setTextSize(style4Table.labelsize);
-                Paint dbTextHaloPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-                dbTextHaloPaint.setStyle(Paint.Style.STROKE);
-                dbTextHaloPaint.setStrokeWidth(3);
-                dbTextHaloPaint.setColor(Color.WHITE);
-                dbTextHaloPaint.setTextSize(style4Table.labelsize);
-
-                AbstractSpatialDatabaseHandler spatialDatabaseHandler = sdManager.getVectorHandler(spatialTable);
-                if (!(spatialDatabaseHandler instanceof SpatialiteDatabaseHandler)) {
-                    return;
+    /**
+     * Draw the geometries of a spatialite table.
+     * <p/>
+     * <p>Called by the {@link SpatialiteLayerCompositor} workers.</p>
+     *
+     * @return <code>false</code> if the drawing has been stopped.
+     */
+    private boolean drawSpatialTable(Canvas canvas, SpatialVectorTable spatialTable,
+                                     SpatialiteDatabaseHandler spatialDatabaseHandler,
+                                     MapsforgePointTransformation pointTransformer, Envelope canvasEnvelope,
+                                     byte drawZoomLevel, CancellationToken token) throws Exception {
+        Style style4Table = spatialTable.getStyle();
+        GeometryIterator geometryIterator = null;
+        try {
+            Paint fill = null;
+            Paint stroke = null;
+            if (style4Table.fillcolor != null && style4Table.fillcolor.trim().length() > 0)
+                fill = spatialDatabaseHandler.getFillPaint4Style(style4Table);
+            if (style4Table.strokecolor != null && style4Table.strokecolor.trim().length() > 0)
+                stroke = spatialDatabaseHandler.getStrokePaint4Style(style4Table);
+            ShapeWriter shapeWriter;
+            ShapeWriter shape_writer_point = null;
+            if (spatialTable.isPoint()) {
+                shapeWriter = new ShapeWriter(pointTransformer, spatialTable.getStyle().shape,
+                        spatialTable.getStyle().size);
+            } else {
+                shapeWriter = new ShapeWriter(pointTransformer);
+                if (spatialTable.isGeometryCollection()) {
+                    shape_writer_point = new ShapeWriter(pointTransformer, spatialTable.getStyle().shape,
+                            spatialTable.getStyle().size);
                 }
-                GeometryIterator geometryIterator = null;
-                try {
-                    PointTransformation pointTransformer = new MapsforgePointTransformation(projection, drawPosition,
-                            drawZoomLevel);
-                    ShapeWriter linesWriter = null;
-                    if (spatialTable.isLine()) {
-                        linesWriter = new ShapeWriter(pointTransformer, spatialTable.getStyle().shape,
-                                spatialTable.getStyle().size);
-                        dbTextHaloPaint.setTextAlign(Align.CENTER);
-                        dbTextPaint.setTextAlign(Align.CENTER);
-                    } else {
-                        dbTextHaloPaint.setTextAlign(Align.LEFT);
-                        dbTextPaint.setTextAlign(Align.LEFT);
+            }
+            shapeWriter.setRemoveDuplicatePoints(true);
+            shapeWriter.setDecimation(spatialTable.getStyle().decimationFactor);
+            geometryIterator = spatialDatabaseHandler.getGeometryIteratorInBounds(
+                    LibraryConstants.SRID_WGS84_4326, spatialTable, canvasEnvelope.getMaxY(), canvasEnvelope.getMinY(),
+                    canvasEnvelope.getMaxX(), canvasEnvelope.getMinX(), drawZoomLevel, token);
+            while (geometryIterator.hasNext()) {
+                Geometry geom = geometryIterator.next();
+                if (geom != null) {
+                    if (!canvasEnvelope.intersects(geom.getEnvelopeInternal())) {
+                        // TODO check the performance impact of this
+                        continue;
                     }
-
-                    geometryIterator = ((SpatialiteDatabaseHandler) spatialDatabaseHandler).getGeometryIteratorInBounds(
-                            LibraryConstants.SRID_WGS84_4326, spatialTable, n, s, e, w);
-                    while (geometryIterator.hasNext()) {
-                        Geometry geom = geometryIterator.next();
-                        if (geom != null) {
-                            if (!canvasEnvelope.intersects(geom.getEnvelopeInternal())) {
-                                // TODO check the performance impact of this
-                                continue;
-                            }
-                            String labelText = geometryIterator.getLabelText();
-                            if (labelText == null || labelText.length() == 0) {
-                                continue;
-                            }
-                            if (spatialTable.isGeometryCollection()) {
-                                int geometriesCount = geom.getNumGeometries();
-                                // GPLog.androidLog(-1,"GeopaparazziOverlay.drawFromSpatialite type["+s_geometry_type+"]: count_geometries["+i_count_geometries+"]: ["+drawZoomLevel+"]");
-                                for (int j = 0; j < geometriesCount; j++) {
-                                    Geometry geom_collect = geom.getGeometryN(j);
-                                    if (geom_collect != null) {
-                                        // GPLog.androidLog(-1,"GeopaparazziOverlay.drawFromSpatialite type["+s_geometry_type+"]: ["+drawZoomLevel+"]");
-                                        drawLabel(pointTransformer, geom_collect, labelText, canvas, dbTextPaint,
-                                                dbTextHaloPaint, delta, linesWriter);
-                                        if (stopDrawing()) { // stop working
-                                            return;
-                                        }
-                                    }
+                    String labelText = null;
+                    if (style4Table.labelvisible == 1) {
+                        labelText = geometryIterator.getLabelText();
+                        if (labelText != null && labelText.length() == 0) {
+                            labelText = null;
+                        }
+                    }
+                    if (spatialTable.isGeometryCollection()) {
+                        int geometriesCount = geom.getNumGeometries();
+                        // GPLog.androidLog(-1,"GeopaparazziOverlay.drawFromSpatialite type["+s_geometry_type+"]: count_geometries["+i_count_geometries+"]: ["+drawZoomLevel+"]");
+                        for (int j = 0; j < geometriesCount; j++) {
+                            Geometry geom_collect = geom.getGeometryN(j);
+                            if (geom_collect != null) {
+                                String geometryType = geom_collect.getGeometryType();
+                                // GPLog.androidLog(-1,"GeopaparazziOverlay.drawFromSpatialite type["+s_geometry_type+"]: ["+drawZoomLevel+"]");
+                                DrawableShape shape;
+                                if (geometryType.toUpperCase().contains("POINT")) {
+                                    shape = drawGeometry(geom_collect, canvas, shape_writer_point, fill, stroke);
+                                } else {
+                                    shape = drawGeometry(geom_collect, canvas, shapeWriter, fill, stroke);
                                 }
-                            } else {
-                                drawLabel(pointTransformer, geom, labelText, canvas, dbTextPaint, dbTextHaloPaint, delta,
-                                        linesWriter);
+                                if (labelText != null)
+                                    addLabelCandidate(spatialTable, geom_collect, shape, labelText, pointTransformer);
                                 if (stopDrawing()) { // stop working
-                                    return;
+                                    return false;
                                 }
                             }
                         }
+                    } else {
+                        DrawableShape shape = drawGeometry(geom, canvas, shapeWriter, fill, stroke);
+                        if (labelText != null)
+                            addLabelCandidate(spatialTable, geom, shape, labelText, pointTransformer);
+                        if (stopDrawing()) { // stop working
+                            return false;
+                        }
                     }
-                } finally {
-                    if (geometryIterator != null)
-                        geometryIterator.close();
+                } else {
+                    GPLog.error(this, "GeopaparazziOverlay.drawFromSpatialite  [geom == null] description["
+                            + spatialTable.getTableName() + "]", new NullPointerException());
                 }
             }
-        } catch (Exception e1) {
-            GPLog.error(this, "GeopaparazziOverlay.drawFromSpatialite [failed]", e1); //$NON-NLS-1$
+        } finally {
+            if (geometryIterator != null)
+                geometryIterator.close();
+        }
+        return true;
+    }
+
+    /**
+     * Collect the label of a drawn geometry for the {@link LabelEngine}.
+     * <p/>
+     * <p>Lines are labeled along the path just drawn, points and polygons
+     * for now just at the centroid.</p>
+     */
+    private void addLabelCandidate(SpatialVectorTable spatialTable, Geometry geom, DrawableShape shape, String labelText,
+                                   MapsforgePointTransformation pointTransformer) {
+        Style style = spatialTable.getStyle();
+        Envelope envelope = geom.getEnvelopeInternal();
+        float screenWidth = pointTransformer.toViewX(envelope.getMaxX()) - pointTransformer.toViewX(envelope.getMinX());
+        float screenHeight = pointTransformer.toViewY(envelope.getMinY()) - pointTransformer.toViewY(envelope.getMaxY());
+        String key = spatialTable.getUniqueNameBasedOnDbFilePath() + "#" + labelText + "#" //$NON-NLS-1$ //$NON-NLS-2$
+                + envelope.centre();
+        LabelCandidate candidate;
+        if (spatialTable.isLine() && shape instanceof PathShape) {
+            Path linePath = ((PathShape) shape).getPath();
+            candidate = LabelCandidate.alongPath(key, labelText, linePath, style.labelsize, style.order, screenWidth
+                    + screenHeight);
+        } else {
+            float delta = style.size / 2f;
+            if (delta < 2) {
+                delta = 2;
+            }
+            Coordinate coordinate = geom.getCentroid().getCoordinate();
+            float x = pointTransformer.toViewX(coordinate.x) + delta;
+            float y = pointTransformer.toViewY(coordinate.y) - delta;
+            candidate = LabelCandidate.atPoint(key, labelText, x, y, style.labelsize, style.order, screenWidth
+                    * screenHeight);
         }
+        labelEngine.addCandidate(candidate);
     }
 
     private boolean stopDrawing() {
         return isInterrupted() || sizeHasChanged() || needRedraw();
     }
 
-    private static void drawGeometry(Geometry geom, Canvas canvas, ShapeWriter shape_writer, Paint fill, Paint stroke) {
+    private static DrawableShape drawGeometry(Geometry geom, Canvas canvas, ShapeWriter shape_writer, Paint fill,
+                                              Paint stroke) {
         String s_geometry_type = geom.getGeometryType();
         int i_geometry_type = GeometryType.forValue(s_geometry_type);
         GeometryType geometry_type = GeometryType.forValue(i_geometry_type);
@@ -869,36 +860,7 @@ public abstract class GeopaparazziOverlay extends Overlay {
             default:
                 break;
         }
-    }
-
-    private static void drawLabel(PointTransformation pointTransformer, Geometry geom, String label, Canvas canvas,
-                                  Paint dbTextPaint, Paint dbTextHaloPaint, float delta, ShapeWriter linesWriter) {
-
-        if (linesWriter == null) {
-            /*
-             * for points and polygons for now just use the centroid
-             */
-            com.vividsolutions.jts.geom.Point centroid = geom.getCentroid();
-            Coordinate coordinate = centroid.getCoordinate();
-            PointF dest = new PointF();
-            pointTransformer.transform(coordinate, dest);
-            float x = dest.x + delta;
-            float y = dest.y - delta;
-            // if (doNotesTextHalo)
-            canvas.drawText(label, x, y, dbTextHaloPaint);
-            canvas.drawText(label, x, y, dbTextPaint);
-        } else {
-            DrawableShape shape = linesWriter.toShape(geom);
-            if (shape instanceof PathShape) {
-                PathShape lineShape = (PathShape) shape;
-                Path linePath = lineShape.getPath();
-                // if (doNotesTextHalo)
-                int hOffset = 15;
-                int vOffset = -5;
-                canvas.drawTextOnPath(label, linePath, hOffset, vOffset, dbTextHaloPaint);
-                canvas.drawTextOnPath(label, linePath, hOffset, vOffset, dbTextPaint);
-            }
-        }
+        return shape;
     }
 
     @Override
@@ -1112,11 +1074,11 @@ public abstract class GeopaparazziOverlay extends Overlay {
 
             int length = title.length();
             String ext = title.substring(length - 4, length);
-            byte[] imageData = new DaoImages().getImageData(imageID);
+            InputStream imageStream = new DaoImages().getImageDataStream(imageID);
 
 
             final File newTempFile = new File(tempDir, ImageUtilities.getTempImageName(ext));
-            ImageUtilities.writeImageDataToFile(imageData, newTempFile.getAbsolutePath());
+            ImageUtilities.writeImageDataToFile(imageStream, newTempFile.getAbsolutePath());
             Intent intent = new Intent();
             intent.setAction(Intent.ACTION_VIEW);
             intent.setDataAndType(Uri.fromFile(newTempFile), "image/*"); //$NON-NLS-1$
@@ -1128,6 +1090,11 @@ public abstract class GeopaparazziOverlay extends Overlay {
 
     @Override
     public void dispose() {
+        CancellationToken token = drawingToken;
+        if (token != null) {
+            token.cancel();
+        }
+        layerCompositor.dispose();
         super.dispose();
     }
 }
@@ -0,0 +1,84 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.geopaparazzi.maps.overlays;
+
+import android.graphics.Path;
+
+/**
+ * A label that the {@link LabelEngine} may place.
+ * <p/>
+ * <p>Point and polygon labels are anchored at a screen position, line labels
+ * follow the screen path of the line.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LabelCandidate {
+    final String key;
+    final String text;
+    final float x;
+    final float y;
+    final Path path;
+    final float textSize;
+    final int layerOrder;
+    final float weight;
+
+    private LabelCandidate(String key, String text, float x, float y, Path path, float textSize, int layerOrder,
+                           float weight) {
+        this.key = key;
+        this.text = text;
+        this.x = x;
+        this.y = y;
+        this.path = path;
+        this.textSize = textSize;
+        this.layerOrder = layerOrder;
+        this.weight = weight;
+    }
+
+    /**
+     * Create the candidate of a point or polygon label.
+     *
+     * @param key        the key identifying the labeled feature across frames.
+     * @param text       the label text.
+     * @param x          the screen x of the anchor.
+     * @param y          the screen y of the anchor.
+     * @param textSize   the text size.
+     * @param layerOrder the drawing order of the layer, upper layers are placed first.
+     * @param weight     the importance of the feature inside the layer, like its screen size.
+     * @return the candidate.
+     */
+    public static LabelCandidate atPoint(String key, String text, float x, float y, float textSize, int layerOrder,
+                                         float weight) {
+        return new LabelCandidate(key, text, x, y, null, textSize, layerOrder, weight);
+    }
+
+    /**
+     * Create the candidate of a line label.
+     *
+     * @param key        the key identifying the labeled feature across frames.
+     * @param text       the label text.
+     * @param path       the screen path of the line.
+     * @param textSize   the text size.
+     * @param layerOrder the drawing order of the layer, upper layers are placed first.
+     * @param weight     the importance of the feature inside the layer, like its screen length.
+     * @return the candidate.
+     */
+    public static LabelCandidate alongPath(String key, String text, Path path, float textSize, int layerOrder,
+                                           float weight) {
+        return new LabelCandidate(key, text, 0, 0, path, textSize, layerOrder, weight);
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.geopaparazzi.maps.overlays;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PathMeasure;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.geopaparazzi.spatialite.database.spatial.util.CancellationToken;
+
+/**
+ * Places the labels of the spatialite layers without overlaps.
+ * <p/>
+ * <p>Candidates are collected while the geometries are drawn, possibly from several
+ * threads, and placed at the end of the frame in priority order: labels placed
+ * in the previous frames of the same zoom level first, so that they do not jump
+ * around while panning, then upper layers first and bigger features first.
+ * A candidate is dropped if its box hits an already placed label in a screen
+ * space grid.</p>
+ * <p/>
+ * <p>The placements are remembered as long as the overlay lives. The styles and labels are
+ * changed in their own activities, after which the maps activity creates a new overlay,
+ * so they never refer to a previous style.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LabelEngine {
+    /**
+     * The size of the cells of the collision grid in pixels.
+     */
+    public static final int GRID_CELL_SIZE = 64;
+    /**
+     * The maximum number of placed labels remembered per zoom level.
+     */
+    public static final int MAX_CACHED_LABELS = 1000;
+    private static final float LABEL_PADDING = 2f;
+    private static final float HALO_WIDTH = 3f;
+
+    private final List<LabelCandidate> candidates = new ArrayList<LabelCandidate>();
+    private final Map<Byte, LinkedHashMap<String, Boolean>> placedByZoom = new HashMap<Byte, LinkedHashMap<String, Boolean>>();
+    private final Map<Float, Paint[]> paints = new HashMap<Float, Paint[]>();
+    private final RectF labelBox = new RectF();
+    private final float[] position = new float[2];
+
+    /**
+     * Start collecting the candidates of a new frame.
+     */
+    public synchronized void beginFrame() {
+        candidates.clear();
+    }
+
+    /**
+     * Add a candidate to the current frame.
+     * <p/>
+     * <p>Can be called from any thread.</p>
+     *
+     * @param candidate the candidate.
+     */
+    public synchronized void addCandidate(LabelCandidate candidate) {
+        candidates.add(candidate);
+    }
+
+    /**
+     * Place and draw the candidates of the current frame.
+     *
+     * @param canvas    the canvas to draw on.
+     * @param zoomLevel the zoom level of the frame.
+     * @param token     the token of the frame.
+     * @return <code>false</code> if the drawing has been stopped.
+     */
+    public boolean drawLabels(Canvas canvas, byte zoomLevel, CancellationToken token) {
+        List<LabelCandidate> frameCandidates;
+        synchronized (this) {
+            frameCandidates = new ArrayList<LabelCandidate>(candidates);
+            candidates.clear();
+        }
+        LinkedHashMap<String, Boolean> placed = placedByZoom.get(zoomLevel);
+        if (placed == null) {
+            placed = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_CACHED_LABELS;
+                }
+            };
+            placedByZoom.put(zoomLevel, placed);
+        }
+        final Map<String, Boolean> previouslyPlaced = placed;
+        Collections.sort(frameCandidates, new Comparator<LabelCandidate>() {
+            public int compare(LabelCandidate c1, LabelCandidate c2) {
+                boolean placed1 = previouslyPlaced.containsKey(c1.key);
+                boolean placed2 = previouslyPlaced.containsKey(c2.key);
+                if (placed1 != placed2) {
+                    return placed1 ? -1 : 1;
+                }
+                if (c1.layerOrder != c2.layerOrder) {
+                    return c1.layerOrder > c2.layerOrder ? -1 : 1;
+                }
+                return Float.compare(c2.weight, c1.weight);
+            }
+        });
+
+        int width = canvas.getWidth();
+        int height = canvas.getHeight();
+        CollisionGrid grid = new CollisionGrid(width, height, GRID_CELL_SIZE);
+        for (LabelCandidate candidate : frameCandidates) {
+            if (token.isCancelled()) {
+                return false;
+            }
+            Paint[] textPaints = getPaints(candidate.textSize);
+            Paint textPaint = textPaints[0];
+            Paint haloPaint = textPaints[1];
+            float textWidth = textPaint.measureText(candidate.text);
+            float hOffset = 0;
+            if (candidate.path == null) {
+                labelBox.set(candidate.x, candidate.y - candidate.textSize, candidate.x + textWidth, candidate.y
+                        + textPaint.descent());
+            } else {
+                PathMeasure pathMeasure = new PathMeasure(candidate.path, false);
+                float length = pathMeasure.getLength();
+                if (length < textWidth) {
+                    // the line is too short to be readable
+                    placed.remove(candidate.key);
+                    continue;
+                }
+                // center the label along the line
+                hOffset = (length - textWidth) / 2f;
+                for (int i = 0; i <= 2; i++) {
+                    pathMeasure.getPosTan(hOffset + textWidth * i / 2f, position, null);
+                    if (i == 0) {
+                        labelBox.set(position[0], position[1], position[0], position[1]);
+                    } else {
+                        labelBox.union(position[0], position[1]);
+                    }
+                }
+                labelBox.inset(-candidate.textSize, -candidate.textSize);
+            }
+            labelBox.inset(-LABEL_PADDING, -LABEL_PADDING);
+            if (labelBox.right < 0 || labelBox.left > width || labelBox.bottom < 0 || labelBox.top > height) {
+                // outside of the view, keep what is known about it
+                continue;
+            }
+            if (!grid.insert(labelBox)) {
+                placed.remove(candidate.key);
+                continue;
+            }
+            placed.put(candidate.key, Boolean.TRUE);
+            if (candidate.path == null) {
+                canvas.drawText(candidate.text, candidate.x, candidate.y, haloPaint);
+                canvas.drawText(candidate.text, candidate.x, candidate.y, textPaint);
+            } else {
+                int vOffset = -5;
+                canvas.drawTextOnPath(candidate.text, candidate.path, hOffset, vOffset, haloPaint);
+                canvas.drawTextOnPath(candidate.text, candidate.path, hOffset, vOffset, textPaint);
+            }
+        }
+        return true;
+    }
+
+    private Paint[] getPaints(float textSize) {
+        Paint[] textPaints = paints.get(textSize);
+        if (textPaints == null) {
+            Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            textPaint.setStyle(Paint.Style.FILL);
+            textPaint.setColor(Color.BLACK);
+            textPaint.setTextSize(textSize);
+            textPaint.setTextAlign(Paint.Align.LEFT);
+            Paint haloPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            haloPaint.setStyle(Paint.Style.STROKE);
+            haloPaint.setStrokeWidth(HALO_WIDTH);
+            haloPaint.setColor(Color.WHITE);
+            haloPaint.setTextSize(textSize);
+            haloPaint.setTextAlign(Paint.Align.LEFT);
+            textPaints = new Paint[]{textPaint, haloPaint};
+            paints.put(textSize, textPaints);
+        }
+        return textPaints;
+    }
+
+    /**
+     * Grid of screen cells holding the boxes of the placed labels.
+     */
+    private static class CollisionGrid {
+        private final int cellSize;
+        private final int columns;
+        private final int rows;
+        private final List<RectF>[] cells;
+
+        @SuppressWarnings("unchecked")
+        CollisionGrid(int width, int height, int cellSize) {
+            this.cellSize = cellSize;
+            columns = Math.max(1, (width + cellSize - 1) / cellSize);
+            rows = Math.max(1, (height + cellSize - 1) / cellSize);
+            cells = new List[columns * rows];
+        }
+
+        /**
+         * Add a box if it does not overlap the boxes already in the grid.
+         *
+         * @return <code>true</code> if the box has been added.
+         */
+        boolean insert(RectF box) {
+            int minCol = clamp((int) Math.floor(box.left / cellSize), columns);
+            int maxCol = clamp((int) Math.floor(box.right / cellSize), columns);
+            int minRow = clamp((int) Math.floor(box.top / cellSize), rows);
+            int maxRow = clamp((int) Math.floor(box.bottom / cellSize), rows);
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int col = minCol; col <= maxCol; col++) {
+                    List<RectF> cell = cells[row * columns + col];
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (RectF placedBox : cell) {
+                        if (RectF.intersects(placedBox, box)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            RectF placedBox = new RectF(box);
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int col = minCol; col <= maxCol; col++) {
+                    int index = row * columns + col;
+                    if (cells[index] == null) {
+                        cells[index] = new ArrayList<RectF>(4);
+                    }
+                    cells[index].add(placedBox);
+                }
+            }
+            return true;
+        }
+
+        private static int clamp(int value, int size) {
+            if (value < 0) {
+                return 0;
+            }
+            if (value >= size) {
+                return size - 1;
+            }
+            return value;
+        }
+    }
+}
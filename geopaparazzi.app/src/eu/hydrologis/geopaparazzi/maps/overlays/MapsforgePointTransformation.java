@@ -6,35 +6,39 @@ import android.graphics.PointF;
 import com.vividsolutions.jts.android.PointTransformation;
 import com.vividsolutions.jts.geom.Coordinate;
 
-import org.mapsforge.android.maps.Projection;
-import org.mapsforge.core.model.GeoPoint;
-
 /**
  * Transformation that handles mapsforge transforms.
- * 
+ * <p/>
+ * <p>The positions are transformed through a {@link MercatorViewTransform}, so that projecting
+ * a vertex neither creates objects nor goes through the microdegrees conversion of the
+ * mapsforge projection.</p>
+ *
  * @author Andrea Antonello (www.hydrologis.com)
  */
-public class MapsforgePointTransformation implements PointTransformation {
-    private byte drawZoom;
-    private Projection projection;
-    private final Point tmpPoint = new Point();
-    private Point drawPosition;
+public class MapsforgePointTransformation extends MercatorViewTransform implements PointTransformation {
 
     /**
      * Constructor.
-     * 
-     * @param projection projection.
-     * @param drawPosition the position.
-     * @param drawZoom the zoom level.
+     *
+     * @param drawPosition the pixel position of the upper left corner of the canvas at the given zoom level.
+     * @param drawZoom     the zoom level.
      */
-    public MapsforgePointTransformation( Projection projection, Point drawPosition, byte drawZoom ) {
-        this.projection = projection;
-        this.drawPosition = drawPosition;
-        this.drawZoom = drawZoom;
+    public MapsforgePointTransformation(Point drawPosition, byte drawZoom) {
+        super(drawPosition.x, drawPosition.y, drawZoom);
+    }
+
+    public void transform(Coordinate model, PointF view) {
+        view.set(toViewX(model.x), toViewY(model.y));
     }
 
-    public void transform( Coordinate model, PointF view ) {
-        projection.toPoint(new GeoPoint(model.y, model.x), tmpPoint, drawZoom);
-        view.set(tmpPoint.x - drawPosition.x, tmpPoint.y - drawPosition.y);
+    /**
+     * Transform a lon/lat position.
+     *
+     * @param lon  the longitude.
+     * @param lat  the latitude.
+     * @param view the point to set the screen position in.
+     */
+    public void transform(double lon, double lat, PointF view) {
+        view.set(toViewX(lon), toViewY(lat));
     }
-}
\ No newline at end of file
+}
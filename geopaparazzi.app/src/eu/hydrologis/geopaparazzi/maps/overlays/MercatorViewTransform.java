@@ -0,0 +1,74 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.geopaparazzi.maps.overlays;
+
+import org.mapsforge.core.model.Tile;
+import org.mapsforge.core.util.MercatorProjection;
+
+/**
+ * Spherical mercator transform of lon/lat positions to the pixels of a frame.
+ * <p/>
+ * <p>The scale of the zoom level and the offset of the upper left corner of the frame
+ * are computed once, so that transforming a position creates no objects.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MercatorViewTransform {
+    private static final double FOUR_PI = 4.0 * Math.PI;
+    private static final double DEG2RAD = Math.PI / 180.0;
+
+    private final double mapSize;
+    private final double offsetX;
+    private final double offsetY;
+
+    /**
+     * Constructor.
+     *
+     * @param offsetX  the pixel x of the upper left corner of the frame at the given zoom level.
+     * @param offsetY  the pixel y of the upper left corner of the frame at the given zoom level.
+     * @param drawZoom the zoom level.
+     */
+    public MercatorViewTransform(double offsetX, double offsetY, byte drawZoom) {
+        mapSize = (double) ((long) Tile.TILE_SIZE << drawZoom);
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+    }
+
+    /**
+     * @param lon the longitude.
+     * @return the screen x.
+     */
+    public float toViewX(double lon) {
+        return (float) ((lon + 180.0) / 360.0 * mapSize - offsetX);
+    }
+
+    /**
+     * @param lat the latitude.
+     * @return the screen y.
+     */
+    public float toViewY(double lat) {
+        if (lat > MercatorProjection.LATITUDE_MAX) {
+            lat = MercatorProjection.LATITUDE_MAX;
+        } else if (lat < MercatorProjection.LATITUDE_MIN) {
+            lat = MercatorProjection.LATITUDE_MIN;
+        }
+        double sinLatitude = Math.sin(lat * DEG2RAD);
+        double pixelY = (0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / FOUR_PI) * mapSize;
+        return (float) (pixelY - offsetY);
+    }
+}
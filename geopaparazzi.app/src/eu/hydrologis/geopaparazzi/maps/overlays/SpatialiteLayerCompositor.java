@@ -0,0 +1,284 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.geopaparazzi.maps.overlays;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
+import eu.geopaparazzi.spatialite.database.spatial.util.CancellationToken;
+
+/**
+ * Renders spatialite vector layers on a pool of workers and composites them in order.
+ * <p/>
+ * <p>The layers, already sorted by {@link eu.geopaparazzi.spatialite.database.spatial.util.Style#order},
+ * are split in runs of consecutive layers living in the same database. Every run is drawn into
+ * its own offscreen bitmap, so that databases with independent connections are queried
+ * concurrently, and the bitmaps are then drawn on the overlay canvas in the layers order.</p>
+ * <p/>
+ * <p>The layers of a database are never drawn concurrently: they share the connection
+ * and the paints cached in the {@link SpatialiteDatabaseHandler}, so they are drawn holding
+ * the {@link AbstractSpatialDatabaseHandler#getLock() lock} of the handler.</p>
+ * <p/>
+ * <p>The offscreen bitmaps live only during a draw and take at most a share of the free
+ * memory. If not even two of them fit, the layers are drawn one after the other on the canvas.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class SpatialiteLayerCompositor {
+    /**
+     * Draws a single layer.
+     */
+    public interface LayerRenderer {
+        /**
+         * Draw the geometries of a layer.
+         * <p/>
+         * <p>Called from the worker threads.</p>
+         *
+         * @param canvas       the canvas to draw on.
+         * @param spatialTable the layer.
+         * @param handler      the handler of the database of the layer.
+         * @return <code>false</code> if the drawing has been stopped.
+         * @throws Exception if something goes wrong.
+         */
+        public boolean drawLayer(Canvas canvas, SpatialVectorTable spatialTable, SpatialiteDatabaseHandler handler)
+                throws Exception;
+    }
+
+    /**
+     * The maximum number of offscreen bitmaps, runs beyond it are merged.
+     */
+    public static final int MAX_OFFSCREEN_LAYERS = 4;
+    /**
+     * The share of the free memory the offscreen bitmaps may take.
+     */
+    private static final double OFFSCREEN_MEMORY_SHARE = 0.25;
+    private static final int MAX_THREADS = 4;
+
+    private final ExecutorService renderPool;
+
+    /**
+     * Constructor.
+     */
+    public SpatialiteLayerCompositor() {
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS));
+        renderPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+
+            public synchronized Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "SpatialiteLayerCompositor-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Draw layers on a canvas.
+     * <p/>
+     * <p>Returns only after all the workers are done, also if the drawing is cancelled,
+     * so that the offscreen bitmaps can be released.</p>
+     *
+     * @param canvas        the canvas of the overlay.
+     * @param spatialTables the layers to draw, in drawing order.
+     * @param renderer      the renderer of a single layer.
+     * @param token         the token of the frame.
+     * @return <code>false</code> if the drawing has been stopped.
+     * @throws Exception if something goes wrong.
+     */
+    public synchronized boolean draw(Canvas canvas, List<SpatialVectorTable> spatialTables, final LayerRenderer renderer,
+                                     final CancellationToken token) throws Exception {
+        if (renderPool.isShutdown()) {
+            return false;
+        }
+        List<List<SpatialVectorTable>> runs = new ArrayList<List<SpatialVectorTable>>();
+        List<SpatialVectorTable> layers = new ArrayList<SpatialVectorTable>();
+        final List<SpatialiteDatabaseHandler> handlers = new ArrayList<SpatialiteDatabaseHandler>();
+        SpatialDatabasesManager sdManager = SpatialDatabasesManager.getInstance();
+        SpatialiteDatabaseHandler previousHandler = null;
+        for (SpatialVectorTable spatialTable : spatialTables) {
+            AbstractSpatialDatabaseHandler handler = sdManager.getVectorHandler(spatialTable);
+            if (!(handler instanceof SpatialiteDatabaseHandler)) {
+                continue;
+            }
+            if (handler != previousHandler) {
+                runs.add(new ArrayList<SpatialVectorTable>());
+                previousHandler = (SpatialiteDatabaseHandler) handler;
+            }
+            runs.get(runs.size() - 1).add(spatialTable);
+            layers.add(spatialTable);
+            handlers.add(previousHandler);
+        }
+        if (runs.size() == 0) {
+            return true;
+        }
+        int maxBitmaps = getMaxBitmaps(canvas.getWidth(), canvas.getHeight());
+        if (runs.size() == 1 || maxBitmaps < 2) {
+            // nothing to parallelize or no memory to do it, draw directly
+            return drawRun(canvas, layers, handlers, 0, renderer, token);
+        }
+        mergeRuns(runs, Math.min(MAX_OFFSCREEN_LAYERS, maxBitmaps));
+
+        List<Bitmap> layerBitmaps = new ArrayList<Bitmap>(runs.size());
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                layerBitmaps.add(Bitmap.createBitmap(canvas.getWidth(), canvas.getHeight(), Bitmap.Config.ARGB_8888));
+            }
+        } catch (OutOfMemoryError e) {
+            recycleBitmaps(layerBitmaps);
+            return drawRun(canvas, layers, handlers, 0, renderer, token);
+        }
+        try {
+            return drawRuns(canvas, runs, handlers, layerBitmaps, renderer, token);
+        } finally {
+            recycleBitmaps(layerBitmaps);
+        }
+    }
+
+    private boolean drawRuns(Canvas canvas, List<List<SpatialVectorTable>> runs,
+                             final List<SpatialiteDatabaseHandler> handlers, List<Bitmap> layerBitmaps,
+                             final LayerRenderer renderer, final CancellationToken token) {
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(runs.size());
+        int firstLayer = 0;
+        for (int i = 0; i < runs.size(); i++) {
+            final List<SpatialVectorTable> run = runs.get(i);
+            final Bitmap bitmap = layerBitmaps.get(i);
+            final int runFirstLayer = firstLayer;
+            futures.add(renderPool.submit(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    Canvas layerCanvas = new Canvas(bitmap);
+                    return drawRun(layerCanvas, run, handlers, runFirstLayer, renderer, token);
+                }
+            }));
+            firstLayer = firstLayer + run.size();
+        }
+
+        boolean completed = true;
+        boolean interrupted = false;
+        boolean[] drawn = new boolean[futures.size()];
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                drawn[i] = futures.get(i).get();
+                if (!drawn[i]) {
+                    completed = false;
+                }
+            } catch (InterruptedException e) {
+                // the overlay thread is going away, stop the workers and wait for them
+                token.cancel();
+                completed = false;
+                interrupted = true;
+                i--;
+            } catch (ExecutionException e) {
+                GPLog.error(this, "Error drawing the layers starting with: " + runs.get(i).get(0).getTableName(),
+                        e.getCause());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (!completed || token.isCancelled()) {
+            return false;
+        }
+        for (int i = 0; i < drawn.length; i++) {
+            if (drawn[i]) {
+                canvas.drawBitmap(layerBitmaps.get(i), 0, 0, null);
+            }
+        }
+        return true;
+    }
+
+    private boolean drawRun(Canvas canvas, List<SpatialVectorTable> run, List<SpatialiteDatabaseHandler> handlers,
+                            int firstLayer, LayerRenderer renderer, CancellationToken token) throws Exception {
+        for (int i = 0; i < run.size(); i++) {
+            if (token.isCancelled()) {
+                return false;
+            }
+            SpatialiteDatabaseHandler handler = handlers.get(firstLayer + i);
+            synchronized (handler.getLock()) {
+                if (!renderer.drawLayer(canvas, run.get(i), handler)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merge the adjacent runs with the fewest layers until there are at most a given number of runs.
+     */
+    private static void mergeRuns(List<List<SpatialVectorTable>> runs, int maxRuns) {
+        while (runs.size() > maxRuns) {
+            int mergeIndex = 0;
+            int mergeSize = Integer.MAX_VALUE;
+            for (int i = 0; i < runs.size() - 1; i++) {
+                int size = runs.get(i).size() + runs.get(i + 1).size();
+                if (size < mergeSize) {
+                    mergeSize = size;
+                    mergeIndex = i;
+                }
+            }
+            runs.get(mergeIndex).addAll(runs.remove(mergeIndex + 1));
+        }
+    }
+
+    /**
+     * @return how many offscreen bitmaps of the given size fit in the share of the free memory.
+     */
+    private static int getMaxBitmaps(int width, int height) {
+        Runtime runtime = Runtime.getRuntime();
+        long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        long bitmapBytes = 4L * width * height;
+        if (bitmapBytes == 0) {
+            return 0;
+        }
+        return (int) Math.min(MAX_OFFSCREEN_LAYERS, (long) (freeMemory * OFFSCREEN_MEMORY_SHARE) / bitmapBytes);
+    }
+
+    private static void recycleBitmaps(List<Bitmap> bitmaps) {
+        for (Bitmap bitmap : bitmaps) {
+            bitmap.recycle();
+        }
+        bitmaps.clear();
+    }
+
+    /**
+     * Stop the workers.
+     */
+    public synchronized void dispose() {
+        renderPool.shutdownNow();
+    }
+}
@@ -149,7 +149,9 @@ public class CopyToLayersListActivity extends ListActivity implements OnTouchLis
                                 for (Feature feature : featuresList) {
                                     try {
                                         Geometry geometry = FeatureUtilities.getGeometry(feature);
-                                        DaoSpatialite.addNewFeatureByGeometry(geometry, LibraryConstants.SRID_WGS84_4326, spatialVectorTable);
+                                        long id = DaoSpatialite.addNewFeatureByGeometry(geometry,
+                                                LibraryConstants.SRID_WGS84_4326, spatialVectorTable);
+                                        SnappingService.INSTANCE.featureChanged(spatialVectorTable, id, geometry);
                                         count++;
                                     } catch (Exception e) {
                                         GPLog.error(this, null, e);
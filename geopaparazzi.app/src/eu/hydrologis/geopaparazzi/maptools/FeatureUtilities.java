@@ -38,6 +38,7 @@ import com.vividsolutions.jts.operation.polygonize.Polygonizer;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 
 import eu.geopaparazzi.library.database.GPLog;
@@ -49,6 +50,8 @@ import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTabl
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryType;
 import eu.geopaparazzi.spatialite.database.spatial.core.daos.DaoSpatialite;
+import eu.geopaparazzi.spatialite.database.spatial.util.CancellationToken;
+import eu.geopaparazzi.spatialite.database.spatial.util.QueryProgressHandler;
 import jsqlite.Database;
 import jsqlite.Exception;
 import jsqlite.Stmt;
@@ -99,34 +102,70 @@ public class FeatureUtilities {
      * @throws Exception is something goes wrong.
      */
     public static List<Feature> buildWithoutGeometry(String query, SpatialVectorTable spatialTable) throws Exception {
+        return buildWithoutGeometry(query, spatialTable, null);
+    }
+
+    /**
+     * Build the features given by a query, stopping when the token gets cancelled.
+     * <p/>
+     * <b>Note that it is mandatory that the first item of the
+     * query is the id of the feature, which can be used at any time
+     * to update the feature in the db.
+     *
+     * @param query        the query to run.
+     * @param spatialTable the parent Spatialtable.
+     * @param token        the cancellation token, can be <code>null</code>.
+     * @return the list of feature from the query, incomplete if the token got cancelled.
+     * @throws Exception is something goes wrong.
+     */
+    public static List<Feature> buildWithoutGeometry(String query, SpatialVectorTable spatialTable, CancellationToken token)
+            throws Exception {
         List<Feature> featuresList = new ArrayList<Feature>();
         AbstractSpatialDatabaseHandler vectorHandler = SpatialDatabasesManager.getInstance().getVectorHandler(spatialTable);
         if (vectorHandler instanceof SpatialiteDatabaseHandler) {
-            SpatialiteDatabaseHandler spatialiteDbHandler = (SpatialiteDatabaseHandler) vectorHandler;
-            Database database = spatialiteDbHandler.getDatabase();
+            // the map draws from the same connection on its own threads
+            synchronized (vectorHandler.getLock()) {
+                SpatialiteDatabaseHandler spatialiteDbHandler = (SpatialiteDatabaseHandler) vectorHandler;
+                Database database = spatialiteDbHandler.getDatabase();
 
-            String tableName = spatialTable.getTableName();
-            String uniqueNameBasedOnDbFilePath = spatialTable.getUniqueNameBasedOnDbFilePath();
+                String tableName = spatialTable.getTableName();
+                String uniqueNameBasedOnDbFilePath = spatialTable.getUniqueNameBasedOnDbFilePath();
 
-            Stmt stmt = database.prepare(query);
-            try {
-                while (stmt.step()) {
+                QueryProgressHandler progressHandler = spatialiteDbHandler.getQueryProgressHandler();
+                if (progressHandler != null)
+                    progressHandler.begin(token);
+                Stmt stmt = null;
+                try {
+                    stmt = database.prepare(query);
+                    // names and types are the same for every row, read them once
                     int column_count = stmt.column_count();
-                    // the first is the id, transparent to the user
-                    String id = stmt.column_string(0);
-                    Feature feature = new Feature(tableName, uniqueNameBasedOnDbFilePath, id);
+                    String[] names = new String[column_count];
+                    String[] types = new String[column_count];
                     for (int i = 1; i < column_count; i++) {
-                        String cName = stmt.column_name(i);
-                        String value = stmt.column_string(i);
-                        DataType type = spatialTable.getTableFieldType(cName);
-                        feature.addAttribute(cName, value, type.name());
+                        names[i] = stmt.column_name(i);
+                        types[i] = spatialTable.getTableFieldType(names[i]).name();
+                    }
+                    while (stmt.step()) {
+                        // the first is the id, transparent to the user
+                        String id = stmt.column_string(0);
+                        Feature feature = new Feature(tableName, uniqueNameBasedOnDbFilePath, id);
+                        for (int i = 1; i < column_count; i++) {
+                            String value = stmt.column_string(i);
+                            feature.addAttribute(names[i], value, types[i]);
+                        }
+                        featuresList.add(feature);
                     }
-                    featuresList.add(feature);
+                } catch (Exception e) {
+                    if (token == null || !token.isCancelled())
+                        throw e;
+                } finally {
+                    if (stmt != null)
+                        stmt.close();
+                    if (progressHandler != null)
+                        progressHandler.end(token);
                 }
-            } finally {
-                stmt.close();
-            }
 
+            }
         }
         return featuresList;
     }
@@ -143,42 +182,91 @@ public class FeatureUtilities {
      * @throws Exception is something goes wrong.
      */
     public static List<Feature> buildFeatures(String query, SpatialVectorTable spatialTable) throws Exception {
+        return buildFeatures(query, spatialTable, null);
+    }
+
+    /**
+     * Build the features given by a query, stopping when the token gets cancelled.
+     * <p/>
+     * <p><b>Note that this query needs to have at least 2 arguments, the first
+     * being the ROWID and the last the geometry. Else if will fail.</b>
+     *
+     * @param query        the query to run.
+     * @param spatialTable the parent Spatialtable.
+     * @param token        the cancellation token, can be <code>null</code>.
+     * @return the list of feature from the query, incomplete if the token got cancelled.
+     * @throws Exception is something goes wrong.
+     */
+    public static List<Feature> buildFeatures(String query, SpatialVectorTable spatialTable, CancellationToken token)
+            throws Exception {
         List<Feature> featuresList = new ArrayList<Feature>();
         AbstractSpatialDatabaseHandler vectorHandler = SpatialDatabasesManager.getInstance().getVectorHandler(spatialTable);
         if (vectorHandler instanceof SpatialiteDatabaseHandler) {
-            SpatialiteDatabaseHandler spatialiteDbHandler = (SpatialiteDatabaseHandler) vectorHandler;
-            Database database = spatialiteDbHandler.getDatabase();
-            String tableName = spatialTable.getTableName();
-            String uniqueNameBasedOnDbFilePath = spatialTable.getUniqueNameBasedOnDbFilePath();
+            // the map draws from the same connection on its own threads
+            synchronized (vectorHandler.getLock()) {
+                SpatialiteDatabaseHandler spatialiteDbHandler = (SpatialiteDatabaseHandler) vectorHandler;
+                Database database = spatialiteDbHandler.getDatabase();
+                String tableName = spatialTable.getTableName();
+                String uniqueNameBasedOnDbFilePath = spatialTable.getUniqueNameBasedOnDbFilePath();
 
-            Stmt stmt = database.prepare(query);
-            try {
-                while (stmt.step()) {
+                QueryProgressHandler progressHandler = spatialiteDbHandler.getQueryProgressHandler();
+                if (progressHandler != null)
+                    progressHandler.begin(token);
+                Stmt stmt = null;
+                try {
+                    stmt = database.prepare(query);
+                    // names and types are the same for every row, read them once
                     int count = stmt.column_count();
-                    String id = stmt.column_string(0);
-                    byte[] geometryBytes = stmt.column_bytes(count - 1);
-                    Feature feature = new Feature(tableName, uniqueNameBasedOnDbFilePath, id, geometryBytes);
+                    String[] names = new String[count];
+                    String[] types = new String[count];
                     for (int i = 1; i < count - 1; i++) {
-                        String cName = stmt.column_name(i);
-                        String value = stmt.column_string(i);
-                        DataType type = spatialTable.getTableFieldType(cName);
+                        names[i] = stmt.column_name(i);
+                        DataType type = spatialTable.getTableFieldType(names[i]);
                         if (type == null) {
                             GPLog.addLogEntry("Featureutilities#buildFeatures", "Unexpected type for column "
-                                    + cName);
+                                    + names[i]);
                             continue;
                         }
-                        feature.addAttribute(cName, value, type.name());
+                        types[i] = type.name();
+                    }
+                    while (stmt.step()) {
+                        String id = stmt.column_string(0);
+                        byte[] geometryBytes = stmt.column_bytes(count - 1);
+                        Feature feature = new Feature(tableName, uniqueNameBasedOnDbFilePath, id, geometryBytes);
+                        for (int i = 1; i < count - 1; i++) {
+                            if (types[i] == null) {
+                                continue;
+                            }
+                            String value = stmt.column_string(i);
+                            feature.addAttribute(names[i], value, types[i]);
+                        }
+                        featuresList.add(feature);
                     }
-                    featuresList.add(feature);
+                } catch (Exception e) {
+                    if (token == null || !token.isCancelled())
+                        throw e;
+                } finally {
+                    if (stmt != null)
+                        stmt.close();
+                    if (progressHandler != null)
+                        progressHandler.end(token);
+                }
+                if (token != null && token.isCancelled()) {
+                    return featuresList;
+                }
+                List<String> ids = new ArrayList<String>(featuresList.size());
+                for (Feature feature : featuresList) {
+                    ids.add(feature.getId());
+                }
+                HashMap<String, double[]> areaLengthMap = DaoSpatialite.getAreaAndLengthByIds(ids, spatialTable);
+                for (Feature feature : featuresList) {
+                    double[] areaLength = areaLengthMap.get(feature.getId());
+                    if (areaLength == null) {
+                        continue;
+                    }
+                    feature.setOriginalArea(areaLength[0]);
+                    feature.setOriginalLength(areaLength[1]);
                 }
-            } finally {
-                stmt.close();
-            }
-            for (Feature feature : featuresList) {
-                String id = feature.getId();
-                double[] areaLength = DaoSpatialite.getAreaAndLengthById(id, spatialTable);
-                feature.setOriginalArea(areaLength[0]);
-                feature.setOriginalLength(areaLength[1]);
             }
         }
 
@@ -0,0 +1,293 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.geopaparazzi.maptools;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBReader;
+
+import org.mapsforge.android.maps.MapView;
+import org.mapsforge.android.maps.Projection;
+import org.mapsforge.core.model.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.features.Feature;
+import eu.geopaparazzi.library.util.LibraryConstants;
+import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
+import eu.geopaparazzi.spatialite.database.spatial.util.CancellationToken;
+import eu.geopaparazzi.spatialite.database.spatial.util.SnappingIndex;
+import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
+import jsqlite.Stmt;
+
+/**
+ * Snapping of the editing tools to the vertices and segments of the visible vector layers.
+ * <p/>
+ * <p>The {@link SnappingIndex} is filled lazily, in the background, for the viewport
+ * enlarged by half its size on every side, the first time a tool needs it or when the map
+ * has been moved out of the filled area. Until it is ready the positions are not snapped,
+ * so that touches never wait for the database.</p>
+ * <p/>
+ * <p>The tools that change features report the changes here, so that the index keeps
+ * following the edits without being filled again.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public enum SnappingService {
+    /**
+     * The singleton instance.
+     */
+    INSTANCE;
+
+    /**
+     * The distance in pixels within which the positions are snapped.
+     */
+    public static final int SNAP_TOLERANCE_PIXELS = 20;
+
+    private volatile SnappingIndex index;
+    private List<String> indexedLayers = new ArrayList<String>();
+
+    private Envelope loadingEnvelope;
+    private CancellationToken loadingToken;
+    private boolean editedWhileLoading;
+
+    /**
+     * Prepare the snapping for the current viewport.
+     * <p/>
+     * <p>To be called when a tool that snaps gets activated, it also drops the index if the
+     * visible layers have changed since it was filled.</p>
+     *
+     * @param mapView the map view.
+     */
+    public void prepare(MapView mapView) {
+        try {
+            List<String> visibleLayers = new ArrayList<String>();
+            for (SpatialVectorTable spatialTable : getVisibleTables()) {
+                visibleLayers.add(spatialTable.getUniqueNameBasedOnDbFilePath());
+            }
+            synchronized (this) {
+                if (!visibleLayers.equals(indexedLayers)) {
+                    clear();
+                }
+            }
+        } catch (Exception e) {
+            GPLog.error(this, null, e);
+        }
+        getIndex(mapView);
+    }
+
+    /**
+     * Snap a position to the nearest vertex or segment of the visible layers.
+     *
+     * @param mapView      the map view.
+     * @param coordinate   the position to snap, in wgs84.
+     * @param verticesOnly if <code>true</code>, only the vertices are considered.
+     * @return the snap or <code>null</code> if nothing is near enough or the index is not ready.
+     */
+    public SnappingIndex.Snap snap(MapView mapView, Coordinate coordinate, boolean verticesOnly) {
+        SnappingIndex currentIndex = getIndex(mapView);
+        if (currentIndex == null) {
+            return null;
+        }
+        Projection projection = mapView.getProjection();
+        GeoPoint origin = projection.fromPixels(0, 0);
+        GeoPoint tolerancePoint = projection.fromPixels(SNAP_TOLERANCE_PIXELS, SNAP_TOLERANCE_PIXELS);
+        if (origin == null || tolerancePoint == null) {
+            return null;
+        }
+        double tolerance = Math.max(Math.abs(tolerancePoint.getLongitude() - origin.getLongitude()),
+                Math.abs(origin.getLatitude() - tolerancePoint.getLatitude()));
+        if (verticesOnly) {
+            return currentIndex.snapToVertex(coordinate, tolerance);
+        }
+        return currentIndex.snap(coordinate, tolerance);
+    }
+
+    /**
+     * Report a feature that has been added or whose geometry has changed.
+     *
+     * @param spatialVectorTable the table of the feature.
+     * @param featureId          the id of the feature.
+     * @param geometry           the new geometry, in wgs84.
+     */
+    public synchronized void featureChanged(SpatialVectorTable spatialVectorTable, long featureId, Geometry geometry) {
+        if (loadingToken != null) {
+            editedWhileLoading = true;
+        }
+        if (index != null) {
+            index.putFeature(spatialVectorTable.getUniqueNameBasedOnDbFilePath(), featureId, geometry);
+        }
+    }
+
+    /**
+     * Report features that have been deleted.
+     *
+     * @param features the deleted features.
+     */
+    public synchronized void featuresRemoved(List<Feature> features) {
+        if (loadingToken != null) {
+            editedWhileLoading = true;
+        }
+        if (index != null) {
+            for (Feature feature : features) {
+                index.removeFeature(feature.getUniqueTableName(), Long.parseLong(feature.getId()));
+            }
+        }
+    }
+
+    /**
+     * Drop the index, for example after the layers have been reloaded.
+     */
+    public synchronized void clear() {
+        index = null;
+        if (loadingToken != null) {
+            loadingToken.cancel();
+            loadingToken = null;
+            loadingEnvelope = null;
+        }
+    }
+
+    /**
+     * Get the index for the current viewport, starting to fill it if needed.
+     */
+    private SnappingIndex getIndex(MapView mapView) {
+        if (mapView == null || mapView.getWidth() == 0 || mapView.getHeight() == 0) {
+            return null;
+        }
+        Projection projection = mapView.getProjection();
+        GeoPoint nw = projection.fromPixels(0, 0);
+        GeoPoint se = projection.fromPixels(mapView.getWidth(), mapView.getHeight());
+        if (nw == null || se == null) {
+            return null;
+        }
+        Envelope viewport = new Envelope(nw.getLongitude(), se.getLongitude(), se.getLatitude(), nw.getLatitude());
+        SnappingIndex currentIndex = index;
+        if (currentIndex != null && currentIndex.covers(viewport)) {
+            return currentIndex;
+        }
+        load(viewport);
+        return null;
+    }
+
+    private synchronized void load(Envelope viewport) {
+        if (loadingEnvelope != null && loadingEnvelope.contains(viewport)) {
+            // already on its way
+            return;
+        }
+        if (loadingToken != null) {
+            loadingToken.cancel();
+        }
+        final Envelope envelope = new Envelope(viewport);
+        // some margin, so that small pans do not need a new index
+        envelope.expandBy(viewport.getWidth() / 2.0, viewport.getHeight() / 2.0);
+        final CancellationToken token = new CancellationToken();
+        loadingEnvelope = envelope;
+        loadingToken = token;
+        editedWhileLoading = false;
+
+        new Thread(new Runnable(){
+            public void run() {
+                try {
+                    List<String> layers = new ArrayList<String>();
+                    SnappingIndex newIndex = fillIndex(envelope, layers, token);
+                    synchronized (SnappingService.this) {
+                        if (loadingToken != token) {
+                            return;
+                        }
+                        loadingToken = null;
+                        loadingEnvelope = null;
+                        if (newIndex == null || editedWhileLoading) {
+                            // the edits might have been missed, the next request will load again
+                            return;
+                        }
+                        index = newIndex;
+                        indexedLayers = layers;
+                    }
+                } catch (Exception e) {
+                    GPLog.error(SnappingService.this, null, e);
+                    synchronized (SnappingService.this) {
+                        if (loadingToken == token) {
+                            loadingToken = null;
+                            loadingEnvelope = null;
+                        }
+                    }
+                }
+            }
+        }, "snapping index").start();
+    }
+
+    /**
+     * Fill a new index with the features of the visible layers.
+     *
+     * @return the index or <code>null</code> if the loading has been cancelled.
+     */
+    private static SnappingIndex fillIndex(Envelope envelope, List<String> layers, CancellationToken token)
+            throws Exception {
+        SnappingIndex newIndex = new SnappingIndex(envelope);
+        SpatialDatabasesManager sdManager = SpatialDatabasesManager.getInstance();
+        WKBReader wkbReader = new WKBReader();
+        for (SpatialVectorTable spatialTable : getVisibleTables()) {
+            String layer = spatialTable.getUniqueNameBasedOnDbFilePath();
+            layers.add(layer);
+            if (!spatialTable.mayIntersect(envelope)) {
+                continue;
+            }
+            AbstractSpatialDatabaseHandler handler = sdManager.getVectorHandler(spatialTable);
+            if (!(handler instanceof SpatialiteDatabaseHandler)) {
+                continue;
+            }
+            // the full resolution geometries, the simplified ones would snap off the real vertices
+            String query = SpatialiteUtilities.buildGeometriesInBoundsQuery(LibraryConstants.SRID_WGS84_4326, true,
+                    spatialTable, envelope.getMaxY(), envelope.getMinY(), envelope.getMaxX(), envelope.getMinX(), -1);
+            Stmt stmt = ((SpatialiteDatabaseHandler) handler).getDatabase().prepare(query);
+            try {
+                while (stmt.step()) {
+                    if (token.isCancelled()) {
+                        return null;
+                    }
+                    byte[] geometryBytes = stmt.column_bytes(1);
+                    if (geometryBytes == null) {
+                        continue;
+                    }
+                    Geometry geometry = wkbReader.read(geometryBytes);
+                    newIndex.putFeature(layer, stmt.column_long(0), geometry);
+                }
+            } finally {
+                stmt.close();
+            }
+        }
+        return newIndex;
+    }
+
+    private static List<SpatialVectorTable> getVisibleTables() throws Exception {
+        List<SpatialVectorTable> visibleTables = new ArrayList<SpatialVectorTable>();
+        for (SpatialVectorTable spatialTable : SpatialDatabasesManager.getInstance().getSpatialVectorTables(false)) {
+            if (spatialTable.getStyle().enabled == 0) {
+                continue;
+            }
+            visibleTables.add(spatialTable);
+        }
+        return visibleTables;
+    }
+}
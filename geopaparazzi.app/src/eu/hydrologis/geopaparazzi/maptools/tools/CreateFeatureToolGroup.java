@@ -66,12 +66,14 @@ import eu.geopaparazzi.spatialite.database.spatial.core.layers.SpatialVectorTabl
 import eu.geopaparazzi.spatialite.database.spatial.core.daos.DaoSpatialite;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.util.JtsUtilities;
+import eu.geopaparazzi.spatialite.database.spatial.util.SnappingIndex;
 import eu.hydrologis.geopaparazzi.GeopaparazziApplication;
 import eu.hydrologis.geopaparazzi.R;
 import eu.hydrologis.geopaparazzi.maps.MapsSupportService;
 import eu.hydrologis.geopaparazzi.maps.overlays.MapsforgePointTransformation;
 import eu.hydrologis.geopaparazzi.maps.overlays.SliderDrawProjection;
 import eu.hydrologis.geopaparazzi.maptools.FeatureUtilities;
+import eu.hydrologis.geopaparazzi.maptools.SnappingService;
 
 import static java.lang.Math.round;
 
@@ -152,8 +154,10 @@ public class CreateFeatureToolGroup implements ToolGroup, OnClickListener, OnTou
     }
 
     public void activate() {
-        if (mapView != null)
+        if (mapView != null) {
             mapView.setClickable(true);
+            SnappingService.INSTANCE.prepare(mapView);
+        }
     }
 
     public void initUI() {
@@ -239,7 +243,7 @@ public class CreateFeatureToolGroup implements ToolGroup, OnClickListener, OnTou
                     .getInstance());
             double[] mapCenter = PositionUtilities.getMapCenterFromPreferences(preferences, true, true);
 
-            Coordinate coordinate = new Coordinate(mapCenter[0], mapCenter[1]);
+            Coordinate coordinate = snap(new Coordinate(mapCenter[0], mapCenter[1]));
 
             if (addVertex(v.getContext(), coordinate)) {
                 return;
@@ -274,9 +278,11 @@ public class CreateFeatureToolGroup implements ToolGroup, OnClickListener, OnTou
                 if (editLayer instanceof SpatialVectorTableLayer) {
                     SpatialVectorTableLayer spatialVectorTableLayer = (SpatialVectorTableLayer) editLayer;
                     try {
+                        SpatialVectorTable spatialVectorTable = spatialVectorTableLayer.getSpatialVectorTable();
                         for (Geometry geometry : geomsList) {
-                            DaoSpatialite.addNewFeatureByGeometry(geometry, LibraryConstants.SRID_WGS84_4326,
-                                    spatialVectorTableLayer.getSpatialVectorTable());
+                            long id = DaoSpatialite.addNewFeatureByGeometry(geometry, LibraryConstants.SRID_WGS84_4326,
+                                    spatialVectorTable);
+                            SnappingService.INSTANCE.featureChanged(spatialVectorTable, id, geometry);
                         }
                         Utilities.toast(commitButton.getContext(), commitButton.getContext().getString(R.string.geometry_saved), Toast.LENGTH_SHORT);
                         coordinatesList.clear();
@@ -318,6 +324,17 @@ public class CreateFeatureToolGroup implements ToolGroup, OnClickListener, OnTou
         handleToolIcons(v);
     }
 
+    /**
+     * Snap a new vertex to the visible features, if one is near enough.
+     */
+    private Coordinate snap(Coordinate coordinate) {
+        SnappingIndex.Snap snap = SnappingService.INSTANCE.snap(mapView, coordinate, false);
+        if (snap != null) {
+            return snap.coordinate;
+        }
+        return coordinate;
+    }
+
     private boolean addVertex(Context context, Coordinate coordinate) {
         coordinatesList.add(coordinate);
         int coordinatesCount = coordinatesList.size();
@@ -409,7 +426,7 @@ public class CreateFeatureToolGroup implements ToolGroup, OnClickListener, OnTou
             MapViewPosition mapPosition = mapView.getMapPosition();
             byte zoomLevel = mapPosition.getZoomLevel();
 
-            PointTransformation pointTransformer = new MapsforgePointTransformation(projection, point, zoomLevel);
+            PointTransformation pointTransformer = new MapsforgePointTransformation(point, zoomLevel);
             ShapeWriter shapeWriter = new ShapeWriter(pointTransformer);
             shapeWriter.setRemoveDuplicatePoints(true);
             // shapeWriter.setDecimation(spatialTable.getStyle().decimationFactor);
@@ -454,7 +471,7 @@ public class CreateFeatureToolGroup implements ToolGroup, OnClickListener, OnTou
             int action = event.getAction();
             if (action == MotionEvent.ACTION_DOWN) {
                 GeoPoint tapGeoPoint = pj.fromPixels(round(currentX), round(currentY));
-                Coordinate coordinate = new Coordinate(tapGeoPoint.getLongitude(), tapGeoPoint.getLatitude());
+                Coordinate coordinate = snap(new Coordinate(tapGeoPoint.getLongitude(), tapGeoPoint.getLatitude()));
                 addVertex(mapView.getContext(), coordinate);
                 if (coordinatesList.size() > 2) {
                     commitButton.setVisibility(View.VISIBLE);
@@ -52,11 +52,13 @@ import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.Utilities;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.layers.SpatialVectorTableLayer;
+import eu.geopaparazzi.spatialite.database.spatial.util.SnappingIndex;
 import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
 import eu.hydrologis.geopaparazzi.R;
 import eu.hydrologis.geopaparazzi.maps.overlays.MapsforgePointTransformation;
 import eu.hydrologis.geopaparazzi.maps.overlays.SliderDrawProjection;
 import eu.hydrologis.geopaparazzi.maptools.FeatureUtilities;
+import eu.hydrologis.geopaparazzi.maptools.SnappingService;
 import eu.hydrologis.geopaparazzi.maptools.core.MapTool;
 
 import static java.lang.Math.abs;
@@ -85,7 +87,7 @@ public class CutExtendTool extends MapTool {
 
     private Path drawingPath = new Path();
 
-    private GeoPoint startGeoPoint;
+    private Coordinate startCoordinate;
     private Geometry previewGeometry = null;
 
     /**
@@ -144,8 +146,10 @@ public class CutExtendTool extends MapTool {
     }
 
     public void activate() {
-        if (mapView != null)
+        if (mapView != null) {
             mapView.setClickable(false);
+            SnappingService.INSTANCE.prepare(mapView);
+        }
     }
 
     public void onToolDraw( Canvas canvas ) {
@@ -171,7 +175,7 @@ public class CutExtendTool extends MapTool {
             MapViewPosition mapPosition = mapView.getMapPosition();
             byte zoomLevel = mapPosition.getZoomLevel();
 
-            PointTransformation pointTransformer = new MapsforgePointTransformation(projection, point, zoomLevel);
+            PointTransformation pointTransformer = new MapsforgePointTransformation(point, zoomLevel);
             ShapeWriter shapeWriter = new ShapeWriter(pointTransformer);
             shapeWriter.setRemoveDuplicatePoints(true);
 
@@ -192,8 +196,8 @@ public class CutExtendTool extends MapTool {
         int action = event.getAction();
         switch( action ) {
         case MotionEvent.ACTION_DOWN:
-            startGeoPoint = pj.fromPixels(round(currentX), round(currentY));
-            pj.toPixels(startGeoPoint, startP);
+            startCoordinate = snapToVertex(pj.fromPixels(round(currentX), round(currentY)));
+            pj.toPixels(toGeoPoint(startCoordinate), startP);
             endP.set(startP.x, startP.y);
 
             drawingPath.reset();
@@ -213,7 +217,7 @@ public class CutExtendTool extends MapTool {
             GeoPoint currentGeoPoint = pj.fromPixels(round(currentX), round(currentY));
             pj.toPixels(currentGeoPoint, tmpP);
             drawingPath.lineTo(tmpP.x, tmpP.y);
-            endP.set(tmpP.x, tmpP.y);
+            pj.toPixels(toGeoPoint(snapToVertex(currentGeoPoint)), endP);
 
             EditManager.INSTANCE.invalidateEditingView();
             break;
@@ -221,9 +225,9 @@ public class CutExtendTool extends MapTool {
 
             GeoPoint endGeoPoint = pj.fromPixels(round(currentX), round(currentY));
             GeometryFactory gf = new GeometryFactory();
-            Coordinate startCoord = new Coordinate(startGeoPoint.getLongitude(), startGeoPoint.getLatitude());
+            Coordinate startCoord = startCoordinate;
             com.vividsolutions.jts.geom.Point startPoint = gf.createPoint(startCoord);
-            Coordinate endCoord = new Coordinate(endGeoPoint.getLongitude(), endGeoPoint.getLatitude());
+            Coordinate endCoord = snapToVertex(endGeoPoint);
             com.vividsolutions.jts.geom.Point endPoint = gf.createPoint(endCoord);
             Envelope env = new Envelope(startCoord, endCoord);
             select(env.getMaxY(), env.getMinX(), env.getMinY(), env.getMaxX(), startPoint, endPoint);
@@ -234,6 +238,25 @@ public class CutExtendTool extends MapTool {
         return true;
     }
 
+    /**
+     * Snap to the nearest vertex of the visible features.
+     * <p/>
+     * <p>Vertices lie exactly on their feature, so the feature gets picked also if the touch
+     * was just off its border. Points on the segments could fall on either side.</p>
+     */
+    private Coordinate snapToVertex(GeoPoint geoPoint) {
+        Coordinate coordinate = new Coordinate(geoPoint.getLongitude(), geoPoint.getLatitude());
+        SnappingIndex.Snap snap = SnappingService.INSTANCE.snap(mapView, coordinate, true);
+        if (snap != null) {
+            return snap.coordinate;
+        }
+        return coordinate;
+    }
+
+    private static GeoPoint toGeoPoint(Coordinate coordinate) {
+        return new GeoPoint(coordinate.y, coordinate.x);
+    }
+
     public void disable() {
         if (mapView != null) {
             mapView.setClickable(true);
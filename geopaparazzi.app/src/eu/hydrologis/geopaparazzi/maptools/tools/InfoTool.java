@@ -19,6 +19,7 @@ package eu.hydrologis.geopaparazzi.maptools.tools;
 
 import android.app.ProgressDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Canvas;
 import android.graphics.Paint;
@@ -45,6 +46,7 @@ import eu.geopaparazzi.library.util.Utilities;
 import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.util.CancellationToken;
 import eu.hydrologis.geopaparazzi.R;
 import eu.hydrologis.geopaparazzi.maps.overlays.SliderDrawProjection;
 import eu.hydrologis.geopaparazzi.maptools.FeaturePagerActivity;
@@ -82,6 +84,8 @@ public class InfoTool extends MapTool {
 
     private ProgressDialog infoProgressDialog;
 
+    private CancellationToken queryToken;
+
     private SliderDrawProjection sliderDrawProjection;
 
     private ToolGroup parentGroup;
@@ -177,6 +181,9 @@ public class InfoTool extends MapTool {
     }
 
     public void disable() {
+        if (queryToken != null) {
+            queryToken.cancel();
+        }
         if (mapView != null) {
             mapView.setClickable(true);
             mapView = null;
@@ -201,6 +208,13 @@ public class InfoTool extends MapTool {
                 visibleTables.add(spatialTable);
             }
 
+            // a new query supersedes the running one
+            if (queryToken != null) {
+                queryToken.cancel();
+            }
+            final CancellationToken token = new CancellationToken();
+            queryToken = token;
+
             final Context context = EditManager.INSTANCE.getEditingView().getContext();
             infoProgressDialog = new ProgressDialog(context);
             infoProgressDialog.setCancelable(true);
@@ -210,6 +224,11 @@ public class InfoTool extends MapTool {
             infoProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
             infoProgressDialog.setProgress(0);
             infoProgressDialog.setMax(visibleTables.size());
+            infoProgressDialog.setOnCancelListener(new DialogInterface.OnCancelListener(){
+                public void onCancel( DialogInterface dialog ) {
+                    token.cancel();
+                }
+            });
             infoProgressDialog.show();
 
             new AsyncTask<String, Integer, String>(){
@@ -235,13 +254,13 @@ public class InfoTool extends MapTool {
                                 String query = SpatialiteDatabaseHandler.getIntersectionQueryBBOX(
                                         LibraryConstants.SRID_WGS84_4326, spatialTable, north, south, east, west);
 
-                                List<Feature> featuresList = FeatureUtilities.buildWithoutGeometry(query, spatialTable);
+                                List<Feature> featuresList = FeatureUtilities.buildWithoutGeometry(query, spatialTable, token);
+                                // Escape early if cancel() is called
+                                if (isCancelled() || token.isCancelled())
+                                    return "CANCEL";
                                 features.addAll(featuresList);
 
                                 publishProgress(1);
-                                // Escape early if cancel() is called
-                                if (isCancelled())
-                                    return "CANCEL";
                             }
                         }
                         return "";
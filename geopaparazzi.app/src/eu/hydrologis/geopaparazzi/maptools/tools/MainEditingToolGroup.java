@@ -54,6 +54,7 @@ import eu.geopaparazzi.spatialite.database.spatial.core.daos.DaoSpatialite;
 import eu.hydrologis.geopaparazzi.R;
 import eu.hydrologis.geopaparazzi.maps.MapsSupportService;
 import eu.hydrologis.geopaparazzi.maptools.FeatureUtilities;
+import eu.hydrologis.geopaparazzi.maptools.SnappingService;
 
 /**
  * The main editing tool, which just shows the tool palette.
@@ -266,6 +267,9 @@ public class MainEditingToolGroup implements ToolGroup, OnClickListener, OnTouch
                                             newGeom, LibraryConstants.SRID_WGS84_4326, spatialVectorTable);
 
                                     DaoSpatialite.deleteFeatures(Arrays.asList(cutExtendFeatureToRemove));
+                                    SnappingService.INSTANCE.featureChanged(spatialVectorTable,
+                                            Long.parseLong(cutExtendProcessedFeature.getId()), newGeom);
+                                    SnappingService.INSTANCE.featuresRemoved(Arrays.asList(cutExtendFeatureToRemove));
                                     // reset mapview
                                     Context context = v.getContext();
                                     Intent intent = new Intent(context, MapsSupportService.class);
@@ -60,6 +60,7 @@ import eu.hydrologis.geopaparazzi.maps.overlays.SliderDrawProjection;
 import eu.hydrologis.geopaparazzi.maptools.CopyToLayersListActivity;
 import eu.hydrologis.geopaparazzi.maptools.FeaturePagerActivity;
 import eu.hydrologis.geopaparazzi.maptools.FeatureUtilities;
+import eu.hydrologis.geopaparazzi.maptools.SnappingService;
 
 /**
  * The group of tools active when a selection has been done.
@@ -272,6 +273,7 @@ public class OnSelectionToolGroup implements ToolGroup, OnClickListener, OnTouch
                 try {
                     // delete features
                     DaoSpatialite.deleteFeatures(selectedFeatures);
+                    SnappingService.INSTANCE.featuresRemoved(selectedFeatures);
                     selectedFeatures.clear();
 
                     // reset mapview
@@ -334,7 +336,7 @@ public class OnSelectionToolGroup implements ToolGroup, OnClickListener, OnTouch
                 MapViewPosition mapPosition = mapView.getMapPosition();
                 byte zoomLevel = mapPosition.getZoomLevel();
 
-                PointTransformation pointTransformer = new MapsforgePointTransformation(projection, point, zoomLevel);
+                PointTransformation pointTransformer = new MapsforgePointTransformation(point, zoomLevel);
                 ShapeWriter shapeWriter = new ShapeWriter(pointTransformer);
                 shapeWriter.setRemoveDuplicatePoints(true);
                 // shapeWriter.setDecimation(spatialTable.getStyle().decimationFactor);
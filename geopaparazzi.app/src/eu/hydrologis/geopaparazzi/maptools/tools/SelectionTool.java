@@ -45,6 +45,7 @@ import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.Utilities;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.layers.SpatialVectorTableLayer;
+import eu.geopaparazzi.spatialite.database.spatial.util.CancellationToken;
 import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
 import eu.hydrologis.geopaparazzi.R;
 import eu.hydrologis.geopaparazzi.maps.overlays.SliderDrawProjection;
@@ -80,6 +81,8 @@ public class SelectionTool extends MapTool {
 
     private ProgressDialog infoProgressDialog;
 
+    private CancellationToken queryToken;
+
     private SliderDrawProjection editingViewProjection;
 
     /**
@@ -169,6 +172,9 @@ public class SelectionTool extends MapTool {
     }
 
     public void disable() {
+        if (queryToken != null) {
+            queryToken.cancel();
+        }
         if (mapView != null) {
             mapView.setClickable(true);
             mapView = null;
@@ -181,6 +187,13 @@ public class SelectionTool extends MapTool {
         SpatialVectorTableLayer layer = (SpatialVectorTableLayer) editLayer;
         final SpatialVectorTable spatialVectorTable = layer.getSpatialVectorTable();
 
+        // a new selection supersedes the running one
+        if (queryToken != null) {
+            queryToken.cancel();
+        }
+        final CancellationToken token = new CancellationToken();
+        queryToken = token;
+
         final Context context = EditManager.INSTANCE.getEditingView().getContext();
         infoProgressDialog = new ProgressDialog(context);
         infoProgressDialog.setCancelable(true);
@@ -210,7 +223,9 @@ public class SelectionTool extends MapTool {
 
                     String query = SpatialiteUtilities.getBboxIntersectingFeaturesQuery(LibraryConstants.SRID_WGS84_4326,
                             spatialVectorTable, north, south, east, west);
-                    features = FeatureUtilities.buildFeatures(query, spatialVectorTable);
+                    features = FeatureUtilities.buildFeatures(query, spatialVectorTable, token);
+                    if (token.isCancelled())
+                        return "CANCEL";
 
                     return "";
                 } catch (Exception e) {
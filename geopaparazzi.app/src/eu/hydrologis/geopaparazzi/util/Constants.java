@@ -208,6 +208,14 @@ public interface Constants {
      */
     public static final String PREFS_KEY_OSMTAGSVERSION = "PREFS_KEY_OSMTAGSVERSION";
 
+    /*
+     * GPS LOGS
+     */
+    /**
+     * Drop the gps log points table of the project database, keeping the points in blocks only.
+     */
+    public static final String PREFS_KEY_GPSLOG_DROP_DATA_TABLE = "PREFS_KEY_GPSLOG_DROP_DATA_TABLE";
+
     /*
      * CLOUD
      */
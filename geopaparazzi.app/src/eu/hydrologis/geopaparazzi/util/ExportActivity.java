@@ -35,8 +35,8 @@ import android.view.View;
 import android.widget.Button;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -55,6 +55,7 @@ import eu.geopaparazzi.library.images.ImageUtilities;
 import eu.geopaparazzi.library.kml.KmlRepresenter;
 import eu.geopaparazzi.library.kml.KmzExport;
 import eu.geopaparazzi.library.network.NetworkUtilities;
+import eu.geopaparazzi.library.network.TransferEngine;
 import eu.geopaparazzi.library.util.FileUtilities;
 import eu.geopaparazzi.library.util.ResourcesManager;
 import eu.geopaparazzi.library.util.StringAsyncTask;
@@ -66,7 +67,10 @@ import eu.hydrologis.geopaparazzi.R;
 import eu.hydrologis.geopaparazzi.database.DaoBookmarks;
 import eu.hydrologis.geopaparazzi.database.DaoGpsLog;
 import eu.hydrologis.geopaparazzi.database.DaoImages;
+import eu.hydrologis.geopaparazzi.database.DaoMetadata;
 import eu.hydrologis.geopaparazzi.database.DaoNotes;
+import eu.hydrologis.geopaparazzi.database.DaoSync;
+import eu.hydrologis.geopaparazzi.database.TableDescriptions.MetadataTableFields;
 import eu.hydrologis.geopaparazzi.maps.LogMapItem;
 
 import static eu.hydrologis.geopaparazzi.util.Constants.PREF_KEY_PWD;
@@ -179,6 +183,18 @@ public class ExportActivity extends Activity implements
     }
 
 
+    private String uploadWholeProject(ExportActivity context, String serverUrl, String user, String pwd)
+            throws IOException {
+        DaoSync.markAllSyncing();
+        String message = WebProjectManager.INSTANCE.uploadProject(context, serverUrl, user, pwd);
+        if (message.equals(getString(eu.geopaparazzi.library.R.string.file_upload_completed_properly))) {
+            DaoSync.markAllSynced();
+            DaoMetadata.setOrAddValue(MetadataTableFields.KEY_LASTSYNCTS.getFieldName(),
+                    String.valueOf(System.currentTimeMillis()));
+        }
+        return message;
+    }
+
     private void exportToCloud(final ExportActivity context, final String serverUrl, final String user, final String pwd) {
 
         cloudProgressDialog = ProgressDialog.show(ExportActivity.this, getString(R.string.exporting_data),
@@ -186,7 +202,37 @@ public class ExportActivity extends Activity implements
         new AsyncTask<String, Void, String>() {
             protected String doInBackground(String... params) {
                 try {
-                    String message = WebProjectManager.INSTANCE.uploadProject(context, serverUrl, user, pwd);
+                    HashMap<String, String> metadata = DaoMetadata.getProjectMetadata();
+                    String lastSync = metadata.get(MetadataTableFields.KEY_LASTSYNCTS.getFieldName());
+                    if (lastSync == null) {
+                        // first sync, the whole project is needed on the server
+                        return uploadWholeProject(context, serverUrl, user, pwd);
+                    }
+
+                    // only send what changed, resuming a previously interrupted changeset if there is one
+                    File tempDir = ResourcesManager.getInstance(context).getTempDir();
+                    File changesetFile = DaoSync.getPendingChangeset(tempDir);
+                    if (changesetFile == null) {
+                        changesetFile = DaoSync.createChangeset(tempDir);
+                    }
+                    if (changesetFile == null) {
+                        return getString(R.string.no_changes_to_sync);
+                    }
+                    String message;
+                    try {
+                        message = WebProjectManager.INSTANCE.uploadProjectChanges(context, serverUrl, user, pwd,
+                                changesetFile);
+                    } catch (TransferEngine.HttpResponseException e) {
+                        if (!WebProjectManager.isChangesUploadRejected(e.getResponseCode())) {
+                            throw e;
+                        }
+                        // a server without changesets gets the whole project, as on the first sync
+                        DaoSync.discardChangeset(changesetFile);
+                        return uploadWholeProject(context, serverUrl, user, pwd);
+                    }
+                    DaoSync.markChangesetSynced(changesetFile);
+                    DaoMetadata.setOrAddValue(MetadataTableFields.KEY_LASTSYNCTS.getFieldName(),
+                            String.valueOf(System.currentTimeMillis()));
                     return message;
                 } catch (Exception e) {
                     GPLog.error(this, e.getLocalizedMessage(), e);
@@ -423,12 +469,9 @@ public class ExportActivity extends Activity implements
                         for (int i = 0; i < imagesList.size(); i++) {
                             Image image = imagesList.get(i);
                             try {
-                                byte[] imageData = imageHelper.getImageData(image.getId());
+                                InputStream imageStream = imageHelper.getImageDataStream(image.getId());
                                 File imageFile = new File(outFolder, image.getName());
-
-                                FileOutputStream fos = new FileOutputStream(imageFile);
-                                fos.write(imageData);
-                                fos.close();
+                                ImageUtilities.writeImageDataToFile(imageStream, imageFile.getAbsolutePath());
                             } catch (IOException e) {
                                 GPLog.error(this, "For file: " + image.getName(), e);
                             } finally {
@@ -0,0 +1,227 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.geopaparazzi.util;
+
+import java.util.Arrays;
+
+/**
+ * The points of a gps log kept in primitive arrays.
+ * <p/>
+ * <p>The arrays can be longer than the number of points, use {@link #size()}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GpsLogPoints {
+    private double[] lons;
+    private double[] lats;
+    private double[] elevs;
+    private long[] timestamps;
+    private int size = 0;
+
+    /**
+     * Constructor.
+     */
+    public GpsLogPoints() {
+        this(128);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the initial capacity.
+     */
+    public GpsLogPoints(int capacity) {
+        capacity = Math.max(capacity, 1);
+        lons = new double[capacity];
+        lats = new double[capacity];
+        elevs = new double[capacity];
+        timestamps = new long[capacity];
+    }
+
+    /**
+     * Add a point.
+     *
+     * @param lon  lon.
+     * @param lat  lat.
+     * @param elev elevation.
+     * @param ts   the timestamp.
+     */
+    public void add(double lon, double lat, double elev, long ts) {
+        ensureCapacity(size + 1);
+        lons[size] = lon;
+        lats[size] = lat;
+        elevs[size] = elev;
+        timestamps[size] = ts;
+        size++;
+    }
+
+    /**
+     * Add all points of another set.
+     *
+     * @param other the points to add.
+     */
+    public void addAll(GpsLogPoints other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.lons, 0, lons, size, other.size);
+        System.arraycopy(other.lats, 0, lats, size, other.size);
+        System.arraycopy(other.elevs, 0, elevs, size, other.size);
+        System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+        size = size + other.size;
+    }
+
+    /**
+     * Remove all points, keeping the arrays.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the number of points.
+     */
+    public int size() {
+        return size;
+    }
+
+    public double getLon(int index) {
+        return lons[index];
+    }
+
+    public double getLat(int index) {
+        return lats[index];
+    }
+
+    public double getElev(int index) {
+        return elevs[index];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * @return the longitudes array, valid up to {@link #size()}.
+     */
+    public double[] getLons() {
+        return lons;
+    }
+
+    /**
+     * @return the latitudes array, valid up to {@link #size()}.
+     */
+    public double[] getLats() {
+        return lats;
+    }
+
+    /**
+     * @return the elevations array, valid up to {@link #size()}.
+     */
+    public double[] getElevs() {
+        return elevs;
+    }
+
+    /**
+     * @return the timestamps array, valid up to {@link #size()}.
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * Sort the points by timestamp, if they are not already.
+     * <p/>
+     * <p>Points with the same timestamp keep their order.</p>
+     */
+    public void sortByTimestamp() {
+        boolean sorted = true;
+        for (int i = 1; i < size; i++) {
+            if (timestamps[i] < timestamps[i - 1]) {
+                sorted = false;
+                break;
+            }
+        }
+        if (sorted) {
+            return;
+        }
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        sortIndexes(order, new int[size], timestamps, 0, size);
+        double[] newLons = new double[lons.length];
+        double[] newLats = new double[lats.length];
+        double[] newElevs = new double[elevs.length];
+        long[] newTimestamps = new long[timestamps.length];
+        for (int i = 0; i < size; i++) {
+            int from = order[i];
+            newLons[i] = lons[from];
+            newLats[i] = lats[from];
+            newElevs[i] = elevs[from];
+            newTimestamps[i] = timestamps[from];
+        }
+        lons = newLons;
+        lats = newLats;
+        elevs = newElevs;
+        timestamps = newTimestamps;
+    }
+
+    /**
+     * Stable merge sort of a range of indexes by their timestamps.
+     */
+    private static void sortIndexes(int[] order, int[] buffer, long[] timestamps, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortIndexes(order, buffer, timestamps, from, middle);
+        sortIndexes(order, buffer, timestamps, middle, to);
+        if (timestamps[order[middle - 1]] <= timestamps[order[middle]]) {
+            // the halves are already in order, as they mostly are for the blocks of a log
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        int index = from;
+        while (left < middle && right < to) {
+            // on equal timestamps the left one first, to keep the order of the points
+            if (timestamps[buffer[right]] < timestamps[buffer[left]]) {
+                order[index++] = buffer[right++];
+            } else {
+                order[index++] = buffer[left++];
+            }
+        }
+        while (left < middle) {
+            order[index++] = buffer[left++];
+        }
+        while (right < to) {
+            order[index++] = buffer[right++];
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= lons.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, lons.length * 2);
+        lons = Arrays.copyOf(lons, newCapacity);
+        lats = Arrays.copyOf(lats, newCapacity);
+        elevs = Arrays.copyOf(elevs, newCapacity);
+        timestamps = Arrays.copyOf(timestamps, newCapacity);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.geopaparazzi.util;
+
+import eu.geopaparazzi.library.util.PositionUtilities;
+
+/**
+ * Summary of a gps log, updated point by point while the log grows.
+ * <p/>
+ * <p>Points are expected in timestamp order. Besides the statistics, the first and
+ * last point are kept, so that logs can be appended to each other without reading
+ * their points.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GpsLogStats {
+    public long logId;
+    public long pointsCount = 0;
+    public double minLon = Double.POSITIVE_INFINITY;
+    public double minLat = Double.POSITIVE_INFINITY;
+    public double maxLon = Double.NEGATIVE_INFINITY;
+    public double maxLat = Double.NEGATIVE_INFINITY;
+    public double minElev = Double.POSITIVE_INFINITY;
+    public double maxElev = Double.NEGATIVE_INFINITY;
+    public double lengthm = 0;
+    public double elevGain = 0;
+    public double elevLoss = 0;
+
+    public double firstLon;
+    public double firstLat;
+    public double firstElev;
+    public long firstTs;
+    public double lastLon;
+    public double lastLat;
+    public double lastElev;
+    public long lastTs;
+
+    /**
+     * Constructor.
+     *
+     * @param logId the id of the log.
+     */
+    public GpsLogStats(long logId) {
+        this.logId = logId;
+    }
+
+    /**
+     * Add a point at the end of the log.
+     *
+     * @param lon  lon.
+     * @param lat  lat.
+     * @param elev elevation.
+     * @param ts   the timestamp.
+     */
+    public void addPoint(double lon, double lat, double elev, long ts) {
+        if (pointsCount == 0) {
+            firstLon = lon;
+            firstLat = lat;
+            firstElev = elev;
+            firstTs = ts;
+        } else {
+            lengthm = lengthm + PositionUtilities.haversineDistance(lastLon, lastLat, lon, lat);
+            addElevationDelta(elev - lastElev);
+        }
+        if (lon < minLon) minLon = lon;
+        if (lon > maxLon) maxLon = lon;
+        if (lat < minLat) minLat = lat;
+        if (lat > maxLat) maxLat = lat;
+        if (elev < minElev) minElev = elev;
+        if (elev > maxElev) maxElev = elev;
+        lastLon = lon;
+        lastLat = lat;
+        lastElev = elev;
+        lastTs = ts;
+        pointsCount++;
+    }
+
+    /**
+     * Append the statistics of a log that follows this one in time.
+     *
+     * @param other the log to append.
+     * @return <code>false</code> if the logs overlap in time, in which case nothing is changed
+     * and the statistics have to be recomputed from the points.
+     */
+    public boolean append(GpsLogStats other) {
+        if (other.pointsCount == 0) {
+            return true;
+        }
+        if (pointsCount == 0) {
+            copyFrom(other);
+            return true;
+        }
+        if (other.firstTs < lastTs) {
+            return false;
+        }
+        lengthm = lengthm + PositionUtilities.haversineDistance(lastLon, lastLat, other.firstLon, other.firstLat)
+                + other.lengthm;
+        addElevationDelta(other.firstElev - lastElev);
+        elevGain = elevGain + other.elevGain;
+        elevLoss = elevLoss + other.elevLoss;
+        minLon = Math.min(minLon, other.minLon);
+        minLat = Math.min(minLat, other.minLat);
+        maxLon = Math.max(maxLon, other.maxLon);
+        maxLat = Math.max(maxLat, other.maxLat);
+        minElev = Math.min(minElev, other.minElev);
+        maxElev = Math.max(maxElev, other.maxElev);
+        lastLon = other.lastLon;
+        lastLat = other.lastLat;
+        lastElev = other.lastElev;
+        lastTs = other.lastTs;
+        pointsCount = pointsCount + other.pointsCount;
+        return true;
+    }
+
+    /**
+     * @return the duration of the log in milliseconds.
+     */
+    public long getDuration() {
+        if (pointsCount == 0) {
+            return 0;
+        }
+        return lastTs - firstTs;
+    }
+
+    private void addElevationDelta(double delta) {
+        if (delta > 0) {
+            elevGain = elevGain + delta;
+        } else {
+            elevLoss = elevLoss - delta;
+        }
+    }
+
+    private void copyFrom(GpsLogStats other) {
+        pointsCount = other.pointsCount;
+        minLon = other.minLon;
+        minLat = other.minLat;
+        maxLon = other.maxLon;
+        maxLat = other.maxLat;
+        minElev = other.minElev;
+        maxElev = other.maxElev;
+        lengthm = other.lengthm;
+        elevGain = other.elevGain;
+        elevLoss = other.elevLoss;
+        firstLon = other.firstLon;
+        firstLat = other.firstLat;
+        firstElev = other.firstElev;
+        firstTs = other.firstTs;
+        lastLon = other.lastLon;
+        lastLat = other.lastLat;
+        lastElev = other.lastElev;
+        lastTs = other.lastTs;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.Random;
+
+import jsqlite.Database;
+import jsqlite.Stmt;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBReader;
+
+import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteQueryBuilder;
+
+/**
+ * Fetch of the geometries in the bounds of a map view.
+ * <p/>
+ * <p>Runs the query built by {@link SpatialiteQueryBuilder#buildGeometriesInBoundsQuery} for
+ * <code>SpatialiteDatabaseHandler.getGeometryIteratorInBounds</code>, as the full resolution
+ * tables get it from <code>SpatialiteUtilities</code>, and parses the result with the
+ * {@link WKBReader}, as the <code>GeometryIterator</code> does.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class BboxFetchCase extends BenchmarkCase {
+    private static final String TABLE = "bench_geoms";
+    private static final String GEOMETRY = "the_geom";
+    private static final String LABEL = "name";
+    private static final String DEST_SRID = "4326";
+
+    private final String srid;
+    private final boolean lines;
+    private final double windowSize;
+    private final WKBReader wkbReader = new WKBReader();
+    private Random windowsRandom;
+
+    /**
+     * Constructor.
+     *
+     * @param data       the synthetic data to use.
+     * @param srid       the srid of the table, if not 4326 the geometries are transformed in the query.
+     * @param lines      if <code>true</code> the table holds lines, else polygons.
+     * @param windowSize the size of the map view in degrees.
+     */
+    public BboxFetchCase(SyntheticData data, String srid, boolean lines, double windowSize) {
+        super(data);
+        this.srid = srid;
+        this.lines = lines;
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public String getName() {
+        return "bbox_" + (lines ? "lines_" : "polygons_") + srid + "_" + windowSize;
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        initSpatialMetadata();
+        String geometryType = lines ? "LINESTRING" : "POLYGON";
+        database.exec("CREATE TABLE " + TABLE + " (id INTEGER PRIMARY KEY AUTOINCREMENT, " + LABEL + " TEXT);", null);
+        database.exec("SELECT AddGeometryColumn('" + TABLE + "', '" + GEOMETRY + "', " + srid + ", '" + geometryType
+                + "', 'XY');", null);
+
+        String geometrySql = "GeomFromText(?, " + DEST_SRID + ")";
+        if (!srid.equals(DEST_SRID)) {
+            geometrySql = "ST_Transform(" + geometrySql + ", " + srid + ")";
+        }
+        Random random = data.random(lines ? "lines" : "polygons");
+        database.exec("BEGIN;", null);
+        Stmt stmt = database.prepare("INSERT INTO " + TABLE + " (" + LABEL + ", " + GEOMETRY + ") VALUES (?, " + geometrySql
+                + ");");
+        try {
+            for (int i = 0; i < data.getFeaturesCount(); i++) {
+                stmt.reset();
+                stmt.bind(1, "feature " + i);
+                stmt.bind(2, lines ? data.lineWkt(random) : data.polygonWkt(random));
+                stmt.step();
+            }
+        } finally {
+            stmt.close();
+        }
+        database.exec("COMMIT;", null);
+        database.exec("SELECT CreateSpatialIndex('" + TABLE + "', '" + GEOMETRY + "');", null);
+
+        windowsRandom = data.random(getName());
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        double[] window = data.window(windowsRandom, windowSize, windowSize * 0.6);
+        String query = SpatialiteQueryBuilder.buildGeometriesInBoundsQuery(DEST_SRID, srid, TABLE, GEOMETRY,
+                SpatialiteQueryBuilder.SPATIALTABLE_ID_FIELD, false, LABEL, window[0], window[1], window[2], window[3]);
+        int count = 0;
+        Stmt stmt = database.prepare(query);
+        try {
+            while (stmt.step()) {
+                byte[] geomBytes = stmt.column_bytes(0);
+                Geometry geometry = wkbReader.read(geomBytes);
+                String label = stmt.column_string(1);
+                if (geometry != null && label != null) {
+                    count++;
+                }
+            }
+        } finally {
+            stmt.close();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import jsqlite.Database;
+import jsqlite.Stmt;
+
+/**
+ * A benchmarked workload.
+ * <p/>
+ * <p>Every case runs on its own freshly created database. {@link #setUp(Database)}
+ * is not measured, every call of {@link #runOnce(int)} is one measured operation.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public abstract class BenchmarkCase {
+    protected final SyntheticData data;
+    protected Database database;
+    private CaseCounters counters;
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    protected BenchmarkCase(SyntheticData data) {
+        this.data = data;
+    }
+
+    /**
+     * @return the name of the case, also used as name of its database file.
+     */
+    public abstract String getName();
+
+    /**
+     * @return <code>true</code> if the case works on a database, else it is given none.
+     */
+    public boolean usesDatabase() {
+        return true;
+    }
+
+    /**
+     * Create the data of the case.
+     *
+     * @param database the empty database, <code>null</code> if the case uses none.
+     * @throws Exception if something goes wrong.
+     */
+    public void setUp(Database database) throws Exception {
+        this.database = database;
+    }
+
+    /**
+     * Run one operation.
+     *
+     * @param iteration the iteration, negative for warmup runs.
+     * @return the number of rows read or written.
+     * @throws Exception if something goes wrong.
+     */
+    public abstract int runOnce(int iteration) throws Exception;
+
+    /**
+     * Release the resources of the case, the database is closed by the caller.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void tearDown() throws Exception {
+    }
+
+    /**
+     * @return the counters of the case.
+     */
+    protected CaseCounters getCounters() {
+        if (counters == null) {
+            counters = new CaseCounters(getName());
+        }
+        return counters;
+    }
+
+    /**
+     * Fail the case if a result is wrong.
+     *
+     * @param condition the condition that holds if the result is right.
+     * @param message   the description of the wrong result.
+     */
+    protected static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new RuntimeException(message);
+        }
+    }
+
+    /**
+     * Create the spatial metadata tables.
+     *
+     * @throws jsqlite.Exception if something goes wrong.
+     */
+    protected void initSpatialMetadata() throws jsqlite.Exception {
+        database.exec("SELECT InitSpatialMetaData(1);", null);
+    }
+
+    /**
+     * Run a statement that returns a single long value.
+     *
+     * @param sql the query.
+     * @return the value, 0 if there are no rows.
+     * @throws jsqlite.Exception if something goes wrong.
+     */
+    protected long queryLong(String sql) throws jsqlite.Exception {
+        Stmt stmt = database.prepare(sql);
+        try {
+            if (stmt.step()) {
+                return stmt.column_long(0);
+            }
+            return 0;
+        } finally {
+            stmt.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Named counters of a case, for the figures that the latency of an operation does not tell.
+ * <p/>
+ * <p>The values added during warmup runs are ignored.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class CaseCounters {
+    private final String caseName;
+    private final Map<String, Long> counters = new HashMap<String, Long>();
+
+    /**
+     * Constructor.
+     *
+     * @param caseName the name of the case, printed before its figures.
+     */
+    public CaseCounters(String caseName) {
+        this.caseName = caseName;
+    }
+
+    /**
+     * Add to a counter.
+     *
+     * @param iteration the iteration, negative for warmup runs.
+     * @param counter   the name of the counter.
+     * @param value     the value to add.
+     */
+    public void add(int iteration, String counter, long value) {
+        if (iteration < 0) {
+            return;
+        }
+        counters.put(counter, get(counter) + value);
+    }
+
+    /**
+     * @param counter the name of the counter.
+     * @return its value, 0 if nothing has been added.
+     */
+    public long get(String counter) {
+        Long value = counters.get(counter);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @param counter the name of the counter.
+     * @param per     the name of the counter to divide by.
+     * @return the ratio of the two, {@link Double#NaN} if the second is 0.
+     */
+    public double ratio(String counter, String per) {
+        long perValue = get(per);
+        return perValue == 0 ? Double.NaN : (double) get(counter) / perValue;
+    }
+
+    /**
+     * Print some figures of the case.
+     *
+     * @param figures the text to print after the name of the case.
+     */
+    public void print(String figures) {
+        System.out.println(caseName + ": " + figures);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.Random;
+
+import jsqlite.Database;
+import jsqlite.Stmt;
+import eu.hydrologis.geopaparazzi.database.GpsLogBlockCodec;
+
+/**
+ * Inserts of the points of a gps log.
+ * <p/>
+ * <p>Every point is added in its own transaction to the last block of the log in the
+ * <code>gpslogsblocks</code> table, kept encoded in a {@link GpsLogBlockCodec.OpenBlock},
+ * as <code>DaoGpsLog.addGpsLogDataPoint</code> does while logging.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class GpsInsertCase extends BenchmarkCase {
+    /**
+     * The block size, same as <code>DaoGpsLog.BLOCK_SIZE</code>.
+     */
+    private static final int BLOCK_SIZE = 128;
+    private static final long LOG_ID = 1;
+
+    private Random walkRandom;
+    private double lon;
+    private double lat;
+    private double elev;
+    private long ts;
+    private final GpsLogBlockCodec.OpenBlock openBlock = new GpsLogBlockCodec.OpenBlock(BLOCK_SIZE);
+    private long openBlockId = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    public GpsInsertCase(SyntheticData data) {
+        super(data);
+    }
+
+    @Override
+    public String getName() {
+        return "gps_insert";
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        database.exec("CREATE TABLE gpslogs (_id INTEGER PRIMARY KEY AUTOINCREMENT, startts LONG NOT NULL, "
+                + "endts LONG NOT NULL, lengthm REAL NOT NULL, isdirty INTEGER NOT NULL, text TEXT NOT NULL);", null);
+        database.exec("CREATE TABLE gpslogsblocks (_id INTEGER PRIMARY KEY AUTOINCREMENT, logid INTEGER NOT NULL "
+                + "CONSTRAINT logid REFERENCES gpslogs(_id) ON DELETE CASCADE, pointscount INTEGER NOT NULL, "
+                + "firstts INTEGER NOT NULL, lastts INTEGER NOT NULL, minlon REAL NOT NULL, minlat REAL NOT NULL, "
+                + "maxlon REAL NOT NULL, maxlat REAL NOT NULL, data BLOB NOT NULL);", null);
+        database.exec("CREATE INDEX gpslogsblocks_logid_ts_idx ON gpslogsblocks ( logid, firstts );", null);
+        database.exec("INSERT INTO gpslogs (_id, startts, endts, lengthm, isdirty, text) VALUES (" + LOG_ID
+                + ", 0, 0, 0, 1, 'benchmark log');", null);
+
+        walkRandom = data.random(getName());
+        lon = (SyntheticData.WEST + SyntheticData.EAST) / 2.0;
+        lat = (SyntheticData.SOUTH + SyntheticData.NORTH) / 2.0;
+        elev = 500;
+        ts = 1400000000000L;
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        lon = lon + (walkRandom.nextDouble() - 0.5) * 0.0001;
+        lat = lat + (walkRandom.nextDouble() - 0.5) * 0.0001;
+        elev = elev + (walkRandom.nextDouble() - 0.5) * 2;
+        ts = ts + 1000;
+
+        database.exec("BEGIN;", null);
+        try {
+            if (!openBlock.accepts(ts)) {
+                openBlockId = -1;
+                openBlock.clear();
+            }
+            openBlock.add(lon, lat, elev, ts);
+            writeBlock();
+            database.exec("COMMIT;", null);
+        } catch (Exception e) {
+            database.exec("ROLLBACK;", null);
+            throw e;
+        }
+        return 1;
+    }
+
+    private void writeBlock() throws jsqlite.Exception {
+        String sql;
+        if (openBlockId == -1) {
+            sql = "INSERT INTO gpslogsblocks (logid, pointscount, firstts, lastts, minlon, minlat, maxlon, maxlat, data) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?);";
+        } else {
+            sql = "UPDATE gpslogsblocks SET logid=?, pointscount=?, firstts=?, lastts=?, minlon=?, minlat=?, maxlon=?, "
+                    + "maxlat=?, data=? WHERE _id=" + openBlockId + " AND pointscount=" + (openBlock.size() - 1) + ";";
+        }
+        Stmt stmt = database.prepare(sql);
+        try {
+            stmt.bind(1, LOG_ID);
+            stmt.bind(2, openBlock.size());
+            stmt.bind(3, openBlock.getFirstTs());
+            stmt.bind(4, openBlock.getLastTs());
+            stmt.bind(5, openBlock.getMinLon());
+            stmt.bind(6, openBlock.getMinLat());
+            stmt.bind(7, openBlock.getMaxLon());
+            stmt.bind(8, openBlock.getMaxLat());
+            stmt.bind(9, openBlock.toBlock());
+            stmt.step();
+        } finally {
+            stmt.close();
+        }
+        if (openBlockId == -1) {
+            openBlockId = database.last_insert_rowid();
+        } else if (database.changes() != 1) {
+            throw new RuntimeException("The open block " + openBlockId + " was not found.");
+        }
+    }
+}
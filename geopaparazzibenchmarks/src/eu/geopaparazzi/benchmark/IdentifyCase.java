@@ -0,0 +1,111 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.Random;
+
+import jsqlite.Database;
+import jsqlite.Stmt;
+
+import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteQueryBuilder;
+
+/**
+ * Identify of the features under a tap on the map.
+ * <p/>
+ * <p>Runs the query built by {@link SpatialiteQueryBuilder#buildIntersectionQuery} for
+ * <code>SpatialiteDatabaseHandler.getIntersectionQueryBBOX</code> over a small box and reads all the fields as strings, as
+ * <code>SpatialiteDatabaseHandler.intersectionToStringBBOX</code> does.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class IdentifyCase extends BenchmarkCase {
+    private static final String TABLE = "bench_identify";
+    private static final String GEOMETRY = "the_geom";
+    private static final String SRID = "4326";
+    private static final String FIELDS = SpatialiteQueryBuilder.SPATIALTABLE_ID_FIELD + ",name,category,height,notes";
+    private static final double TAP_SIZE = 0.0005;
+
+    private Random tapsRandom;
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    public IdentifyCase(SyntheticData data) {
+        super(data);
+    }
+
+    @Override
+    public String getName() {
+        return "identify";
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        initSpatialMetadata();
+        database.exec("CREATE TABLE " + TABLE
+                + " (id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT, category TEXT, height REAL, notes TEXT);", null);
+        database.exec("SELECT AddGeometryColumn('" + TABLE + "', '" + GEOMETRY + "', " + SRID + ", 'POLYGON', 'XY');", null);
+
+        Random random = data.random(getName());
+        database.exec("BEGIN;", null);
+        Stmt stmt = database.prepare("INSERT INTO " + TABLE + " (name, category, height, notes, " + GEOMETRY
+                + ") VALUES (?, ?, ?, ?, GeomFromText(?, " + SRID + "));");
+        try {
+            for (int i = 0; i < data.getFeaturesCount(); i++) {
+                stmt.reset();
+                stmt.bind(1, "feature " + i);
+                stmt.bind(2, "category " + random.nextInt(20));
+                stmt.bind(3, random.nextDouble() * 100.0);
+                stmt.bind(4, "notes of feature " + i);
+                stmt.bind(5, data.polygonWkt(random));
+                stmt.step();
+            }
+        } finally {
+            stmt.close();
+        }
+        database.exec("COMMIT;", null);
+        database.exec("SELECT CreateSpatialIndex('" + TABLE + "', '" + GEOMETRY + "');", null);
+
+        tapsRandom = data.random(getName() + "_taps");
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        double[] tap = data.window(tapsRandom, TAP_SIZE, TAP_SIZE);
+        String query = SpatialiteQueryBuilder.buildIntersectionQuery(SRID, SRID, TABLE, GEOMETRY, FIELDS, tap[0], tap[1],
+                tap[2], tap[3]);
+        int count = 0;
+        Stmt stmt = database.prepare(query);
+        try {
+            while (stmt.step()) {
+                int columnCount = stmt.column_count();
+                for (int i = 0; i < columnCount; i++) {
+                    stmt.column_string(i);
+                }
+                count++;
+            }
+        } finally {
+            stmt.close();
+        }
+        return count;
+    }
+}
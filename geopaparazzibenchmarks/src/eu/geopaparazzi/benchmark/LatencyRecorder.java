@@ -0,0 +1,118 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Collects the latencies of the operations of a benchmark case.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LatencyRecorder {
+    private long[] latencies;
+    private int count = 0;
+    private long rows = 0;
+    private long totalNanos = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedCount the expected number of operations.
+     */
+    public LatencyRecorder(int expectedCount) {
+        latencies = new long[Math.max(expectedCount, 16)];
+    }
+
+    /**
+     * Record an operation.
+     *
+     * @param nanos the duration of the operation.
+     * @param rowsCount the number of rows read or written by the operation.
+     */
+    public void record(long nanos, int rowsCount) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+        totalNanos = totalNanos + nanos;
+        rows = rows + rowsCount;
+    }
+
+    /**
+     * @return the number of recorded operations.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the operations per second.
+     */
+    public double getThroughput() {
+        if (totalNanos == 0) {
+            return 0;
+        }
+        return count / (totalNanos / 1E9);
+    }
+
+    /**
+     * @return the rows per second.
+     */
+    public double getRowsThroughput() {
+        if (totalNanos == 0) {
+            return 0;
+        }
+        return rows / (totalNanos / 1E9);
+    }
+
+    /**
+     * Get a latency percentile with the nearest rank method.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the latency in milliseconds.
+     */
+    public double getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        int index = Math.min(Math.max(rank - 1, 0), count - 1);
+        return sorted[index] / 1E6;
+    }
+
+    /**
+     * @return the header line matching {@link #toReportLine(String)}.
+     */
+    public static String getReportHeader() {
+        return String.format(Locale.US, "%-28s %8s %10s %12s %9s %9s %9s %9s", "case", "ops", "ops/s", "rows/s",
+                "p50 ms", "p90 ms", "p99 ms", "max ms");
+    }
+
+    /**
+     * @param name the name of the case.
+     * @return the report line of the recorded operations.
+     */
+    public String toReportLine(String name) {
+        return String.format(Locale.US, "%-28s %8d %10.1f %12.1f %9.3f %9.3f %9.3f %9.3f", name, count, getThroughput(),
+                getRowsThroughput(), getPercentile(50), getPercentile(90), getPercentile(99), getPercentile(100));
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.mapsforge.core.model.BoundingBox;
+import org.mapsforge.core.model.Tile;
+import org.mapsforge.core.util.MercatorProjection;
+import org.mapsforge.map.reader.MapDatabase;
+import org.mapsforge.map.reader.MapReadResult;
+import org.mapsforge.map.reader.header.FileOpenResult;
+
+import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.TileRenderPool;
+import jsqlite.Database;
+
+/**
+ * Reads of the tiles of a full view from a mapsforge map file, serial and through a {@link TileRenderPool}.
+ * <p/>
+ * <p>Every operation picks a view inside the map file and reads all its tiles twice:
+ * one at a time, as the single map worker of the view does, and in batches on the
+ * helpers of the pool, one map database per helper, as the parallel renderer does. The
+ * reading is the part of the rendering that does not need android. The tile throughput
+ * of both is printed at the end. The map file is given with <code>-mapfile</code>.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class MapReadCase extends BenchmarkCase {
+    private static final int VIEW_TILES_X = 5;
+    private static final int VIEW_TILES_Y = 8;
+    private static final byte MIN_ZOOM = 12;
+    private static final byte MAX_ZOOM = 16;
+
+    private final File mapFile;
+    private final MapDatabase mapDatabase = new MapDatabase();
+    private TileRenderPool<Tile> renderPool;
+    private int threads;
+
+    /**
+     * Constructor.
+     *
+     * @param data    the synthetic data to use.
+     * @param mapFile the map file to read.
+     */
+    public MapReadCase(SyntheticData data, File mapFile) {
+        super(data);
+        this.mapFile = mapFile;
+    }
+
+    @Override
+    public String getName() {
+        return "map_tile_read";
+    }
+
+    @Override
+    public boolean usesDatabase() {
+        return false;
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        FileOpenResult fileOpenResult = mapDatabase.openFile(mapFile);
+        if (!fileOpenResult.isSuccess()) {
+            throw new RuntimeException("Unable to open " + mapFile + ": " + fileOpenResult.getErrorMessage());
+        }
+        threads = TileRenderPool.getDefaultThreads();
+        renderPool = new TileRenderPool<Tile>(threads, new TileRenderPool.RendererFactory<Tile>() {
+            public TileRenderPool.Renderer<Tile> createRenderer() {
+                return new ReadRenderer(mapFile);
+            }
+        }, null);
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        List<Tile> view = createView(data.random(getName() + iteration));
+
+        long start = System.nanoTime();
+        int read = 0;
+        for (Tile tile : view) {
+            if (mapDatabase.readMapData(tile) != null) {
+                read++;
+            }
+        }
+        long serial = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int parallelRead = 0;
+        int helpers = renderPool.getHelpersCount();
+        int index = 0;
+        while (index < view.size()) {
+            // one tile in this thread, the next ones on the helpers
+            Tile tile = view.get(index++);
+            List<Tile> helperTiles = new ArrayList<Tile>();
+            while (helperTiles.size() < helpers && index < view.size()) {
+                helperTiles.add(view.get(index++));
+            }
+            TileRenderPool.Batch<Tile> batch = renderPool.submit(helperTiles);
+            if (mapDatabase.readMapData(tile) != null) {
+                parallelRead++;
+            }
+            for (TileRenderPool.Renderer<Tile> renderer : batch.await()) {
+                if (renderer != null) {
+                    parallelRead++;
+                }
+            }
+            if (!batch.getErrors().isEmpty()) {
+                throw batch.getErrors().get(0);
+            }
+        }
+        long parallel = System.nanoTime() - start;
+        check(parallelRead == read, "Parallel reads differ: " + parallelRead + " instead of " + read);
+        CaseCounters counters = getCounters();
+        counters.add(iteration, "serial nanos", serial);
+        counters.add(iteration, "parallel nanos", parallel);
+        counters.add(iteration, "tiles", view.size());
+        return read;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (renderPool != null) {
+            renderPool.shutdown();
+        }
+        mapDatabase.closeFile();
+        CaseCounters counters = getCounters();
+        if (counters.get("tiles") > 0) {
+            counters.print("tiles per second serial " + (long) (1E9 * counters.ratio("tiles", "serial nanos")) + ", with "
+                    + threads + " threads " + (long) (1E9 * counters.ratio("tiles", "parallel nanos")));
+        }
+    }
+
+    /**
+     * Create the tiles of a view at a random position and zoom inside the map file.
+     */
+    private List<Tile> createView(Random random) {
+        BoundingBox boundingBox = mapDatabase.getMapFileInfo().boundingBox;
+        double lon = (boundingBox.minLongitudeE6 + random.nextDouble()
+                * (boundingBox.maxLongitudeE6 - boundingBox.minLongitudeE6)) / 1E6;
+        double lat = (boundingBox.minLatitudeE6 + random.nextDouble()
+                * (boundingBox.maxLatitudeE6 - boundingBox.minLatitudeE6)) / 1E6;
+        byte zoom = (byte) (MIN_ZOOM + random.nextInt(MAX_ZOOM - MIN_ZOOM + 1));
+        long centerX = MercatorProjection.longitudeToTileX(lon, zoom);
+        long centerY = MercatorProjection.latitudeToTileY(lat, zoom);
+        List<Tile> view = new ArrayList<Tile>();
+        for (long y = centerY - VIEW_TILES_Y / 2; y < centerY - VIEW_TILES_Y / 2 + VIEW_TILES_Y; y++) {
+            for (long x = centerX - VIEW_TILES_X / 2; x < centerX - VIEW_TILES_X / 2 + VIEW_TILES_X; x++) {
+                view.add(new Tile(x, y, zoom));
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Reads a tile with its own map database.
+     */
+    private static class ReadRenderer implements TileRenderPool.Renderer<Tile> {
+        private final File mapFile;
+        private MapDatabase mapDatabase;
+        private MapReadResult mapReadResult;
+
+        ReadRenderer(File mapFile) {
+            this.mapFile = mapFile;
+        }
+
+        public boolean render(Tile tile) {
+            if (mapDatabase == null) {
+                mapDatabase = new MapDatabase();
+                FileOpenResult fileOpenResult = mapDatabase.openFile(mapFile);
+                if (!fileOpenResult.isSuccess()) {
+                    throw new RuntimeException("Unable to open " + mapFile + ": " + fileOpenResult.getErrorMessage());
+                }
+            }
+            mapReadResult = mapDatabase.readMapData(tile);
+            return mapReadResult != null;
+        }
+
+        public void cleanup() {
+            if (mapDatabase != null) {
+                mapDatabase.closeFile();
+            }
+        }
+    }
+}
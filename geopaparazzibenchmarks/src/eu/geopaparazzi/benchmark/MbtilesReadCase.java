@@ -0,0 +1,146 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.Random;
+
+import jsqlite.Database;
+import jsqlite.Stmt;
+
+import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.MbTilesSchema;
+
+/**
+ * Tile reads from a mbtiles database.
+ * <p/>
+ * <p>Creates the {@link MbTilesSchema} written by <code>MBTilesDroidSpitter</code>, where <code>tiles</code>
+ * is a view joining <code>map</code> and <code>images</code>, and reads with the query of
+ * <code>MBTilesDroidSpitter.getTileAsBytes</code>. About one request out of five asks for
+ * a tile that is not in the database, as happens at the borders of a dataset.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class MbtilesReadCase extends BenchmarkCase {
+    /**
+     * The zoom level of the benchmarked tiles.
+     */
+    static final int ZOOM_LEVEL = 14;
+
+    private static final int FIRST_TILE_X = 8600;
+    private static final int FIRST_TILE_Y = 5800;
+
+    private final int tilesPerSide;
+    private Random requestsRandom;
+
+    /**
+     * Constructor.
+     *
+     * @param data       the synthetic data to use.
+     * @param tilesCount the number of tiles to create.
+     */
+    public MbtilesReadCase(SyntheticData data, int tilesCount) {
+        super(data);
+        tilesPerSide = Math.max(1, (int) Math.sqrt(tilesCount));
+    }
+
+    @Override
+    public String getName() {
+        return "mbtiles_read";
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        createSchema(database);
+        Random random = data.random(getName());
+        Stmt imagesStmt = database.prepare(MbTilesSchema.INSERT_IMAGE);
+        Stmt mapStmt = database.prepare(MbTilesSchema.INSERT_MAP);
+        try {
+            database.exec("BEGIN;", null);
+            for (int x = 0; x < tilesPerSide; x++) {
+                for (int y = 0; y < tilesPerSide; y++) {
+                    insertTile(imagesStmt, mapStmt, ZOOM_LEVEL, FIRST_TILE_X + x, FIRST_TILE_Y + y, data.tile(random));
+                }
+            }
+            database.exec("COMMIT;", null);
+        } finally {
+            imagesStmt.close();
+            mapStmt.close();
+        }
+        requestsRandom = data.random(getName() + "_requests");
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        // 1.12 * 1.12 = 1.25 -> 80% of the requests hit a tile
+        int range = (int) Math.ceil(tilesPerSide * 1.12);
+        String x = Integer.toString(FIRST_TILE_X + requestsRandom.nextInt(range));
+        String y = Integer.toString(FIRST_TILE_Y + requestsRandom.nextInt(range));
+        String z = Integer.toString(ZOOM_LEVEL);
+        Stmt stmt = database.prepare(MbTilesSchema.SELECT_TILE);
+        try {
+            stmt.bind(1, x);
+            stmt.bind(2, y);
+            stmt.bind(3, z);
+            if (stmt.step()) {
+                byte[] tile = stmt.column_bytes(0);
+                return tile != null ? 1 : 0;
+            }
+            return 0;
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Create the tables, view and indexes of a mbtiles database as <code>MBTilesDroidSpitter</code> does.
+     *
+     * @param database the database.
+     * @throws jsqlite.Exception if something goes wrong.
+     */
+    static void createSchema(Database database) throws jsqlite.Exception {
+        for (String sql : MbTilesSchema.getCreateStatements()) {
+            database.exec(sql, null);
+        }
+    }
+
+    /**
+     * Insert a tile in the <code>images</code> and <code>map</code> tables.
+     *
+     * @param imagesStmt the statement prepared from {@link MbTilesSchema#INSERT_IMAGE}.
+     * @param mapStmt    the statement prepared from {@link MbTilesSchema#INSERT_MAP}.
+     * @param z          the zoom level.
+     * @param x          the tile column.
+     * @param y          the tile row.
+     * @param tile       the tile bytes.
+     * @throws jsqlite.Exception if something goes wrong.
+     */
+    static void insertTile(Stmt imagesStmt, Stmt mapStmt, int z, int x, int y, byte[] tile) throws jsqlite.Exception {
+        String tileId = MbTilesSchema.getTileId(z, x, y, "tms");
+        imagesStmt.reset();
+        imagesStmt.bind(1, tile);
+        imagesStmt.bind(2, tileId);
+        imagesStmt.step();
+        mapStmt.reset();
+        mapStmt.bind(1, z);
+        mapStmt.bind(2, x);
+        mapStmt.bind(3, y);
+        mapStmt.bind(4, tileId);
+        mapStmt.step();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import eu.geopaparazzi.library.database.FullTextSearch;
+import jsqlite.Database;
+import jsqlite.Stmt;
+
+/**
+ * Searches of notes as typed in the notes list.
+ * <p/>
+ * <p>The notes table and its FTS4 index are filled as <code>DaoNotes</code> and
+ * <code>DaoSearch</code> do, with texts built from a small vocabulary. Every operation
+ * searches a random prefix of two words through the index, ranking the matches with
+ * {@link FullTextSearch} and loading the first page of notes, and then the same search as
+ * it was done before, reading all the notes and filtering their text. The times of both
+ * are printed at the end.
+ * The case fails if the indexed search misses notes the scan finds.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class NotesSearchCase extends BenchmarkCase {
+    private static final int PAGE_SIZE = 50;
+    private static final double[] WEIGHTS = {2.0, 0.5, 1.0};
+    private static final String[] WORDS = {"spring", "well", "bridge", "landslide", "fence", "damage", "tree",
+            "river", "bank", "erosion", "road", "culvert", "sign", "wall", "crack", "pole", "gate", "rock", "path",
+            "trail", "field", "meadow", "house", "roof", "stone", "water", "pipe", "drain", "slope", "forest"};
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    public NotesSearchCase(SyntheticData data) {
+        super(data);
+    }
+
+    @Override
+    public String getName() {
+        return "notes_search";
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        database.exec("CREATE TABLE notes (_id INTEGER PRIMARY KEY AUTOINCREMENT, lon REAL NOT NULL, "
+                + "lat REAL NOT NULL, altim REAL NOT NULL, ts DATE NOT NULL, description TEXT, text TEXT NOT NULL, "
+                + "form CLOB, style TEXT, isdirty INTEGER);", null);
+        database.exec("CREATE VIRTUAL TABLE notessearch USING fts4(text, description, form, prefix=\"2,3\");", null);
+
+        Random random = data.random(getName());
+        database.exec("BEGIN;", null);
+        Stmt insertNote = database.prepare("INSERT INTO notes (lon, lat, altim, ts, description, text, form, isdirty) "
+                + "VALUES (?, ?, 0, 0, 'note', ?, ?, 1);");
+        Stmt insertIndex = database.prepare("INSERT INTO notessearch (docid, text, description, form) "
+                + "VALUES (?, ?, 'note', ?);");
+        try {
+            for (int i = 0; i < data.getFeaturesCount(); i++) {
+                String text = words(random, 2 + random.nextInt(3));
+                String form = "Description: " + words(random, 5 + random.nextInt(10));
+                insertNote.reset();
+                insertNote.bind(1, SyntheticData.WEST + random.nextDouble());
+                insertNote.bind(2, SyntheticData.SOUTH + random.nextDouble());
+                insertNote.bind(3, text);
+                insertNote.bind(4, form);
+                insertNote.step();
+                insertIndex.reset();
+                insertIndex.bind(1, database.last_insert_rowid());
+                insertIndex.bind(2, FullTextSearch.normalize(text));
+                insertIndex.bind(3, FullTextSearch.normalize(form));
+                insertIndex.step();
+            }
+        } finally {
+            insertNote.close();
+            insertIndex.close();
+        }
+        database.exec("COMMIT;", null);
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        Random random = data.random(getName() + iteration);
+        String first = WORDS[random.nextInt(WORDS.length)];
+        String second = WORDS[random.nextInt(WORDS.length)];
+        String typed = first + " " + second.substring(0, 2 + random.nextInt(second.length() - 1));
+
+        long start = System.nanoTime();
+        List<FullTextSearch.Match> matches = new ArrayList<FullTextSearch.Match>();
+        Stmt stmt = database.prepare("SELECT docid, matchinfo(notessearch, 'pcx') FROM notessearch "
+                + "WHERE notessearch MATCH ?;");
+        try {
+            stmt.bind(1, FullTextSearch.toMatchQuery(typed));
+            while (stmt.step()) {
+                matches.add(new FullTextSearch.Match(stmt.column_long(0), FullTextSearch.score(stmt.column_bytes(1),
+                        WEIGHTS)));
+            }
+        } finally {
+            stmt.close();
+        }
+        List<Long> page = FullTextSearch.getPage(matches.toArray(new FullTextSearch.Match[matches.size()]), 0,
+                PAGE_SIZE);
+        int loaded = 0;
+        if (page.size() > 0) {
+            StringBuilder sb = new StringBuilder();
+            for (Long id : page) {
+                sb.append(sb.length() > 0 ? "," : "").append(id);
+            }
+            stmt = database.prepare("SELECT _id, lon, lat, altim, text, ts, description, style, form, isdirty "
+                    + "FROM notes WHERE _id IN (" + sb + ");");
+            try {
+                while (stmt.step()) {
+                    loaded++;
+                }
+            } finally {
+                stmt.close();
+            }
+        }
+
+        long search = System.nanoTime() - start;
+
+        // the previous filtering, over all the notes read from the table
+        start = System.nanoTime();
+        int found = 0;
+        stmt = database.prepare("SELECT _id, lon, lat, altim, text, ts, description, style, form, isdirty FROM notes;");
+        try {
+            while (stmt.step()) {
+                String text = stmt.column_string(4).toLowerCase();
+                if (containsWordPrefixes(text, typed)) {
+                    found++;
+                }
+            }
+        } finally {
+            stmt.close();
+        }
+        long scan = System.nanoTime() - start;
+        CaseCounters counters = getCounters();
+        counters.add(iteration, "search nanos", search);
+        counters.add(iteration, "scan nanos", scan);
+        counters.add(iteration, "searches", 1);
+        check(loaded == page.size() && matches.size() >= found, "The search of '" + typed + "' found " + matches.size()
+                + " notes, the scan of the texts " + found);
+        return loaded;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        CaseCounters counters = getCounters();
+        if (counters.get("searches") > 0) {
+            counters.print("us per search with the index " + (long) (counters.ratio("search nanos", "searches") / 1000)
+                    + ", scanning all the notes " + (long) (counters.ratio("scan nanos", "searches") / 1000));
+        }
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            String word = WORDS[random.nextInt(WORDS.length)];
+            sb.append(random.nextInt(4) == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return <code>true</code> if every typed term starts a word of the text, as the index matches.
+     */
+    private static boolean containsWordPrefixes(String text, String typed) {
+        String[] words = text.split(" ");
+        for (String term : typed.split(" ")) {
+            boolean termFound = false;
+            for (String word : words) {
+                if (word.startsWith(term)) {
+                    termFound = true;
+                    break;
+                }
+            }
+            if (!termFound) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
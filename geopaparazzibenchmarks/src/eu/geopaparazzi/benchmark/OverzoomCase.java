@@ -0,0 +1,118 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.Random;
+
+import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.OverzoomTiles;
+
+/**
+ * Panning of a view two levels past the maximum zoom of a tile source.
+ * <p/>
+ * <p>Every operation pans a view over the overzoomed tiles, producing every visible tile
+ * through {@link OverzoomTiles} with a decoder that fills a synthetic ancestor. The decodes
+ * per viewport are printed at the end, next to the tiles per viewport, which is what
+ * decoding the ancestor of every child costs. The overzoomed pixels and the decodes of a
+ * pan are asserted by <code>TestOverzoomTiles</code>.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class OverzoomCase extends BenchmarkCase {
+    private static final int TILE_SIZE = 256;
+    private static final int SOURCE_MAX_ZOOM = 18;
+    private static final int ZOOM_DIFF = 2;
+    private static final int VIEW_TILES_X = 5;
+    private static final int VIEW_TILES_Y = 8;
+    private static final int PAN_STEPS = 50;
+
+    private final int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    public OverzoomCase(SyntheticData data) {
+        super(data);
+    }
+
+    @Override
+    public String getName() {
+        return "overzoom_pan";
+    }
+
+    @Override
+    public boolean usesDatabase() {
+        return false;
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        Random random = data.random(getName() + iteration);
+        int zoom = SOURCE_MAX_ZOOM + ZOOM_DIFF;
+        int originX = (1 << zoom) / 2 + random.nextInt(1000);
+        int originY = (1 << zoom) / 2 + random.nextInt(1000);
+        OverzoomTiles overzoomTiles = new OverzoomTiles(TILE_SIZE, OverzoomTiles.DEFAULT_CAPACITY);
+        OverzoomTiles.AncestorDecoder decoder = new OverzoomTiles.AncestorDecoder() {
+            public boolean decode(int zoom, int x, int y_osm, int[] ancestorPixels) {
+                for (int i = 0; i < ancestorPixels.length; i++) {
+                    ancestorPixels[i] = pixelOf(x, y_osm, i % TILE_SIZE, i / TILE_SIZE);
+                }
+                return true;
+            }
+        };
+        // pan a tile at a time, turning now and then
+        int dx = 1;
+        int dy = 0;
+        int produced = 0;
+        for (int step = 0; step < PAN_STEPS; step++) {
+            if (random.nextInt(8) == 0) {
+                int turn = dx;
+                dx = dy;
+                dy = turn;
+            }
+            originX += dx;
+            originY += dy;
+            for (int y = originY; y < originY + VIEW_TILES_Y; y++) {
+                for (int x = originX; x < originX + VIEW_TILES_X; x++) {
+                    overzoomTiles.fill(zoom, x, y, ZOOM_DIFF, decoder, pixels);
+                    produced++;
+                }
+            }
+        }
+        CaseCounters counters = getCounters();
+        counters.add(iteration, "decodes", overzoomTiles.getDecodes());
+        counters.add(iteration, "viewports", PAN_STEPS);
+        counters.add(iteration, "tiles", produced);
+        return produced;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        CaseCounters counters = getCounters();
+        if (counters.get("viewports") > 0) {
+            counters.print("ancestor decodes per viewport " + counters.ratio("decodes", "viewports") + ", tiles per viewport "
+                    + counters.ratio("tiles", "viewports"));
+        }
+    }
+
+    private static int pixelOf(int tileX, int tileY, int column, int row) {
+        return 0xFF000000 | ((tileX * 31 + tileY * 17 + column * 7 + row * 13) & 0xFFFFFF);
+    }
+}
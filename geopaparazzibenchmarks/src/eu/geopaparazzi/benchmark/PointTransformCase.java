@@ -0,0 +1,154 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.Random;
+
+import org.mapsforge.core.model.GeoPoint;
+import org.mapsforge.core.util.MercatorProjection;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+import eu.hydrologis.geopaparazzi.maps.overlays.MercatorViewTransform;
+import jsqlite.Database;
+
+/**
+ * Transforms of the vertices of the features in view to screen pixels.
+ * <p/>
+ * <p>The vertices of the lines and polygons of an area of half a degree are projected
+ * for a frame at a random pan position, through the {@link MercatorViewTransform} used by
+ * <code>MapsforgePointTransformation</code> and then as it was done before, creating a
+ * <code>GeoPoint</code> for each vertex and going through the mapsforge
+ * {@link MercatorProjection} as the map view projection does. The times of both are
+ * printed at the end. The case fails if the two differ by more than about a pixel.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class PointTransformCase extends BenchmarkCase {
+    private static final double AREA_SIZE = 0.5;
+    private static final byte ZOOM = 12;
+
+    private double[] lonLat;
+    private float[] xy;
+    private int[] oldXy;
+    private double minPixelX;
+    private double minPixelY;
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    public PointTransformCase(SyntheticData data) {
+        super(data);
+    }
+
+    @Override
+    public String getName() {
+        return "point_transform";
+    }
+
+    @Override
+    public boolean usesDatabase() {
+        return false;
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        Random random = data.random(getName());
+        double[] window = data.window(random, AREA_SIZE, AREA_SIZE);
+        Envelope area = new Envelope(window[3], window[2], window[1], window[0]);
+        WKTReader wktReader = new WKTReader();
+        int count = 0;
+        double[] coordinates = new double[1024];
+        for (int i = 0; i < data.getFeaturesCount(); i++) {
+            String wkt = random.nextBoolean() ? data.lineWkt(random) : data.polygonWkt(random);
+            Geometry geometry = wktReader.read(wkt);
+            if (!geometry.getEnvelopeInternal().intersects(area)) {
+                continue;
+            }
+            for (Coordinate coordinate : geometry.getCoordinates()) {
+                if (2 * count + 2 > coordinates.length) {
+                    double[] grown = new double[2 * coordinates.length];
+                    System.arraycopy(coordinates, 0, grown, 0, coordinates.length);
+                    coordinates = grown;
+                }
+                coordinates[2 * count] = coordinate.x;
+                coordinates[2 * count + 1] = coordinate.y;
+                count++;
+            }
+        }
+        lonLat = new double[2 * count];
+        System.arraycopy(coordinates, 0, lonLat, 0, lonLat.length);
+        xy = new float[lonLat.length];
+        oldXy = new int[lonLat.length];
+        minPixelX = MercatorProjection.longitudeToPixelX(area.getMinX(), ZOOM);
+        minPixelY = MercatorProjection.latitudeToPixelY(area.getMaxY(), ZOOM);
+        getCounters().print(count + " vertices at zoom " + ZOOM);
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        Random random = data.random(getName() + iteration);
+        // the upper left corner of the frame, on whole pixels as the draw position is
+        int offsetX = (int) (minPixelX + random.nextDouble() * 1000);
+        int offsetY = (int) (minPixelY + random.nextDouble() * 1000);
+        int points = lonLat.length / 2;
+
+        long start = System.nanoTime();
+        MercatorViewTransform transform = new MercatorViewTransform(offsetX, offsetY, ZOOM);
+        for (int i = 0; i < lonLat.length; i += 2) {
+            xy[i] = transform.toViewX(lonLat[i]);
+            xy[i + 1] = transform.toViewY(lonLat[i + 1]);
+        }
+        long transformElapsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < lonLat.length; i += 2) {
+            GeoPoint geoPoint = new GeoPoint(lonLat[i + 1], lonLat[i]);
+            oldXy[i] = (int) MercatorProjection.longitudeToPixelX(geoPoint.getLongitude(), ZOOM) - offsetX;
+            oldXy[i + 1] = (int) MercatorProjection.latitudeToPixelY(geoPoint.getLatitude(), ZOOM) - offsetY;
+        }
+        long oldElapsed = System.nanoTime() - start;
+        CaseCounters counters = getCounters();
+        counters.add(iteration, "transform nanos", transformElapsed);
+        counters.add(iteration, "old nanos", oldElapsed);
+        counters.add(iteration, "frames", 1);
+
+        for (int i = 0; i < xy.length; i++) {
+            // the old path truncates to whole pixels after rounding to microdegrees, a few thousandths of a pixel
+            check(Math.abs(xy[i] - oldXy[i]) <= 1.01f, "The vertex " + (i / 2) + " is transformed to " + xy[i]
+                    + " instead of " + oldXy[i]);
+        }
+        return points;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        CaseCounters counters = getCounters();
+        if (counters.get("frames") > 0) {
+            counters.print("us per frame with the view transform " + (counters.ratio("transform nanos", "frames") / 1000)
+                    + ", through geopoints " + (counters.ratio("old nanos", "frames") / 1000));
+        }
+    }
+}
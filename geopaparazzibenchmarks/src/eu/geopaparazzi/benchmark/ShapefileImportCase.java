@@ -0,0 +1,128 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import eu.geopaparazzi.library.test.ShapefileWriter;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.ShapefileImporter;
+import eu.geopaparazzi.spatialite.database.spatial.util.CancellationToken;
+import jsqlite.Database;
+
+/**
+ * Imports of a polyline shapefile through the {@link ShapefileImporter}.
+ * <p/>
+ * <p>A synthetic shapefile of random walks with a few attributes is written next to the
+ * database by the {@link ShapefileWriter} of the library tests. Every operation imports
+ * it into a new table, builds its spatial index and drops it again. The case fails if the
+ * rows or the spatial index entries are not as many as the records, and, in the set up,
+ * if a cancelled import leaves its table behind.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ShapefileImportCase extends BenchmarkCase {
+    private static final int POLYLINE = 3;
+    private static final int FEATURES = 2000;
+    private static final int SRID = 4326;
+    private static final String TABLE = "shape_import";
+
+    private File shpFile;
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    public ShapefileImportCase(SyntheticData data) {
+        super(data);
+    }
+
+    @Override
+    public String getName() {
+        return "shapefile_import";
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        initSpatialMetadata();
+        shpFile = writeShapefile(new File(database.getFilename()).getParentFile(), data.random(getName()));
+
+        // a cancelled import leaves nothing behind
+        final CancellationToken token = new CancellationToken();
+        int imported = ShapefileImporter.importShapefile(database, shpFile, TABLE, "CP1252", SRID, FEATURES / 4,
+                new ShapefileImporter.ProgressListener() {
+                    public void onProgress(int imported, int total) {
+                        token.cancel();
+                    }
+                }, token);
+        check(imported == -1 && queryLong("SELECT count(*) FROM sqlite_master WHERE name='" + TABLE + "'") == 0,
+                "The cancelled import left the table behind");
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        long start = System.nanoTime();
+        int imported = ShapefileImporter.importShapefile(database, shpFile, TABLE, "CP1252", SRID,
+                ShapefileImporter.DEFAULT_CHUNK_SIZE, null, null);
+        long elapsed = System.nanoTime() - start;
+        long rows = queryLong("SELECT count(*) FROM " + TABLE + " WHERE Geometry IS NOT NULL AND name IS NOT NULL");
+        long indexed = queryLong("SELECT count(*) FROM idx_" + TABLE + "_Geometry");
+        check(imported == FEATURES && rows == FEATURES && indexed == FEATURES, "Imported " + imported + " records, "
+                + rows + " rows, " + indexed + " indexed instead of " + FEATURES);
+        database.exec("SELECT DisableSpatialIndex('" + TABLE + "','Geometry');", null);
+        database.exec("DROP TABLE idx_" + TABLE + "_Geometry;", null);
+        database.exec("SELECT DiscardGeometryColumn('" + TABLE + "','Geometry');", null);
+        database.exec("DROP TABLE " + TABLE + ";", null);
+        getCounters().add(iteration, "import nanos", elapsed);
+        getCounters().add(iteration, "features", imported);
+        return imported;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        CaseCounters counters = getCounters();
+        if (counters.get("features") > 0) {
+            counters.print("features per second " + (long) (1E9 * counters.ratio("features", "import nanos")));
+        }
+    }
+
+    /**
+     * Write a polyline shapefile with an id, a name and a length field.
+     */
+    private File writeShapefile(File folder, Random random) throws IOException {
+        ShapefileWriter writer = new ShapefileWriter(POLYLINE);
+        writer.addField("ID", 'N', 9, 0);
+        writer.addField("NAME", 'C', 20, 0);
+        writer.addField("LENGTH", 'N', 12, 4);
+        for (int feature = 0; feature < FEATURES; feature++) {
+            double[] xy = data.line(random);
+            double length = 0;
+            for (int i = 2; i < xy.length; i += 2) {
+                length += Math.hypot(xy[i] - xy[i - 2], xy[i + 1] - xy[i - 1]);
+            }
+            writer.addRecord(ShapefileWriter.polyRecord(POLYLINE, new double[][]{xy}, null), false,
+                    String.valueOf(feature + 1), "road " + (feature + 1), String.format(Locale.US, "%.4f", length * 100000));
+        }
+        return writer.write(folder, getName());
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import eu.geopaparazzi.library.sketch.commands.StrokeLayer;
+import jsqlite.Database;
+
+/**
+ * Frames of a scripted sketch of a thousand strokes, with undos and redos.
+ * <p/>
+ * <p>The sketch surface is stood in for by java2d images. Every operation plays a few steps
+ * of the script, drawing a frame after each as <code>DrawingSurface</code> does now: baking
+ * the new strokes into a {@link StrokeLayer} and drawing the live stroke on top. The last
+ * frame is then drawn also as it was before, clearing the bitmap and drawing again all the
+ * strokes. The script starts again after its last step. The frame times of both, over all
+ * and past the first nine hundred strokes, are printed at the end.
+ * The case fails if the baked strokes differ from the ones drawn again, which
+ * <code>TestStrokeLayer</code> asserts on the same kind of script.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class SketchReplayCase extends BenchmarkCase {
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1280;
+    private static final int STROKES = 1000;
+    private static final int UNDO_EVERY = 25;
+    private static final int STEPS_PER_OPERATION = 3;
+
+    private static final int ADD = 0;
+    private static final int UNDO = 1;
+    private static final int REDO = 2;
+
+    private static class Stroke {
+        final Path2D path = new Path2D.Float();
+        final Color color;
+        final BasicStroke stroke;
+
+        Stroke(Random random) {
+            color = new Color(random.nextInt(0xFFFFFF));
+            stroke = new BasicStroke(2 + random.nextInt(10), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+            float x = random.nextFloat() * WIDTH;
+            float y = random.nextFloat() * HEIGHT;
+            path.moveTo(x, y);
+            int points = 10 + random.nextInt(50);
+            for (int i = 0; i < points; i++) {
+                x += (random.nextFloat() - 0.5f) * 30;
+                y += (random.nextFloat() - 0.5f) * 30;
+                path.lineTo(x, y);
+            }
+        }
+
+        void draw(Graphics2D graphics) {
+            graphics.setColor(color);
+            graphics.setStroke(stroke);
+            graphics.draw(path);
+        }
+    }
+
+    private static class ImageStrokeLayer extends StrokeLayer<Stroke, int[]> {
+        final BufferedImage image = createImage();
+        final Graphics2D graphics = createGraphics(image);
+        final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        ImageStrokeLayer() {
+            super(DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_MAX_CHECKPOINTS);
+            clear();
+        }
+
+        @Override
+        protected void clear() {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        }
+
+        @Override
+        protected void drawStroke(Stroke stroke) {
+            stroke.draw(graphics);
+        }
+
+        @Override
+        protected int[] takeSnapshot() {
+            return pixels.clone();
+        }
+
+        @Override
+        protected void restoreSnapshot(int[] snapshot) {
+            System.arraycopy(snapshot, 0, pixels, 0, pixels.length);
+        }
+    }
+
+    private final List<Stroke> script = new ArrayList<Stroke>();
+    private final List<int[]> steps = new ArrayList<int[]>();
+    private final List<Stroke> committed = new ArrayList<Stroke>();
+    private final List<Stroke> redoable = new ArrayList<Stroke>();
+    private int step;
+    private int changedFrom = Integer.MAX_VALUE;
+
+    private ImageStrokeLayer layer;
+    private BufferedImage replayImage;
+    private Graphics2D replayGraphics;
+    private BufferedImage screenImage;
+    private Graphics2D screenGraphics;
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    public SketchReplayCase(SyntheticData data) {
+        super(data);
+    }
+
+    @Override
+    public String getName() {
+        return "sketch_replay";
+    }
+
+    @Override
+    public boolean usesDatabase() {
+        return false;
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        Random random = data.random(getName());
+        for (int i = 0; i < STROKES; i++) {
+            script.add(new Stroke(random));
+            steps.add(new int[]{ADD, i});
+            if (i % UNDO_EVERY == UNDO_EVERY - 1) {
+                // take back a few strokes, crossing a checkpoint every other time, and redo some
+                for (int j = 0; j < 3; j++) {
+                    steps.add(new int[]{UNDO, i});
+                }
+                for (int j = 0; j < 2; j++) {
+                    steps.add(new int[]{REDO, i});
+                }
+            }
+        }
+        layer = new ImageStrokeLayer();
+        replayImage = createImage();
+        replayGraphics = createGraphics(replayImage);
+        screenImage = createImage();
+        screenGraphics = createGraphics(screenImage);
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        CaseCounters counters = getCounters();
+        int drawn = 0;
+        Stroke live = null;
+        for (int i = 0; i < STEPS_PER_OPERATION; i++) {
+            live = playStep();
+
+            long start = System.nanoTime();
+            drawn += layer.update(committed, changedFrom);
+            changedFrom = Integer.MAX_VALUE;
+            screenGraphics.drawImage(layer.image, 0, 0, null);
+            live.draw(screenGraphics);
+            long baked = System.nanoTime() - start;
+            addFrame(counters, iteration, "baked", baked);
+        }
+
+        // the previous frame, drawing all the strokes again
+        long start = System.nanoTime();
+        replayGraphics.setColor(Color.WHITE);
+        replayGraphics.fillRect(0, 0, WIDTH, HEIGHT);
+        for (Stroke stroke : committed) {
+            stroke.draw(replayGraphics);
+        }
+        screenGraphics.drawImage(replayImage, 0, 0, null);
+        live.draw(screenGraphics);
+        long replayed = System.nanoTime() - start;
+        addFrame(counters, iteration, "replayed", replayed);
+
+        int[] replayPixels = ((DataBufferInt) replayImage.getRaster().getDataBuffer()).getData();
+        check(Arrays.equals(layer.pixels, replayPixels), "The baked sketch differs from the replayed one at step " + step);
+        return drawn;
+    }
+
+    /**
+     * Count a frame, also among the last ones if the sketch is near its full size.
+     */
+    private void addFrame(CaseCounters counters, int iteration, String kind, long nanos) {
+        counters.add(iteration, kind + " nanos", nanos);
+        counters.add(iteration, kind + " frames", 1);
+        if (committed.size() > STROKES - 100) {
+            counters.add(iteration, "last " + kind + " nanos", nanos);
+            counters.add(iteration, "last " + kind + " frames", 1);
+        }
+    }
+
+    /**
+     * Play the next step of the script, starting it again after the last one.
+     *
+     * @return the stroke being drawn after the step.
+     */
+    private Stroke playStep() {
+        if (step == steps.size()) {
+            step = 0;
+            committed.clear();
+            redoable.clear();
+            changedFrom = Integer.MAX_VALUE;
+            layer.reset();
+        }
+        int[] action = steps.get(step++);
+        if (action[0] == ADD) {
+            redoable.clear();
+            committed.add(script.get(action[1]));
+        } else if (action[0] == UNDO) {
+            changedFrom = Math.min(changedFrom, committed.size() - 1);
+            redoable.add(committed.remove(committed.size() - 1));
+        } else {
+            committed.add(redoable.remove(redoable.size() - 1));
+        }
+        // the next stroke of the script is the one being drawn
+        return script.get((action[1] + 1) % STROKES);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        CaseCounters counters = getCounters();
+        if (counters.get("baked frames") > 0 && counters.get("replayed frames") > 0) {
+            counters.print("us per frame baked " + (long) (counters.ratio("baked nanos", "baked frames") / 1000)
+                    + ", replayed " + (long) (counters.ratio("replayed nanos", "replayed frames") / 1000));
+        }
+        if (counters.get("last baked frames") > 0 && counters.get("last replayed frames") > 0) {
+            counters.print("us per frame past " + (STROKES - 100) + " strokes baked "
+                    + (long) (counters.ratio("last baked nanos", "last baked frames") / 1000) + ", replayed "
+                    + (long) (counters.ratio("last replayed nanos", "last replayed frames") / 1000));
+        }
+        if (replayGraphics != null) {
+            replayGraphics.dispose();
+            screenGraphics.dispose();
+            layer.graphics.dispose();
+        }
+    }
+
+    private static BufferedImage createImage() {
+        return new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private static Graphics2D createGraphics(BufferedImage image) {
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        return graphics;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.io.WKTReader;
+
+import eu.geopaparazzi.spatialite.database.spatial.util.SnappingIndex;
+import jsqlite.Database;
+
+/**
+ * Snaps of the editing tools through the {@link SnappingIndex}.
+ * <p/>
+ * <p>The index is filled with the lines and polygons of an area of half a degree, as the
+ * <code>SnappingService</code> does for an enlarged viewport. Every operation moves one of
+ * the features, replacing it in the index as after an edit, and snaps a random position to
+ * the nearest vertex or segment. The same snap is done scanning all the vertices and
+ * segments, as a snap without index would, and the times of both are printed at the end.
+ * The case fails if the two snaps do not agree, as <code>TestSnappingIndex</code> asserts
+ * on a smaller set of features.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class SnappingCase extends BenchmarkCase {
+    private static final String LAYER = "bench_snapping";
+    private static final double AREA_SIZE = 0.5;
+    private static final double TOLERANCE = 0.0005;
+
+    private SnappingIndex index;
+    private final List<Geometry> geometries = new ArrayList<Geometry>();
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    public SnappingCase(SyntheticData data) {
+        super(data);
+    }
+
+    @Override
+    public String getName() {
+        return "snapping";
+    }
+
+    @Override
+    public boolean usesDatabase() {
+        return false;
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        Random random = data.random(getName());
+        double[] window = data.window(random, AREA_SIZE, AREA_SIZE);
+        Envelope area = new Envelope(window[3], window[2], window[1], window[0]);
+        WKTReader wktReader = new WKTReader();
+        for (int i = 0; i < data.getFeaturesCount(); i++) {
+            String wkt = random.nextBoolean() ? data.lineWkt(random) : data.polygonWkt(random);
+            Geometry geometry = wktReader.read(wkt);
+            if (geometry.getEnvelopeInternal().intersects(area)) {
+                geometries.add(geometry);
+            }
+        }
+        long start = System.nanoTime();
+        index = new SnappingIndex(area);
+        for (int i = 0; i < geometries.size(); i++) {
+            index.putFeature(LAYER, i, geometries.get(i));
+        }
+        getCounters().print(geometries.size() + " features, " + index.getSegmentsCount() + " segments indexed in "
+                + ((System.nanoTime() - start) / 1000000) + " ms");
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        Random random = data.random(getName() + iteration);
+        Envelope area = index.getCoveredEnvelope();
+
+        // an edit moves a feature
+        int edited = random.nextInt(geometries.size());
+        Geometry geometry = (Geometry) geometries.get(edited).clone();
+        final double dx = (random.nextDouble() - 0.5) * TOLERANCE;
+        final double dy = (random.nextDouble() - 0.5) * TOLERANCE;
+        for (Coordinate coordinate : geometry.getCoordinates()) {
+            coordinate.x += dx;
+            coordinate.y += dy;
+        }
+        geometry.geometryChanged();
+        geometries.set(edited, geometry);
+        index.putFeature(LAYER, edited, geometry);
+
+        // a touch near a vertex of some feature, or anywhere
+        Coordinate touch;
+        if (random.nextBoolean()) {
+            Coordinate[] coordinates = geometries.get(random.nextInt(geometries.size())).getCoordinates();
+            Coordinate vertex = coordinates[random.nextInt(coordinates.length)];
+            touch = new Coordinate(vertex.x + (random.nextDouble() - 0.5) * 4 * TOLERANCE,
+                    vertex.y + (random.nextDouble() - 0.5) * 4 * TOLERANCE);
+        } else {
+            touch = new Coordinate(area.getMinX() + random.nextDouble() * area.getWidth(),
+                    area.getMinY() + random.nextDouble() * area.getHeight());
+        }
+
+        long start = System.nanoTime();
+        SnappingIndex.Snap snap = index.snap(touch, TOLERANCE);
+        long snapElapsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        double[] scanned = scan(touch);
+        long scanElapsed = System.nanoTime() - start;
+        CaseCounters counters = getCounters();
+        counters.add(iteration, "snap nanos", snapElapsed);
+        counters.add(iteration, "scan nanos", scanElapsed);
+        counters.add(iteration, "snaps", 1);
+
+        boolean agree;
+        if (snap == null) {
+            agree = scanned == null;
+        } else {
+            agree = scanned != null && (scanned[1] == 1) == snap.isVertex && Math.abs(scanned[0] - snap.distance) < 1E-12;
+        }
+        check(agree, "The snap of " + touch + " through the index does not match the scan");
+        return snap == null ? 0 : 1;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        CaseCounters counters = getCounters();
+        if (counters.get("snaps") > 0) {
+            counters.print("us per snap with the index " + (counters.ratio("snap nanos", "snaps") / 1000)
+                    + ", scanning all the vertices " + (counters.ratio("scan nanos", "snaps") / 1000));
+        }
+    }
+
+    /**
+     * Snap scanning all the features.
+     *
+     * @return the distance and 1 for a vertex or 0 for a segment, <code>null</code> if nothing is in tolerance.
+     */
+    private double[] scan(Coordinate touch) {
+        double vertexDistance = Double.POSITIVE_INFINITY;
+        double segmentDistance = Double.POSITIVE_INFINITY;
+        LineSegment segment = new LineSegment();
+        for (Geometry geometry : geometries) {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                Geometry part = geometry.getGeometryN(i);
+                Coordinate[] coordinates = part.getCoordinates();
+                for (int j = 0; j < coordinates.length; j++) {
+                    vertexDistance = Math.min(vertexDistance, coordinates[j].distance(touch));
+                    if (j > 0) {
+                        segment.setCoordinates(coordinates[j - 1], coordinates[j]);
+                        segmentDistance = Math.min(segmentDistance, segment.distance(touch));
+                    }
+                }
+            }
+        }
+        if (vertexDistance <= TOLERANCE) {
+            return new double[]{vertexDistance, 1};
+        }
+        if (segmentDistance <= TOLERANCE) {
+            return new double[]{segmentDistance, 0};
+        }
+        return null;
+    }
+}
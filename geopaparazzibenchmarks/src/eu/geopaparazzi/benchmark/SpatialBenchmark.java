@@ -0,0 +1,188 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import jsqlite.Constants;
+import jsqlite.Database;
+
+/**
+ * Benchmark of the spatial workloads of geopaparazzi.
+ * <p/>
+ * <p>Unlike {@link jsqlite.Benchmark}, which runs a TPC-B transaction test, this
+ * runs the queries used to draw and query the map on reproducible synthetic
+ * datasets and reports throughput and latency percentiles for each of them:</p>
+ * <ul>
+ * <li>fetch of the geometries in the bounds of a map view</li>
+ * <li>identify of the features under a tap</li>
+ * <li>reads, inserts and download planning of mbtiles tiles</li>
+ * <li>inserts of gps log points</li>
+ * <li>concurrent tile downloads from a loopback server through the shared http connections</li>
+ * <li>replay of a drive measuring the tile cache misses with and without prefetch</li>
+ * <li>panning past the maximum zoom of a tile source, counting the ancestor decodes</li>
+ * <li>serial and parallel reads of the tiles of a view from a mapsforge map file, if one is given</li>
+ * <li>bulk imports of a shapefile</li>
+ * <li>searches of notes through their full text index and by scanning them</li>
+ * <li>snaps of the editing tools to the vertices and segments of the features in view</li>
+ * <li>frames of a scripted thousand strokes sketch, baked and replayed</li>
+ * <li>transforms of the vertices of the features in view to screen pixels</li>
+ * </ul>
+ * <p/>
+ * <p>It runs on a plain JVM: the jsqlite native library has to be built with spatialite,
+ * as the one of the android library is, and be found through <code>-Djava.library.path</code>.</p>
+ * <p/>
+ * <pre>
+ * java -Djava.library.path=/path/to/jsqlite eu.geopaparazzi.benchmark.SpatialBenchmark \
+ *      [-dir folder] [-rows n] [-iterations n] [-warmup n] [-seed n] [-only name] [-mapfile file.map]
+ * </pre>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class SpatialBenchmark {
+    private File folder = new File(System.getProperty("java.io.tmpdir"), "geopaparazzi-benchmark");
+    private int rows = 20000;
+    private int iterations = 500;
+    private int warmup = 50;
+    private long seed = 42;
+    private String only = null;
+    private File mapFile = null;
+
+    /**
+     * Main program.
+     *
+     * @param args the command line arguments.
+     * @throws Exception if something goes wrong.
+     */
+    public static void main(String[] args) throws Exception {
+        SpatialBenchmark benchmark = new SpatialBenchmark();
+        if (!benchmark.parseArgs(args)) {
+            System.out.println("Usage: SpatialBenchmark [-dir folder] [-rows n] [-iterations n] [-warmup n] [-seed n] "
+                    + "[-only name] [-mapfile file.map]");
+            System.exit(1);
+        }
+        benchmark.run();
+    }
+
+    private boolean parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                return false;
+            }
+            String arg = args[i];
+            String value = args[++i];
+            try {
+                if (arg.equals("-dir")) {
+                    folder = new File(value);
+                } else if (arg.equals("-rows")) {
+                    rows = Integer.parseInt(value);
+                } else if (arg.equals("-iterations")) {
+                    iterations = Integer.parseInt(value);
+                } else if (arg.equals("-warmup")) {
+                    warmup = Integer.parseInt(value);
+                } else if (arg.equals("-seed")) {
+                    seed = Long.parseLong(value);
+                } else if (arg.equals("-only")) {
+                    only = value;
+                } else if (arg.equals("-mapfile")) {
+                    mapFile = new File(value);
+                } else {
+                    return false;
+                }
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<BenchmarkCase> createCases() {
+        SyntheticData data = new SyntheticData(seed, rows);
+        List<BenchmarkCase> cases = new ArrayList<BenchmarkCase>();
+        cases.add(new BboxFetchCase(data, "4326", false, 0.02));
+        cases.add(new BboxFetchCase(data, "4326", false, 0.2));
+        cases.add(new BboxFetchCase(data, "3857", true, 0.02));
+        cases.add(new IdentifyCase(data));
+        cases.add(new MbtilesReadCase(data, rows));
+        cases.add(new TileInsertCase(data));
+        cases.add(new TilePlanCase(data));
+        cases.add(new GpsInsertCase(data));
+        cases.add(new TileFetchCase(data));
+        cases.add(new TilePrefetchCase(data));
+        cases.add(new OverzoomCase(data));
+        cases.add(new ShapefileImportCase(data));
+        cases.add(new NotesSearchCase(data));
+        cases.add(new SnappingCase(data));
+        cases.add(new SketchReplayCase(data));
+        cases.add(new PointTransformCase(data));
+        if (mapFile != null) {
+            cases.add(new MapReadCase(data, mapFile));
+        }
+        return cases;
+    }
+
+    private void run() throws Exception {
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new RuntimeException("Unable to create the folder: " + folder);
+        }
+        System.out.println("Rows: " + rows + ", iterations: " + iterations + ", warmup: " + warmup + ", seed: " + seed);
+        System.out.println("Databases folder: " + folder.getAbsolutePath());
+        System.out.println();
+        System.out.println(LatencyRecorder.getReportHeader());
+        for (BenchmarkCase benchmarkCase : createCases()) {
+            if (only != null && !benchmarkCase.getName().startsWith(only)) {
+                continue;
+            }
+            LatencyRecorder recorder = runCase(benchmarkCase);
+            System.out.println(recorder.toReportLine(benchmarkCase.getName()));
+        }
+    }
+
+    private LatencyRecorder runCase(BenchmarkCase benchmarkCase) throws Exception {
+        Database database = null;
+        if (benchmarkCase.usesDatabase()) {
+            File dbFile = new File(folder, benchmarkCase.getName() + ".sqlite");
+            if (dbFile.exists() && !dbFile.delete()) {
+                throw new RuntimeException("Unable to remove the old database: " + dbFile);
+            }
+            database = new Database();
+            database.open(dbFile.getAbsolutePath(), Constants.SQLITE_OPEN_READWRITE | Constants.SQLITE_OPEN_CREATE);
+        }
+        try {
+            benchmarkCase.setUp(database);
+            for (int i = 0; i < warmup; i++) {
+                benchmarkCase.runOnce(-i - 1);
+            }
+            LatencyRecorder recorder = new LatencyRecorder(iterations);
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                int rowsCount = benchmarkCase.runOnce(i);
+                recorder.record(System.nanoTime() - start, rowsCount);
+            }
+            benchmarkCase.tearDown();
+            return recorder;
+        } finally {
+            if (database != null) {
+                database.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generator of reproducible synthetic datasets.
+ * <p/>
+ * <p>Every case asks for its own {@link Random} by name, so that the data of a case
+ * does not change when other cases are added or skipped.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class SyntheticData {
+    /**
+     * West bound of the data.
+     */
+    public static final double WEST = 10.0;
+    /**
+     * East bound of the data.
+     */
+    public static final double EAST = 12.0;
+    /**
+     * South bound of the data.
+     */
+    public static final double SOUTH = 45.0;
+    /**
+     * North bound of the data.
+     */
+    public static final double NORTH = 47.0;
+
+    private final long seed;
+    private final int featuresCount;
+
+    /**
+     * Constructor.
+     *
+     * @param seed          the seed of all generators.
+     * @param featuresCount the number of features of the vector tables.
+     */
+    public SyntheticData(long seed, int featuresCount) {
+        this.seed = seed;
+        this.featuresCount = featuresCount;
+    }
+
+    /**
+     * @return the number of features of the vector tables.
+     */
+    public int getFeaturesCount() {
+        return featuresCount;
+    }
+
+    /**
+     * Get the generator for a purpose.
+     *
+     * @param purpose the name of the purpose.
+     * @return the generator, always the same sequence for the same seed and purpose.
+     */
+    public Random random(String purpose) {
+        return new Random(seed * 31 + purpose.hashCode());
+    }
+
+    /**
+     * Create a star shaped polygon.
+     *
+     * @param random the generator.
+     * @return the polygon as WKT.
+     */
+    public String polygonWkt(Random random) {
+        double cx = lon(random);
+        double cy = lat(random);
+        double radius = 0.0005 + random.nextDouble() * 0.0045;
+        int vertices = 5 + random.nextInt(26);
+        StringBuilder sb = new StringBuilder("POLYGON((");
+        String first = null;
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double r = radius * (0.5 + random.nextDouble() * 0.5);
+            String coordinate = coordinate(cx + r * Math.cos(angle), cy + r * Math.sin(angle));
+            if (first == null) {
+                first = coordinate;
+            } else {
+                sb.append(",");
+            }
+            sb.append(coordinate);
+        }
+        sb.append(",").append(first).append("))");
+        return sb.toString();
+    }
+
+    /**
+     * Create a line as random walk.
+     *
+     * @param random the generator.
+     * @return the line as WKT.
+     */
+    public String lineWkt(Random random) {
+        double[] xy = line(random);
+        StringBuilder sb = new StringBuilder("LINESTRING(");
+        for (int i = 0; i < xy.length; i += 2) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(coordinate(xy[i], xy[i + 1]));
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+
+    /**
+     * Create a line as random walk.
+     *
+     * @param random the generator.
+     * @return the coordinates as x1, y1, x2, y2...
+     */
+    public double[] line(Random random) {
+        double x = lon(random);
+        double y = lat(random);
+        int vertices = 10 + random.nextInt(91);
+        double[] xy = new double[vertices * 2];
+        for (int i = 0; i < vertices; i++) {
+            if (i > 0) {
+                x = x + (random.nextDouble() - 0.5) * 0.001;
+                y = y + (random.nextDouble() - 0.5) * 0.001;
+            }
+            xy[2 * i] = x;
+            xy[2 * i + 1] = y;
+        }
+        return xy;
+    }
+
+    /**
+     * Create a drive of one fix per second, with a slowly changing bearing and speed.
+     *
+     * @param random the generator.
+     * @param fixes  the number of fixes.
+     * @return the fixes as <code>{lon, lat, speed, bearing}</code>, speed in m/s and bearing in degrees.
+     */
+    public double[][] track(Random random, int fixes) {
+        double[][] track = new double[fixes][];
+        double lon = lon(random);
+        double lat = lat(random);
+        double bearing = random.nextDouble() * 360;
+        double speed = 10 + random.nextDouble() * 20;
+        for (int i = 0; i < fixes; i++) {
+            track[i] = new double[]{lon, lat, speed, bearing};
+            double metersNorth = Math.cos(Math.toRadians(bearing)) * speed;
+            double metersEast = Math.sin(Math.toRadians(bearing)) * speed;
+            lat += metersNorth / 111320.0;
+            lon += metersEast / (111320.0 * Math.cos(Math.toRadians(lat)));
+            bearing = (bearing + random.nextGaussian() * 4 + 360) % 360;
+            speed = Math.max(3, Math.min(35, speed + random.nextGaussian()));
+        }
+        return track;
+    }
+
+    /**
+     * Create a window inside the data bounds.
+     *
+     * @param random the generator.
+     * @param width  the width in degrees.
+     * @param height the height in degrees.
+     * @return the window as [n, s, e, w].
+     */
+    public double[] window(Random random, double width, double height) {
+        double w = WEST + random.nextDouble() * (EAST - WEST - width);
+        double s = SOUTH + random.nextDouble() * (NORTH - SOUTH - height);
+        return new double[]{s + height, s, w + width, w};
+    }
+
+    /**
+     * Create the content of a tile.
+     * <p/>
+     * <p>Image tiles do not compress, so random bytes of a typical size are used.</p>
+     *
+     * @param random the generator.
+     * @return the tile bytes.
+     */
+    public byte[] tile(Random random) {
+        byte[] tile = new byte[8 * 1024 + random.nextInt(24 * 1024)];
+        random.nextBytes(tile);
+        return tile;
+    }
+
+    private double lon(Random random) {
+        return WEST + random.nextDouble() * (EAST - WEST);
+    }
+
+    private double lat(Random random) {
+        return SOUTH + random.nextDouble() * (NORTH - SOUTH);
+    }
+
+    private static String coordinate(double x, double y) {
+        return String.format(Locale.US, "%.7f %.7f", x, y);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.geopaparazzi.library.network.TileHttpPool;
+import eu.geopaparazzi.library.test.StubHttpServer;
+import jsqlite.Database;
+
+/**
+ * Concurrent tile downloads through the {@link TileHttpPool}.
+ * <p/>
+ * <p>The tiles are served by the keep-alive {@link StubHttpServer} of the library tests.
+ * Every operation downloads a batch of tiles from several threads. The connections
+ * accepted by the server are printed at the end; that they stay within the per host
+ * limit of the pool is asserted by <code>TestTileHttpPool</code>.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TileFetchCase extends BenchmarkCase {
+    private static final int THREADS = 8;
+    private static final int TILES_PER_RUN = 64;
+    private static final int TILE_SIZE = 12 * 1024;
+
+    private StubHttpServer server;
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    public TileFetchCase(SyntheticData data) {
+        super(data);
+    }
+
+    @Override
+    public String getName() {
+        return "http_tile_fetch";
+    }
+
+    @Override
+    public boolean usesDatabase() {
+        return false;
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        final byte[] tile = new byte[TILE_SIZE];
+        data.random(getName()).nextBytes(tile);
+        server = new StubHttpServer(new StubHttpServer.Handler() {
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                return new StubHttpServer.Response(200, tile);
+            }
+        });
+    }
+
+    @Override
+    public int runOnce(final int iteration) throws Exception {
+        final TileHttpPool pool = TileHttpPool.getInstance();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger downloaded = new AtomicInteger();
+        final List<Exception> errors = new ArrayList<Exception>();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    int tile;
+                    while ((tile = next.getAndIncrement()) < TILES_PER_RUN) {
+                        try {
+                            TileHttpPool.Response response = pool.get(server.getUrl("/16/" + iteration + "/" + tile
+                                    + ".png"));
+                            if (response.body != null && response.body.length == TILE_SIZE) {
+                                downloaded.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            synchronized (errors) {
+                                errors.add(e);
+                            }
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (errors.size() > 0) {
+            throw errors.get(0);
+        }
+        return downloaded.get();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (server != null) {
+            getCounters().print("connections accepted by the loopback server " + server.getAcceptedConnections()
+                    + ", requests " + server.getRequestsCount());
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.Random;
+
+import jsqlite.Database;
+import jsqlite.Stmt;
+
+import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.MbTilesSchema;
+
+/**
+ * Tile inserts into a mbtiles database.
+ * <p/>
+ * <p>Every tile is written in its own transaction to the <code>images</code> and
+ * <code>map</code> tables, as <code>MBTilesDroidSpitter.insertTile</code> does while
+ * downloading tiles from a map server.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TileInsertCase extends BenchmarkCase {
+    private static final int TILES_PER_ROW = 1024;
+
+    private Random tilesRandom;
+    private Stmt imagesStmt;
+    private Stmt mapStmt;
+    private int nextTile = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    public TileInsertCase(SyntheticData data) {
+        super(data);
+    }
+
+    @Override
+    public String getName() {
+        return "mbtiles_insert";
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        MbtilesReadCase.createSchema(database);
+        imagesStmt = database.prepare(MbTilesSchema.INSERT_IMAGE);
+        mapStmt = database.prepare(MbTilesSchema.INSERT_MAP);
+        tilesRandom = data.random(getName());
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        int x = nextTile % TILES_PER_ROW;
+        int y = nextTile / TILES_PER_ROW;
+        nextTile++;
+        byte[] tile = data.tile(tilesRandom);
+        database.exec("BEGIN;", null);
+        try {
+            MbtilesReadCase.insertTile(imagesStmt, mapStmt, MbtilesReadCase.ZOOM_LEVEL + 1, x, y, tile);
+            database.exec("COMMIT;", null);
+        } catch (jsqlite.Exception e) {
+            database.exec("ROLLBACK;", null);
+            throw e;
+        }
+        return 1;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (imagesStmt != null)
+            imagesStmt.close();
+        if (mapStmt != null)
+            mapStmt.close();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.Random;
+
+import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.MbTilesSchema;
+import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.TileSetPlanner;
+import jsqlite.Database;
+import jsqlite.Stmt;
+
+/**
+ * Planning of a 'fill' download request over a million tiles extent.
+ * <p/>
+ * <p>Half of the tiles of the extent are already in the <code>map</code> table. Every
+ * operation does what <code>MBTilesDroidSpitter.plan_request</code> does: reads the
+ * existing tiles of the extent into a {@link TileSetPlanner}, inverts it and visits the
+ * missing tiles creating their tile id, as they are streamed into <code>request_url</code>.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TilePlanCase extends BenchmarkCase {
+    private static final int ZOOM_LEVEL = 16;
+    private static final int TILES_PER_SIDE = 1000;
+    private static final int FIRST_TILE_X = 34500;
+    private static final int FIRST_TILE_Y = 23300;
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    public TilePlanCase(SyntheticData data) {
+        super(data);
+    }
+
+    @Override
+    public String getName() {
+        return "mbtiles_plan";
+    }
+
+    @Override
+    public void setUp(Database database) throws Exception {
+        super.setUp(database);
+        MbtilesReadCase.createSchema(database);
+        Random random = data.random(getName());
+        Stmt mapStmt = database.prepare(MbTilesSchema.INSERT_MAP);
+        try {
+            database.exec("BEGIN;", null);
+            for (int x = 0; x < TILES_PER_SIDE; x++) {
+                for (int y = 0; y < TILES_PER_SIDE; y++) {
+                    if (random.nextBoolean()) {
+                        int tileX = FIRST_TILE_X + x;
+                        int tileY = FIRST_TILE_Y + y;
+                        mapStmt.reset();
+                        mapStmt.bind(1, ZOOM_LEVEL);
+                        mapStmt.bind(2, tileX);
+                        mapStmt.bind(3, tileY);
+                        mapStmt.bind(4, MbTilesSchema.getTileId(ZOOM_LEVEL, tileX, tileY, "osm"));
+                        mapStmt.step();
+                    }
+                }
+            }
+            database.exec("COMMIT;", null);
+        } finally {
+            mapStmt.close();
+        }
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        int maxX = FIRST_TILE_X + TILES_PER_SIDE - 1;
+        int maxY = FIRST_TILE_Y + TILES_PER_SIDE - 1;
+        TileSetPlanner planner = new TileSetPlanner(ZOOM_LEVEL, FIRST_TILE_X, FIRST_TILE_Y, maxX, maxY);
+        Stmt stmt = database.prepare(MbTilesSchema.buildTilesInRangeQuery("map", ZOOM_LEVEL, FIRST_TILE_X, FIRST_TILE_Y, maxX,
+                maxY));
+        try {
+            while (stmt.step()) {
+                planner.add(stmt.column_int(0), stmt.column_int(1));
+            }
+        } finally {
+            stmt.close();
+        }
+        planner.invert();
+        final int[] missing = new int[1];
+        planner.forEach(new TileSetPlanner.TileVisitor() {
+            public boolean visitTile(int z, int x, int y_osm) {
+                String tileId = MbTilesSchema.getTileId(z, x, y_osm, "osm");
+                // use the id, so that its creation is measured
+                if (tileId.length() > 0) {
+                    missing[0]++;
+                }
+                return true;
+            }
+        });
+        return missing[0];
+    }
+}
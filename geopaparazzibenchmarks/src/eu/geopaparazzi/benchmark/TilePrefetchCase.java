@@ -0,0 +1,133 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.PrefetchPlanner;
+
+/**
+ * Replay of a drive with a view that follows the gps, with and without prefetch.
+ * <p/>
+ * <p>Every operation replays a synthetic track of one fix per second twice. The view
+ * tiles missing from a tile cache as big as the caches of the map view are counted as
+ * on demand misses. The second replay prefetches the tiles planned by the
+ * {@link PrefetchPlanner} after every fix, within the budgets of the
+ * <code>TilePrefetcher</code>. The misses of both are printed at the end; that the
+ * prefetch lowers them is asserted by <code>TestPrefetchPlanner</code>.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TilePrefetchCase extends BenchmarkCase {
+    private static final int ZOOM_LEVEL = 16;
+    private static final int FIXES = 600;
+    private static final double VIEW_TILES_X = 1080.0 / 256;
+    private static final double VIEW_TILES_Y = 1920.0 / 256;
+    // the in memory and file system caches of the map view
+    private static final int CACHE_CAPACITY = 120;
+    // the budgets of the TilePrefetcher
+    private static final int MAX_TILES_PER_PLAN = 40;
+    private static final int MAX_TILES_PER_FIX = 120 / 60;
+
+    /**
+     * Constructor.
+     *
+     * @param data the synthetic data to use.
+     */
+    public TilePrefetchCase(SyntheticData data) {
+        super(data);
+    }
+
+    @Override
+    public String getName() {
+        return "tile_prefetch_replay";
+    }
+
+    @Override
+    public boolean usesDatabase() {
+        return false;
+    }
+
+    @Override
+    public int runOnce(int iteration) throws Exception {
+        double[][] track = data.track(data.random(getName() + iteration), FIXES);
+        int viewTiles = replay(iteration, track, false);
+        replay(iteration, track, true);
+        getCounters().add(iteration, "view tiles", viewTiles);
+        return viewTiles;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        CaseCounters counters = getCounters();
+        counters.print("on demand misses without prefetch " + counters.get("misses without") + ", with prefetch "
+                + counters.get("misses with") + " of " + counters.get("view tiles") + " view tiles");
+    }
+
+    private int replay(int iteration, double[][] track, boolean prefetch) {
+        Map<Long, Boolean> cache = new LinkedHashMap<Long, Boolean>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > CACHE_CAPACITY;
+            }
+        };
+        PrefetchPlanner planner = new PrefetchPlanner();
+        int viewTiles = 0;
+        int misses = 0;
+        for (double[] fix : track) {
+            double tileX = PrefetchPlanner.lonToTileX(fix[0], ZOOM_LEVEL);
+            double tileY = PrefetchPlanner.latToTileY(fix[1], ZOOM_LEVEL);
+            int fromX = (int) Math.floor(tileX - VIEW_TILES_X / 2);
+            int toX = (int) Math.floor(tileX + VIEW_TILES_X / 2);
+            int fromY = (int) Math.floor(tileY - VIEW_TILES_Y / 2);
+            int toY = (int) Math.floor(tileY + VIEW_TILES_Y / 2);
+            for (int y = fromY; y <= toY; y++) {
+                for (int x = fromX; x <= toX; x++) {
+                    viewTiles++;
+                    long key = PrefetchPlanner.encode(ZOOM_LEVEL, x, y);
+                    if (cache.get(key) == null) {
+                        misses++;
+                        cache.put(key, Boolean.TRUE);
+                    }
+                }
+            }
+            if (!prefetch) {
+                continue;
+            }
+            // the prefetcher fetches only missing tiles, at its rate until the next fix
+            List<int[]> plan = planner.plan(ZOOM_LEVEL, 18, fix[0], fix[1], fix[2], fix[3], VIEW_TILES_X, VIEW_TILES_Y,
+                    MAX_TILES_PER_PLAN);
+            int fetched = 0;
+            for (int[] tile : plan) {
+                if (fetched >= MAX_TILES_PER_FIX) {
+                    break;
+                }
+                long key = PrefetchPlanner.encode(tile[0], tile[1], tile[2]);
+                if (!cache.containsKey(key)) {
+                    cache.put(key, Boolean.TRUE);
+                    fetched++;
+                }
+            }
+        }
+        getCounters().add(iteration, prefetch ? "misses with" : "misses without", misses);
+        return viewTiles;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that reads a blob from the database in chunks.
+ * <p/>
+ * <p>The android sqlite api has no incremental blob access, so the blob is
+ * read through <code>substr</code> queries, one chunk at a time. Only a single
+ * chunk is ever held in memory, which makes it possible to stream blobs
+ * that are bigger than the cursor window or than the available heap.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ChunkedBlobInputStream extends InputStream {
+
+    /**
+     * The default size of the chunks read from the database.
+     */
+    public static final int DEFAULT_CHUNKSIZE = 256 * 1024;
+
+    private final SQLiteDatabase sqliteDatabase;
+    private final String table;
+    private final String blobColumn;
+    private final String whereStr;
+    private final int chunkSize;
+    private final long blobSize;
+
+    /**
+     * The 1-based sqlite offset of the next chunk to read.
+     */
+    private long nextOffset = 1;
+    private byte[] chunk;
+    private int chunkPosition;
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param sqliteDatabase the database to read from.
+     * @param table          the table containing the blob.
+     * @param blobColumn     the blob column.
+     * @param whereStr       the where clause that identifies the single record to read.
+     * @param chunkSize      the size of the chunks to read, has to be smaller than the cursor window.
+     * @throws IOException if the record could not be found.
+     */
+    public ChunkedBlobInputStream(SQLiteDatabase sqliteDatabase, String table, String blobColumn, String whereStr, int chunkSize)
+            throws IOException {
+        this.sqliteDatabase = sqliteDatabase;
+        this.table = table;
+        this.blobColumn = blobColumn;
+        this.whereStr = whereStr;
+        this.chunkSize = chunkSize;
+
+        String sizeQuery = "SELECT length(" + blobColumn + ") FROM " + table + " WHERE " + whereStr;
+        Cursor sizeCursor = sqliteDatabase.rawQuery(sizeQuery, null);
+        try {
+            sizeCursor.moveToFirst();
+            if (sizeCursor.isAfterLast()) {
+                throw new IOException("No blob found in " + table + " for: " + whereStr);
+            }
+            blobSize = sizeCursor.getLong(0);
+        } finally {
+            sizeCursor.close();
+        }
+    }
+
+    /**
+     * Constructor using the {@link #DEFAULT_CHUNKSIZE}.
+     *
+     * @param sqliteDatabase the database to read from.
+     * @param table          the table containing the blob.
+     * @param blobColumn     the blob column.
+     * @param whereStr       the where clause that identifies the single record to read.
+     * @throws IOException if the record could not be found.
+     */
+    public ChunkedBlobInputStream(SQLiteDatabase sqliteDatabase, String table, String blobColumn, String whereStr)
+            throws IOException {
+        this(sqliteDatabase, table, blobColumn, whereStr, DEFAULT_CHUNKSIZE);
+    }
+
+    /**
+     * @return the total size of the blob in bytes.
+     */
+    public long getBlobSize() {
+        return blobSize;
+    }
+
+    private boolean fillChunk() throws IOException {
+        if (closed) {
+            throw new IOException("The stream has been closed.");
+        }
+        if (chunk != null && chunkPosition < chunk.length) {
+            return true;
+        }
+        if (nextOffset > blobSize) {
+            return false;
+        }
+        long size = Math.min(chunkSize, blobSize - nextOffset + 1);
+        String chunkQuery = "SELECT substr(" + blobColumn + ", " + nextOffset + ", " + size + ") FROM " + table
+                + " WHERE " + whereStr;
+        Cursor chunkCursor = sqliteDatabase.rawQuery(chunkQuery, null);
+        try {
+            chunkCursor.moveToFirst();
+            if (chunkCursor.isAfterLast()) {
+                throw new IOException("The blob disappeared while reading from " + table + " for: " + whereStr);
+            }
+            chunk = chunkCursor.getBlob(0);
+        } finally {
+            chunkCursor.close();
+        }
+        if (chunk == null || chunk.length == 0) {
+            throw new IOException("Unable to read blob chunk at offset " + nextOffset + " from " + table);
+        }
+        chunkPosition = 0;
+        nextOffset = nextOffset + chunk.length;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillChunk()) {
+            return -1;
+        }
+        return chunk[chunkPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fillChunk()) {
+            return -1;
+        }
+        int toCopy = Math.min(length, chunk.length - chunkPosition);
+        System.arraycopy(chunk, chunkPosition, buffer, offset, toCopy);
+        chunkPosition = chunkPosition + toCopy;
+        return toCopy;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || closed) {
+            return 0;
+        }
+        long inChunk = chunk == null ? 0 : chunk.length - chunkPosition;
+        if (n <= inChunk) {
+            chunkPosition = chunkPosition + (int) n;
+            return n;
+        }
+        // drop the current chunk and move the database offset
+        long skipped = inChunk + Math.min(n - inChunk, blobSize - nextOffset + 1);
+        nextOffset = nextOffset + (skipped - inChunk);
+        chunk = null;
+        chunkPosition = 0;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed || chunk == null) {
+            return 0;
+        }
+        return chunk.length - chunkPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        chunk = null;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Queries and ranking of the sqlite FTS4 indexes of the notes and bookmarks.
+ * <p/>
+ * <p>The indexes use the <code>simple</code> tokenizer, which only folds the case of ascii
+ * letters, so the indexed text is lowercased with {@link #normalize(String)} and the typed
+ * text is turned into a query of lowercase prefix terms, all of which have to match.</p>
+ * <p/>
+ * <p>Sqlite on android has no ranking function, so the matches are ranked here from their
+ * <code>matchinfo(table, 'pcx')</code>: every hit of a term in a column scores the weight of the
+ * column divided by the hits of the term in that column over all rows, so rare terms weigh more.
+ * Equal scores are ranked newest first.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class FullTextSearch {
+
+    /**
+     * A ranked match.
+     */
+    public static class Match {
+        /**
+         * The docid of the row, the id of the indexed item.
+         */
+        public final long id;
+        /**
+         * The score of the row.
+         */
+        public final double score;
+
+        /**
+         * Constructor.
+         *
+         * @param id    the docid of the row.
+         * @param score the score of the row.
+         */
+        public Match(long id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    private static final Comparator<Match> RANK_ORDER = new Comparator<Match>() {
+        public int compare(Match m1, Match m2) {
+            if (m1.score != m2.score) {
+                return m1.score > m2.score ? -1 : 1;
+            }
+            return m1.id > m2.id ? -1 : (m1.id == m2.id ? 0 : 1);
+        }
+    };
+
+    /**
+     * Normalize the text to index.
+     *
+     * @param text the text, can be <code>null</code>.
+     * @return the lowercased text, empty if it was <code>null</code>.
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Build the MATCH expression of a typed text.
+     * <p/>
+     * <p>The text is split as the <code>simple</code> tokenizer does and every term becomes a prefix
+     * term, so that the results follow the typing. Lowercase terms are never taken as operators.</p>
+     *
+     * @param text the typed text.
+     * @return the expression or <code>null</code> if the text has no terms.
+     */
+    public static String toMatchQuery(String text) {
+        String normalized = normalize(text);
+        StringBuilder sb = new StringBuilder();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean isTokenChar = i < normalized.length() && isTokenChar(normalized.charAt(i));
+            if (isTokenChar && start < 0) {
+                start = i;
+            } else if (!isTokenChar && start >= 0) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(normalized, start, i).append('*');
+                start = -1;
+            }
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    /**
+     * Score a match.
+     *
+     * @param matchinfo the <code>matchinfo(table, 'pcx')</code> blob of the row.
+     * @param weights   the weight of every column of the index.
+     * @return the score, higher is better.
+     */
+    public static double score(byte[] matchinfo, double[] weights) {
+        ByteBuffer buffer = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder());
+        int phrases = buffer.getInt(0);
+        int columns = buffer.getInt(4);
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns && column < weights.length; column++) {
+                int offset = 8 + 12 * (phrase * columns + column);
+                int hitsInRow = buffer.getInt(offset);
+                int hitsInAllRows = buffer.getInt(offset + 4);
+                if (hitsInRow > 0) {
+                    score += weights[column] * hitsInRow / hitsInAllRows;
+                }
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Get a page of the ranked matches.
+     *
+     * @param matches all the matches, reordered by rank.
+     * @param offset  the position of the first match of the page.
+     * @param limit   the maximum number of matches of the page.
+     * @return the ids of the matches of the page, best first.
+     */
+    public static List<Long> getPage(Match[] matches, int offset, int limit) {
+        Arrays.sort(matches, RANK_ORDER);
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = Math.max(0, offset); i < matches.length && ids.size() < limit; i++) {
+            ids.add(matches[i].id);
+        }
+        return ids;
+    }
+
+    private static boolean isTokenChar(char c) {
+        return c >= 0x80 || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+}
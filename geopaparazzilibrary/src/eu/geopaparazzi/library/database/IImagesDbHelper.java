@@ -19,7 +19,7 @@ package eu.geopaparazzi.library.database;
 
 import android.database.sqlite.SQLiteDatabase;
 
-import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Interface that helps handling images in the database.
@@ -41,7 +41,7 @@ public interface IImagesDbHelper {
      * @param thumbnail a scaled image for quick extraction and preview.
      * @param noteId    the note id, to which it is connected or -1 if it is standalone.
      * @return the inserted image record id.
-     * @throws IOException if something goes wrong.
+     * @throws Exception if something goes wrong.
      */
     public long addImage(double lon, double lat, double altim, double azim, long timestamp, String text, byte[] image, byte[] thumbnail, long noteId)
             throws Exception;
@@ -51,7 +51,7 @@ public interface IImagesDbHelper {
      *
      * @param imageId the id of the image to get.
      * @return the image or null.
-     * @throws IOException if something goes wrong.
+     * @throws Exception if something goes wrong.
      */
     public Image getImage(long imageId) throws Exception;
 
@@ -60,7 +60,7 @@ public interface IImagesDbHelper {
      *
      * @param imageId the image id.
      * @return the image data.
-     * @throws IOException if something goes wrong.
+     * @throws Exception if something goes wrong.
      */
     public byte[] getImageData(long imageId) throws Exception;
 
@@ -70,16 +70,39 @@ public interface IImagesDbHelper {
      * @param imageDataId the image data id.
      * @param sqliteDatabase the optional db to use. If called from #getImageData, this should not be null.
      * @return the image data.
-     * @throws IOException
+     * @throws Exception if something goes wrong.
      */
     public byte[] getImageDataById(long imageDataId, SQLiteDatabase sqliteDatabase) throws Exception;
 
+    /**
+     * Get a stream on the image data by image id.
+     * <p/>
+     * <p>The data are read in chunks from the database, so this should be
+     * preferred over {@link #getImageData(long)} whenever the image is only
+     * written somewhere else.</p>
+     *
+     * @param imageId the image id.
+     * @return the stream on the image data or null. It is the caller's duty to close it.
+     * @throws Exception if something goes wrong.
+     */
+    public InputStream getImageDataStream(long imageId) throws Exception;
+
+    /**
+     * Get a stream on the image data by its <b>data</b> id.
+     *
+     * @param imageDataId    the image data id.
+     * @param sqliteDatabase the optional db to use.
+     * @return the stream on the image data. It is the caller's duty to close it.
+     * @throws Exception if something goes wrong.
+     */
+    public InputStream getImageDataStreamById(long imageDataId, SQLiteDatabase sqliteDatabase) throws Exception;
+
     /**
      * Get image thumbnail by image id.
      *
      * @param imageId the image id.
      * @return the image thumbnail data.
-     * @throws IOException if something goes wrong.
+     * @throws Exception if something goes wrong.
      */
     public byte[] getImageThumbnail(long imageId) throws Exception;
 
@@ -89,7 +112,19 @@ public interface IImagesDbHelper {
      * @param imageDataId the image data id.
      * @param sqliteDatabase the optional db to use. If called from #getImageData, this should not be null.
      * @return the image data.
-     * @throws IOException
+     * @throws Exception if something goes wrong.
      */
     public byte[] getImageThumbnailById(SQLiteDatabase sqliteDatabase, long imageDataId) throws Exception;
+
+    /**
+     * Get a scaled rendition of an image by image id.
+     * <p/>
+     * <p>Renditions are created on first request and then kept in the db.</p>
+     *
+     * @param imageId the image id.
+     * @param size    one of the {@link eu.geopaparazzi.library.images.ImageUtilities#RENDITION_SIZES}.
+     * @return the rendition image data or null.
+     * @throws Exception if something goes wrong.
+     */
+    public byte[] getImageRendition(long imageId, int size) throws Exception;
 }
@@ -22,6 +22,7 @@ import static eu.geopaparazzi.library.forms.FormUtilities.TAG_KEY;
 import static eu.geopaparazzi.library.forms.FormUtilities.TAG_VALUE;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -217,8 +218,8 @@ public class FormActivity extends FragmentActivity {
             String name = image.getName();
             imageFile = new File(tempDir, name);
 
-            byte[] imageData = imageHelper.getImageDataById(image.getImageDataId(), null);
-            ImageUtilities.writeImageDataToFile(imageData, imageFile.getAbsolutePath());
+            InputStream imageStream = imageHelper.getImageDataStreamById(image.getImageDataId(), null);
+            ImageUtilities.writeImageDataToFile(imageStream, imageFile.getAbsolutePath());
 
         }
         String formText = FormUtilities.formToPlainText(form, false);
@@ -21,10 +21,10 @@ import static eu.geopaparazzi.library.forms.FormUtilities.COLON;
 import static eu.geopaparazzi.library.forms.FormUtilities.UNDERSCORE;
 
 import java.io.File;
+import java.io.InputStream;
 
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.util.AttributeSet;
 import android.view.View;
@@ -38,6 +38,7 @@ import eu.geopaparazzi.library.database.DefaultHelperClasses;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.IImagesDbHelper;
 import eu.geopaparazzi.library.database.Image;
+import eu.geopaparazzi.library.images.AsyncImageLoader;
 import eu.geopaparazzi.library.images.ImageUtilities;
 import eu.geopaparazzi.library.markers.MarkersUtilities;
 import eu.geopaparazzi.library.util.FileUtilities;
@@ -103,13 +104,10 @@ public class GMapView extends View implements GView {
 
             final IImagesDbHelper imagesDbHelper = DefaultHelperClasses.getDefaulfImageHelper();
 
-            byte[] imageThumbnail = imagesDbHelper.getImageThumbnail(imageId);
-            Bitmap thumbnail = ImageUtilities.getImageFromImageData(imageThumbnail);
-
             ImageView imageView = new ImageView(context);
             imageView.setLayoutParams(new LinearLayout.LayoutParams(102, 102));
             imageView.setPadding(5, 5, 5, 5);
-            imageView.setImageBitmap(thumbnail);
+            AsyncImageLoader.INSTANCE.loadImage(imageView, imageId, ImageUtilities.THUMBNAILWIDTH);
             imageView.setBackgroundDrawable(getResources().getDrawable(R.drawable.border_black_1px));
             imageView.setOnClickListener(new OnClickListener() {
                 public void onClick(View v) {
@@ -133,8 +131,8 @@ public class GMapView extends View implements GView {
                         if (image.getName().endsWith(".png"))
                             ext = ".png";
                         File imageFile = new File(tempDir, ImageUtilities.getTempImageName(ext));
-                        byte[] imageData = imagesDbHelper.getImageData(image.getId());
-                        ImageUtilities.writeImageDataToFile(imageData, imageFile.getAbsolutePath());
+                        InputStream imageStream = imagesDbHelper.getImageDataStream(image.getId());
+                        ImageUtilities.writeImageDataToFile(imageStream, imageFile.getAbsolutePath());
 
                         intent.setDataAndType(Uri.fromFile(imageFile), "image/*"); //$NON-NLS-1$
                         context.startActivity(intent);
@@ -21,13 +21,13 @@ import static eu.geopaparazzi.library.forms.FormUtilities.COLON;
 import static eu.geopaparazzi.library.forms.FormUtilities.UNDERSCORE;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.support.v4.app.FragmentActivity;
@@ -47,6 +47,7 @@ import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.IImagesDbHelper;
 import eu.geopaparazzi.library.database.Image;
 import eu.geopaparazzi.library.forms.FragmentDetail;
+import eu.geopaparazzi.library.images.AsyncImageLoader;
 import eu.geopaparazzi.library.images.ImageUtilities;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.PositionUtilities;
@@ -189,13 +190,10 @@ public class GPictureView extends View implements GView {
                 }
                 final long imageIdLong = Long.parseLong(imageId);
 
-                byte[] imageThumbnail = imagesDbHelper.getImageThumbnail(imageIdLong);
-                Bitmap thumbnail = ImageUtilities.getImageFromImageData(imageThumbnail);
-
                 ImageView imageView = new ImageView(context);
                 imageView.setLayoutParams(new LinearLayout.LayoutParams(102, 102));
                 imageView.setPadding(5, 5, 5, 5);
-                imageView.setImageBitmap(thumbnail);
+                AsyncImageLoader.INSTANCE.loadImage(imageView, imageIdLong, ImageUtilities.THUMBNAILWIDTH);
                 imageView.setBackgroundDrawable(getResources().getDrawable(R.drawable.border_black_1px));
                 imageView.setOnClickListener(new View.OnClickListener() {
                     public void onClick(View v) {
@@ -212,8 +210,8 @@ public class GPictureView extends View implements GView {
                             if (image.getName().endsWith(".png"))
                                 ext = ".png";
                             File imageFile = new File(tempDir, ImageUtilities.getTempImageName(ext));
-                            byte[] imageData = imagesDbHelper.getImageData(image.getId());
-                            ImageUtilities.writeImageDataToFile(imageData, imageFile.getAbsolutePath());
+                            InputStream imageStream = imagesDbHelper.getImageDataStream(image.getId());
+                            ImageUtilities.writeImageDataToFile(imageStream, imageFile.getAbsolutePath());
 
                             intent.setDataAndType(Uri.fromFile(imageFile), "image/*"); //$NON-NLS-1$
                             context.startActivity(intent);
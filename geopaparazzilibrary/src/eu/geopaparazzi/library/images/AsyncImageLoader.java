@@ -0,0 +1,168 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.library.images;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import eu.geopaparazzi.library.database.DefaultHelperClasses;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.IImagesDbHelper;
+
+/**
+ * Loads image renditions from the database into {@link ImageView}s in background.
+ * <p/>
+ * <p>Decoded bitmaps are kept in a memory bounded lru cache, the renditions
+ * themselves are created and persisted by the {@link IImagesDbHelper}.
+ * A new request on a view cancels the one still pending on the same view,
+ * which is what happens when list rows are recycled while scrolling.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public enum AsyncImageLoader {
+    INSTANCE;
+
+    private static final int DECODE_THREADS = 2;
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ExecutorService decodePool;
+    private final Handler uiHandler;
+    private final Map<ImageView, Future<?>> pendingRequests = new WeakHashMap<ImageView, Future<?>>();
+    private final Map<ImageView, String> viewKeys = new WeakHashMap<ImageView, String>();
+
+    AsyncImageLoader() {
+        // use an eighth of the available heap for decoded images
+        int cacheSize = (int) (Runtime.getRuntime().maxMemory() / 8);
+        memoryCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+        decodePool = Executors.newFixedThreadPool(DECODE_THREADS, new ThreadFactory() {
+            private int count = 0;
+
+            public synchronized Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "AsyncImageLoader-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        uiHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Load the rendition of an image that best fits a size into a view.
+     * <p/>
+     * <p>Has to be called from the ui thread.</p>
+     *
+     * @param imageView the view to set the image in.
+     * @param imageId   the id of the image in the db.
+     * @param size      the size of the longest side needed by the view.
+     */
+    public void loadImage(final ImageView imageView, final long imageId, int size) {
+        final int renditionSize = ImageUtilities.getRenditionSize(size);
+        final String key = imageId + "_" + renditionSize;
+
+        cancel(imageView);
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            imageView.setImageBitmap(cached);
+            return;
+        }
+        imageView.setImageDrawable(null);
+
+        synchronized (pendingRequests) {
+            viewKeys.put(imageView, key);
+            Future<?> future = decodePool.submit(new Runnable() {
+                public void run() {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    try {
+                        IImagesDbHelper imagesDbHelper = DefaultHelperClasses.getDefaulfImageHelper();
+                        byte[] renditionData = imagesDbHelper.getImageRendition(imageId, renditionSize);
+                        if (renditionData == null || Thread.currentThread().isInterrupted()) {
+                            return;
+                        }
+                        final Bitmap bitmap = ImageUtilities.getImageFromImageData(renditionData);
+                        if (bitmap == null) {
+                            return;
+                        }
+                        memoryCache.put(key, bitmap);
+                        uiHandler.post(new Runnable() {
+                            public void run() {
+                                synchronized (pendingRequests) {
+                                    // the view might have been recycled for another image
+                                    if (!key.equals(viewKeys.get(imageView))) {
+                                        return;
+                                    }
+                                    viewKeys.remove(imageView);
+                                    pendingRequests.remove(imageView);
+                                }
+                                imageView.setImageBitmap(bitmap);
+                            }
+                        });
+                    } catch (Exception e) {
+                        GPLog.error(AsyncImageLoader.this, "Unable to load image: " + imageId, e);
+                    }
+                }
+            });
+            pendingRequests.put(imageView, future);
+        }
+    }
+
+    /**
+     * Cancel a pending request for a view.
+     *
+     * @param imageView the view for which to cancel.
+     */
+    public void cancel(ImageView imageView) {
+        synchronized (pendingRequests) {
+            viewKeys.remove(imageView);
+            Future<?> future = pendingRequests.remove(imageView);
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Drop all the cached bitmaps, for example after images have been removed.
+     */
+    public void clearCache() {
+        memoryCache.evictAll();
+    }
+}
@@ -25,6 +25,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
 
 import eu.geopaparazzi.library.util.TimeUtilities;
@@ -37,6 +38,13 @@ import eu.geopaparazzi.library.util.TimeUtilities;
 public class ImageUtilities {
     public static final int MAXBLOBSIZE = 1900000;
     public static final int THUMBNAILWIDTH = 100;
+    public static final int STREAMBUFFERSIZE = 64 * 1024;
+    /**
+     * The sizes (of the longest image side) of the renditions that are kept in the db.
+     * <p/>
+     * <p>The first one is the thumbnail that is stored together with the image.</p>
+     */
+    public static final int[] RENDITION_SIZES = {THUMBNAILWIDTH, 256, 512, 1024};
 
     public static String getSketchImageName(Date date) {
         if (date == null)
@@ -166,6 +174,63 @@ public class ImageUtilities {
         return bitmap;
     }
 
+    /**
+     * Get the rendition size bucket to use for a requested size.
+     *
+     * @param requestedSize the size of the longest side needed by the view.
+     * @return the smallest rendition size that fits the request or the biggest available.
+     */
+    public static int getRenditionSize(int requestedSize) {
+        for (int renditionSize : RENDITION_SIZES) {
+            if (renditionSize >= requestedSize) {
+                return renditionSize;
+            }
+        }
+        return RENDITION_SIZES[RENDITION_SIZES.length - 1];
+    }
+
+    /**
+     * Calculate the power of two sample size to decode an image for a given size.
+     *
+     * @param width      the original image width.
+     * @param height     the original image height.
+     * @param targetSize the size of the longest side to obtain.
+     * @return the sample size to use in {@link BitmapFactory.Options#inSampleSize}.
+     */
+    public static int getSampleSize(int width, int height, int targetSize) {
+        int longestSide = Math.max(width, height);
+        int sampleSize = 1;
+        while (longestSide / (sampleSize * 2) >= targetSize) {
+            sampleSize = sampleSize * 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Create the jpeg data of a scaled rendition of an image.
+     *
+     * @param image          the (possibly already subsampled) image.
+     * @param renditionSize  the size of the longest side of the rendition.
+     * @return the rendition image data.
+     */
+    public static byte[] getRenditionData(Bitmap image, int renditionSize) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Bitmap rendition = image;
+        int longestSide = Math.max(width, height);
+        if (longestSide > renditionSize) {
+            float scale = (float) renditionSize / (float) longestSide;
+            rendition = Bitmap.createScaledBitmap(image, Math.max(1, Math.round(width * scale)),
+                    Math.max(1, Math.round(height * scale)), true);
+        }
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        rendition.compress(Bitmap.CompressFormat.JPEG, 85, stream);
+        if (rendition != image) {
+            rendition.recycle();
+        }
+        return stream.toByteArray();
+    }
+
     public static Bitmap getImageFromImageData(byte[] imageData) {
         Bitmap bitmap = BitmapFactory.decodeByteArray(imageData, 0, imageData.length);
         return bitmap;
@@ -186,4 +251,27 @@ public class ImageUtilities {
             fout.close();
         }
     }
+
+    /**
+     * Write an image stream to disk.
+     * <p/>
+     * <p>The stream is consumed and closed.</p>
+     *
+     * @param imageStream the stream to read the image data from.
+     * @param imagePath   the path to write to.
+     * @throws IOException
+     */
+    public static void writeImageDataToFile(InputStream imageStream, String imagePath) throws IOException {
+        FileOutputStream fout = new FileOutputStream(imagePath);
+        try {
+            byte[] buffer = new byte[STREAMBUFFERSIZE];
+            int read;
+            while ((read = imageStream.read(buffer)) != -1) {
+                fout.write(buffer, 0, read);
+            }
+        } finally {
+            imageStream.close();
+            fout.close();
+        }
+    }
 }
@@ -20,6 +20,7 @@ package eu.geopaparazzi.library.kml;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.TreeSet;
@@ -33,6 +34,7 @@ import eu.geopaparazzi.library.database.DefaultHelperClasses;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.IImagesDbHelper;
 import eu.geopaparazzi.library.database.Image;
+import eu.geopaparazzi.library.images.ImageUtilities;
 
 /**
  * A kmz exporter for notes, logs and pics.
@@ -119,6 +121,7 @@ public class KmzExport {
          */
         IImagesDbHelper imagesDbHelper = DefaultHelperClasses.getDefaulfImageHelper();
         TreeSet<String> addedImages = new TreeSet<String>();
+        byte[] buffer = new byte[ImageUtilities.STREAMBUFFERSIZE];
         for (KmlRepresenter kmlRepresenter : kmlRepresenters) {
             if (kmlRepresenter.hasImages()) {
                 List<String> imageIds = kmlRepresenter.getImageIds();
@@ -131,17 +134,38 @@ public class KmzExport {
                         // don't add double images
                         continue;
                     }
-                    byte[] imageData = imagesDbHelper.getImageData(id);
-
+                    /*
+                     * stored entries need size and crc upfront, so the image
+                     * is streamed twice instead of being kept in memory
+                     */
                     crc.reset();
-                    crc.update(imageData);
+                    long imageSize = 0;
+                    InputStream imageStream = imagesDbHelper.getImageDataStream(id);
+                    try {
+                        int read;
+                        while ((read = imageStream.read(buffer)) != -1) {
+                            crc.update(buffer, 0, read);
+                            imageSize = imageSize + read;
+                        }
+                    } finally {
+                        imageStream.close();
+                    }
+
                     ZipEntry imageEntry = new ZipEntry(imageName);
                     imageEntry.setMethod(ZipEntry.STORED);
-                    imageEntry.setCompressedSize(imageData.length);
-                    imageEntry.setSize(imageData.length);
+                    imageEntry.setCompressedSize(imageSize);
+                    imageEntry.setSize(imageSize);
                     imageEntry.setCrc(crc.getValue());
                     zos.putNextEntry(imageEntry);
-                    zos.write(imageData);
+                    imageStream = imagesDbHelper.getImageDataStream(id);
+                    try {
+                        int read;
+                        while ((read = imageStream.read(buffer)) != -1) {
+                            zos.write(buffer, 0, read);
+                        }
+                    } finally {
+                        imageStream.close();
+                    }
                 }
             }
         }
@@ -23,7 +23,7 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.net.http.AndroidHttpClient;
+import android.os.Build;
 import android.util.Base64;
 import android.util.Log;
 
@@ -46,13 +46,11 @@ import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -61,7 +59,6 @@ import javax.net.ssl.HttpsURLConnection;
 
 import eu.geopaparazzi.library.R;
 import eu.geopaparazzi.library.database.GPLog;
-import eu.geopaparazzi.library.util.TimeUtilities;
 
 /**
  * Network utils methods.
@@ -72,6 +69,10 @@ import eu.geopaparazzi.library.util.TimeUtilities;
 public class NetworkUtilities {
 
     private static final String TAG = "NETWORKUTILITIES";
+    /**
+     * The <code>User-Agent</code> of the bitmap and tile downloads, as sent by the former android http client.
+     */
+    public static final String USER_AGENT = "Android";
     /**
      *
      */
@@ -97,7 +98,7 @@ public class NetworkUtilities {
         return sb.toString().trim();
     }
 
-    private static HttpURLConnection makeNewConnection(String fileUrl) throws Exception {
+    static HttpURLConnection makeNewConnection(String fileUrl) throws Exception {
         // boolean doHttps =
         // CorePlugin.getDefault().getPreferenceStore().getBoolean(KeyManager.keys().getHttpConnectionTypeKey());
         if (fileUrl.startsWith("https")) {
@@ -134,61 +135,8 @@ public class NetworkUtilities {
         if (requestParameters != null && requestParameters.length() > 0) {
             urlStr += "?" + requestParameters;
         }
-        HttpURLConnection conn = makeNewConnection(urlStr);
-        conn.setRequestMethod("GET");
-        // conn.setDoOutput(true);
-        conn.setDoInput(true);
-        // conn.setChunkedStreamingMode(0);
-        conn.setUseCaches(false);
-
-        if (user != null && password != null && user.trim().length() > 0 && password.trim().length() > 0) {
-            conn.setRequestProperty("Authorization", getB64Auth(user, password));
-        }
-        conn.connect();
-
-        if (file.isDirectory()) {
-            // try to get the header
-            String headerField = conn.getHeaderField("Content-Disposition");
-            String fileName = null;
-            if (headerField != null) {
-                String[] split = headerField.split(";");
-                for (String string : split) {
-                    String pattern = "filename=";
-                    if (string.toLowerCase().startsWith(pattern)) {
-                        fileName = string.replaceFirst(pattern, "");
-                        break;
-                    }
-                }
-            }
-            if (fileName == null) {
-                // give a name
-                fileName = "FILE_" + TimeUtilities.INSTANCE.TIMESTAMPFORMATTER_LOCAL.format(new Date());
-            }
-            file = new File(file, fileName);
-        }
-
-        InputStream in = null;
-        FileOutputStream out = null;
-        try {
-            in = conn.getInputStream();
-            out = new FileOutputStream(file);
-
-            byte[] buffer = new byte[(int) maxBufferSize];
-            int bytesRead = in.read(buffer, 0, (int) maxBufferSize);
-            while (bytesRead > 0) {
-                out.write(buffer, 0, bytesRead);
-                bytesRead = in.read(buffer, 0, (int) maxBufferSize);
-            }
-            out.flush();
-        } finally {
-            if (in != null)
-                in.close();
-            if (out != null)
-                out.close();
-            if (conn != null)
-                conn.disconnect();
-        }
-        return file;
+        TransferEngine transferEngine = new TransferEngine(user, password, null);
+        return transferEngine.download(urlStr, file);
     }
 
     /**
@@ -280,8 +228,15 @@ public class NetworkUtilities {
             conn.setRequestMethod("POST");
             conn.setDoOutput(true);
             conn.setDoInput(true);
-            // conn.setChunkedStreamingMode(0);
-            conn.setUseCaches(true);
+            if (Build.VERSION.SDK_INT >= 19) {
+                conn.setFixedLengthStreamingMode(fileSize);
+            } else if (fileSize <= Integer.MAX_VALUE) {
+                conn.setFixedLengthStreamingMode((int) fileSize);
+            } else {
+                // the int length would overflow
+                conn.setChunkedStreamingMode((int) maxBufferSize);
+            }
+            conn.setUseCaches(false);
 
             // conn.setRequestProperty("Accept-Encoding", "gzip ");
             // conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
@@ -303,8 +258,8 @@ public class NetworkUtilities {
             int bytesRead = fis.read(buffer, 0, (int) bufferSize);
             long totalBytesWritten = 0;
             while (bytesRead > 0) {
-                wr.write(buffer, 0, (int) bufferSize);
-                totalBytesWritten = totalBytesWritten + bufferSize;
+                wr.write(buffer, 0, bytesRead);
+                totalBytesWritten = totalBytesWritten + bytesRead;
                 if (totalBytesWritten >= fileSize)
                     break;
 
@@ -408,7 +363,7 @@ public class NetworkUtilities {
         httpclient.getConnectionManager().shutdown();
     }
 
-    private static String getB64Auth(String login, String pass) {
+    static String getB64Auth(String login, String pass) {
         String source = login + ":" + pass;
         String ret = "Basic " + Base64.encodeToString(source.getBytes(), Base64.URL_SAFE | Base64.NO_WRAP);
         return ret;
@@ -475,46 +430,40 @@ public class NetworkUtilities {
     /**
      * Download a bitmap from a given url.
      *
-     * http://android-developers.blogspot.it/2010/07/multithreading-for-performance.html
+     * <p>The request goes through the shared keep-alive connections of the {@link TileHttpPool}.</p>
      *
      * @param url the url.
      * @return the downloaded bitmap or null.
      */
     public static Bitmap downloadBitmap(String url) {
-        AndroidHttpClient client = null;
-        HttpGet getRequest = null;
-        try {
-            client = AndroidHttpClient.newInstance("Android");
-            getRequest = new HttpGet(url);
+        byte[] bytes = downloadBytes(url);
+        if (bytes == null) {
+            return null;
+        }
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    }
 
-            HttpResponse response = client.execute(getRequest);
-            final int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode != HttpStatus.SC_OK) {
+    /**
+     * Download the encoded bytes of an image, like a tile, from a given url.
+     *
+     * <p>The request goes through the shared keep-alive connections of the {@link TileHttpPool}
+     * and identifies itself as {@link #USER_AGENT}, since some tile servers refuse the default
+     * agent of the platform.</p>
+     *
+     * @param url the url.
+     * @return the downloaded bytes or null.
+     */
+    public static byte[] downloadBytes(String url) {
+        try {
+            TileHttpPool.Response response = TileHttpPool.getInstance().get(url, USER_AGENT);
+            if (response.code != HttpStatus.SC_OK) {
                 return null;
             }
-            final HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                InputStream inputStream = null;
-                try {
-                    inputStream = entity.getContent();
-                    final Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                    return bitmap;
-                } finally {
-                    if (inputStream != null) {
-                        inputStream.close();
-                    }
-                    entity.consumeContent();
-                }
-            }
+            return response.body;
         } catch (Exception e) {
-            if (getRequest != null)
-                getRequest.abort();
-        } finally {
-            if (client != null) {
-                client.close();
-            }
+            if (GPLog.LOG_HEAVY)
+                GPLog.addLogEntry(TAG, "Could not download: " + url);
         }
-
         return null;
     }
 
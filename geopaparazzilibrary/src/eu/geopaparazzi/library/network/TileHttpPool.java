@@ -0,0 +1,240 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Process wide pool of keep-alive http connections shared by the tile downloads.
+ * <p/>
+ * <p>The connections are the ones kept alive by {@link HttpURLConnection}, which
+ * reuses a connection only if the response has been read to the end and keeps
+ * at most <code>http.maxConnections</code> idle connections per host. So every
+ * response is read completely, also the ones of failed requests, and the requests
+ * running at the same time against a host are bounded to that number: more
+ * concurrent requests would open connections that are closed instead of reused.
+ * A second bound applies to all the hosts together.</p>
+ * <p/>
+ * <p>The pool does not depend on android, so that it can be checked on a plain JVM.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TileHttpPool {
+    /**
+     * The default maximum number of concurrent requests and kept alive connections per host.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+    /**
+     * The default maximum number of concurrent requests over all the hosts.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 16;
+    /**
+     * The connect timeout in milliseconds.
+     */
+    public static final int CONNECT_TIMEOUT = 10000;
+    /**
+     * The read timeout in milliseconds.
+     */
+    public static final int READ_TIMEOUT = 20000;
+
+    private static TileHttpPool pool;
+
+    private final int maxConnectionsPerHost;
+    private final Semaphore totalPermits;
+    private final Map<String, Semaphore> hostPermits = new HashMap<String, Semaphore>();
+
+    /**
+     * Response of a pooled request, with the body already read.
+     */
+    public static class Response {
+        /**
+         * The http code.
+         */
+        public final int code;
+        /**
+         * The http message.
+         */
+        public final String message;
+        /**
+         * The declared content length, <code>-1</code> if not declared.
+         */
+        public final int contentLength;
+        /**
+         * The body, <code>null</code> if the request failed.
+         */
+        public final byte[] body;
+
+        Response(int code, String message, int contentLength, byte[] body) {
+            this.code = code;
+            this.message = message;
+            this.contentLength = contentLength;
+            this.body = body;
+        }
+    }
+
+    private TileHttpPool(int maxConnectionsPerHost, int maxConnections) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        totalPermits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * Get the pool, created with the default limits if not configured.
+     *
+     * @return the shared pool.
+     */
+    public static synchronized TileHttpPool getInstance() {
+        if (pool == null) {
+            configure(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS);
+        }
+        return pool;
+    }
+
+    /**
+     * Configure the limits of the pool.
+     * <p/>
+     * <p>The number of idle connections kept alive per host is read by the platform
+     * when the first connection is opened, so this should be called before any download
+     * starts. Requests already running on a previous configuration complete on it.</p>
+     *
+     * @param maxConnectionsPerHost the maximum concurrent requests and kept alive connections per host.
+     * @param maxConnections        the maximum concurrent requests over all the hosts.
+     */
+    public static synchronized void configure(int maxConnectionsPerHost, int maxConnections) {
+        maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+        maxConnections = Math.max(maxConnectionsPerHost, maxConnections);
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(maxConnectionsPerHost));
+        pool = new TileHttpPool(maxConnectionsPerHost, maxConnections);
+    }
+
+    /**
+     * @return the maximum concurrent requests and kept alive connections per host.
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Run a GET request, waiting for a free connection of the host.
+     *
+     * @param urlString the url.
+     * @return the response, with body only if the code is {@link HttpURLConnection#HTTP_OK}.
+     * @throws IOException if the request could not be done.
+     */
+    public Response get(String urlString) throws IOException {
+        return get(urlString, null);
+    }
+
+    /**
+     * Run a GET request, waiting for a free connection of the host.
+     *
+     * @param urlString the url.
+     * @param userAgent the <code>User-Agent</code> to send, if <code>null</code> the one of the platform.
+     * @return the response, with body only if the code is {@link HttpURLConnection#HTTP_OK}.
+     * @throws IOException if the request could not be done.
+     */
+    public Response get(String urlString, String userAgent) throws IOException {
+        URL url = new URL(urlString);
+        Semaphore permits = getHostPermits(url);
+        try {
+            totalPermits.acquire();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                totalPermits.release();
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to: " + url.getHost());
+        }
+        try {
+            return execute(url, userAgent);
+        } finally {
+            permits.release();
+            totalPermits.release();
+        }
+    }
+
+    private synchronized Semaphore getHostPermits(URL url) {
+        String key = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+        Semaphore permits = hostPermits.get(key);
+        if (permits == null) {
+            permits = new Semaphore(maxConnectionsPerHost, true);
+            hostPermits.put(key, permits);
+        }
+        return permits;
+    }
+
+    private static Response execute(URL url, String userAgent) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Connection", "Keep-Alive");
+        if (userAgent != null) {
+            connection.setRequestProperty("User-Agent", userAgent);
+        }
+        boolean reusable = false;
+        try {
+            int code = connection.getResponseCode();
+            String message = connection.getResponseMessage();
+            int contentLength = connection.getContentLength();
+            byte[] body = null;
+            if (code == HttpURLConnection.HTTP_OK) {
+                body = readFully(connection.getInputStream(), contentLength);
+            } else {
+                // drain also the error pages, else the connection is not reused
+                readFully(connection.getErrorStream(), contentLength);
+            }
+            reusable = true;
+            return new Response(code, message, contentLength, body);
+        } finally {
+            if (!reusable) {
+                // a half read connection can't be given back
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream inputStream, int contentLength) throws IOException {
+        if (inputStream == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(contentLength > 0 ? contentLength : 8192);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,572 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.network;
+
+import android.util.Base64;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.TimeUtilities;
+
+/**
+ * Resumable http transfers of big files.
+ * <p/>
+ * <p>Downloads are written to a <code>.part</code> file next to the target and
+ * continued through http range requests, both when retrying after a dropped
+ * connection and when a previous download was interrupted.</p>
+ * <p/>
+ * <p>Uploads in parts need an endpoint that advertises them through the
+ * {@link #RESUME_HEADER} header, see {@link #isResumeSupported(String)}. Every part is
+ * identified by the <code>name</code>, <code>key</code>, <code>offset</code> and
+ * <code>total</code> url parameters, the key being the hex md5 sum of the whole file, so that
+ * a different file with the same name is never taken for the continuation of an older upload.
+ * Before sending, the server is asked through a GET with the <code>name</code> and
+ * <code>key</code> parameters how many bytes it already received, and answers with the size
+ * and the hex md5 sum of the received part. Bytes are skipped only if that sum matches the
+ * one of the same part of the local file.</p>
+ * <p/>
+ * <p>Integrity is checked through the size declared by the server and, if available,
+ * the md5 sum of the whole file sent as hex string in the {@link #CHECKSUM_HEADER}
+ * header or as <code>Content-MD5</code> of a complete response. Every uploaded part
+ * carries its own <code>Content-MD5</code>.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TransferEngine {
+    /**
+     * Header carrying the hex md5 sum of the whole resource.
+     */
+    public static final String CHECKSUM_HEADER = "X-Checksum-MD5";
+    /**
+     * Header through which an upload endpoint advertises that it takes uploads in parts.
+     */
+    public static final String RESUME_HEADER = "X-Upload-Resume";
+    /**
+     * The value of the {@link #RESUME_HEADER} for uploads in parts.
+     */
+    public static final String RESUME_PARTS = "parts";
+    /**
+     * The extension of partially downloaded files.
+     */
+    public static final String PART_EXT = ".part";
+
+    /**
+     * The initial size of the transfer buffer.
+     */
+    public static final int MIN_BUFFER_SIZE = 16 * 1024;
+    /**
+     * The size up to which the transfer buffer grows on fast connections.
+     */
+    public static final int MAX_BUFFER_SIZE = 512 * 1024;
+    /**
+     * The default size of uploaded parts.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final String TAG = "TRANSFERENGINE";
+
+    private final String user;
+    private final String password;
+    private final TransferListener listener;
+    private int maxRetries = 5;
+    private long retryDelay = 2000;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Constructor.
+     *
+     * @param user     the user or <code>null</code>.
+     * @param password the password or <code>null</code>.
+     * @param listener an optional listener for progress and cancellation.
+     */
+    public TransferEngine(String user, String password, TransferListener listener) {
+        this.user = user;
+        this.password = password;
+        this.listener = listener;
+    }
+
+    /**
+     * @param maxRetries how many times a failed request is retried before giving up.
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @param retryDelay the base delay in milliseconds between retries, which grows with every attempt.
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * @param chunkSize the size of the parts uploads are split into.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Download a file.
+     *
+     * @param urlStr the url, including the request parameters.
+     * @param target the output file. If it is a folder, the file name is taken from the
+     *               <code>Content-Disposition</code> header.
+     * @return the file written.
+     * @throws IOException if the download did not complete.
+     */
+    public File download(String urlStr, File target) throws IOException {
+        File[] outFile = new File[]{target.isDirectory() ? null : target};
+        int attempt = 0;
+        while (true) {
+            try {
+                downloadAttempt(urlStr, target, outFile);
+                return outFile[0];
+            } catch (IOException e) {
+                attempt = checkRetry(attempt, e);
+            }
+        }
+    }
+
+    private void downloadAttempt(String urlStr, File target, File[] outFile) throws IOException {
+        File partFile = outFile[0] == null ? null : new File(outFile[0].getPath() + PART_EXT);
+        long existing = partFile != null && partFile.exists() ? partFile.length() : 0;
+
+        HttpURLConnection conn = openConnection(urlStr, "GET");
+        try {
+            if (existing > 0) {
+                conn.setRequestProperty("Range", "bytes=" + existing + "-");
+            }
+            conn.connect();
+            int responseCode = conn.getResponseCode();
+
+            long total;
+            boolean append;
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                long[] range = parseContentRange(conn.getHeaderField("Content-Range"));
+                if (range[0] != existing) {
+                    throw new IOException("The server answered with the wrong range: " + range[0] + " instead of " + existing);
+                }
+                total = range[1];
+                append = true;
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                // no range support or a new download
+                total = parseLong(conn.getHeaderField("Content-Length"), -1);
+                existing = 0;
+                append = false;
+            } else if (responseCode == 416 && existing > 0) {
+                // requested range not satisfiable, the part file is complete already
+                String contentRange = conn.getHeaderField("Content-Range");
+                total = contentRange == null ? -1 : parseLong(contentRange.replaceFirst(".*/", ""), -1);
+                if (total != existing) {
+                    partFile.delete();
+                    throw new IOException("The partial download does not match the remote file, restarting.");
+                }
+                finishDownload(partFile, outFile[0], conn.getHeaderField(CHECKSUM_HEADER), null);
+                return;
+            } else {
+                throw new HttpResponseException(responseCode);
+            }
+
+            if (outFile[0] == null) {
+                outFile[0] = new File(target, getFileName(conn));
+                partFile = new File(outFile[0].getPath() + PART_EXT);
+            }
+
+            InputStream in = conn.getInputStream();
+            OutputStream out = new FileOutputStream(partFile, append);
+            long transferred = existing;
+            try {
+                byte[] buffer = new byte[MIN_BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, bytesRead);
+                    transferred = transferred + bytesRead;
+                    notifyProgress(transferred, total);
+                    buffer = adaptBuffer(buffer, bytesRead);
+                }
+            } finally {
+                in.close();
+                out.close();
+            }
+            if (total >= 0 && transferred != total) {
+                throw new IOException("Download interrupted at " + transferred + " of " + total + " bytes.");
+            }
+
+            String contentMd5 = responseCode == HttpURLConnection.HTTP_OK ? conn.getHeaderField("Content-MD5") : null;
+            finishDownload(partFile, outFile[0], conn.getHeaderField(CHECKSUM_HEADER), contentMd5);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private void finishDownload(File partFile, File outFile, String hexMd5, String base64Md5) throws IOException {
+        if (hexMd5 != null || base64Md5 != null) {
+            byte[] digest = md5(partFile);
+            boolean ok = hexMd5 != null ? toHex(digest).equalsIgnoreCase(hexMd5.trim()) :
+                    Base64.encodeToString(digest, Base64.NO_WRAP).equals(base64Md5.trim());
+            if (!ok) {
+                partFile.delete();
+                throw new IOException("Checksum mismatch for the downloaded file " + outFile.getName());
+            }
+        }
+        if (outFile.exists() && !outFile.delete()) {
+            throw new IOException("Unable to replace the file " + outFile);
+        }
+        if (!partFile.renameTo(outFile)) {
+            throw new IOException("Unable to move the downloaded file to " + outFile);
+        }
+    }
+
+    /**
+     * Check if an endpoint takes uploads in parts.
+     *
+     * @param urlStr the url to upload to, without request parameters.
+     * @return <code>true</code> if the endpoint advertises the {@link #RESUME_HEADER}.
+     * @throws IOException if the endpoint could not be reached.
+     */
+    public boolean isResumeSupported(String urlStr) throws IOException {
+        HttpURLConnection conn = openConnection(urlStr, "GET");
+        try {
+            int responseCode = conn.getResponseCode();
+            return responseCode == HttpURLConnection.HTTP_OK && RESUME_PARTS.equals(conn.getHeaderField(RESUME_HEADER));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Upload a file in parts.
+     * <p/>
+     * <p>The endpoint has to support it, see {@link #isResumeSupported(String)}, else
+     * the upload fails with a {@link HttpURLConnection#HTTP_NOT_IMPLEMENTED} response code
+     * before any part is sent.</p>
+     *
+     * @param urlStr the url to upload to, without request parameters.
+     * @param file   the file to send.
+     * @return the http response code of the last part.
+     * @throws IOException if the upload did not complete.
+     */
+    public int upload(String urlStr, File file) throws IOException {
+        String key = toHex(md5(file));
+        int attempt = 0;
+        while (true) {
+            try {
+                return uploadAttempt(urlStr, file, key);
+            } catch (IOException e) {
+                attempt = checkRetry(attempt, e);
+            }
+        }
+    }
+
+    private int uploadAttempt(String urlStr, File file, String key) throws IOException {
+        long total = file.length();
+        String fileUrl = urlStr + "?name=" + file.getName() + "&key=" + key;
+        long offset = getUploadedSize(fileUrl, file, total);
+        notifyProgress(offset, total);
+
+        int responseCode = HttpURLConnection.HTTP_OK;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] chunk = new byte[(int) Math.min(chunkSize, Math.max(total, 1))];
+            do {
+                int length = (int) Math.min(chunk.length, total - offset);
+                raf.seek(offset);
+                raf.readFully(chunk, 0, length);
+
+                String partUrl = fileUrl + "&offset=" + offset + "&total=" + total;
+                HttpURLConnection conn = openConnection(partUrl, "POST");
+                try {
+                    conn.setDoOutput(true);
+                    conn.setFixedLengthStreamingMode(length);
+                    conn.setRequestProperty("Content-Type", "application/octet-stream");
+                    conn.setRequestProperty("Content-MD5", Base64.encodeToString(md5(chunk, length), Base64.NO_WRAP));
+                    OutputStream out = conn.getOutputStream();
+                    try {
+                        int written = 0;
+                        while (written < length) {
+                            int toWrite = Math.min(MAX_BUFFER_SIZE, length - written);
+                            out.write(chunk, written, toWrite);
+                            written = written + toWrite;
+                            notifyProgress(offset + written, total);
+                        }
+                    } finally {
+                        out.close();
+                    }
+                    responseCode = conn.getResponseCode();
+                    if (responseCode != HttpURLConnection.HTTP_OK) {
+                        throw new HttpResponseException(responseCode);
+                    }
+                } finally {
+                    conn.disconnect();
+                }
+                offset = offset + length;
+            } while (offset < total);
+        } finally {
+            raf.close();
+        }
+        return responseCode;
+    }
+
+    /**
+     * @return the size of the part of the file the server holds, 0 if it does not confirm it through the md5 sum.
+     */
+    private long getUploadedSize(String fileUrl, File file, long total) throws IOException {
+        String line;
+        HttpURLConnection conn = openConnection(fileUrl, "GET");
+        try {
+            int responseCode = conn.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new HttpResponseException(responseCode);
+            }
+            if (!RESUME_PARTS.equals(conn.getHeaderField(RESUME_HEADER))) {
+                // an endpoint that takes the whole file at once
+                throw new HttpResponseException(HttpURLConnection.HTTP_NOT_IMPLEMENTED);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+            try {
+                line = reader.readLine();
+            } finally {
+                reader.close();
+            }
+        } finally {
+            conn.disconnect();
+        }
+        if (line == null) {
+            return 0;
+        }
+        String[] split = line.trim().split("\\s+");
+        long size = parseLong(split[0], 0);
+        if (size <= 0 || size > total || split.length < 2) {
+            return 0;
+        }
+        if (!toHex(md5(file, size)).equalsIgnoreCase(split[1])) {
+            if (GPLog.LOG)
+                GPLog.addLogEntry(TAG, "The part held by the server does not match " + file.getName() + ", sending it all.");
+            return 0;
+        }
+        return size;
+    }
+
+    private HttpURLConnection openConnection(String urlStr, String method) throws IOException {
+        HttpURLConnection conn;
+        try {
+            conn = NetworkUtilities.makeNewConnection(urlStr);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e.getLocalizedMessage());
+        }
+        conn.setRequestMethod(method);
+        conn.setDoInput(true);
+        conn.setUseCaches(false);
+        conn.setConnectTimeout(30000);
+        conn.setReadTimeout(60000);
+        if (user != null && password != null && user.trim().length() > 0 && password.trim().length() > 0) {
+            conn.setRequestProperty("Authorization", NetworkUtilities.getB64Auth(user, password));
+        }
+        return conn;
+    }
+
+    private int checkRetry(int attempt, IOException e) throws IOException {
+        if (e instanceof TransferCancelledException) {
+            throw e;
+        }
+        if (e instanceof HttpResponseException) {
+            int code = ((HttpResponseException) e).getResponseCode();
+            // client errors and missing server support won't get better by retrying
+            if (code >= 400 && code < 500 || code == HttpURLConnection.HTTP_NOT_IMPLEMENTED) {
+                throw e;
+            }
+        }
+        attempt++;
+        if (attempt > maxRetries) {
+            throw e;
+        }
+        if (GPLog.LOG)
+            GPLog.addLogEntry(TAG, "Transfer failed, retry " + attempt + " of " + maxRetries + ": " + e.getLocalizedMessage());
+        try {
+            Thread.sleep(retryDelay * attempt);
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("Transfer interrupted.");
+        }
+        return attempt;
+    }
+
+    private void notifyProgress(long transferred, long total) throws IOException {
+        if (listener == null) {
+            return;
+        }
+        if (listener.isCancelled()) {
+            throw new TransferCancelledException();
+        }
+        listener.onProgress(transferred, total);
+    }
+
+    /**
+     * Grow the buffer while reads fill it, which happens only if data arrive faster than they are consumed.
+     */
+    private static byte[] adaptBuffer(byte[] buffer, int bytesRead) {
+        if (bytesRead == buffer.length && buffer.length < MAX_BUFFER_SIZE) {
+            return new byte[Math.min(MAX_BUFFER_SIZE, buffer.length * 2)];
+        }
+        return buffer;
+    }
+
+    private static String getFileName(HttpURLConnection conn) {
+        String headerField = conn.getHeaderField("Content-Disposition");
+        if (headerField != null) {
+            String[] split = headerField.split(";");
+            for (String string : split) {
+                String pattern = "filename=";
+                string = string.trim();
+                if (string.toLowerCase().startsWith(pattern)) {
+                    return string.substring(pattern.length()).replace("\"", "");
+                }
+            }
+        }
+        // give a name
+        return "FILE_" + TimeUtilities.INSTANCE.TIMESTAMPFORMATTER_LOCAL.format(new Date());
+    }
+
+    /**
+     * @return the start and the total size of a <code>bytes start-end/total</code> content range.
+     */
+    private static long[] parseContentRange(String contentRange) throws IOException {
+        if (contentRange == null) {
+            throw new IOException("Partial response without content range.");
+        }
+        try {
+            String range = contentRange.trim().replaceFirst("^bytes\\s*", "");
+            int dashIndex = range.indexOf('-');
+            int slashIndex = range.indexOf('/');
+            long start = Long.parseLong(range.substring(0, dashIndex));
+            String totalStr = range.substring(slashIndex + 1);
+            long total = totalStr.equals("*") ? -1 : Long.parseLong(totalStr);
+            return new long[]{start, total};
+        } catch (Exception e) {
+            throw new IOException("Unable to parse content range: " + contentRange);
+        }
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static byte[] md5(File file) throws IOException {
+        return md5(file, file.length());
+    }
+
+    /**
+     * @return the md5 sum of the first bytes of a file.
+     */
+    private static byte[] md5(File file, long length) throws IOException {
+        MessageDigest digest = getMd5Digest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[MAX_BUFFER_SIZE];
+            long remaining = length;
+            int read;
+            while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                digest.update(buffer, 0, read);
+                remaining = remaining - read;
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    private static byte[] md5(byte[] data, int length) throws IOException {
+        MessageDigest digest = getMd5Digest();
+        digest.update(data, 0, length);
+        return digest.digest();
+    }
+
+    private static MessageDigest getMd5Digest() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getLocalizedMessage());
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Exception thrown for unexpected http response codes.
+     */
+    public static class HttpResponseException extends IOException {
+        private final int responseCode;
+
+        /**
+         * @param responseCode the http response code.
+         */
+        public HttpResponseException(int responseCode) {
+            super("Unexpected http response code: " + responseCode);
+            this.responseCode = responseCode;
+        }
+
+        /**
+         * @return the http response code.
+         */
+        public int getResponseCode() {
+            return responseCode;
+        }
+    }
+
+    /**
+     * Exception thrown when the {@link TransferListener} cancelled the transfer.
+     */
+    public static class TransferCancelledException extends IOException {
+        /**
+         * Constructor.
+         */
+        public TransferCancelledException() {
+            super("The transfer has been cancelled.");
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.network;
+
+/**
+ * Listener for the progress of a {@link TransferEngine} transfer.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public interface TransferListener {
+
+    /**
+     * Called while data are transferred.
+     *
+     * @param transferred the bytes transferred so far, including those of previous attempts.
+     * @param total       the total bytes to transfer or -1 if unknown.
+     */
+    public void onProgress(long transferred, long total);
+
+    /**
+     * @return <code>true</code> if the transfer should be stopped.
+     */
+    public boolean isCancelled();
+}
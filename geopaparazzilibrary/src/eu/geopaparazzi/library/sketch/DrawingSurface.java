@@ -8,20 +8,22 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.os.Handler;
-import android.os.Message;
 import android.util.AttributeSet;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.sketch.commands.CommandManager;
 import eu.geopaparazzi.library.sketch.commands.DrawingPath;
+import eu.geopaparazzi.library.sketch.commands.StrokeLayer;
 
 /**
  * The drawing surface..
  * 
  * <p>Adapted for geopaparazzi.</p>
  * 
+ * <p>The committed paths are baked into a {@link StrokeLayer} bitmap as they are added,
+ * so that a frame only copies that bitmap and draws the path being drawn on top of it.</p>
+ * 
  * @author almondmendoza (http://www.tutorialforandroid.com/)
  * @author Andrea Antonello (www.hydrologis.com)
  */
@@ -29,6 +31,7 @@ public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callbac
     private Boolean _run = false;
     protected DrawThread thread;
     private Bitmap mBitmap;
+    private volatile BitmapStrokeLayer strokesLayer;
     /**
      * 
      */
@@ -56,12 +59,6 @@ public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callbac
         thread = new DrawThread(getHolder());
     }
 
-    private static Handler previewDoneHandler = new Handler(){
-        @Override
-        public void handleMessage( Message msg ) {
-            isDrawing = false;
-        }
-    };
     private File imageFile;
     private boolean dumpToImage;
 
@@ -85,40 +82,33 @@ public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callbac
                 if (isDrawing == true) {
                     try {
                         canvas = mSurfaceHolder.lockCanvas(null);
-                        if (mBitmap == null) {
-                            // Logger.i(this, "Canvas not ready yet...");
-                            continue;
-                        }
-                        if (isDisposed) {
-                            break;
-                        }
-                        final Canvas c = new Canvas(mBitmap);
-
-                        c.drawColor(Color.WHITE);
-                        // c.drawColor(0, PorterDuff.Mode.CLEAR);
-                        if (canvas == null || mBitmap.isRecycled()) {
-                            break;
-                        }
-                        canvas.drawColor(Color.WHITE);
-                        // canvas.drawColor(0, PorterDuff.Mode.CLEAR);
-
-                        commandManager.executeAll(c, previewDoneHandler);
+                        final BitmapStrokeLayer layer;
+                        // the layer is not replaced or disposed while it is drawn
+                        synchronized (commandManager.getLock()) {
+                            layer = strokesLayer;
+                            if (layer == null) {
+                                // Logger.i(this, "Canvas not ready yet...");
+                                continue;
+                            }
+                            if (isDisposed) {
+                                break;
+                            }
+                            if (canvas == null || layer.bitmap.isRecycled()) {
+                                break;
+                            }
 
-                        // if (Debug.D) {
-                        // if (!previewPath.path.isEmpty()) {
-                        // Logger.i(this,
-                        // "Style: " + previewPath.paint.getStrokeWidth() + "/" + previewPath.paint.getColor()); //$NON-NLS-1$//$NON-NLS-2$
-                        // }
-                        // }
-                        previewPath.draw(c);
+                            // only the paths added since the last frame are drawn into the bitmap
+                            commandManager.updateLayer(layer);
 
-                        canvas.drawBitmap(mBitmap, 0, 0, null);
+                            canvas.drawBitmap(layer.bitmap, 0, 0, null);
+                        }
+                        previewPath.draw(canvas);
 
                         if (dumpToImage) {
                             FileOutputStream out = null;
                             try {
                                 out = new FileOutputStream(imageFile);
-                                mBitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+                                layer.bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
                                 out.flush();
                             } catch (Exception e) {
                                 GPLog.error(this, null, e);
@@ -184,6 +174,14 @@ public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callbac
 
     public void surfaceChanged( SurfaceHolder holder, int format, int width, int height ) {
         mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        BitmapStrokeLayer newLayer = new BitmapStrokeLayer(mBitmap);
+        synchronized (commandManager.getLock()) {
+            BitmapStrokeLayer oldLayer = strokesLayer;
+            strokesLayer = newLayer;
+            if (oldLayer != null) {
+                oldLayer.dispose();
+            }
+        }
         if (GPLog.LOG)
             GPLog.addLogEntry(this, "Recreating bitmap");
     }
@@ -212,10 +210,62 @@ public class DrawingSurface extends SurfaceView implements SurfaceHolder.Callbac
      * 
      */
     public void dispose() {
-        if (mBitmap != null) {
-            isDisposed = true;
-            mBitmap.recycle();
-            mBitmap = null;
+        synchronized (commandManager.getLock()) {
+            if (mBitmap != null) {
+                isDisposed = true;
+                if (strokesLayer != null) {
+                    strokesLayer.dispose();
+                }
+                mBitmap.recycle();
+                mBitmap = null;
+            }
+        }
+    }
+
+    /**
+     * The committed paths baked into a bitmap, with bitmap copies as undo checkpoints.
+     */
+    private static class BitmapStrokeLayer extends StrokeLayer<DrawingPath, Bitmap> {
+        final Bitmap bitmap;
+        private final Canvas canvas;
+
+        BitmapStrokeLayer( Bitmap bitmap ) {
+            super(DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_MAX_CHECKPOINTS);
+            this.bitmap = bitmap;
+            canvas = new Canvas(bitmap);
+            clear();
+        }
+
+        @Override
+        protected void clear() {
+            bitmap.eraseColor(Color.WHITE);
+        }
+
+        @Override
+        protected void drawStroke( DrawingPath stroke ) {
+            stroke.draw(canvas);
+        }
+
+        @Override
+        protected Bitmap takeSnapshot() {
+            try {
+                return bitmap.copy(bitmap.getConfig(), false);
+            } catch (OutOfMemoryError e) {
+                // undo will draw again from an older checkpoint
+                GPLog.androidLog(-1, "No memory for a sketch checkpoint");
+                return null;
+            }
+        }
+
+        @Override
+        protected void restoreSnapshot( Bitmap snapshot ) {
+            // the snapshots are opaque, they replace every pixel
+            canvas.drawBitmap(snapshot, 0, 0, null);
+        }
+
+        @Override
+        protected void releaseSnapshot( Bitmap snapshot ) {
+            snapshot.recycle();
         }
     }
 
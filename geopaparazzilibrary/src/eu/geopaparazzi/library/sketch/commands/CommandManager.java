@@ -2,12 +2,8 @@ package eu.geopaparazzi.library.sketch.commands;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
-import android.graphics.Canvas;
-import android.os.Handler;
-
 /**
  * Created by IntelliJ IDEA.
  * User: almondmendoza
@@ -18,6 +14,7 @@ import android.os.Handler;
 public class CommandManager {
     private List<DrawingPath> currentStack;
     private List<DrawingPath> redoStack;
+    private int lowestChangedIndex = Integer.MAX_VALUE;
 
     /**
      * 
@@ -39,13 +36,16 @@ public class CommandManager {
      * 
      */
     public void undo() {
-        final int length = currentStackLength();
+        synchronized (currentStack) {
+            final int length = currentStackLength();
 
-        if (length > 0) {
-            final DrawingPath undoCommand = currentStack.get(length - 1);
-            currentStack.remove(length - 1);
-            undoCommand.undo();
-            redoStack.add(undoCommand);
+            if (length > 0) {
+                final DrawingPath undoCommand = currentStack.get(length - 1);
+                currentStack.remove(length - 1);
+                undoCommand.undo();
+                redoStack.add(undoCommand);
+                lowestChangedIndex = Math.min(lowestChangedIndex, length - 1);
+            }
         }
     }
 
@@ -58,23 +58,26 @@ public class CommandManager {
     }
 
     /**
-     * @param canvas canvas
-     * @param doneHandler handler.
+     * Bring a layer up to date with the commands, drawing only the ones changed since its last update.
+     * 
+     * @param layer the layer, always the same one.
+     * @return the number of commands drawn.
      */
-    public void executeAll( Canvas canvas, Handler doneHandler ) {
-        if (currentStack != null) {
-            synchronized (currentStack) {
-                final Iterator i = currentStack.iterator();
-
-                while( i.hasNext() ) {
-                    final DrawingPath drawingPath = (DrawingPath) i.next();
-                    drawingPath.draw(canvas);
-                    // doneHandler.sendEmptyMessage(1);
-                }
-            }
+    public int updateLayer( StrokeLayer<DrawingPath, ?> layer ) {
+        synchronized (currentStack) {
+            final int changedFrom = lowestChangedIndex;
+            lowestChangedIndex = Integer.MAX_VALUE;
+            return layer.update(currentStack, changedFrom);
         }
     }
 
+    /**
+     * @return the lock guarding the commands, held while a layer is updated.
+     */
+    public Object getLock() {
+        return currentStack;
+    }
+
     /**
      * @return has more read.
      */
@@ -0,0 +1,190 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.sketch.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A raster into which the committed strokes of a sketch are baked once.
+ *
+ * <p>Every {@link #update(List, int)} draws only the strokes added since the previous one,
+ * so a frame costs the same however long the sketch grows. Every few strokes a snapshot of
+ * the raster is kept as checkpoint: an undo restores the last checkpoint before the removed
+ * strokes and draws again only the strokes after it, instead of the whole history.</p>
+ *
+ * <p>The raster itself is handled by the subclasses.</p>
+ *
+ * @param <S> the type of the strokes.
+ * @param <T> the type of the snapshots of the raster.
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public abstract class StrokeLayer<S, T> {
+    /**
+     * The default number of strokes between checkpoints.
+     */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 50;
+    /**
+     * The default number of checkpoints kept, the oldest are dropped first.
+     */
+    public static final int DEFAULT_MAX_CHECKPOINTS = 3;
+
+    private final int checkpointInterval;
+    private final int maxCheckpoints;
+    private final List<Integer> checkpointCounts = new ArrayList<Integer>();
+    private final List<T> checkpoints = new ArrayList<T>();
+    private int bakedCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param checkpointInterval the number of strokes between checkpoints.
+     * @param maxCheckpoints the maximum number of checkpoints to keep.
+     */
+    public StrokeLayer( int checkpointInterval, int maxCheckpoints ) {
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+        this.maxCheckpoints = maxCheckpoints;
+    }
+
+    /**
+     * Bring the raster up to date with the strokes.
+     *
+     * @param strokes the committed strokes, in drawing order.
+     * @param changedFrom the index of the first stroke removed since the previous update,
+     *          {@link Integer#MAX_VALUE} if strokes have only been added.
+     * @return the number of strokes drawn.
+     */
+    public int update( List<S> strokes, int changedFrom ) {
+        int count = strokes.size();
+        int validCount = Math.min(Math.min(bakedCount, changedFrom), count);
+        if (validCount < bakedCount) {
+            // rewind to the last checkpoint that has none of the removed strokes
+            int last = checkpointCounts.size() - 1;
+            while( last >= 0 && checkpointCounts.get(last) > validCount ) {
+                checkpointCounts.remove(last);
+                releaseSnapshot(checkpoints.remove(last));
+                last--;
+            }
+            if (last >= 0) {
+                restoreSnapshot(checkpoints.get(last));
+                bakedCount = checkpointCounts.get(last);
+            } else {
+                clear();
+                bakedCount = 0;
+            }
+        }
+
+        int drawn = 0;
+        for( int i = bakedCount; i < count; i++ ) {
+            drawStroke(strokes.get(i));
+            drawn++;
+            int baked = i + 1;
+            if (baked % checkpointInterval == 0 && maxCheckpoints > 0) {
+                addCheckpoint(baked);
+            }
+        }
+        bakedCount = count;
+        return drawn;
+    }
+
+    /**
+     * @return the number of strokes in the raster.
+     */
+    public int getBakedCount() {
+        return bakedCount;
+    }
+
+    /**
+     * @return the number of checkpoints kept.
+     */
+    public int getCheckpointsCount() {
+        return checkpoints.size();
+    }
+
+    /**
+     * Clear the raster and drop the checkpoints.
+     */
+    public void reset() {
+        dispose();
+        clear();
+        bakedCount = 0;
+    }
+
+    /**
+     * Release the checkpoints.
+     */
+    public void dispose() {
+        for( T snapshot : checkpoints ) {
+            releaseSnapshot(snapshot);
+        }
+        checkpoints.clear();
+        checkpointCounts.clear();
+    }
+
+    private void addCheckpoint( int baked ) {
+        int last = checkpointCounts.size() - 1;
+        if (last >= 0 && checkpointCounts.get(last) >= baked) {
+            return;
+        }
+        T snapshot = takeSnapshot();
+        if (snapshot == null) {
+            return;
+        }
+        if (checkpoints.size() >= maxCheckpoints) {
+            checkpointCounts.remove(0);
+            releaseSnapshot(checkpoints.remove(0));
+        }
+        checkpointCounts.add(baked);
+        checkpoints.add(snapshot);
+    }
+
+    /**
+     * Clear the raster to the background.
+     */
+    protected abstract void clear();
+
+    /**
+     * Draw a stroke on the raster.
+     *
+     * @param stroke the stroke.
+     */
+    protected abstract void drawStroke( S stroke );
+
+    /**
+     * Copy the raster.
+     *
+     * @return the copy or <code>null</code> if it could not be taken.
+     */
+    protected abstract T takeSnapshot();
+
+    /**
+     * Replace the raster with a snapshot.
+     *
+     * @param snapshot the snapshot.
+     */
+    protected abstract void restoreSnapshot( T snapshot );
+
+    /**
+     * Release a snapshot that is no longer needed.
+     *
+     * @param snapshot the snapshot.
+     */
+    protected void releaseSnapshot( T snapshot ) {
+        // nothing by default
+    }
+}
@@ -37,6 +37,10 @@ public class PositionUtilities {
     private static final String LOG_TAG = "POSITIONUTILITIES";
     private static final float NOVALUE_CHECKVALUE = -9998f;
     private static final float NOVALUE = -9999f;
+    /**
+     * The mean earth radius in meters.
+     */
+    public static final double EARTH_MEAN_RADIUS = 6371008.8;
 
     /**
      * Insert the gps position data in the preferences.
@@ -172,4 +176,25 @@ public class PositionUtilities {
         return new double[]{lon, lat, zoom};
     }
 
+    /**
+     * Great circle distance between two points on the mean earth sphere.
+     * <p/>
+     * <p>Unlike {@link android.location.Location#distanceTo(android.location.Location)}
+     * this does not create any object, which makes it fit for summing up long tracks.</p>
+     *
+     * @param lon1 the longitude of the first point.
+     * @param lat1 the latitude of the first point.
+     * @param lon2 the longitude of the second point.
+     * @param lat2 the latitude of the second point.
+     * @return the distance in meters.
+     */
+    public static double haversineDistance( double lon1, double lat1, double lon2, double lat2 ) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double sinDLat = Math.sin(dLat / 2.0);
+        double sinDLon = Math.sin(dLon / 2.0);
+        double a = sinDLat * sinDLat + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinDLon * sinDLon;
+        return 2.0 * EARTH_MEAN_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1.0 - a));
+    }
+
 }
@@ -0,0 +1,271 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.webproject;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writer of the compressed changesets used for the incremental cloud sync.
+ * <p/>
+ * <p>A changeset is a gzipped stream of big endian records:</p>
+ * <ul>
+ * <li>header: magic (int), version (int), creation timestamp (long)</li>
+ * <li>records: a record type (byte) followed by the record fields</li>
+ * <li>footer: the {@link #RECORD_END} type and the number of records written (int)</li>
+ * </ul>
+ * <p>Strings are written as utf-8 byte count (int, -1 for null) followed by the bytes.
+ * Every record is an insert or update of the row with the same id on the server, except
+ * the {@link #RECORD_DELETE} records, which are written before all the others.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ChangesetWriter {
+    /**
+     * The changeset magic number, "GPCS".
+     */
+    public static final int MAGIC = 0x47504353;
+    /**
+     * The changeset format version.
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * End of changeset.
+     */
+    public static final byte RECORD_END = 0;
+    /**
+     * Note: id, lon, lat, altim, ts, text, description, form, style.
+     */
+    public static final byte RECORD_NOTE = 1;
+    /**
+     * Gps log: id, startts, endts, lengthm, text, index of the first point (int), points count,
+     * followed by the points as lon, lat, altim, ts. The points replace the ones of the log
+     * on the server from that index on, so that only the points added since the last sync are sent.
+     */
+    public static final byte RECORD_GPSLOG = 2;
+    /**
+     * Image: id, lon, lat, altim, azim, ts, text, note id, data size (long), data bytes.
+     */
+    public static final byte RECORD_IMAGE = 3;
+    /**
+     * Deletion: table name, id.
+     */
+    public static final byte RECORD_DELETE = 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final DataOutputStream out;
+    private int recordsCount = 0;
+    private long pendingLogPoints = 0;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    /**
+     * Constructor.
+     *
+     * @param changesetFile the file to write to.
+     * @throws IOException if something goes wrong.
+     */
+    public ChangesetWriter(File changesetFile) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(changesetFile),
+                buffer.length)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Write a note.
+     *
+     * @param id          the note id.
+     * @param lon         lon.
+     * @param lat         lat.
+     * @param altim       elevation.
+     * @param ts          the timestamp.
+     * @param text        the note text.
+     * @param description the description.
+     * @param form        the form or <code>null</code>.
+     * @param style       the style or <code>null</code>.
+     * @throws IOException if something goes wrong.
+     */
+    public void writeNote(long id, double lon, double lat, double altim, long ts, String text, String description,
+                          String form, String style) throws IOException {
+        checkNoPendingPoints();
+        out.writeByte(RECORD_NOTE);
+        out.writeLong(id);
+        out.writeDouble(lon);
+        out.writeDouble(lat);
+        out.writeDouble(altim);
+        out.writeLong(ts);
+        writeString(text);
+        writeString(description);
+        writeString(form);
+        writeString(style);
+        recordsCount++;
+    }
+
+    /**
+     * Write the deletion of a row.
+     *
+     * @param table the name of the table the row was deleted from.
+     * @param id    the id of the row.
+     * @throws IOException if something goes wrong.
+     */
+    public void writeDelete(String table, long id) throws IOException {
+        checkNoPendingPoints();
+        out.writeByte(RECORD_DELETE);
+        writeString(table);
+        out.writeLong(id);
+        recordsCount++;
+    }
+
+    /**
+     * Write a gps log header.
+     * <p/>
+     * <p>It has to be followed by exactly <code>pointsCount</code> calls to
+     * {@link #writeGpsLogPoint(double, double, double, long)}.</p>
+     *
+     * @param id              the log id.
+     * @param startTs         the start timestamp.
+     * @param endTs           the end timestamp.
+     * @param lengthm         the length in meters.
+     * @param text            the log name.
+     * @param firstPointIndex the index in the log of the first point that follows, 0 to send all the points.
+     * @param pointsCount     the number of points that follow.
+     * @throws IOException if something goes wrong.
+     */
+    public void writeGpsLog(long id, long startTs, long endTs, double lengthm, String text, int firstPointIndex,
+                            int pointsCount) throws IOException {
+        checkNoPendingPoints();
+        out.writeByte(RECORD_GPSLOG);
+        out.writeLong(id);
+        out.writeLong(startTs);
+        out.writeLong(endTs);
+        out.writeDouble(lengthm);
+        writeString(text);
+        out.writeInt(firstPointIndex);
+        out.writeInt(pointsCount);
+        pendingLogPoints = pointsCount;
+        recordsCount++;
+    }
+
+    /**
+     * Write a point of the last written gps log.
+     *
+     * @param lon   lon.
+     * @param lat   lat.
+     * @param altim elevation.
+     * @param ts    the timestamp.
+     * @throws IOException if something goes wrong.
+     */
+    public void writeGpsLogPoint(double lon, double lat, double altim, long ts) throws IOException {
+        if (pendingLogPoints <= 0) {
+            throw new IOException("More points written than declared in the gps log record.");
+        }
+        out.writeDouble(lon);
+        out.writeDouble(lat);
+        out.writeDouble(altim);
+        out.writeLong(ts);
+        pendingLogPoints--;
+    }
+
+    /**
+     * Write an image, streaming its data.
+     *
+     * @param id        the image id.
+     * @param lon       lon.
+     * @param lat       lat.
+     * @param altim     elevation.
+     * @param azim      azimuth.
+     * @param ts        the timestamp.
+     * @param text      the image name.
+     * @param noteId    the id of the note the image belongs to, -1 if standalone.
+     * @param dataSize  the size of the image data.
+     * @param imageData the stream with the image data, which is consumed but not closed.
+     * @throws IOException if something goes wrong.
+     */
+    public void writeImage(long id, double lon, double lat, double altim, double azim, long ts, String text, long noteId,
+                           long dataSize, InputStream imageData) throws IOException {
+        checkNoPendingPoints();
+        out.writeByte(RECORD_IMAGE);
+        out.writeLong(id);
+        out.writeDouble(lon);
+        out.writeDouble(lat);
+        out.writeDouble(altim);
+        out.writeDouble(azim);
+        out.writeLong(ts);
+        writeString(text);
+        out.writeLong(noteId);
+        out.writeLong(dataSize);
+        long written = 0;
+        int read;
+        while (written < dataSize && (read = imageData.read(buffer, 0, (int) Math.min(buffer.length, dataSize - written))) != -1) {
+            out.write(buffer, 0, read);
+            written = written + read;
+        }
+        if (written != dataSize) {
+            throw new IOException("The image data are shorter than declared: " + written + "/" + dataSize);
+        }
+        recordsCount++;
+    }
+
+    /**
+     * @return the number of records written so far.
+     */
+    public int getRecordsCount() {
+        return recordsCount;
+    }
+
+    /**
+     * Write the footer and close the changeset.
+     *
+     * @throws IOException if something goes wrong.
+     */
+    public void close() throws IOException {
+        try {
+            checkNoPendingPoints();
+            out.writeByte(RECORD_END);
+            out.writeInt(recordsCount);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void checkNoPendingPoints() throws IOException {
+        if (pendingLogPoints != 0) {
+            throw new IOException("The last gps log record misses " + pendingLogPoints + " points.");
+        }
+    }
+
+    private void writeString(String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
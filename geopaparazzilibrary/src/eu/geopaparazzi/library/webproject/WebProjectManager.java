@@ -19,9 +19,9 @@ package eu.geopaparazzi.library.webproject;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -34,6 +34,7 @@ import android.content.res.AssetManager;
 import eu.geopaparazzi.library.R;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.network.NetworkUtilities;
+import eu.geopaparazzi.library.network.TransferEngine;
 import eu.geopaparazzi.library.util.CompressionUtilities;
 import eu.geopaparazzi.library.util.ResourcesManager;
 
@@ -54,6 +55,16 @@ public enum WebProjectManager {
      */
     public static String UPLOADPATH = "stage_gpproject_upload";
 
+    /**
+     * The relative path appended to the server url to compose the changeset upload url.
+     */
+    public static String UPLOADCHANGESPATH = "stage_gpproject_changes_upload";
+
+    /**
+     * The size of the parts a changeset is uploaded in.
+     */
+    public static int CHANGESET_CHUNKSIZE = 512 * 1024;
+
     /**
      * The relative path appended to the server url to compose the download projects list url.
      */
@@ -67,7 +78,16 @@ public enum WebProjectManager {
     public static String ID = "id";
 
     /**
-     * Uploads a project folder as zip to the given server via POST.
+     * The size of the parts a project is uploaded in.
+     */
+    public static int PROJECT_CHUNKSIZE = TransferEngine.DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Uploads the project database to the given server via POST.
+     * <p/>
+     * <p>If the server advertises uploads in parts, see {@link TransferEngine#isResumeSupported(String)},
+     * the database is sent in parts and an upload interrupted by a dropped connection
+     * continues where it stopped. Else it is sent as a whole in a single POST.</p>
      *
      * @param context the {@link Context} to use.
      * @param server  the server to which to upload.
@@ -81,17 +101,69 @@ public enum WebProjectManager {
             File databaseFile = resourcesManager.getDatabaseFile();
 
             server = addActionPath(server, UPLOADPATH);
-            String result = NetworkUtilities.sendFilePost(context, server, databaseFile, user, passwd);
+            TransferEngine transferEngine = new TransferEngine(user, passwd, null);
+            String result;
+            if (transferEngine.isResumeSupported(server)) {
+                transferEngine.setChunkSize(PROJECT_CHUNKSIZE);
+                int responseCode = transferEngine.upload(server, databaseFile);
+                result = NetworkUtilities.getMessageForCode(context, responseCode,
+                        context.getString(R.string.file_upload_completed_properly));
+            } else {
+                result = NetworkUtilities.sendFilePost(context, server, databaseFile, user, passwd);
+            }
             if (GPLog.LOG) {
                 GPLog.addLogEntry(this, result);
             }
             return result;
+        } catch (TransferEngine.HttpResponseException e) {
+            GPLog.error(this, null, e);
+            return NetworkUtilities.getMessageForCode(context, e.getResponseCode(), null);
         } catch (Exception e) {
             GPLog.error(this, null, e);
             return e.getLocalizedMessage();
         }
     }
 
+    /**
+     * Uploads a changeset of the project via chunked POSTs.
+     * <p/>
+     * <p>Before sending, the server is asked how much of the changeset it already
+     * received, so that an upload interrupted by a dropped connection continues
+     * where it stopped, as long as the same changeset file is used.</p>
+     *
+     * @param context       the {@link Context} to use.
+     * @param server        the server to which to upload.
+     * @param user          the username for authentication.
+     * @param passwd        the password for authentication.
+     * @param changesetFile the changeset, as created through the {@link ChangesetWriter}.
+     * @return the return message.
+     * @throws Exception if the upload did not complete, a {@link TransferEngine.HttpResponseException}
+     *                   with the response code of the server if it refused the changeset.
+     */
+    public String uploadProjectChanges(Context context, String server, String user, String passwd, File changesetFile)
+            throws Exception {
+        server = addActionPath(server, UPLOADCHANGESPATH);
+
+        TransferEngine transferEngine = new TransferEngine(user, passwd, null);
+        transferEngine.setChunkSize(CHANGESET_CHUNKSIZE);
+        transferEngine.upload(server, changesetFile);
+        return context.getString(R.string.file_upload_completed_properly);
+    }
+
+    /**
+     * Checks whether a response code of {@link #uploadProjectChanges(Context, String, String, String, File)}
+     * tells that the server does not accept changesets at all.
+     * <p/>
+     * <p>In that case the whole project has to be uploaded instead.</p>
+     *
+     * @param responseCode the http response code, see {@link TransferEngine.HttpResponseException#getResponseCode()}.
+     * @return <code>true</code> if the server has no changesets upload.
+     */
+    public static boolean isChangesUploadRejected(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_NOT_FOUND || responseCode == HttpURLConnection.HTTP_BAD_METHOD
+                || responseCode == HttpURLConnection.HTTP_NOT_IMPLEMENTED;
+    }
+
     private String addActionPath(String server, String path) {
         if (server.endsWith("/")) {
             return server + path;
@@ -102,6 +174,8 @@ public enum WebProjectManager {
 
     /**
      * Downloads a project from the given server via GET.
+     * <p/>
+     * <p>An interrupted download is continued on the next call.</p>
      *
      * @param context    the {@link Context} to use.
      * @param server     the server from which to download.
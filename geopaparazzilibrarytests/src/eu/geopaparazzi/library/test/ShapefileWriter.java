@@ -0,0 +1,229 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal writer of shapefiles, for the tests of the shapefile import and the benchmarks.
+ * <p/>
+ * <p>The records are given as shape contents, the bounding boxes are not written.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ShapefileWriter {
+
+    private static class Field {
+        final String name;
+        final char type;
+        final int length;
+        final int decimals;
+
+        Field(String name, char type, int length, int decimals) {
+            this.name = name;
+            this.type = type;
+            this.length = length;
+            this.decimals = decimals;
+        }
+    }
+
+    private final int shapeType;
+    private final List<Field> fields = new ArrayList<Field>();
+    private final List<byte[]> shapes = new ArrayList<byte[]>();
+    private final List<String[]> values = new ArrayList<String[]>();
+    private final List<Boolean> deleted = new ArrayList<Boolean>();
+    private int shapesSize = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param shapeType the shape type of the file.
+     */
+    public ShapefileWriter(int shapeType) {
+        this.shapeType = shapeType;
+    }
+
+    /**
+     * Add a field, before adding the records.
+     *
+     * @param name     the name, at most 10 characters.
+     * @param type     the dbf type, numbers are right aligned.
+     * @param length   the length.
+     * @param decimals the decimals.
+     */
+    public void addField(String name, char type, int length, int decimals) {
+        fields.add(new Field(name, type, length, decimals));
+    }
+
+    /**
+     * Add a record.
+     *
+     * @param shape        the content of the record, starting with its shape type.
+     * @param isDeleted    if <code>true</code>, the record is marked as deleted in the dbf.
+     * @param recordValues the values of the fields, in order.
+     */
+    public void addRecord(byte[] shape, boolean isDeleted, String... recordValues) {
+        shapes.add(shape);
+        shapesSize = shapesSize + 8 + shape.length;
+        deleted.add(isDeleted);
+        values.add(recordValues);
+    }
+
+    /**
+     * Write the shp and dbf files.
+     *
+     * @param folder the folder to write to.
+     * @param name   the name of the files, without extension.
+     * @return the shp file.
+     * @throws IOException if something goes wrong.
+     */
+    public File write(File folder, String name) throws IOException {
+        int shpSize = 100 + shapesSize;
+        ByteBuffer shp = ByteBuffer.allocate(shpSize);
+        shp.putInt(9994);
+        shp.putInt(24, shpSize / 2);
+        shp.order(ByteOrder.LITTLE_ENDIAN);
+        shp.putInt(28, 1000);
+        shp.putInt(32, shapeType);
+        shp.position(100);
+        for (int i = 0; i < shapes.size(); i++) {
+            shp.order(ByteOrder.BIG_ENDIAN);
+            shp.putInt(i + 1);
+            shp.putInt(shapes.get(i).length / 2);
+            shp.put(shapes.get(i));
+        }
+
+        int recordLength = 1;
+        for (Field field : fields) {
+            recordLength = recordLength + field.length;
+        }
+        int headerLength = 32 + fields.size() * 32 + 1;
+        ByteBuffer dbf = ByteBuffer.allocate(headerLength + shapes.size() * recordLength + 1).order(
+                ByteOrder.LITTLE_ENDIAN);
+        dbf.put((byte) 3).put((byte) 114).put((byte) 1).put((byte) 1);
+        dbf.putInt(shapes.size());
+        dbf.putShort((short) headerLength);
+        dbf.putShort((short) recordLength);
+        dbf.position(32);
+        for (Field field : fields) {
+            int start = dbf.position();
+            dbf.put(field.name.getBytes());
+            dbf.position(start + 11);
+            dbf.put((byte) field.type);
+            dbf.position(start + 16);
+            dbf.put((byte) field.length);
+            dbf.put((byte) field.decimals);
+            dbf.position(start + 32);
+        }
+        dbf.put((byte) 0x0D);
+        for (int i = 0; i < shapes.size(); i++) {
+            dbf.put((byte) (deleted.get(i) ? '*' : ' '));
+            String[] recordValues = values.get(i);
+            for (int j = 0; j < fields.size(); j++) {
+                Field field = fields.get(j);
+                putValue(dbf, recordValues[j], field.length, field.type == 'N');
+            }
+        }
+        dbf.put((byte) 0x1A);
+
+        File shpFile = new File(folder, name + ".shp");
+        writeFile(shpFile, shp.array());
+        writeFile(new File(folder, name + ".dbf"), dbf.array());
+        return shpFile;
+    }
+
+    /**
+     * Create the content of a polyline or polygon record.
+     *
+     * @param shapeType the shape type, with z if <code>zs</code> are given.
+     * @param rings     the parts as x1, y1, x2, y2...
+     * @param zs        the z values of the parts or <code>null</code>.
+     * @return the content of the record, measures are written as minus the point index.
+     */
+    public static byte[] polyRecord(int shapeType, double[][] rings, double[][] zs) {
+        int points = 0;
+        for (double[] ring : rings) {
+            points += ring.length / 2;
+        }
+        int size = 44 + 4 * rings.length + 16 * points;
+        if (zs != null) {
+            // z range and values, measure range and values
+            size += 2 * (16 + 8 * points);
+        }
+        ByteBuffer record = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(shapeType);
+        record.position(36);
+        record.putInt(rings.length);
+        record.putInt(points);
+        int start = 0;
+        for (double[] ring : rings) {
+            record.putInt(start);
+            start += ring.length / 2;
+        }
+        for (double[] ring : rings) {
+            for (double coordinate : ring) {
+                record.putDouble(coordinate);
+            }
+        }
+        if (zs != null) {
+            record.putDouble(0).putDouble(0);
+            for (double[] ringZs : zs) {
+                for (double z : ringZs) {
+                    record.putDouble(z);
+                }
+            }
+            record.putDouble(0).putDouble(0);
+            for (int i = 0; i < points; i++) {
+                record.putDouble(-i);
+            }
+        }
+        return record.array();
+    }
+
+    private static void putValue(ByteBuffer dbf, String value, int length, boolean rightAligned) {
+        StringBuilder sb = new StringBuilder();
+        if (rightAligned) {
+            for (int i = value.length(); i < length; i++) {
+                sb.append(' ');
+            }
+        }
+        sb.append(value);
+        while (sb.length() < length) {
+            sb.append(' ');
+        }
+        dbf.put(sb.substring(0, length).getBytes());
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal http server on the loopback interface, for the tests of the network code and the benchmarks.
+ * <p/>
+ * <p>Connections are kept alive unless the client or the {@link Response} asks to close
+ * them, and the accepted connections are counted.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class StubHttpServer {
+
+    /**
+     * Produces the responses of the server.
+     */
+    public interface Handler {
+        /**
+         * @param request the received request.
+         * @return the response to send.
+         * @throws Exception if something goes wrong, the connection is then closed.
+         */
+        Response handle(Request request) throws Exception;
+    }
+
+    /**
+     * A received request.
+     */
+    public static class Request {
+        /**
+         * The http method.
+         */
+        public String method;
+        /**
+         * The path, with the query string.
+         */
+        public String path;
+        /**
+         * The headers, with lower case names.
+         */
+        public final Map<String, String> headers = new HashMap<String, String>();
+        /**
+         * The body, empty if there was none.
+         */
+        public byte[] body = new byte[0];
+
+        /**
+         * @param name the name of a query parameter.
+         * @return its value or <code>null</code>.
+         */
+        public String getParameter(String name) {
+            int queryIndex = path.indexOf('?');
+            if (queryIndex == -1) {
+                return null;
+            }
+            for (String parameter : path.substring(queryIndex + 1).split("&")) {
+                int equalIndex = parameter.indexOf('=');
+                if (equalIndex != -1 && parameter.substring(0, equalIndex).equals(name)) {
+                    return parameter.substring(equalIndex + 1);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A response to send.
+     */
+    public static class Response {
+        /**
+         * The http status code.
+         */
+        public final int code;
+        /**
+         * The headers to send, <code>Content-Length</code> is added.
+         */
+        public final Map<String, String> headers = new LinkedHashMap<String, String>();
+        /**
+         * The body.
+         */
+        public final byte[] body;
+        /**
+         * If not -1, the connection is dropped after this many bytes of the body.
+         */
+        public int dropAfter = -1;
+
+        /**
+         * @param code the http status code.
+         * @param body the body.
+         */
+        public Response(int code, byte[] body) {
+            this.code = code;
+            this.body = body;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final Handler handler;
+    private final AtomicInteger acceptedConnections = new AtomicInteger();
+    private final AtomicInteger requestsCount = new AtomicInteger();
+    private final List<Socket> sockets = new ArrayList<Socket>();
+    private volatile boolean running = true;
+
+    /**
+     * Start a server on a free port.
+     *
+     * @param handler the handler of the requests.
+     * @throws IOException if the server can't be started.
+     */
+    public StubHttpServer(Handler handler) throws IOException {
+        this.handler = handler;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable(){
+            public void run() {
+                while (running) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        acceptedConnections.incrementAndGet();
+                        synchronized (sockets) {
+                            sockets.add(socket);
+                        }
+                        new Thread(new Runnable(){
+                            public void run() {
+                                serve(socket);
+                            }
+                        }, "stub http connection").start();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        }, "stub http server");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * @param path the path, starting with a slash.
+     * @return the url of the path on this server.
+     */
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    /**
+     * @return the number of connections accepted so far.
+     */
+    public int getAcceptedConnections() {
+        return acceptedConnections.get();
+    }
+
+    /**
+     * @return the number of requests received so far.
+     */
+    public int getRequestsCount() {
+        return requestsCount.get();
+    }
+
+    /**
+     * Stop the server and close its connections.
+     */
+    public void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (running) {
+                Request request = readRequest(in);
+                if (request == null) {
+                    break;
+                }
+                requestsCount.incrementAndGet();
+                Response response = handler.handle(request);
+                boolean close = "close".equalsIgnoreCase(request.headers.get("connection")) || response.dropAfter != -1;
+                StringBuilder sb = new StringBuilder();
+                sb.append("HTTP/1.1 ").append(response.code).append(" Stub\r\n");
+                for (Entry<String, String> header : response.headers.entrySet()) {
+                    sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+                }
+                sb.append("Content-Length: ").append(response.body.length).append("\r\n");
+                if (close) {
+                    sb.append("Connection: close\r\n");
+                }
+                sb.append("\r\n");
+                byte[] header = sb.toString().getBytes("US-ASCII");
+                int length = response.dropAfter == -1 ? response.body.length : response.dropAfter;
+                // a single write, so that the response is not delayed waiting for acks
+                byte[] bytes = new byte[header.length + length];
+                System.arraycopy(header, 0, bytes, 0, header.length);
+                System.arraycopy(response.body, 0, bytes, header.length, length);
+                out.write(bytes);
+                out.flush();
+                if (close) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            // the connection is dropped
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static Request readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.length() == 0) {
+            return null;
+        }
+        String[] split = requestLine.split(" ");
+        Request request = new Request();
+        request.method = split[0];
+        request.path = split[1];
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colonIndex = line.indexOf(':');
+            request.headers.put(line.substring(0, colonIndex).trim().toLowerCase(), line.substring(colonIndex + 1).trim());
+        }
+        String contentLength = request.headers.get("content-length");
+        if (contentLength != null) {
+            request.body = readFully(in, Integer.parseInt(contentLength));
+        } else if ("chunked".equalsIgnoreCase(request.headers.get("transfer-encoding"))) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int size;
+            while ((size = Integer.parseInt(readLine(in).trim(), 16)) > 0) {
+                body.write(readFully(in, size));
+                readLine(in);
+            }
+            readLine(in);
+            request.body = body.toByteArray();
+        }
+        return request;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(data, read, length - read);
+            if (count == -1) {
+                throw new IOException("Connection closed while reading the body.");
+            }
+            read = read + count;
+        }
+        return data;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = sb.length();
+                if (length > 0 && sb.charAt(length - 1) == '\r') {
+                    sb.setLength(length - 1);
+                }
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+}
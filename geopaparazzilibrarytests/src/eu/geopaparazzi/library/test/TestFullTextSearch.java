@@ -0,0 +1,95 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import eu.geopaparazzi.library.database.FullTextSearch;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link FullTextSearch} queries and ranking.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestFullTextSearch extends TestCase {
+
+    public void testNormalize() throws Exception {
+        assertEquals("", FullTextSearch.normalize(null));
+        assertEquals("fontana di trevi", FullTextSearch.normalize("Fontana di TREVI"));
+        // the turkish dotless i is not produced, whatever the locale of the device
+        assertEquals("ice", FullTextSearch.normalize("ICE"));
+    }
+
+    public void testMatchQueries() throws Exception {
+        assertEquals("fontana* di* trevi*", FullTextSearch.toMatchQuery("Fontana  di TREVI"));
+        // separators as the simple tokenizer, no syntax of the query gets through
+        assertEquals("rock* 12* b* c*", FullTextSearch.toMatchQuery("\"rock\" -12 (b_c)"));
+        assertEquals("or* near* not*", FullTextSearch.toMatchQuery("OR NEAR NOT"));
+        // non ascii letters are part of the terms
+        assertEquals("citt\u00e0* \u00fcber*", FullTextSearch.toMatchQuery("Citt\u00e0, \u00fcber"));
+        assertNull(FullTextSearch.toMatchQuery(null));
+        assertNull(FullTextSearch.toMatchQuery(" ,.; *"));
+    }
+
+    public void testScore() throws Exception {
+        // 2 phrases and 2 columns, hits in the row and in all the rows of each
+        byte[] matchinfo = matchinfo(2, 2, new int[]{2, 4, 0, 3, 1, 1, 1, 2});
+        // 2 * 2/4 + 2 * 1/1 + 1 * 1/2
+        assertEquals(3.5, FullTextSearch.score(matchinfo, new double[]{2, 1}), 1E-9);
+        // columns without weight don't count
+        assertEquals(3.0, FullTextSearch.score(matchinfo, new double[]{2}), 1E-9);
+
+        // the rarer term weighs more
+        double rare = FullTextSearch.score(matchinfo(1, 1, new int[]{1, 2}), new double[]{1});
+        double common = FullTextSearch.score(matchinfo(1, 1, new int[]{1, 50}), new double[]{1});
+        assertTrue(rare > common);
+        assertEquals(0.0, FullTextSearch.score(matchinfo(1, 1, new int[]{0, 50}), new double[]{1}), 1E-9);
+    }
+
+    public void testPages() throws Exception {
+        FullTextSearch.Match[] matches = new FullTextSearch.Match[]{new FullTextSearch.Match(1, 0.5),
+                new FullTextSearch.Match(2, 2.0), new FullTextSearch.Match(3, 0.5), new FullTextSearch.Match(4, 1.0),
+                new FullTextSearch.Match(5, 0.1)};
+        // best first, the newest first on equal scores
+        assertEquals("[2, 4, 3, 1, 5]", FullTextSearch.getPage(matches, 0, 10).toString());
+        assertEquals("[2, 4]", FullTextSearch.getPage(matches, 0, 2).toString());
+        assertEquals("[3, 1]", FullTextSearch.getPage(matches, 2, 2).toString());
+        assertEquals("[5]", FullTextSearch.getPage(matches, 4, 2).toString());
+        assertTrue(FullTextSearch.getPage(matches, 5, 2).isEmpty());
+        assertEquals("[2]", FullTextSearch.getPage(matches, -1, 1).toString());
+        assertTrue(FullTextSearch.getPage(new FullTextSearch.Match[0], 0, 10).isEmpty());
+    }
+
+    /**
+     * Build a <code>matchinfo(table, 'pcx')</code> blob, the number of rows with hits is not used.
+     */
+    private static byte[] matchinfo(int phrases, int columns, int[] hits) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * (2 + 3 * phrases * columns)).order(ByteOrder.nativeOrder());
+        buffer.putInt(phrases);
+        buffer.putInt(columns);
+        for (int i = 0; i < phrases * columns; i++) {
+            buffer.putInt(hits[2 * i]);
+            buffer.putInt(hits[2 * i + 1]);
+            buffer.putInt(hits[2 * i] > 0 ? 1 : 0);
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.OverzoomTiles;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link OverzoomTiles}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestOverzoomTiles extends TestCase {
+
+    private static final int TILE_SIZE = 16;
+
+    /**
+     * A source whose pixels tell the tile and their position in it.
+     */
+    private static class GridDecoder implements OverzoomTiles.AncestorDecoder {
+        final List<String> decoded = new ArrayList<String>();
+        boolean missing;
+        boolean failing;
+
+        public boolean decode(int zoom, int x, int y_osm, int[] pixels) throws Exception {
+            decoded.add(zoom + "/" + x + "/" + y_osm);
+            if (failing) {
+                throw new IOException("Unreadable tile");
+            }
+            if (missing) {
+                return false;
+            }
+            for (int row = 0; row < TILE_SIZE; row++) {
+                for (int column = 0; column < TILE_SIZE; column++) {
+                    pixels[row * TILE_SIZE + column] = pixel(x, y_osm, column, row);
+                }
+            }
+            return true;
+        }
+
+        static int pixel(int x, int y_osm, int column, int row) {
+            return ((x & 0xFF) << 24) | ((y_osm & 0xFF) << 16) | (row << 8) | column;
+        }
+    }
+
+    public void testChildrenAreScaledSubRegions() throws Exception {
+        OverzoomTiles overzoomTiles = new OverzoomTiles(TILE_SIZE, OverzoomTiles.DEFAULT_CAPACITY);
+        GridDecoder decoder = new GridDecoder();
+        int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+        for (int zoomDiff = 1; zoomDiff <= 3; zoomDiff++) {
+            int children = 1 << zoomDiff;
+            int subSize = TILE_SIZE / children;
+            for (int childY = 0; childY < children; childY++) {
+                for (int childX = 0; childX < children; childX++) {
+                    // the children of the ancestor 5/10/12
+                    int x = (10 << zoomDiff) + childX;
+                    int y = (12 << zoomDiff) + childY;
+                    assertTrue(overzoomTiles.fill(5 + zoomDiff, x, y, zoomDiff, decoder, pixels));
+                    for (int row = 0; row < TILE_SIZE; row++) {
+                        for (int column = 0; column < TILE_SIZE; column++) {
+                            // nearest neighbour scaling of the covered sub-region
+                            int ancestorColumn = childX * subSize + column * subSize / TILE_SIZE;
+                            int ancestorRow = childY * subSize + row * subSize / TILE_SIZE;
+                            assertEquals(GridDecoder.pixel(10, 12, ancestorColumn, ancestorRow), pixels[row
+                                    * TILE_SIZE + column]);
+                        }
+                    }
+                }
+            }
+        }
+        // a single decode for all the children of all the levels
+        assertEquals(1, overzoomTiles.getDecodes());
+        assertEquals("[5/10/12]", decoder.decoded.toString());
+    }
+
+    public void testPanningDecodesEveryAncestorOnce() throws Exception {
+        OverzoomTiles overzoomTiles = new OverzoomTiles(TILE_SIZE, OverzoomTiles.DEFAULT_CAPACITY);
+        GridDecoder decoder = new GridDecoder();
+        int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+        int zoomDiff = 2;
+        int scale = 1 << zoomDiff;
+        // a view of 4x6 tiles two levels past the source, panned east and then south a tile at a time
+        int originX = 1000;
+        int originY = 2000;
+        Set<String> ancestors = new HashSet<String>();
+        int tiles = 0;
+        for (int step = 0; step < 50; step++) {
+            if (step < 30) {
+                originX++;
+            } else {
+                originY++;
+            }
+            for (int y = originY; y < originY + 6; y++) {
+                for (int x = originX; x < originX + 4; x++) {
+                    assertTrue(overzoomTiles.fill(18 + zoomDiff, x, y, zoomDiff, decoder, pixels));
+                    ancestors.add((x / scale) + "/" + (y / scale));
+                    tiles++;
+                    // the first and last pixels come from the covered corners of the ancestor
+                    int subSize = TILE_SIZE / scale;
+                    assertEquals(GridDecoder.pixel(x / scale, y / scale, (x % scale) * subSize, (y % scale) * subSize),
+                            pixels[0]);
+                    assertEquals(GridDecoder.pixel(x / scale, y / scale, (x % scale) * subSize + subSize - 1, (y % scale)
+                            * subSize + subSize - 1), pixels[pixels.length - 1]);
+                }
+            }
+        }
+        // the ancestors in view fit in the cache, so none is decoded twice
+        assertEquals(ancestors.size(), overzoomTiles.getDecodes());
+        assertEquals(ancestors.size(), decoder.decoded.size());
+        assertTrue(overzoomTiles.getDecodes() * 10 < tiles);
+    }
+
+    public void testLeastRecentlyUsedAncestorsAreEvicted() throws Exception {
+        OverzoomTiles overzoomTiles = new OverzoomTiles(TILE_SIZE, 2);
+        GridDecoder decoder = new GridDecoder();
+        int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+        overzoomTiles.fill(10, 0, 0, 1, decoder, pixels);
+        overzoomTiles.fill(10, 2, 0, 1, decoder, pixels);
+        // the first is used again, so the second is the one to evict
+        overzoomTiles.fill(10, 1, 1, 1, decoder, pixels);
+        overzoomTiles.fill(10, 4, 0, 1, decoder, pixels);
+        overzoomTiles.fill(10, 0, 1, 1, decoder, pixels);
+        assertEquals("[9/0/0, 9/1/0, 9/2/0]", decoder.decoded.toString());
+        overzoomTiles.fill(10, 3, 1, 1, decoder, pixels);
+        assertEquals("[9/0/0, 9/1/0, 9/2/0, 9/1/0]", decoder.decoded.toString());
+        // the pixels of the reused buffers are the ones of the new ancestor
+        assertEquals(GridDecoder.pixel(1, 0, TILE_SIZE - 1, TILE_SIZE - 1), pixels[pixels.length - 1]);
+
+        overzoomTiles.clear();
+        overzoomTiles.fill(10, 3, 1, 1, decoder, pixels);
+        assertEquals(5, overzoomTiles.getDecodes());
+    }
+
+    public void testMissingAndFailedAncestorsAreNotRemembered() throws Exception {
+        OverzoomTiles overzoomTiles = new OverzoomTiles(TILE_SIZE, 2);
+        GridDecoder decoder = new GridDecoder();
+        int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+
+        decoder.missing = true;
+        assertFalse(overzoomTiles.fill(8, 4, 4, 2, decoder, pixels));
+        decoder.missing = false;
+        decoder.failing = true;
+        try {
+            overzoomTiles.fill(8, 4, 4, 2, decoder, pixels);
+            fail("The ancestor can't be read.");
+        } catch (IOException e) {
+            // expected
+        }
+        decoder.failing = false;
+        assertTrue(overzoomTiles.fill(8, 4, 4, 2, decoder, pixels));
+        assertTrue(overzoomTiles.fill(8, 5, 4, 2, decoder, pixels));
+        assertEquals("[6/1/1, 6/1/1, 6/1/1]", decoder.decoded.toString());
+        assertEquals(GridDecoder.pixel(1, 1, 4, 0), pixels[0]);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.PrefetchPlanner;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link PrefetchPlanner}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestPrefetchPlanner extends TestCase {
+
+    private static final int ZOOM = 15;
+    private static final double LON = 11.35;
+    private static final double LAT = 46.5;
+    private static final double VIEW_X = 4;
+    private static final double VIEW_Y = 6;
+
+    private PrefetchPlanner planner;
+    private int tileX;
+    private int tileY;
+
+    protected void setUp() throws Exception {
+        planner = new PrefetchPlanner();
+        tileX = (int) PrefetchPlanner.lonToTileX(LON, ZOOM);
+        tileY = (int) PrefetchPlanner.latToTileY(LAT, ZOOM);
+    }
+
+    public void testTileNumbers() throws Exception {
+        assertEquals(0.0, PrefetchPlanner.lonToTileX(-180, 1), 1E-9);
+        assertEquals(1.0, PrefetchPlanner.lonToTileX(0, 1), 1E-9);
+        assertEquals(1.0, PrefetchPlanner.latToTileY(0, 1), 1E-9);
+        // the poles are clamped to the mercator limits
+        assertEquals(0.0, PrefetchPlanner.latToTileY(90, 1), 1E-4);
+        assertEquals(2.0, PrefetchPlanner.latToTileY(-90, 1), 1E-4);
+        assertFalse(PrefetchPlanner.encode(ZOOM, 1, 2) == PrefetchPlanner.encode(ZOOM, 2, 1));
+        assertFalse(PrefetchPlanner.encode(ZOOM, 1, 2) == PrefetchPlanner.encode(ZOOM + 1, 1, 2));
+    }
+
+    public void testStandingStillPlansOnlyTheNextZoom() throws Exception {
+        List<int[]> tiles = planner.plan(ZOOM, 18, LON, LAT, 0, 0, VIEW_X, VIEW_Y, 40);
+        assertEquals((int) Math.ceil(40 * PrefetchPlanner.NEXT_ZOOM_SHARE), tiles.size());
+        for (int[] tile : tiles) {
+            assertEquals(ZOOM + 1, tile[0]);
+            // the children of the tiles around the position
+            assertTrue(Math.abs(tile[1] / 2 - tileX) <= 1);
+            assertTrue(Math.abs(tile[2] / 2 - tileY) <= 1);
+        }
+
+        // no bearing is as no movement
+        tiles = planner.plan(ZOOM, 18, LON, LAT, 10, Double.NaN, VIEW_X, VIEW_Y, 40);
+        assertEquals(10, tiles.size());
+
+        // and at the last zoom level of the source there is nothing to plan
+        assertTrue(planner.plan(ZOOM, ZOOM, LON, LAT, 0, 0, VIEW_X, VIEW_Y, 40).isEmpty());
+    }
+
+    public void testMovingNorthPlansAheadOutsideOfTheView() throws Exception {
+        // 40 m/s for 30 seconds, a bit more than a tile at this zoom level and latitude
+        List<int[]> tiles = planner.plan(ZOOM, ZOOM, LON, LAT, 40, 0, VIEW_X, VIEW_Y, 100);
+        assertFalse(tiles.isEmpty());
+        int viewTopRow = (int) Math.floor(PrefetchPlanner.latToTileY(LAT, ZOOM) - VIEW_Y / 2.0);
+        double x = PrefetchPlanner.lonToTileX(LON, ZOOM);
+        int viewLeftColumn = (int) Math.floor(x - VIEW_X / 2.0);
+        int viewRightColumn = (int) Math.floor(x + VIEW_X / 2.0);
+        int[] first = tiles.get(0);
+        int farthestRow = first[2];
+        for (int[] tile : tiles) {
+            farthestRow = Math.min(farthestRow, tile[2]);
+            assertEquals(ZOOM, tile[0]);
+            // ahead of the view, not behind or in it
+            assertTrue(tile[2] <= viewTopRow);
+            if (tile[2] == viewTopRow) {
+                assertTrue(tile[1] < viewLeftColumn || tile[1] > viewRightColumn);
+            }
+            // inside of the cone
+            assertTrue(Math.abs(tile[1] - tileX) <= VIEW_X);
+        }
+        // the nearest first, the row of the top of the view is in part beyond its sides
+        assertTrue(viewTopRow - first[2] <= 1);
+        assertTrue(farthestRow < first[2]);
+    }
+
+    public void testMovingEastPlansEastwards() throws Exception {
+        List<int[]> tiles = planner.plan(ZOOM, ZOOM, LON, LAT, 20, 90, VIEW_X, VIEW_Y, 100);
+        assertFalse(tiles.isEmpty());
+        for (int[] tile : tiles) {
+            assertTrue(tile[1] > tileX);
+        }
+    }
+
+    public void testBudgetAndDuplicates() throws Exception {
+        List<int[]> tiles = planner.plan(ZOOM, 18, LON, LAT, 30, 45, VIEW_X, VIEW_Y, 12);
+        assertEquals(12, tiles.size());
+        Set<Long> keys = new HashSet<Long>();
+        int nextZoomTiles = 0;
+        for (int[] tile : tiles) {
+            assertTrue(keys.add(PrefetchPlanner.encode(tile[0], tile[1], tile[2])));
+            if (tile[0] == ZOOM + 1) {
+                nextZoomTiles++;
+            }
+        }
+        // the cone first, then the share of the next zoom level
+        assertEquals((int) Math.ceil(12 * PrefetchPlanner.NEXT_ZOOM_SHARE), nextZoomTiles);
+        assertEquals(ZOOM, tiles.get(0)[0]);
+        assertEquals(ZOOM + 1, tiles.get(tiles.size() - 1)[0]);
+
+        assertTrue(planner.plan(ZOOM, 18, LON, LAT, 30, 45, VIEW_X, VIEW_Y, 0).isEmpty());
+    }
+
+    public void testHorizonBoundsTheDistance() throws Exception {
+        planner.setHorizonSeconds(5);
+        List<int[]> near = planner.plan(ZOOM, ZOOM, LON, LAT, 20, 0, VIEW_X, VIEW_Y, 1000);
+        planner.setHorizonSeconds(60);
+        List<int[]> far = planner.plan(ZOOM, ZOOM, LON, LAT, 20, 0, VIEW_X, VIEW_Y, 1000);
+        assertTrue(near.size() < far.size());
+
+        // never farther than a few views, however fast
+        List<int[]> fastest = planner.plan(ZOOM, ZOOM, LON, LAT, 10000, 0, VIEW_X, VIEW_Y, 100000);
+        double maxDistance = PrefetchPlanner.MAX_VIEWS_AHEAD * VIEW_Y;
+        double maxLateral = maxDistance * Math.tan(Math.toRadians(PrefetchPlanner.CONE_HALF_ANGLE));
+        for (int[] tile : fastest) {
+            assertTrue(tileY - tile[2] <= maxDistance + VIEW_Y / 2.0 + maxLateral + 1);
+        }
+    }
+
+    public void testPrefetchLowersTheMissesOfADrive() throws Exception {
+        // ten minutes of a winding drive at 25 m/s, one fix per second
+        double[][] track = new double[600][];
+        double lon = LON;
+        double lat = LAT;
+        for (int i = 0; i < track.length; i++) {
+            double bearing = 30 + 40 * Math.sin(i / 60.0);
+            track[i] = new double[]{lon, lat, 25, bearing};
+            lat += Math.cos(Math.toRadians(bearing)) * 25 / 111320.0;
+            lon += Math.sin(Math.toRadians(bearing)) * 25 / (111320.0 * Math.cos(Math.toRadians(lat)));
+        }
+
+        int missesWithout = replay(track, false);
+        int missesWith = replay(track, true);
+        assertTrue("misses without prefetch " + missesWithout + ", with " + missesWith, missesWith * 2 < missesWithout);
+    }
+
+    /**
+     * Replay a track on a view that follows it, with a tile cache as big as the ones of the map view.
+     *
+     * @return the view tiles missing from the cache when the view is drawn.
+     */
+    private int replay(double[][] track, boolean prefetch) {
+        final int capacity = 120;
+        Map<Long, Boolean> cache = new LinkedHashMap<Long, Boolean>(256, 0.75f, true){
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+        int misses = 0;
+        for (double[] fix : track) {
+            double x = PrefetchPlanner.lonToTileX(fix[0], ZOOM);
+            double y = PrefetchPlanner.latToTileY(fix[1], ZOOM);
+            for (int row = (int) Math.floor(y - VIEW_Y / 2); row <= (int) Math.floor(y + VIEW_Y / 2); row++) {
+                for (int column = (int) Math.floor(x - VIEW_X / 2); column <= (int) Math.floor(x + VIEW_X / 2); column++) {
+                    long key = PrefetchPlanner.encode(ZOOM, column, row);
+                    if (cache.get(key) == null) {
+                        misses++;
+                        cache.put(key, Boolean.TRUE);
+                    }
+                }
+            }
+            if (prefetch) {
+                // the missing tiles of the plan, at the rate of the prefetcher until the next fix
+                int fetched = 0;
+                for (int[] tile : planner.plan(ZOOM, 18, fix[0], fix[1], fix[2], fix[3], VIEW_X, VIEW_Y, 40)) {
+                    long key = PrefetchPlanner.encode(tile[0], tile[1], tile[2]);
+                    if (fetched < 2 && !cache.containsKey(key)) {
+                        cache.put(key, Boolean.TRUE);
+                        fetched++;
+                    }
+                }
+            }
+        }
+        return misses;
+    }
+
+    public void testTilesWrapAroundTheAntimeridian() throws Exception {
+        int zoom = 16;
+        List<int[]> tiles = planner.plan(zoom, zoom, 179.99, 0, 50, 90, VIEW_X, VIEW_Y, 100);
+        assertFalse(tiles.isEmpty());
+        boolean wrapped = false;
+        for (int[] tile : tiles) {
+            assertTrue(tile[1] >= 0 && tile[1] < (1 << zoom));
+            if (tile[1] < 5) {
+                wrapped = true;
+            }
+        }
+        assertTrue(wrapped);
+    }
+}
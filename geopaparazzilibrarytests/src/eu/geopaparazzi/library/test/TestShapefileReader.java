@@ -0,0 +1,239 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.ShapefileReader;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link ShapefileReader} on small shapefiles written by the test.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestShapefileReader extends TestCase {
+
+    private static final int POINT_Z = 11;
+    private static final int POLYLINE = 3;
+    private static final int POLYGON = 5;
+    private static final int POLYGON_Z = 15;
+
+    // rings as x1, y1, x2, y2...
+    private static final double[] SHELL_CW = {0, 0, 0, 10, 10, 10, 10, 0, 0, 0};
+    private static final double[] HOLE_CCW = {2, 2, 4, 2, 4, 4, 2, 2};
+    private static final double[] OTHER_SHELL_CW = {20, 0, 20, 5, 25, 5, 20, 0};
+    private static final double[] SHELL_CCW = {0, 0, 10, 0, 10, 10, 0, 10, 0, 0};
+
+    private File folder;
+
+    protected void setUp() throws Exception {
+        folder = File.createTempFile("shapefiles", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    public void testPolygonRingsAreGroupedByOrientation() throws Exception {
+        List<byte[]> records = new ArrayList<byte[]>();
+        records.add(ShapefileWriter.polyRecord(POLYGON, new double[][]{SHELL_CW, HOLE_CCW}, null));
+        records.add(ShapefileWriter.polyRecord(POLYGON, new double[][]{SHELL_CW, HOLE_CCW, OTHER_SHELL_CW}, null));
+        // a writer that does not orient the rings
+        records.add(ShapefileWriter.polyRecord(POLYGON, new double[][]{SHELL_CCW, HOLE_CCW}, null));
+        File shpFile = write("polygons", POLYGON, records, new boolean[3]);
+
+        ShapefileReader reader = new ShapefileReader(shpFile, "UTF-8");
+        try {
+            assertEquals("MULTIPOLYGON", reader.getGeometryType());
+            assertFalse(reader.hasZ());
+            assertTrue(reader.next());
+            assertEquals("6[[5, 4]]", describe(reader.getGeometry()));
+            assertTrue(reader.next());
+            assertEquals("6[[5, 4], [4]]", describe(reader.getGeometry()));
+            assertTrue(reader.next());
+            assertEquals("6[[5], [4]]", describe(reader.getGeometry()));
+            assertFalse(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testDeletedRecordsAreSkipped() throws Exception {
+        List<byte[]> records = new ArrayList<byte[]>();
+        for (int i = 0; i < 4; i++) {
+            records.add(ShapefileWriter.polyRecord(POLYLINE, new double[][]{{i, 0, i, 1}, {i, 2, i, 3, i, 4}}, null));
+        }
+        // a null shape
+        records.add(new byte[]{0, 0, 0, 0});
+        File shpFile = write("lines", POLYLINE, records, new boolean[]{false, true, true, false, false});
+
+        ShapefileReader reader = new ShapefileReader(shpFile, "UTF-8");
+        try {
+            assertEquals("MULTILINESTRING", reader.getGeometryType());
+            assertEquals(5, reader.getRecordsCount());
+            assertEquals(4, reader.getFields().size());
+            assertEquals("NAME", reader.getFields().get(0).getName());
+
+            assertTrue(reader.next());
+            assertEquals(1, reader.getRecordNumber());
+            assertEquals("5[2, 3]", describe(reader.getGeometry()));
+            assertEquals("feature 1", reader.getValue(0));
+            assertEquals(Long.valueOf(1), reader.getValue(1));
+            assertEquals(Double.valueOf(1.5), reader.getValue(2));
+            assertEquals(Long.valueOf(1), reader.getValue(3));
+
+            assertTrue(reader.next());
+            assertEquals(4, reader.getRecordNumber());
+            // the x of the first point of the first line
+            assertEquals(3.0, ByteBuffer.wrap(reader.getGeometry()).order(ByteOrder.LITTLE_ENDIAN).getDouble(18));
+            assertEquals("feature 4", reader.getValue(0));
+            assertEquals(Long.valueOf(0), reader.getValue(3));
+
+            assertTrue(reader.next());
+            assertEquals(5, reader.getRecordNumber());
+            assertNull(reader.getGeometry());
+            // empty values
+            assertNull(reader.getValue(1));
+            assertNull(reader.getValue(3));
+            assertFalse(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testZValuesAreKeptAndMeasuresDropped() throws Exception {
+        List<byte[]> records = new ArrayList<byte[]>();
+        records.add(ShapefileWriter.polyRecord(POLYGON_Z, new double[][]{SHELL_CW, HOLE_CCW}, new double[][]{
+                {100, 101, 102, 103, 100}, {200, 201, 202, 200}}));
+        File shpFile = write("polygonsz", POLYGON_Z, records, new boolean[1]);
+
+        ShapefileReader reader = new ShapefileReader(shpFile, "UTF-8");
+        try {
+            assertTrue(reader.hasZ());
+            assertTrue(reader.next());
+            byte[] wkb = reader.getGeometry();
+            assertEquals("1006[[5, 4]]", describe(wkb));
+            // multipolygon header, polygon header, rings count, points count
+            ByteBuffer buffer = ByteBuffer.wrap(wkb).order(ByteOrder.LITTLE_ENDIAN);
+            int firstPoint = 9 + 9 + 4;
+            assertEquals(0.0, buffer.getDouble(firstPoint));
+            assertEquals(10.0, buffer.getDouble(firstPoint + 8 + 24));
+            assertEquals(100.0, buffer.getDouble(firstPoint + 16));
+            assertEquals(101.0, buffer.getDouble(firstPoint + 24 + 16));
+            int hole = firstPoint + 5 * 24 + 4;
+            assertEquals(200.0, buffer.getDouble(hole + 16));
+            // no measures, the last point of the hole is the end of the geometry
+            assertEquals(hole + 4 * 24, wkb.length);
+        } finally {
+            reader.close();
+        }
+
+        records.clear();
+        ByteBuffer point = ByteBuffer.allocate(4 + 4 * 8).order(ByteOrder.LITTLE_ENDIAN);
+        point.putInt(POINT_Z).putDouble(11.5).putDouble(46.5).putDouble(1200).putDouble(-1);
+        records.add(point.array());
+        shpFile = write("pointsz", POINT_Z, records, new boolean[1]);
+        reader = new ShapefileReader(shpFile, "UTF-8");
+        try {
+            assertEquals("POINT", reader.getGeometryType());
+            assertTrue(reader.next());
+            ByteBuffer wkb = ByteBuffer.wrap(reader.getGeometry()).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(5 + 24, wkb.capacity());
+            assertEquals(1001, wkb.getInt(1));
+            assertEquals(11.5, wkb.getDouble(5));
+            assertEquals(46.5, wkb.getDouble(13));
+            assertEquals(1200.0, wkb.getDouble(21));
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testUnsupportedShapefilesAreRefused() throws Exception {
+        File shpFile = write("multipatch", 31, new ArrayList<byte[]>(), new boolean[0]);
+        try {
+            new ShapefileReader(shpFile, "UTF-8");
+            fail("Multipatches are not supported.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Describe a WKB multi geometry as its type and the points of its parts.
+     */
+    private static String describe(byte[] wkb) {
+        ByteBuffer buffer = ByteBuffer.wrap(wkb).order(ByteOrder.LITTLE_ENDIAN);
+        int type = buffer.getInt(1);
+        int pointSize = type > 1000 ? 24 : 16;
+        buffer.position(5);
+        int parts = buffer.getInt();
+        List<Object> description = new ArrayList<Object>();
+        for (int i = 0; i < parts; i++) {
+            buffer.position(buffer.position() + 5);
+            if (type % 1000 == 6) {
+                int rings = buffer.getInt();
+                List<Integer> points = new ArrayList<Integer>();
+                for (int r = 0; r < rings; r++) {
+                    int count = buffer.getInt();
+                    points.add(count);
+                    buffer.position(buffer.position() + count * pointSize);
+                }
+                description.add(points);
+            } else {
+                int count = buffer.getInt();
+                description.add(count);
+                buffer.position(buffer.position() + count * pointSize);
+            }
+        }
+        assertEquals(wkb.length, buffer.position());
+        return type + description.toString();
+    }
+
+    /**
+     * Write a shapefile with a text, an integer, a decimal and a logical field.
+     */
+    private File write(String name, int shapeType, List<byte[]> records, boolean[] deleted) throws IOException {
+        ShapefileWriter writer = new ShapefileWriter(shapeType);
+        writer.addField("NAME", 'C', 12, 0);
+        writer.addField("COUNT", 'N', 5, 0);
+        writer.addField("AREA", 'N', 8, 2);
+        writer.addField("VALID", 'L', 1, 0);
+        for (int i = 0; i < records.size(); i++) {
+            // the fifth record has empty values
+            boolean empty = i == 4;
+            writer.addRecord(records.get(i), deleted[i], "feature " + (i + 1), empty ? "" : String.valueOf(i + 1),
+                    String.valueOf(i + 1.5), empty ? "?" : (i % 3 == 0 && i > 0 ? "F" : "T"));
+        }
+        return writer.write(folder, name);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.io.WKTReader;
+
+import eu.geopaparazzi.spatialite.database.spatial.util.SnappingIndex;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link SnappingIndex}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestSnappingIndex extends TestCase {
+
+    private WKTReader wktReader;
+    private SnappingIndex index;
+
+    protected void setUp() throws Exception {
+        wktReader = new WKTReader();
+        index = new SnappingIndex(new Envelope(0, 100, 0, 100));
+    }
+
+    public void testSnapToVertexAndSegment() throws Exception {
+        index.putFeature("roads", 1, wktReader.read("LINESTRING (10 10, 20 10, 20 20)"));
+        assertEquals(2, index.getSegmentsCount());
+
+        SnappingIndex.Snap snap = index.snap(new Coordinate(20.5, 10.5), 1);
+        assertTrue(snap.isVertex);
+        assertEquals(20.0, snap.coordinate.x, 1e-9);
+        assertEquals(10.0, snap.coordinate.y, 1e-9);
+        assertEquals(Math.sqrt(0.5), snap.distance, 1e-9);
+        assertEquals("roads", snap.layer);
+        assertEquals(1, snap.featureId);
+
+        // no vertex near the middle of the first segment, the segment is snapped to
+        snap = index.snap(new Coordinate(15, 10.4), 1);
+        assertFalse(snap.isVertex);
+        assertEquals(15.0, snap.coordinate.x, 1e-9);
+        assertEquals(10.0, snap.coordinate.y, 1e-9);
+        assertEquals(0.4, snap.distance, 1e-9);
+
+        // nothing within the tolerance
+        assertNull(index.snap(new Coordinate(15, 12), 1));
+        assertNull(index.snapToVertex(new Coordinate(15, 10.4), 1));
+    }
+
+    public void testNearestFeatureWins() throws Exception {
+        index.putFeature("wells", 1, wktReader.read("POINT (50 50)"));
+        index.putFeature("wells", 2, wktReader.read("POINT (51 50)"));
+        index.putFeature("parcels", 3, wktReader.read("POLYGON ((40 40, 60 40, 60 60, 40 60, 40 40), (45 45, 55 45, 55 55, 45 55, 45 45))"));
+        // a point is a segment of length zero, the rings are four segments each
+        assertEquals(2 + 4 + 4, index.getSegmentsCount());
+
+        SnappingIndex.Snap snap = index.snapToVertex(new Coordinate(50.8, 50), 2);
+        assertEquals("wells", snap.layer);
+        assertEquals(2, snap.featureId);
+
+        // the hole of the polygon is indexed too
+        snap = index.snapToSegment(new Coordinate(50, 45.3), 1);
+        assertEquals("parcels", snap.layer);
+        assertEquals(45.0, snap.coordinate.y, 1e-9);
+    }
+
+    public void testFeaturesAreReplacedAndRemoved() throws Exception {
+        index.putFeature("roads", 1, wktReader.read("LINESTRING (10 10, 20 10)"));
+        index.putFeature("rivers", 1, wktReader.read("LINESTRING (10 30, 20 30)"));
+        assertEquals(2, index.getSegmentsCount());
+
+        // the edited feature replaces its old geometry
+        index.putFeature("roads", 1, wktReader.read("LINESTRING (10 50, 20 50, 30 50)"));
+        assertEquals(3, index.getSegmentsCount());
+        assertNull(index.snap(new Coordinate(15, 10), 1));
+        assertEquals(1, index.snap(new Coordinate(25, 50.5), 1).featureId);
+
+        // the same id in another layer is another feature
+        assertTrue(index.removeFeature("roads", 1));
+        assertFalse(index.removeFeature("roads", 1));
+        assertEquals(1, index.getSegmentsCount());
+        assertNull(index.snap(new Coordinate(25, 50), 1));
+        assertEquals("rivers", index.snap(new Coordinate(15, 30), 1).layer);
+    }
+
+    public void testSnapsMatchAScanOfAllTheFeatures() throws Exception {
+        Random random = new Random(42);
+        GeometryFactory factory = new GeometryFactory();
+        List<Geometry> geometries = new ArrayList<Geometry>();
+        for (int i = 0; i < 300; i++) {
+            Coordinate[] coordinates = new Coordinate[2 + random.nextInt(20)];
+            double x = random.nextDouble() * 100;
+            double y = random.nextDouble() * 100;
+            for (int j = 0; j < coordinates.length; j++) {
+                coordinates[j] = new Coordinate(x, y);
+                x += (random.nextDouble() - 0.5) * 4;
+                y += (random.nextDouble() - 0.5) * 4;
+            }
+            geometries.add(factory.createLineString(coordinates));
+            index.putFeature("lines", i, geometries.get(i));
+        }
+
+        double tolerance = 0.5;
+        for (int i = 0; i < 2000; i++) {
+            if (i % 10 == 0) {
+                // an edit moves a feature
+                int edited = random.nextInt(geometries.size());
+                Geometry geometry = (Geometry) geometries.get(edited).clone();
+                for (Coordinate coordinate : geometry.getCoordinates()) {
+                    coordinate.x += 0.3;
+                }
+                geometry.geometryChanged();
+                geometries.set(edited, geometry);
+                index.putFeature("lines", edited, geometry);
+            }
+            Coordinate touch = new Coordinate(random.nextDouble() * 100, random.nextDouble() * 100);
+            SnappingIndex.Snap snap = index.snap(touch, tolerance);
+
+            // the nearest vertex in tolerance, else the nearest segment
+            double vertexDistance = Double.POSITIVE_INFINITY;
+            double segmentDistance = Double.POSITIVE_INFINITY;
+            LineSegment segment = new LineSegment();
+            for (Geometry geometry : geometries) {
+                Coordinate[] coordinates = geometry.getCoordinates();
+                for (int j = 0; j < coordinates.length; j++) {
+                    vertexDistance = Math.min(vertexDistance, coordinates[j].distance(touch));
+                    if (j > 0) {
+                        segment.setCoordinates(coordinates[j - 1], coordinates[j]);
+                        segmentDistance = Math.min(segmentDistance, segment.distance(touch));
+                    }
+                }
+            }
+            if (vertexDistance <= tolerance) {
+                assertTrue(snap.isVertex);
+                assertEquals(vertexDistance, snap.distance, 1E-12);
+            } else if (segmentDistance <= tolerance) {
+                assertFalse(snap.isVertex);
+                assertEquals(segmentDistance, snap.distance, 1E-12);
+            } else {
+                assertNull(snap);
+            }
+        }
+    }
+
+    public void testCoveredArea() throws Exception {
+        assertTrue(index.covers(new Envelope(10, 20, 10, 20)));
+        assertTrue(index.covers(new Envelope(0, 100, 0, 100)));
+        assertFalse(index.covers(new Envelope(90, 110, 10, 20)));
+
+        // the index keeps its own copy of the area
+        Envelope covered = index.getCoveredEnvelope();
+        covered.expandToInclude(200, 200);
+        assertFalse(index.covers(new Envelope(90, 110, 10, 20)));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.SourceTileCache;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link SourceTileCache}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestSourceTileCache extends TestCase {
+
+    private File folder;
+    private File sourceFile;
+    private byte[] tile;
+
+    protected void setUp() throws Exception {
+        folder = File.createTempFile("tilecache", "");
+        folder.delete();
+        folder.mkdirs();
+        sourceFile = new File(folder, "osm.mapurl");
+        write(sourceFile, "url=tile.openstreetmap.org/ZZZ/XXX/YYY.png");
+        tile = new byte[1000];
+        Arrays.fill(tile, (byte) 7);
+        // a small memory, so that the tiles are also read back from disk
+        SourceTileCache.init(new File(folder, "tiles"), 1500, 1500, 1024 * 1024);
+    }
+
+    protected void tearDown() throws Exception {
+        delete(folder);
+    }
+
+    public void testTilesAreKeptPerSource() throws Exception {
+        SourceTileCache cache = SourceTileCache.getInstance();
+        SourceTileCache.Source osm = cache.getSource(sourceFile.getAbsolutePath(), sourceFile);
+        osm.put("10_1_2", tile);
+        osm.put("10_1_3", new byte[]{1, 2, 3});
+
+        File otherFile = new File(folder, "other.mapurl");
+        write(otherFile, "url=other");
+        SourceTileCache.Source other = cache.getSource(otherFile.getAbsolutePath(), otherFile);
+        assertNull(other.get("10_1_2"));
+        other.put("10_1_2", tile);
+
+        // back to the first source, its tiles have left the memory for the other one
+        osm = cache.getSource(sourceFile.getAbsolutePath(), sourceFile);
+        assertTrue(Arrays.equals(tile, osm.get("10_1_2")));
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3}, osm.get("10_1_3")));
+    }
+
+    public void testChangedSourcesAreInvalidated() throws Exception {
+        SourceTileCache cache = SourceTileCache.getInstance();
+        cache.getSource(sourceFile.getAbsolutePath(), sourceFile).put("10_1_2", tile);
+
+        // a different size, the modification time can have a resolution of seconds
+        write(sourceFile, "url=a.tile.openstreetmap.org/ZZZ/XXX/YYY.png");
+        assertNull(cache.getSource(sourceFile.getAbsolutePath(), sourceFile).get("10_1_2", true));
+    }
+
+    public void testOnlineTilesExpire() throws Exception {
+        SourceTileCache cache = SourceTileCache.getInstance();
+        SourceTileCache.Source source = cache.getSource(sourceFile.getAbsolutePath(), sourceFile, 50);
+        source.put("10_1_2", tile);
+        assertTrue(Arrays.equals(tile, source.get("10_1_2")));
+
+        Thread.sleep(100);
+        // expired, but still there for when it can't be downloaded
+        assertNull(source.get("10_1_2"));
+        assertTrue(Arrays.equals(tile, source.get("10_1_2", true)));
+
+        // the time of the download is kept on disk
+        source.put("10_1_3", tile);
+        source.put("10_1_4", tile);
+        assertNull(source.get("10_1_2"));
+        assertTrue(Arrays.equals(tile, source.get("10_1_2", true)));
+        assertTrue(Arrays.equals(tile, source.get("10_1_3")));
+
+        // downloaded again
+        source.put("10_1_2", tile);
+        assertTrue(Arrays.equals(tile, source.get("10_1_2")));
+
+        // sources that don't expire
+        source = cache.getSource(sourceFile.getAbsolutePath(), sourceFile, SourceTileCache.NO_EXPIRY);
+        Thread.sleep(100);
+        assertTrue(Arrays.equals(tile, source.get("10_1_3")));
+    }
+
+    private static void write(File file, String text) throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.geopaparazzi.library.sketch.commands.StrokeLayer;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link StrokeLayer}, on a raster that is the list of the drawn strokes.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestStrokeLayer extends TestCase {
+
+    private static class ListStrokeLayer extends StrokeLayer<String, List<String>> {
+        final List<String> raster = new ArrayList<String>();
+        int released = 0;
+        boolean noMemory = false;
+
+        ListStrokeLayer( int checkpointInterval, int maxCheckpoints ) {
+            super(checkpointInterval, maxCheckpoints);
+        }
+
+        @Override
+        protected void clear() {
+            raster.clear();
+        }
+
+        @Override
+        protected void drawStroke( String stroke ) {
+            raster.add(stroke);
+        }
+
+        @Override
+        protected List<String> takeSnapshot() {
+            if (noMemory) {
+                return null;
+            }
+            return new ArrayList<String>(raster);
+        }
+
+        @Override
+        protected void restoreSnapshot( List<String> snapshot ) {
+            raster.clear();
+            raster.addAll(snapshot);
+        }
+
+        @Override
+        protected void releaseSnapshot( List<String> snapshot ) {
+            released++;
+        }
+    }
+
+    private List<String> strokes;
+
+    protected void setUp() throws Exception {
+        strokes = new ArrayList<String>();
+    }
+
+    public void testOnlyAddedStrokesAreDrawn() throws Exception {
+        ListStrokeLayer layer = new ListStrokeLayer(3, 2);
+        addStrokes(4);
+        assertEquals(4, layer.update(strokes, Integer.MAX_VALUE));
+        assertEquals(0, layer.update(strokes, Integer.MAX_VALUE));
+
+        addStrokes(2);
+        assertEquals(2, layer.update(strokes, Integer.MAX_VALUE));
+        assertEquals(strokes, layer.raster);
+        assertEquals(6, layer.getBakedCount());
+        // a checkpoint after the third and the sixth stroke
+        assertEquals(2, layer.getCheckpointsCount());
+    }
+
+    public void testUndoRestoresTheLastValidCheckpoint() throws Exception {
+        ListStrokeLayer layer = new ListStrokeLayer(3, 5);
+        addStrokes(8);
+        layer.update(strokes, Integer.MAX_VALUE);
+
+        // undo of the last two strokes: the checkpoint after 6 strokes is still valid
+        strokes.remove(7);
+        strokes.remove(6);
+        assertEquals(0, layer.update(strokes, 6));
+        assertEquals(strokes, layer.raster);
+
+        // undo of one more: back to the checkpoint after 3 strokes and draw two again
+        strokes.remove(5);
+        assertEquals(2, layer.update(strokes, 5));
+        assertEquals(strokes, layer.raster);
+        assertEquals(1, layer.getCheckpointsCount());
+        assertEquals(1, layer.released);
+
+        // undo before the first checkpoint draws everything again
+        strokes.remove(4);
+        strokes.remove(3);
+        strokes.remove(2);
+        assertEquals(2, layer.update(strokes, 2));
+        assertEquals(strokes, layer.raster);
+        assertEquals(0, layer.getCheckpointsCount());
+
+        // a redo is just a stroke added again
+        strokes.add("redone");
+        assertEquals(1, layer.update(strokes, Integer.MAX_VALUE));
+        assertEquals(strokes, layer.raster);
+    }
+
+    public void testOldestCheckpointsAreDropped() throws Exception {
+        ListStrokeLayer layer = new ListStrokeLayer(2, 2);
+        addStrokes(10);
+        layer.update(strokes, Integer.MAX_VALUE);
+        assertEquals(2, layer.getCheckpointsCount());
+        assertEquals(3, layer.released);
+
+        // the remaining checkpoints are after 8 and 10 strokes, all is drawn again
+        while( strokes.size() > 7 ) {
+            strokes.remove(strokes.size() - 1);
+        }
+        assertEquals(7, layer.update(strokes, 7));
+        assertEquals(strokes, layer.raster);
+        // the checkpoints after 4 and 6 strokes are kept, the one after 2 is dropped again
+        assertEquals(2, layer.getCheckpointsCount());
+        assertEquals(6, layer.released);
+
+        layer.dispose();
+        assertEquals(0, layer.getCheckpointsCount());
+        assertEquals(8, layer.released);
+    }
+
+    public void testMissingSnapshotsAreSkipped() throws Exception {
+        ListStrokeLayer layer = new ListStrokeLayer(2, 3);
+        layer.noMemory = true;
+        addStrokes(5);
+        assertEquals(5, layer.update(strokes, Integer.MAX_VALUE));
+        assertEquals(0, layer.getCheckpointsCount());
+
+        strokes.remove(4);
+        assertEquals(4, layer.update(strokes, 4));
+        assertEquals(strokes, layer.raster);
+
+        layer.reset();
+        assertEquals(0, layer.getBakedCount());
+        assertTrue(layer.raster.isEmpty());
+    }
+
+    public void testScriptedSketchMatchesADrawOfAllTheStrokes() throws Exception {
+        ListStrokeLayer layer = new ListStrokeLayer(StrokeLayer.DEFAULT_CHECKPOINT_INTERVAL,
+                StrokeLayer.DEFAULT_MAX_CHECKPOINTS);
+        List<String> redoable = new ArrayList<String>();
+        int drawn = 0;
+        int redrawn = 0;
+        for (int i = 0; i < 300; i++) {
+            strokes.add("stroke" + i);
+            redoable.clear();
+            drawn += layer.update(strokes, Integer.MAX_VALUE);
+            assertEquals(strokes, layer.raster);
+            redrawn += strokes.size();
+            if (i % 25 == 24) {
+                // take back a few strokes, crossing a checkpoint every other time, and redo some
+                for (int j = 0; j < 3; j++) {
+                    int changedFrom = strokes.size() - 1;
+                    redoable.add(strokes.remove(strokes.size() - 1));
+                    drawn += layer.update(strokes, changedFrom);
+                    assertEquals(strokes, layer.raster);
+                    redrawn += strokes.size();
+                }
+                for (int j = 0; j < 2; j++) {
+                    strokes.add(redoable.remove(redoable.size() - 1));
+                    drawn += layer.update(strokes, Integer.MAX_VALUE);
+                    assertEquals(strokes, layer.raster);
+                    redrawn += strokes.size();
+                }
+            }
+        }
+        // far less than drawing all the strokes at every step
+        assertEquals(strokes.size(), layer.getBakedCount());
+        assertTrue("drawn " + drawn + " instead of " + redrawn, drawn * 10 < redrawn);
+    }
+
+    private void addStrokes( int count ) {
+        int start = strokes.size();
+        for( int i = start; i < start + count; i++ ) {
+            strokes.add("stroke" + i);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.geopaparazzi.library.network.NetworkUtilities;
+import eu.geopaparazzi.library.network.TileHttpPool;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link TileHttpPool} against a {@link StubHttpServer} that counts the connections.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestTileHttpPool extends TestCase {
+
+    private static final int MAX_PER_HOST = 3;
+
+    private byte[] tile;
+    private StubHttpServer server;
+
+    protected void setUp() throws Exception {
+        tile = new byte[20 * 1024];
+        for (int i = 0; i < tile.length; i++) {
+            tile[i] = (byte) i;
+        }
+        TileHttpPool.configure(MAX_PER_HOST, 8);
+    }
+
+    protected void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+        TileHttpPool.configure(TileHttpPool.DEFAULT_MAX_CONNECTIONS_PER_HOST, TileHttpPool.DEFAULT_MAX_CONNECTIONS);
+    }
+
+    public void testSequentialRequestsReuseOneConnection() throws Exception {
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                return new StubHttpServer.Response(200, tile);
+            }
+        });
+
+        TileHttpPool pool = TileHttpPool.getInstance();
+        for (int i = 0; i < 50; i++) {
+            TileHttpPool.Response response = pool.get(server.getUrl("/tiles/10/" + i + "/0.png"));
+            assertEquals(200, response.code);
+            assertTrue(Arrays.equals(tile, response.body));
+        }
+        assertEquals(50, server.getRequestsCount());
+        assertEquals(1, server.getAcceptedConnections());
+    }
+
+    public void testErrorResponsesAreDrainedAndTheConnectionReused() throws Exception {
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws Exception {
+                if (request.path.endsWith("missing.png")) {
+                    // an error page with a body, as most tile servers send
+                    return new StubHttpServer.Response(404, "<html>Tile not found</html>".getBytes("UTF-8"));
+                }
+                return new StubHttpServer.Response(200, tile);
+            }
+        });
+
+        TileHttpPool pool = TileHttpPool.getInstance();
+        for (int i = 0; i < 20; i++) {
+            String name = i % 2 == 0 ? "missing.png" : "tile.png";
+            TileHttpPool.Response response = pool.get(server.getUrl("/tiles/" + i + "/" + name));
+            if (i % 2 == 0) {
+                assertEquals(404, response.code);
+                assertNull(response.body);
+            } else {
+                assertEquals(200, response.code);
+                assertTrue(Arrays.equals(tile, response.body));
+            }
+        }
+        assertEquals(20, server.getRequestsCount());
+        assertEquals(1, server.getAcceptedConnections());
+    }
+
+    public void testConcurrentRequestsAreBoundedPerHost() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws Exception {
+                int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                try {
+                    Thread.sleep(5);
+                } finally {
+                    running.decrementAndGet();
+                }
+                return new StubHttpServer.Response(200, tile);
+            }
+        });
+
+        final TileHttpPool pool = TileHttpPool.getInstance();
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        final AtomicInteger downloaded = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int threadIndex = t;
+            threads[t] = new Thread(new Runnable(){
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20; i++) {
+                            TileHttpPool.Response response = pool.get(server.getUrl("/tiles/" + threadIndex + "/" + i + ".png"));
+                            if (response.code == 200 && Arrays.equals(tile, response.body)) {
+                                downloaded.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(160, downloaded.get());
+        assertTrue("running at once: " + maxRunning.get(), maxRunning.get() <= MAX_PER_HOST);
+        // the connections opened for the first requests are kept alive for all the others
+        assertTrue("connections: " + server.getAcceptedConnections(), server.getAcceptedConnections() <= MAX_PER_HOST);
+    }
+
+    public void testBatchesOfDownloadsKeepTheirConnections() throws Exception {
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                return new StubHttpServer.Response(200, tile);
+            }
+        });
+
+        // as the map view does: batches of tiles taken by more threads than the per host limit
+        final TileHttpPool pool = TileHttpPool.getInstance();
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        final AtomicInteger downloaded = new AtomicInteger();
+        int connectionsAfterFirstBatch = 0;
+        for (int batch = 0; batch < 5; batch++) {
+            final int batchIndex = batch;
+            final AtomicInteger next = new AtomicInteger();
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(new Runnable(){
+                    public void run() {
+                        int i;
+                        while ((i = next.getAndIncrement()) < 64) {
+                            try {
+                                TileHttpPool.Response response = pool.get(server.getUrl("/16/" + batchIndex + "/" + i
+                                        + ".png"));
+                                if (response.code == 200 && Arrays.equals(tile, response.body)) {
+                                    downloaded.incrementAndGet();
+                                }
+                            } catch (Exception e) {
+                                errors.add(e);
+                            }
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (batch == 0) {
+                connectionsAfterFirstBatch = server.getAcceptedConnections();
+            }
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(5 * 64, downloaded.get());
+        assertEquals(5 * 64, server.getRequestsCount());
+        assertEquals(MAX_PER_HOST, pool.getMaxConnectionsPerHost());
+        assertTrue("connections: " + server.getAcceptedConnections(),
+                server.getAcceptedConnections() <= pool.getMaxConnectionsPerHost());
+        // the later batches open no connection
+        assertEquals(connectionsAfterFirstBatch, server.getAcceptedConnections());
+    }
+
+    public void testUserAgent() throws Exception {
+        final List<String> userAgents = Collections.synchronizedList(new ArrayList<String>());
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                userAgents.add(request.headers.get("user-agent"));
+                return new StubHttpServer.Response(200, tile);
+            }
+        });
+
+        TileHttpPool.getInstance().get(server.getUrl("/tile.png"), "Geopaparazzi test");
+        assertEquals("Geopaparazzi test", userAgents.get(0));
+
+        // the tile downloads identify themselves as the former android http client did
+        byte[] bytes = NetworkUtilities.downloadBytes(server.getUrl("/tile.png"));
+        assertTrue(Arrays.equals(tile, bytes));
+        assertEquals(NetworkUtilities.USER_AGENT, userAgents.get(1));
+        assertEquals("Android", userAgents.get(1));
+    }
+}
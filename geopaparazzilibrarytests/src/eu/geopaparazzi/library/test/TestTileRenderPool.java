@@ -0,0 +1,190 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.TileRenderPool;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link TileRenderPool}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestTileRenderPool extends TestCase {
+
+    /**
+     * Keeps the last rendered job as its result.
+     */
+    private class NameRenderer implements TileRenderPool.Renderer<String> {
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        volatile String result;
+        volatile boolean cleaned;
+
+        public boolean render(String job) throws Exception {
+            threads.add(Thread.currentThread().getName());
+            CountDownLatch latch = parallelLatch;
+            if (latch != null) {
+                // all the helpers have to be rendering at the same time to get past this
+                latch.countDown();
+                if (!latch.await(5, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Not rendered in parallel");
+                }
+            }
+            if (job.startsWith("fail")) {
+                throw new IllegalArgumentException(job);
+            }
+            result = job;
+            return true;
+        }
+
+        public void cleanup() {
+            cleaned = true;
+        }
+    }
+
+    private final List<NameRenderer> created = new ArrayList<NameRenderer>();
+    private final Set<String> hidden = new HashSet<String>();
+    private volatile CountDownLatch parallelLatch;
+    private TileRenderPool<String> pool;
+
+    protected void setUp() throws Exception {
+        pool = new TileRenderPool<String>(3, new TileRenderPool.RendererFactory<String>(){
+            public TileRenderPool.Renderer<String> createRenderer() throws Exception {
+                NameRenderer renderer = new NameRenderer();
+                created.add(renderer);
+                return renderer;
+            }
+        }, new TileRenderPool.VisibilityCheck<String>(){
+            public boolean isVisible(String job) {
+                return !hidden.contains(job);
+            }
+        });
+    }
+
+    protected void tearDown() throws Exception {
+        pool.shutdown();
+    }
+
+    public void testHelpersCount() throws Exception {
+        assertEquals(2, pool.getHelpersCount());
+        assertEquals(0, new TileRenderPool<String>(1, null, null).getHelpersCount());
+        assertEquals(TileRenderPool.MAX_THREADS - 1, new TileRenderPool<String>(16, null, null).getHelpersCount());
+        int threads = TileRenderPool.getDefaultThreads();
+        assertTrue(threads >= 1 && threads <= TileRenderPool.MAX_THREADS);
+    }
+
+    public void testBatchesAreRenderedInParallelByTheSameRenderers() throws Exception {
+        parallelLatch = new CountDownLatch(2);
+        TileRenderPool.Batch<String> batch = pool.submit(Arrays.asList("12/1/1", "12/1/2"));
+        List<TileRenderPool.Renderer<String>> rendered = batch.await();
+        assertTrue(batch.getErrors().toString(), batch.getErrors().isEmpty());
+        assertEquals(2, rendered.size());
+        assertEquals("12/1/1", ((NameRenderer) rendered.get(0)).result);
+        assertEquals("12/1/2", ((NameRenderer) rendered.get(1)).result);
+        assertTrue(rendered.get(0) != rendered.get(1));
+        assertTrue(created.get(0).threads.get(0).startsWith("tile-render-helper-"));
+        assertFalse(created.get(0).threads.get(0).equals(created.get(1).threads.get(0)));
+
+        parallelLatch = null;
+        rendered = pool.submit(Arrays.asList("12/1/3")).await();
+        assertEquals(1, rendered.size());
+        assertSame(created.get(0), rendered.get(0));
+        assertEquals("12/1/3", created.get(0).result);
+        // the second renderer still holds its result
+        assertEquals("12/1/2", created.get(1).result);
+        assertEquals(2, created.size());
+    }
+
+    public void testHiddenAndFailedJobsAreDropped() throws Exception {
+        hidden.add("12/2/1");
+        TileRenderPool.Batch<String> batch = pool.submit(Arrays.asList("12/2/1", "fail 12/2/2"));
+        List<TileRenderPool.Renderer<String>> rendered = batch.await();
+        assertNull(rendered.get(0));
+        assertNull(rendered.get(1));
+        // the hidden job is not rendered at all
+        assertTrue(created.get(0).threads.isEmpty());
+        assertEquals(1, batch.getErrors().size());
+        assertTrue(batch.getErrors().get(0) instanceof IllegalArgumentException);
+
+        try {
+            pool.submit(Arrays.asList("a", "b", "c"));
+            fail("More jobs than helpers.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testAwaitIsNotInterruptible() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        TileRenderPool<String> slowPool = new TileRenderPool<String>(2, new TileRenderPool.RendererFactory<String>(){
+            public TileRenderPool.Renderer<String> createRenderer() throws Exception {
+                return new NameRenderer(){
+                    public boolean render(String job) throws Exception {
+                        started.countDown();
+                        release.await();
+                        return super.render(job);
+                    }
+                };
+            }
+        }, null);
+        try {
+            TileRenderPool.Batch<String> batch = slowPool.submit(Arrays.asList("14/1/1"));
+            started.await();
+            Thread.currentThread().interrupt();
+            new Thread(new Runnable(){
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        // go on
+                    }
+                    release.countDown();
+                }
+            }).start();
+            List<TileRenderPool.Renderer<String>> rendered = batch.await();
+            // the interrupt is kept for the caller
+            assertTrue(Thread.interrupted());
+            assertEquals("14/1/1", ((NameRenderer) rendered.get(0)).result);
+        } finally {
+            slowPool.shutdown();
+        }
+    }
+
+    public void testShutdownReleasesTheRenderers() throws Exception {
+        pool.submit(Arrays.asList("12/3/1", "12/3/2")).await();
+        pool.shutdown();
+        assertTrue(created.get(0).cleaned);
+        assertTrue(created.get(1).cleaned);
+
+        // new helpers and renderers on the next submit
+        List<TileRenderPool.Renderer<String>> rendered = pool.submit(Arrays.asList("12/3/3")).await();
+        assertEquals(3, created.size());
+        assertSame(created.get(2), rendered.get(0));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.TileSetPlanner;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link TileSetPlanner}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestTileSetPlanner extends TestCase {
+
+    public void testTmsRowsAreFlipped() throws Exception {
+        TileSetPlanner planner = new TileSetPlanner(3, 2, 1, 4, 3);
+        // at zoom 3 the tms row 5 is the osm row 7 - 5 = 2
+        planner.addTms(3, 5);
+        assertTrue(planner.contains(3, 2));
+        assertFalse(planner.contains(3, 5));
+        assertEquals(1, planner.size());
+
+        // tms row 0 is osm row 7, outside of the range
+        planner.addTms(3, 0);
+        assertEquals(1, planner.size());
+    }
+
+    public void testBoundsAreSorted() throws Exception {
+        TileSetPlanner planner = new TileSetPlanner(5, 10, 20, 8, 17);
+        assertEquals(3 * 4, planner.getTilesCount());
+        planner.add(8, 17);
+        planner.add(10, 20);
+        planner.add(11, 20);
+        assertTrue(planner.contains(8, 17));
+        assertTrue(planner.contains(10, 20));
+        assertFalse(planner.contains(11, 20));
+    }
+
+    public void testFillIsTheInverseOfTheExistingTiles() throws Exception {
+        TileSetPlanner planner = new TileSetPlanner(4, 0, 0, 2, 1);
+        planner.add(0, 0);
+        planner.add(2, 1);
+        planner.invert();
+
+        assertEquals(6 - 2, planner.size());
+        assertFalse(planner.contains(0, 0));
+        assertFalse(planner.contains(2, 1));
+        assertTrue(planner.contains(0, 1));
+
+        // visited from West to East and North to South
+        final List<String> visited = new ArrayList<String>();
+        assertTrue(planner.forEach(new TileSetPlanner.TileVisitor(){
+            public boolean visitTile(int z, int x, int y_osm) {
+                visited.add(z + "/" + x + "/" + y_osm);
+                return true;
+            }
+        }));
+        assertEquals("[4/0/1, 4/1/0, 4/1/1, 4/2/0]", visited.toString());
+
+        // inverting again gives back the existing tiles
+        planner.invert();
+        assertEquals(2, planner.size());
+        assertTrue(planner.contains(0, 0));
+    }
+
+    public void testMillionTilesPlan() throws Exception {
+        int zoom = 18;
+        int minX = 130000;
+        int minY = 90000;
+        TileSetPlanner planner = new TileSetPlanner(zoom, minX, minY, minX + 999, minY + 999);
+        assertEquals(1000000, planner.getTilesCount());
+
+        planner.addAll();
+        assertEquals(1000000, planner.size());
+
+        // a fill after a thousand tiles have been found in the database, half of them as tms rows
+        planner = new TileSetPlanner(zoom, minX, minY, minX + 999, minY + 999);
+        for (int i = 0; i < 1000; i++) {
+            if (i % 2 == 0) {
+                planner.add(minX + i, minY + i);
+            } else {
+                planner.addTms(minX + i, (1 << zoom) - 1 - (minY + i));
+            }
+        }
+        planner.invert();
+        assertEquals(999000, planner.size());
+        assertFalse(planner.contains(minX + 1, minY + 1));
+        assertTrue(planner.contains(minX + 1, minY));
+
+        final int[] count = new int[1];
+        assertTrue(planner.forEach(new TileSetPlanner.TileVisitor(){
+            public boolean visitTile(int z, int x, int y_osm) {
+                count[0]++;
+                return true;
+            }
+        }));
+        assertEquals(999000, count[0]);
+
+        // the visit stops when asked
+        count[0] = 0;
+        assertFalse(planner.forEach(new TileSetPlanner.TileVisitor(){
+            public boolean visitTile(int z, int x, int y_osm) {
+                return ++count[0] < 10;
+            }
+        }));
+        assertEquals(10, count[0]);
+    }
+
+    public void testTooBigRangesAreRefused() throws Exception {
+        try {
+            new TileSetPlanner(20, 0, 0, 1 << 13, 1 << 12);
+            fail("The range is bigger than the maximum.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        int rows = 1 << 12;
+        int columns = TileSetPlanner.getMaxColumns(rows);
+        TileSetPlanner planner = new TileSetPlanner(20, 0, 0, columns - 1, rows - 1);
+        assertEquals(TileSetPlanner.MAX_TILES, planner.getTilesCount());
+    }
+}
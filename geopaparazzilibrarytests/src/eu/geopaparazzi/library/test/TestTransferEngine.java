@@ -0,0 +1,324 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import eu.geopaparazzi.library.network.TransferEngine;
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link TransferEngine} against a {@link StubHttpServer}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestTransferEngine extends TestCase {
+
+    private byte[] content;
+    private File folder;
+    private StubHttpServer server;
+
+    protected void setUp() throws Exception {
+        content = new byte[300 * 1024];
+        new Random(29).nextBytes(content);
+        folder = File.createTempFile("transfers", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    public void testDownloadResumesAfterDroppedConnection() throws Exception {
+        final List<String> ranges = new ArrayList<String>();
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                String range = request.headers.get("range");
+                ranges.add(range);
+                if (range == null) {
+                    StubHttpServer.Response response = new StubHttpServer.Response(200, content);
+                    // the first request breaks down after a third of the file
+                    response.dropAfter = content.length / 3;
+                    return response;
+                }
+                int start = Integer.parseInt(range.replaceFirst("bytes=", "").replaceFirst("-.*", ""));
+                StubHttpServer.Response response = new StubHttpServer.Response(206,
+                        Arrays.copyOfRange(content, start, content.length));
+                response.headers.put("Content-Range", "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+                return response;
+            }
+        });
+
+        File target = new File(folder, "project.gpap");
+        TransferEngine transferEngine = new TransferEngine(null, null, null);
+        transferEngine.setRetryDelay(0);
+        transferEngine.download(server.getUrl("/download"), target);
+
+        assertTrue(Arrays.equals(content, readFile(target)));
+        assertFalse(new File(target.getPath() + TransferEngine.PART_EXT).exists());
+        assertEquals(2, ranges.size());
+        assertNull(ranges.get(0));
+        assertTrue(ranges.get(1).startsWith("bytes="));
+        assertFalse(ranges.get(1).equals("bytes=0-"));
+    }
+
+    public void testDownloadRestartsOnRangeNotSatisfiableWithoutContentRange() throws Exception {
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                if (request.headers.get("range") != null) {
+                    // no Content-Range to tell the size of the remote file
+                    return new StubHttpServer.Response(416, new byte[0]);
+                }
+                return new StubHttpServer.Response(200, content);
+            }
+        });
+
+        File target = new File(folder, "project.gpap");
+        // a part left by an older download of something else
+        writeFile(new File(target.getPath() + TransferEngine.PART_EXT), new byte[1000]);
+        TransferEngine transferEngine = new TransferEngine(null, null, null);
+        transferEngine.setRetryDelay(0);
+        transferEngine.download(server.getUrl("/download"), target);
+
+        assertTrue(Arrays.equals(content, readFile(target)));
+    }
+
+    public void testDownloadRestartsOnChecksumMismatch() throws Exception {
+        final int[] requests = new int[1];
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws Exception {
+                byte[] body = content;
+                if (requests[0]++ == 0) {
+                    // corrupted on the way
+                    body = content.clone();
+                    body[100] = (byte) (body[100] + 1);
+                }
+                StubHttpServer.Response response = new StubHttpServer.Response(200, body);
+                response.headers.put(TransferEngine.CHECKSUM_HEADER, md5Hex(content));
+                return response;
+            }
+        });
+
+        File target = new File(folder, "project.gpap");
+        TransferEngine transferEngine = new TransferEngine(null, null, null);
+        transferEngine.setRetryDelay(0);
+        transferEngine.download(server.getUrl("/download"), target);
+
+        assertEquals(2, requests[0]);
+        assertTrue(Arrays.equals(content, readFile(target)));
+    }
+
+    public void testUploadContinuesFromTheReceivedSize() throws Exception {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final int alreadyReceived = 100 * 1024;
+        received.write(content, 0, alreadyReceived);
+        final List<Long> offsets = new ArrayList<Long>();
+        final String key = md5Hex(content);
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws Exception {
+                assertEquals(key, request.getParameter("key"));
+                if (request.method.equals("GET")) {
+                    return getUploadState(received.toByteArray());
+                }
+                long offset = Long.parseLong(request.getParameter("offset"));
+                assertEquals(String.valueOf(content.length), request.getParameter("total"));
+                assertEquals(received.size(), offset);
+                offsets.add(offset);
+                received.write(request.body);
+                return new StubHttpServer.Response(200, new byte[0]);
+            }
+        });
+
+        File file = new File(folder, "changeset.gpcs");
+        writeFile(file, content);
+        TransferEngine transferEngine = new TransferEngine(null, null, null);
+        transferEngine.setRetryDelay(0);
+        transferEngine.setChunkSize(64 * 1024);
+        int responseCode = transferEngine.upload(server.getUrl("/upload"), file);
+
+        assertEquals(200, responseCode);
+        assertTrue(Arrays.equals(content, received.toByteArray()));
+        // the first 100KB are not sent again, the rest goes in 64KB parts
+        assertEquals(Long.valueOf(alreadyReceived), offsets.get(0));
+        assertEquals(4, offsets.size());
+    }
+
+    public void testUploadOfAnotherFileWithTheSameNameStartsOver() throws Exception {
+        // the server holds the complete upload of an older project with the same name
+        final byte[] olderContent = new byte[200 * 1024];
+        new Random(31).nextBytes(olderContent);
+        final String olderKey = md5Hex(olderContent);
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final List<Long> offsets = new ArrayList<Long>();
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws Exception {
+                if (request.method.equals("GET")) {
+                    if (olderKey.equals(request.getParameter("key"))) {
+                        return getUploadState(olderContent);
+                    }
+                    return getUploadState(received.toByteArray());
+                }
+                offsets.add(Long.parseLong(request.getParameter("offset")));
+                received.write(request.body);
+                return new StubHttpServer.Response(200, new byte[0]);
+            }
+        });
+
+        File file = new File(folder, "geopaparazzi.db");
+        writeFile(file, content);
+        TransferEngine transferEngine = new TransferEngine(null, null, null);
+        transferEngine.setRetryDelay(0);
+        transferEngine.upload(server.getUrl("/upload"), file);
+
+        assertEquals(Long.valueOf(0), offsets.get(0));
+        assertTrue(Arrays.equals(content, received.toByteArray()));
+    }
+
+    public void testUnconfirmedPartIsSentAgain() throws Exception {
+        final List<Long> offsets = new ArrayList<Long>();
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws Exception {
+                if (request.method.equals("GET")) {
+                    byte[] corrupted = Arrays.copyOf(content, 1000);
+                    corrupted[10] = (byte) (corrupted[10] + 1);
+                    return getUploadState(corrupted);
+                }
+                offsets.add(Long.parseLong(request.getParameter("offset")));
+                received.write(request.body);
+                return new StubHttpServer.Response(200, new byte[0]);
+            }
+        });
+
+        File file = new File(folder, "geopaparazzi.db");
+        writeFile(file, content);
+        TransferEngine transferEngine = new TransferEngine(null, null, null);
+        transferEngine.setRetryDelay(0);
+        transferEngine.upload(server.getUrl("/upload"), file);
+
+        // the held part differs from the local one
+        assertEquals(Long.valueOf(0), offsets.get(0));
+        assertTrue(Arrays.equals(content, received.toByteArray()));
+    }
+
+    public void testPartsAreSentOnlyToEndpointsThatSupportThem() throws Exception {
+        final List<String> methods = new ArrayList<String>();
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                // an endpoint that takes the whole file in one POST
+                methods.add(request.method);
+                return new StubHttpServer.Response(200, "0".getBytes());
+            }
+        });
+
+        File file = new File(folder, "geopaparazzi.db");
+        writeFile(file, content);
+        TransferEngine transferEngine = new TransferEngine(null, null, null);
+        transferEngine.setRetryDelay(0);
+        assertFalse(transferEngine.isResumeSupported(server.getUrl("/upload")));
+        try {
+            transferEngine.upload(server.getUrl("/upload"), file);
+            fail("The upload should have been refused.");
+        } catch (TransferEngine.HttpResponseException e) {
+            assertEquals(501, e.getResponseCode());
+        }
+        // no part has been posted
+        assertEquals(Arrays.asList("GET", "GET"), methods);
+    }
+
+    public void testClientErrorsAreNotRetried() throws Exception {
+        server = new StubHttpServer(new StubHttpServer.Handler(){
+            public StubHttpServer.Response handle(StubHttpServer.Request request) {
+                return new StubHttpServer.Response(403, new byte[0]);
+            }
+        });
+
+        TransferEngine transferEngine = new TransferEngine(null, null, null);
+        transferEngine.setRetryDelay(0);
+        try {
+            transferEngine.download(server.getUrl("/download"), new File(folder, "project.gpap"));
+            fail("The download should have failed.");
+        } catch (TransferEngine.HttpResponseException e) {
+            assertEquals(403, e.getResponseCode());
+        }
+        assertEquals(1, server.getRequestsCount());
+    }
+
+    /**
+     * @return the answer of a server supporting uploads in parts that holds the given bytes.
+     */
+    private static StubHttpServer.Response getUploadState(byte[] held) throws Exception {
+        String state = held.length == 0 ? "0" : held.length + " " + md5Hex(held);
+        StubHttpServer.Response response = new StubHttpServer.Response(200, state.getBytes());
+        response.headers.put(TransferEngine.RESUME_HEADER, TransferEngine.RESUME_PARTS);
+        return response;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String md5Hex(byte[] data) throws Exception {
+        byte[] digest = MessageDigest.getInstance("MD5").digest(data);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+}
@@ -54,6 +54,9 @@ import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.CustomTileTable;
 import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.GeopackageTileDownloader;
 import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.MapGeneratorInternal;
 import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.MapTable;
+import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.ParallelDatabaseRenderer;
+import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.SourceTileCache;
+import eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles.TileRenderPool;
 import eu.geopaparazzi.mapsforge.mapsdirmanager.utils.DefaultMapurls;
 import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialRasterTable;
@@ -90,6 +93,7 @@ public class MapsDirManager {
     private String selectedTableTitle = "";
     private AbstractSpatialTable selectedSpatialTable = null;
     private MapGenerator selectedMapGenerator;
+    private ParallelDatabaseRenderer mapFileRenderer;
     private double bounds_west = 180.0;
     private double bounds_south = -85.05113;
     private double bounds_east = 180.0;
@@ -135,6 +139,9 @@ public class MapsDirManager {
      * Resets the manager setting it to null.
      */
     public static void reset() {
+        if (mapsdirManager != null && mapsdirManager.mapFileRenderer != null) {
+            mapsdirManager.mapFileRenderer.cleanup();
+        }
         mapsdirManager = null;
     }
 
@@ -162,6 +169,8 @@ public class MapsDirManager {
         } catch (Throwable t) {
             GPLog.error(this, "MapsDirManager init[invalid maps directory]", t); //$NON-NLS-1$
         }
+        // tiles of the tile sources, kept across source switches
+        SourceTileCache.init(new File(context.getCacheDir(), "tiles")); //$NON-NLS-1$
         /*
          * if they do not exist add two mapurl based mapnik and opencycle
          * tile sources as default ones. They will automatically
@@ -533,7 +542,15 @@ public class MapsDirManager {
                         bounds_north = selectedMapTable.getMaxLatitude();
                         centerX = selectedMapTable.getCenterX();
                         centerY = selectedMapTable.getCenterY();
-                        clearTileCache(mapView);
+                        keepTileCacheInSession(mapView);
+                        if (mapFileRenderer == null || mapFileRenderer.getMapView() != mapView) {
+                            if (mapFileRenderer != null) {
+                                mapFileRenderer.cleanup();
+                            }
+                            mapFileRenderer = new ParallelDatabaseRenderer(mapView, TileRenderPool.getDefaultThreads());
+                        }
+                        // map files can not be set while a tile downloader is the generator
+                        mapView.setMapGenerator(mapFileRenderer);
                         mapView.setMapFile(selectedMapTable.getDatabaseFile());
                         if (selectedMapTable.getXmlFile().exists()) {
                             try {
@@ -563,7 +580,7 @@ public class MapsDirManager {
                         centerX = selectedSpatialRasterTable.getCenterX();
                         centerY = selectedSpatialRasterTable.getCenterY();
                         selectedMapGenerator = new GeopackageTileDownloader(selectedSpatialRasterTable);
-                        clearTileCache(mapView);
+                        keepTileCacheInSession(mapView);
                         mapView.setMapGenerator(selectedMapGenerator);
                     }
                 }
@@ -584,7 +601,7 @@ public class MapsDirManager {
                         centerY = selectedCustomTilesTable.getCenterY();
                         selectedMapGenerator = customTileDatabaseHandler.getCustomTileDownloader();
                         try {
-                            clearTileCache(mapView);
+                            keepTileCacheInSession(mapView);
                             mapView.setMapGenerator(selectedMapGenerator);
                             if (GPLog.LOG_HEAVY)
                                 GPLog.addLogEntry(this, "MapsDirManager -I-> MAPURL setMapGenerator[" + selectedTileSourceType
@@ -645,17 +662,19 @@ public class MapsDirManager {
     // }
 
     /**
-      * Clear MapView TileCache.
+      * Keep the MapView file system TileCache to the session.
+      * 
+      * <p>The tile caches of the map view are keyed by tile and by the map file or, for tile
+      * downloaders, the host name, which the tile downloaders set to the identity of their
+      * source. So the cached tiles of the sources do not collide and switching back to a source
+      * shows its tiles at once. The identities do not follow changes of the sources across
+      * sessions, that is left to the {@link SourceTileCache}, so the tiles are not persisted.</p>
       * 
       * @param mapView the {@link MapView}.
       */
-    private static void clearTileCache( MapView mapView ) {
-        if (mapView != null) {
-            mapView.getInMemoryTileCache().destroy();
-            if (mapView.getFileSystemTileCache().isPersistent()) {
-                mapView.getFileSystemTileCache().setPersistent(false);
-            }
-            mapView.getFileSystemTileCache().destroy();
+    private static void keepTileCacheInSession( MapView mapView ) {
+        if (mapView != null && mapView.getFileSystemTileCache().isPersistent()) {
+            mapView.getFileSystemTileCache().setPersistent(false);
         }
     }
 
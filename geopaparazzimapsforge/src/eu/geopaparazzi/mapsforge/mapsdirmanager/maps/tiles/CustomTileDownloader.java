@@ -20,7 +20,6 @@ import java.io.InputStream;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -52,6 +51,11 @@ import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.Mbtiles
 public class CustomTileDownloader extends TileDownloader {
 
     private static final int ZOOM_LEVEL_DIFF = 1;
+    /**
+     * The levels past the maximum zoom of the source that are produced from its tiles.
+     */
+    private static final int OVERZOOM_LEVELS = 2;
+    private static final int ZOOM_LIMIT = 22;
 
     private static final String YYY_STR = "YYY";
     private static final String XXX_STR = "XXX";
@@ -142,6 +146,31 @@ public class CustomTileDownloader extends TileDownloader {
     private boolean doScaleTiles;
 
     private SharedPreferences preferences;
+    private final SourceTileCache.Source tileCacheSource;
+    private final String sourceId;
+    private final OverzoomTiles overzoomTiles = new OverzoomTiles(Tile.TILE_SIZE, OverzoomTiles.DEFAULT_CAPACITY);
+    private Bitmap ancestorBitmap;
+    private final OverzoomTiles.AncestorDecoder ancestorDecoder = new OverzoomTiles.AncestorDecoder() {
+        public boolean decode(int zoom, int x, int y_osm, int[] pixels) throws Exception {
+            int tileSize = Tile.TILE_SIZE;
+            if (mbtilesDatabase != null) {
+                if (ancestorBitmap == null) {
+                    ancestorBitmap = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
+                }
+                if (mbtilesDatabase.getBitmapTile(x, y_osm, zoom, tileSize, ancestorBitmap)) {
+                    ancestorBitmap.getPixels(pixels, 0, tileSize, 0, 0, tileSize, tileSize);
+                    return true;
+                }
+            }
+            Bitmap decodedBitmap = fetchTile(zoom, x, y_osm);
+            if (decodedBitmap == null) {
+                return false;
+            }
+            decodedBitmap.getPixels(pixels, 0, tileSize, 0, 0, tileSize, tileSize);
+            decodedBitmap.recycle();
+            return true;
+        }
+    };
 
     /**
      * Constructor.
@@ -157,6 +186,10 @@ public class CustomTileDownloader extends TileDownloader {
         preferences = PreferenceManager.getDefaultSharedPreferences(context);
 
         this.name = sourceFile.getName().substring(0, sourceFile.getName().lastIndexOf("."));
+        sourceId = sourceFile.getAbsolutePath() + "@" + sourceFile.lastModified();
+        // the mapurl file only describes the server, so the downloaded tiles also expire with time
+        tileCacheSource = SourceTileCache.getInstance().getSource(sourceFile.getAbsolutePath(), sourceFile,
+                SourceTileCache.DEFAULT_ONLINE_MAX_AGE);
         List<String> fileLines = new ArrayList<String>();
         try {
             fileLines = FileUtilities.readfileToList(sourceFile);
@@ -514,8 +547,12 @@ public class CustomTileDownloader extends TileDownloader {
         // GPLog.androidLog(-1,"CustomTileDownloader parentPath[" + parentPath+ "]");
     }
 
+    /**
+     * @return the identity of the tile source, which keys its tiles in the tile caches of the map view;
+     * not the host the tiles are downloaded from, since several sources can share that.
+     */
     public String getHostName() {
-        return HOST_NAME;
+        return sourceId;
     }
 
     /**
@@ -735,6 +772,10 @@ public class CustomTileDownloader extends TileDownloader {
             tileY = tileY / (2 * ZOOM_LEVEL_DIFF);
             zoomLevel = zoomLevel - ZOOM_LEVEL_DIFF;
         }
+        return getTilePath(zoomLevel, tileX, tileY);
+    }
+
+    private String getTilePath(int zoomLevel, int tileX, int tileY) {
         if (type == TILESCHEMA.tms) {
             int[] tmsTiles = Utilities.googleTile2TmsTile(tileX, tileY, zoomLevel);
             tileX = tmsTiles[0];
@@ -758,15 +799,18 @@ public class CustomTileDownloader extends TileDownloader {
     }
 
     @Override
-    public boolean executeJob(MapGeneratorJob mapGeneratorJob, Bitmap bitmap) {
+    public synchronized boolean executeJob(MapGeneratorJob mapGeneratorJob, Bitmap bitmap) {
+        // synchronized, since the prefetcher also renders through the downloader
+        TilePrefetcher.setLastMapJob(mapGeneratorJob);
         try {
             Tile tile = mapGeneratorJob.tile;
             int tileSize = Tile.TILE_SIZE;
-            String tilePath = getTilePath(tile);
             int zoom = tile.zoomLevel;
             int tileX = (int) tile.tileX;
             int tileYOsm = (int) tile.tileY;
-            if (mbtilesDatabase != null) { // try to retrieve this tile from the active mbtiles.db
+            doScaleTiles = preferences.getBoolean("PREFS_KEY_RETINA", false);
+            int zoomDiff = getOverzoomLevels(zoom);
+            if (mbtilesDatabase != null && zoomDiff == 0) { // try to retrieve this tile from the active mbtiles.db
                 if (mbtilesDatabase.getBitmapTile(tileX, tileYOsm, zoom, tileSize, bitmap)) {
                     // tile was found and the bitmap filled, return
                     // GPLog.androidLog(-1,"CustomTileDownloader.executeJob: name["+getName()
@@ -774,61 +818,28 @@ public class CustomTileDownloader extends TileDownloader {
                     return true;
                 }
             }
-            StringBuilder sb = new StringBuilder();
-            if (!isFile && !tilePath.startsWith(HTTP_STR)) {
-                sb.append(HTTP_PROTOCOL_STR);
-            }
-            String s_host_name = HOST_NAME;
-            if (i_tile_server > 0) {
-                s_host_name = s_host_name.replaceFirst(SSS_STR, String.valueOf(i_tile_server++)); //$NON-NLS-1$
-                if (i_tile_server > 2)
-                    i_tile_server = 1;
-            }
-            sb.append(s_host_name);
-            sb.append(tilePath);
-            // GPLog.androidLog(-1,"CustomTileDownloader.executeJob: name["+getName()+"] host_name["+s_host_name+"] tilePath["+tilePath+"] ");
-            if (isFile) {
-                if (GPLog.LOG_ABSURD)
-                    GPLog.androidLog(-1, "CustomTileDownloader.executeJob: request[" + sb.toString() + "] ");
-            }
-            Bitmap decodedBitmap = null;
-
-            Context context = GPApplication.getInstance();
-            if (context != null) {
-                isConnectedToInternet = NetworkUtilities.isNetworkAvailable(context);
-            }
-            if (isConnectedToInternet || isFile) {
-                try {
-                    String urlString = sb.toString();
-                    if (isFile) {
-                        File bitmapFile = new File(urlString);
-                        if (bitmapFile.exists())
-                            decodedBitmap = BitmapFactory.decodeFile(urlString);
-                    } else {
-                        decodedBitmap = NetworkUtilities.downloadBitmap(urlString);
+            boolean isFilled;
+            try {
+                if (zoomDiff > 0) {
+                    // cut from the decoded ancestor, instead of decoding and scaling it for every child
+                    isFilled = overzoomTiles.fill(zoom, tileX, tileYOsm, zoomDiff, ancestorDecoder, this.pixels);
+                } else {
+                    Bitmap decodedBitmap = fetchTile(zoom, tileX, tileYOsm);
+                    isFilled = decodedBitmap != null;
+                    if (isFilled) {
+                        // copy all pixels from the decoded bitmap to the color array
+                        decodedBitmap.getPixels(this.pixels, 0, tileSize, 0, 0, tileSize, tileSize);
+                        // GPLog.androidLog(-1,"CustomTileDownloader.executeJob: retrieved["+i_zoom+"/"+i_tile_x+"/"+i_tile_y_osm+"] ");
+                        decodedBitmap.recycle();
                     }
-                    if (doScaleTiles && type != TILESCHEMA.wms)
-                        decodedBitmap = resize(decodedBitmap, tileX, tileYOsm, ZOOM_LEVEL_DIFF, tileSize);
-                } catch (Exception e) {
-                    // ignore and set the image as empty
-                    if (GPLog.LOG_HEAVY)
-                        GPLog.addLogEntry(this, "Could not find image: " + sb.toString()); //$NON-NLS-1$
-                    return false;
                 }
+            } catch (Exception e) {
+                // ignore and set the image as empty
+                if (GPLog.LOG_HEAVY)
+                    GPLog.addLogEntry(this, "Could not find image: " + zoom + "/" + tileX + "/" + tileYOsm); //$NON-NLS-1$
+                return false;
             }
-            // check if the input stream could be decoded into a bitmap
-            if (decodedBitmap != null) {
-                if (mbtilesDatabase != null) {
-                    // we have a valid image, store this to the active mbtiles.db
-                    // [this must be done before recycle() is called]
-                    // decodedBitmap == ARGB_8888 ; bitmap == RGB_565
-                    mbtilesDatabase.insertBitmapTile(tileX, tileYOsm, zoom, decodedBitmap, i_force_unique);
-                }
-                // copy all pixels from the decoded bitmap to the color array
-                decodedBitmap.getPixels(this.pixels, 0, tileSize, 0, 0, tileSize, tileSize);
-                // GPLog.androidLog(-1,"CustomTileDownloader.executeJob: retrieved["+i_zoom+"/"+i_tile_x+"/"+i_tile_y_osm+"] ");
-                decodedBitmap.recycle();
-            } else {
+            if (!isFilled) {
                 for (int i = 0; i < pixels.length; i++) {
                     pixels[i] = Color.WHITE;
                 }
@@ -836,29 +847,113 @@ public class CustomTileDownloader extends TileDownloader {
             // copy all pixels from the color array to the tile bitmap
             bitmap.setPixels(this.pixels, 0, tileSize, 0, 0, tileSize, tileSize);
             return true;
-        } catch (UnknownHostException e) {
-            GPLog.error(this, null, e);
-            return false;
         } catch (IOException e) {
             GPLog.error(this, null, e);
             return false;
         }
     }
 
-    private static Bitmap resize(Bitmap bitmap, final int rx, final int ry, final int zoomLevelDiff, int mTileSizePixels) {
-        int px = rx % (2 * zoomLevelDiff);
-        int py = ry % (2 * zoomLevelDiff);
-        Bitmap scaledBitmap = Bitmap.createScaledBitmap(bitmap, //
-                (mTileSizePixels * 2) * zoomLevelDiff, //
-                (mTileSizePixels * 2) * zoomLevelDiff, false);
-        int x = (px == 0) ? 0 : mTileSizePixels * px;
-        int y = (py == 0) ? 0 : mTileSizePixels * py;
-        Bitmap bitmapResized = Bitmap.createBitmap(scaledBitmap, x, y, mTileSizePixels, mTileSizePixels);
-        return bitmapResized;
+    /**
+     * Get the levels between a zoom level and the one of the source tiles to show at it.
+     * <p/>
+     * <p>Past the maximum zoom of the source and with scaled tiles, the tiles are
+     * produced from an ancestor. Wms servers render any zoom level.</p>
+     *
+     * @param zoom the zoom level of the view.
+     * @return the levels up to the ancestor or 0 if the tile is read from the source.
+     */
+    private int getOverzoomLevels(int zoom) {
+        if (type == TILESCHEMA.wms) {
+            return 0;
+        }
+        int zoomDiff = Math.max(0, zoom - ZOOM_MAX);
+        if (doScaleTiles) {
+            zoomDiff += ZOOM_LEVEL_DIFF;
+        }
+        return Math.min(zoomDiff, zoom);
+    }
+
+    /**
+     * Read a tile of the source, storing it in the active mbtiles.db.
+     *
+     * @param zoom     the zoom level.
+     * @param tileX    the tile column.
+     * @param tileYOsm the tile row in osm notation.
+     * @return the decoded tile or <code>null</code> if not available.
+     * @throws IOException if the tile could not be stored.
+     */
+    private Bitmap fetchTile(int zoom, int tileX, int tileYOsm) throws IOException {
+        String tilePath = getTilePath(zoom, tileX, tileYOsm);
+        StringBuilder sb = new StringBuilder();
+        if (!isFile && !tilePath.startsWith(HTTP_STR)) {
+            sb.append(HTTP_PROTOCOL_STR);
+        }
+        String s_host_name = HOST_NAME;
+        if (i_tile_server > 0) {
+            s_host_name = s_host_name.replaceFirst(SSS_STR, String.valueOf(i_tile_server++)); //$NON-NLS-1$
+            if (i_tile_server > 2)
+                i_tile_server = 1;
+        }
+        sb.append(s_host_name);
+        sb.append(tilePath);
+        // GPLog.androidLog(-1,"CustomTileDownloader.executeJob: name["+getName()+"] host_name["+s_host_name+"] tilePath["+tilePath+"] ");
+        if (isFile) {
+            if (GPLog.LOG_ABSURD)
+                GPLog.androidLog(-1, "CustomTileDownloader.executeJob: request[" + sb.toString() + "] ");
+        }
+        Bitmap decodedBitmap = null;
+        String tileKey = zoom + "_" + tileX + "_" + tileYOsm;
+
+        Context context = GPApplication.getInstance();
+        if (context != null) {
+            isConnectedToInternet = NetworkUtilities.isNetworkAvailable(context);
+        }
+        if (!isFile) {
+            // downloaded before, also when this source was not the selected one, expired tiles only when offline
+            byte[] cachedBytes = tileCacheSource.get(tileKey, !isConnectedToInternet);
+            if (cachedBytes != null) {
+                decodedBitmap = BitmapFactory.decodeByteArray(cachedBytes, 0, cachedBytes.length);
+            }
+        }
+        String urlString = sb.toString();
+        if (isFile) {
+            File bitmapFile = new File(urlString);
+            if (bitmapFile.exists())
+                decodedBitmap = BitmapFactory.decodeFile(urlString);
+        } else if (decodedBitmap == null && isConnectedToInternet) {
+            byte[] tileBytes = NetworkUtilities.downloadBytes(urlString);
+            if (tileBytes != null) {
+                decodedBitmap = BitmapFactory.decodeByteArray(tileBytes, 0, tileBytes.length);
+                if (decodedBitmap != null) {
+                    tileCacheSource.put(tileKey, tileBytes);
+                }
+            }
+            if (decodedBitmap == null) {
+                // the server did not answer, better the expired tile than none
+                byte[] expiredBytes = tileCacheSource.get(tileKey, true);
+                if (expiredBytes != null) {
+                    decodedBitmap = BitmapFactory.decodeByteArray(expiredBytes, 0, expiredBytes.length);
+                }
+            }
+        }
+        if (decodedBitmap != null && mbtilesDatabase != null) {
+            // we have a valid image, store this to the active mbtiles.db
+            // [this must be done before recycle() is called]
+            // decodedBitmap == ARGB_8888 ; bitmap == RGB_565
+            mbtilesDatabase.insertBitmapTile(tileX, tileYOsm, zoom, decodedBitmap, i_force_unique);
+        }
+        return decodedBitmap;
     }
 
     // TODO mj10777: check if this is safe after final has been removed from TileDownloader
     public void cleanup() {
+        synchronized (this) {
+            overzoomTiles.clear();
+            if (ancestorBitmap != null) {
+                ancestorBitmap.recycle();
+                ancestorBitmap = null;
+            }
+        }
         if (mbtilesDatabase != null) {
             try {
                 mbtilesDatabase.close();
@@ -870,7 +965,11 @@ public class CustomTileDownloader extends TileDownloader {
     }
 
     public byte getZoomLevelMax() {
-        return ZOOM_MAX;
+        if (type == TILESCHEMA.wms) {
+            return ZOOM_MAX;
+        }
+        // the levels past the source are produced from its tiles
+        return (byte) Math.min(ZOOM_LIMIT, ZOOM_MAX + OVERZOOM_LEVELS);
     }
 
     /**
@@ -33,6 +33,7 @@ import eu.geopaparazzi.spatialite.database.spatial.core.daos.SPL_Rasterlite;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialDataType;
+import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.Rasterlite2TileCache;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialRasterTable;
 import jsqlite.Database;
 
@@ -51,6 +52,9 @@ public class GeopackageTileDownloader extends TileDownloader {
     private String tilePart;
     private AbstractSpatialDatabaseHandler spatialDatabaseHandler;
     private Database spatialiteDatabase;
+    private SourceTileCache.Source tileCacheSource;
+    private final String sourceId;
+    private Rasterlite2TileCache rasterlite2TileCache;
 
     public GeopackageTileDownloader(SpatialRasterTable table) throws jsqlite.Exception {
         super();
@@ -62,16 +66,28 @@ public class GeopackageTileDownloader extends TileDownloader {
         if (mapType == SpatialDataType.RASTERLITE2) {
             SpatialiteDatabaseHandler databaseHandler = (SpatialiteDatabaseHandler) spatialDatabaseHandler;
             spatialiteDatabase = databaseHandler.getDatabase();
+            rasterlite2TileCache = Rasterlite2TileCache.getInstance(rasterTable.getDatabaseFile());
         }
 
         ZOOM_MAX = (byte) rasterTable.getMaxZoom();
         ZOOM_MIN = (byte) rasterTable.getMinZoom();
 
+        sourceId = rasterTable.getDatabasePath() + "#" + rasterTable.getTableName() + "@"
+                + rasterTable.getDatabaseFile().lastModified();
+
         tilePart = rasterTable.getTileQuery();
+        if (rasterlite2TileCache == null) {
+            // rendered rasterlite2 tiles are persisted in their own sidecar
+            tileCacheSource = SourceTileCache.getInstance().getSource(
+                    rasterTable.getDatabasePath() + "#" + rasterTable.getTableName(), rasterTable.getDatabaseFile());
+        }
     }
 
+    /**
+     * @return the identity of the tile source, which keys its tiles in the tile caches of the map view.
+     */
     public String getHostName() {
-        return "";
+        return sourceId;
     }
 
     public String getProtocol() {
@@ -101,10 +117,13 @@ public class GeopackageTileDownloader extends TileDownloader {
     }
 
     @Override
-    public boolean executeJob(MapGeneratorJob mapGeneratorJob, Bitmap bitmap) {
+    public synchronized boolean executeJob(MapGeneratorJob mapGeneratorJob, Bitmap bitmap) {
+        // synchronized, since the prefetcher also renders through the downloader
+        TilePrefetcher.setLastMapJob(mapGeneratorJob);
         try {
             Tile tile = mapGeneratorJob.tile;
             int tileSize = Tile.TILE_SIZE;
+            String tileKey = tile.zoomLevel + "_" + tile.tileX + "_" + tile.tileY;
             byte[] rasterBytes = null;
             String tileQuery;
             if (mapType == SpatialDataType.RASTERLITE2) {
@@ -112,11 +131,32 @@ public class GeopackageTileDownloader extends TileDownloader {
                 int zoomLevel = tile.zoomLevel;
                 int tileX = (int) tile.tileX;
                 int tileY = (int) tile.tileY;
-                double[] tileBounds = Utilities.tileLatLonBounds(tileX, tileY, zoomLevel, Tile.TILE_SIZE);
-                rasterBytes = SPL_Rasterlite.getRasterTileInBounds(spatialiteDatabase, rasterTable, tileBounds, tileSize);
+                String coverageName = rasterTable.getTableName();
+                if (rasterlite2TileCache != null && !rasterlite2TileCache.isOpen()) {
+                    // closed together with the databases, take the one opened again
+                    rasterlite2TileCache = Rasterlite2TileCache.getInstance(rasterTable.getDatabaseFile());
+                }
+                if (rasterlite2TileCache != null) {
+                    rasterBytes = rasterlite2TileCache.getTile(coverageName, SPL_Rasterlite.TILE_STYLE, tileX, tileY,
+                            zoomLevel);
+                }
+                if (rasterBytes == null) {
+                    double[] tileBounds = Utilities.tileLatLonBounds(tileX, tileY, zoomLevel, Tile.TILE_SIZE);
+                    rasterBytes = SPL_Rasterlite.getRasterTileInBounds(spatialiteDatabase, rasterTable, tileBounds, tileSize);
+                    if (rasterBytes != null && rasterlite2TileCache != null) {
+                        rasterlite2TileCache.putTile(coverageName, SPL_Rasterlite.TILE_STYLE, tileX, tileY, zoomLevel,
+                                rasterBytes);
+                    }
+                }
             } else {
                 tileQuery = getTilePath(tile);
-                rasterBytes = spatialDatabaseHandler.getRasterTile(tileQuery);
+                rasterBytes = tileCacheSource.get(tileKey);
+                if (rasterBytes == null) {
+                    rasterBytes = spatialDatabaseHandler.getRasterTile(tileQuery);
+                    if (rasterBytes != null) {
+                        tileCacheSource.put(tileKey, rasterBytes);
+                    }
+                }
             }
             Bitmap decodedBitmap = null;
             if(rasterBytes!=null) {
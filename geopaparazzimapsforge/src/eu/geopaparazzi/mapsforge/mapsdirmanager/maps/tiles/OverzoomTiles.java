@@ -0,0 +1,158 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Produces the tiles of zoom levels a source does not have from their decoded ancestors.
+ * <p/>
+ * <p>The pixels of the recently decoded ancestor tiles are kept, so that all the children of
+ * an ancestor, up to 4 per level of difference, are cut from a single decode. A child is the
+ * sub-region of the ancestor that it covers, scaled up with the nearest neighbour, as
+ * <code>Bitmap.createScaledBitmap</code> without filter does. The pixel arrays of evicted
+ * ancestors are reused for the next decodes and the child pixels are written into the buffer
+ * of the caller, so no bitmaps are created per child.</p>
+ * <p/>
+ * <p>Tiles are in osm notation. Not thread safe, it is used by the synchronized job
+ * execution of the tile downloaders.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class OverzoomTiles {
+    /**
+     * The default number of decoded ancestors kept.
+     */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * Decodes the tiles of the source.
+     */
+    public interface AncestorDecoder {
+        /**
+         * Decode a tile of the source.
+         *
+         * @param zoom   the zoom level, never past the maximum of the source.
+         * @param x      the tile column.
+         * @param y_osm  the tile row in osm notation.
+         * @param pixels the array to fill with the argb pixels of the tile, row by row.
+         * @return <code>false</code> if the source has no such tile.
+         * @throws Exception if the tile could not be read, in which case it is not remembered.
+         */
+        boolean decode(int zoom, int x, int y_osm, int[] pixels) throws Exception;
+    }
+
+    private final int tileSize;
+    private final int capacity;
+    private final LinkedHashMap<Long, int[]> ancestors = new LinkedHashMap<Long, int[]>(16, 0.75f, true);
+    private int[] spare;
+    private long decodes;
+
+    /**
+     * Constructor.
+     *
+     * @param tileSize the size of the tiles in pixels.
+     * @param capacity the number of decoded ancestors to keep.
+     */
+    public OverzoomTiles(int tileSize, int capacity) {
+        this.tileSize = tileSize;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Fill the pixels of a tile from its ancestor.
+     *
+     * @param zoom      the zoom level of the tile.
+     * @param x         the tile column.
+     * @param y_osm     the tile row in osm notation.
+     * @param zoomDiff  the levels between the tile and the ancestor to use.
+     * @param decoder   the decoder of the ancestor, if it is not kept.
+     * @param pixels    the array to fill with the pixels of the tile.
+     * @return <code>false</code> if the source has no ancestor tile.
+     * @throws Exception if the ancestor could not be read.
+     */
+    public boolean fill(int zoom, int x, int y_osm, int zoomDiff, AncestorDecoder decoder, int[] pixels)
+            throws Exception {
+        int ancestorZoom = zoom - zoomDiff;
+        int ancestorX = x >> zoomDiff;
+        int ancestorY = y_osm >> zoomDiff;
+        int[] ancestor = getAncestor(ancestorZoom, ancestorX, ancestorY, decoder);
+        if (ancestor == null) {
+            return false;
+        }
+        // the sub-region of the ancestor covered by the tile, in pixels of the tile
+        int mask = (1 << zoomDiff) - 1;
+        int offsetX = (x & mask) * tileSize;
+        int offsetY = (y_osm & mask) * tileSize;
+        for (int row = 0; row < tileSize; row++) {
+            int sourceRow = ((offsetY + row) >> zoomDiff) * tileSize;
+            int targetRow = row * tileSize;
+            for (int column = 0; column < tileSize; column++) {
+                pixels[targetRow + column] = ancestor[sourceRow + ((offsetX + column) >> zoomDiff)];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of ancestors decoded so far.
+     */
+    public long getDecodes() {
+        return decodes;
+    }
+
+    /**
+     * Forget the decoded ancestors.
+     */
+    public void clear() {
+        ancestors.clear();
+        spare = null;
+    }
+
+    private int[] getAncestor(int zoom, int x, int y_osm, AncestorDecoder decoder) throws Exception {
+        Long key = PrefetchPlanner.encode(zoom, x, y_osm);
+        int[] ancestor = ancestors.get(key);
+        if (ancestor != null) {
+            return ancestor;
+        }
+        int[] buffer = spare != null ? spare : new int[tileSize * tileSize];
+        spare = null;
+        decodes++;
+        boolean found = false;
+        try {
+            found = decoder.decode(zoom, x, y_osm, buffer);
+        } finally {
+            if (!found) {
+                // missing tiles are not remembered, they might be available later
+                spare = buffer;
+            }
+        }
+        if (!found) {
+            return null;
+        }
+        if (ancestors.size() >= capacity) {
+            Iterator<Map.Entry<Long, int[]>> iterator = ancestors.entrySet().iterator();
+            spare = iterator.next().getValue();
+            iterator.remove();
+        }
+        ancestors.put(key, buffer);
+        return buffer;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles;
+
+import android.graphics.Bitmap;
+
+import org.mapsforge.android.maps.MapView;
+import org.mapsforge.android.maps.MapViewPosition;
+import org.mapsforge.android.maps.mapgenerator.JobQueue;
+import org.mapsforge.android.maps.mapgenerator.MapGeneratorJob;
+import org.mapsforge.android.maps.mapgenerator.TileCache;
+import org.mapsforge.android.maps.mapgenerator.databaserenderer.DatabaseRenderer;
+import org.mapsforge.core.model.GeoPoint;
+import org.mapsforge.core.model.Tile;
+import org.mapsforge.core.util.MercatorProjection;
+import org.mapsforge.map.reader.MapDatabase;
+import org.mapsforge.map.reader.header.FileOpenResult;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * A {@link DatabaseRenderer} for mapsforge map files that renders several tiles at once.
+ * <p/>
+ * <p>The map view renders its tiles one at a time in a single thread. When that thread
+ * asks for a tile, the next tiles are taken from the job queue of the view and rendered
+ * by the helpers of a {@link TileRenderPool}, each with its own renderer and map database,
+ * while the tile asked for is rendered in the thread of the view. The tiles of the helpers
+ * are then delivered to the view as it does with its own.</p>
+ * <p/>
+ * <p>Tiles that are already cached or no longer visible are dropped. Labels are placed by
+ * every renderer on its own, so a label on the border of tiles rendered by different
+ * renderers can be clipped.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class ParallelDatabaseRenderer extends DatabaseRenderer {
+    private final MapView mapView;
+    private final TileRenderPool<MapGeneratorJob> renderPool;
+
+    /**
+     * A helper renderer reading its own map database.
+     */
+    private class HelperRenderer implements TileRenderPool.Renderer<MapGeneratorJob> {
+        private final DatabaseRenderer renderer = new DatabaseRenderer();
+        private final MapDatabase mapDatabase = new MapDatabase();
+        private File mapFile;
+        private Bitmap tileBitmap;
+
+        public boolean render(MapGeneratorJob job) {
+            File currentMapFile = mapView.getMapFile();
+            if (currentMapFile == null) {
+                return false;
+            }
+            if (!currentMapFile.equals(mapFile)) {
+                mapDatabase.closeFile();
+                mapFile = null;
+                FileOpenResult fileOpenResult = mapDatabase.openFile(currentMapFile);
+                if (!fileOpenResult.isSuccess()) {
+                    GPLog.androidLog(4, "ParallelDatabaseRenderer: unable to open " + currentMapFile + ": " //$NON-NLS-1$ //$NON-NLS-2$
+                            + fileOpenResult.getErrorMessage());
+                    return false;
+                }
+                mapFile = currentMapFile;
+                renderer.setMapDatabase(mapDatabase);
+            }
+            if (tileBitmap == null) {
+                tileBitmap = Bitmap.createBitmap(Tile.TILE_SIZE, Tile.TILE_SIZE, Bitmap.Config.RGB_565);
+            }
+            return renderer.executeJob(job, tileBitmap);
+        }
+
+        public void cleanup() {
+            renderer.cleanup();
+            mapDatabase.closeFile();
+            if (tileBitmap != null) {
+                tileBitmap.recycle();
+                tileBitmap = null;
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param mapView the view to render for.
+     * @param threads the rendering threads, including the one of the view.
+     */
+    public ParallelDatabaseRenderer(MapView mapView, int threads) {
+        super();
+        this.mapView = mapView;
+        renderPool = new TileRenderPool<MapGeneratorJob>(threads, new TileRenderPool.RendererFactory<MapGeneratorJob>() {
+            public TileRenderPool.Renderer<MapGeneratorJob> createRenderer() {
+                return new HelperRenderer();
+            }
+        }, new TileRenderPool.VisibilityCheck<MapGeneratorJob>() {
+            public boolean isVisible(MapGeneratorJob job) {
+                return isTileVisible(job.tile);
+            }
+        });
+    }
+
+    /**
+     * @return the view rendered for.
+     */
+    public MapView getMapView() {
+        return mapView;
+    }
+
+    @Override
+    public boolean executeJob(MapGeneratorJob mapGeneratorJob, Bitmap bitmap) {
+        List<MapGeneratorJob> helperJobs = pollHelperJobs();
+        TileRenderPool.Batch<MapGeneratorJob> batch = null;
+        if (!helperJobs.isEmpty()) {
+            try {
+                batch = renderPool.submit(helperJobs);
+            } catch (Exception e) {
+                GPLog.error(this, "ParallelDatabaseRenderer.executeJob", e); //$NON-NLS-1$
+                // they are requested again on the next redraw
+                helperJobs.clear();
+            }
+        }
+        boolean success = super.executeJob(mapGeneratorJob, bitmap);
+        if (batch != null) {
+            List<TileRenderPool.Renderer<MapGeneratorJob>> rendered = batch.await();
+            for (Exception e : batch.getErrors()) {
+                GPLog.error(this, "ParallelDatabaseRenderer.executeJob", e); //$NON-NLS-1$
+            }
+            if (!Thread.currentThread().isInterrupted()) {
+                for (int i = 0; i < rendered.size(); i++) {
+                    HelperRenderer helper = (HelperRenderer) rendered.get(i);
+                    if (helper != null) {
+                        deliver(helperJobs.get(i), helper.tileBitmap);
+                    }
+                }
+            }
+        }
+        return success;
+    }
+
+    @Override
+    public void cleanup() {
+        renderPool.shutdown();
+        super.cleanup();
+    }
+
+    /**
+     * Take from the queue of the view the jobs of the helpers, skipping the tiles that are not needed.
+     */
+    private List<MapGeneratorJob> pollHelperJobs() {
+        List<MapGeneratorJob> jobs = new ArrayList<MapGeneratorJob>();
+        JobQueue jobQueue = mapView.getJobQueue();
+        TileCache inMemoryTileCache = mapView.getInMemoryTileCache();
+        TileCache fileSystemTileCache = mapView.getFileSystemTileCache();
+        while (jobs.size() < renderPool.getHelpersCount()) {
+            MapGeneratorJob job = jobQueue.poll();
+            if (job == null) {
+                break;
+            }
+            if (inMemoryTileCache.containsKey(job) || fileSystemTileCache.containsKey(job) || !isTileVisible(job.tile)) {
+                continue;
+            }
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    /**
+     * Hand a rendered tile to the view, as its map worker does.
+     */
+    private void deliver(MapGeneratorJob job, Bitmap tileBitmap) {
+        if (mapView.getFrameBuffer().drawBitmap(job.tile, tileBitmap)) {
+            mapView.getInMemoryTileCache().put(job, tileBitmap);
+        }
+        mapView.postInvalidate();
+        mapView.getFileSystemTileCache().put(job, tileBitmap);
+    }
+
+    /**
+     * @return <code>true</code> if the tile is at the zoom level of the view and inside it, with a tile of margin.
+     */
+    private boolean isTileVisible(Tile tile) {
+        MapViewPosition mapPosition = mapView.getMapPosition();
+        byte zoomLevel = mapPosition.getZoomLevel();
+        if (tile.zoomLevel != zoomLevel) {
+            return false;
+        }
+        GeoPoint mapCenter = mapPosition.getMapCenter();
+        if (mapCenter == null || mapView.getWidth() <= 0 || mapView.getHeight() <= 0) {
+            return true;
+        }
+        double centerX = MercatorProjection.longitudeToPixelX(mapCenter.getLongitude(), zoomLevel);
+        double centerY = MercatorProjection.latitudeToPixelY(mapCenter.getLatitude(), zoomLevel);
+        double halfWidth = mapView.getWidth() / 2.0 + Tile.TILE_SIZE;
+        double halfHeight = mapView.getHeight() / 2.0 + Tile.TILE_SIZE;
+        double left = tile.getPixelX();
+        double top = tile.getPixelY();
+        return left + Tile.TILE_SIZE > centerX - halfWidth && left < centerX + halfWidth
+                && top + Tile.TILE_SIZE > centerY - halfHeight && top < centerY + halfHeight;
+    }
+}
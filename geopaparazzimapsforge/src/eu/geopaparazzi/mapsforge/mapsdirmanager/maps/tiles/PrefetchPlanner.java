@@ -0,0 +1,201 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Plans the tiles to prefetch ahead of a moving position.
+ * <p/>
+ * <p>The view is assumed to follow the position, so the tiles that will be needed
+ * are the ones of the views centered on the positions expected along the bearing,
+ * within a cone that widens with the distance since the bearing can change.
+ * The tiles of the next zoom level around the position come after those.
+ * Tiles already in the current view are left out, the nearest tiles come first.</p>
+ * <p/>
+ * <p>Tiles are in osm notation.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class PrefetchPlanner {
+    /**
+     * The seconds of movement to look ahead.
+     */
+    public static final double DEFAULT_HORIZON_SECONDS = 30;
+    /**
+     * The speed in m/s below which the bearing is not trusted.
+     */
+    public static final double MIN_SPEED = 1.0;
+    /**
+     * The half angle of the cone in degrees.
+     */
+    public static final double CONE_HALF_ANGLE = 20;
+    /**
+     * The farthest look ahead, in views.
+     */
+    public static final double MAX_VIEWS_AHEAD = 3;
+    /**
+     * The share of the tiles budget given to the next zoom level.
+     */
+    public static final double NEXT_ZOOM_SHARE = 0.25;
+
+    private static final double EARTH_CIRCUMFERENCE = 40075016.686;
+
+    private double horizonSeconds = DEFAULT_HORIZON_SECONDS;
+
+    /**
+     * @param horizonSeconds the seconds of movement to look ahead.
+     */
+    public void setHorizonSeconds(double horizonSeconds) {
+        this.horizonSeconds = horizonSeconds;
+    }
+
+    /**
+     * Plan the tiles to prefetch.
+     *
+     * @param zoom        the zoom level of the view.
+     * @param maxZoom     the maximum zoom level of the tile source.
+     * @param lon         the longitude of the position.
+     * @param lat         the latitude of the position.
+     * @param speed       the speed in m/s.
+     * @param bearing     the bearing in degrees from north, clockwise.
+     * @param viewTilesX  the width of the view in tiles.
+     * @param viewTilesY  the height of the view in tiles.
+     * @param maxTiles    the maximum number of tiles to plan.
+     * @return the tiles as <code>{zoom, x, y_osm}</code>, in fetch order.
+     */
+    public List<int[]> plan(int zoom, int maxZoom, double lon, double lat, double speed, double bearing,
+                            double viewTilesX, double viewTilesY, int maxTiles) {
+        List<int[]> tiles = new ArrayList<int[]>();
+        if (maxTiles <= 0 || zoom < 0 || zoom >= 30) {
+            return tiles;
+        }
+        Set<Long> planned = new LinkedHashSet<Long>();
+        double halfX = viewTilesX / 2.0;
+        double halfY = viewTilesY / 2.0;
+        double tileX = lonToTileX(lon, zoom);
+        double tileY = latToTileY(lat, zoom);
+        // the current view is what the on demand drawing asks for anyway
+        Set<Long> inView = new LinkedHashSet<Long>();
+        collectRect(zoom, tileX - halfX, tileY - halfY, tileX + halfX, tileY + halfY, inView, null, Integer.MAX_VALUE);
+
+        int nextZoomBudget = zoom < maxZoom ? (int) Math.ceil(maxTiles * NEXT_ZOOM_SHARE) : 0;
+        int coneBudget = maxTiles - nextZoomBudget;
+        if (speed >= MIN_SPEED && !Double.isNaN(bearing)) {
+            double metersPerTile = EARTH_CIRCUMFERENCE * Math.cos(Math.toRadians(lat)) / (1 << zoom);
+            double maxDistance = MAX_VIEWS_AHEAD * Math.max(viewTilesX, viewTilesY);
+            double distance = Math.min(speed * horizonSeconds / metersPerTile, maxDistance);
+            double dirX = Math.sin(Math.toRadians(bearing));
+            // tile rows grow southwards
+            double dirY = -Math.cos(Math.toRadians(bearing));
+            double spread = Math.tan(Math.toRadians(CONE_HALF_ANGLE));
+            for (double t = 0.5; t <= distance && planned.size() < coneBudget; t += 0.5) {
+                double cx = tileX + dirX * t;
+                double cy = tileY + dirY * t;
+                double lateral = t * spread;
+                // the leading part of the future view, widened by the cone
+                double aheadX = cx + dirX * halfX;
+                double aheadY = cy + dirY * halfY;
+                collectRect(zoom, aheadX - halfX * Math.abs(dirY) - lateral - 0.5, aheadY - halfY * Math.abs(dirX)
+                        - lateral - 0.5, aheadX + halfX * Math.abs(dirY) + lateral + 0.5, aheadY + halfY
+                        * Math.abs(dirX) + lateral + 0.5, planned, inView, coneBudget);
+            }
+        }
+        int budget = Math.min(maxTiles, planned.size() + nextZoomBudget);
+        if (nextZoomBudget > 0) {
+            // the children of the tiles around the position, ring by ring
+            int nextZoom = zoom + 1;
+            double nextX = tileX * 2;
+            double nextY = tileY * 2;
+            for (int ring = 1; ring <= Math.max(viewTilesX, viewTilesY) && planned.size() < budget; ring++) {
+                collectRect(nextZoom, nextX - ring, nextY - ring, nextX + ring, nextY + ring, planned, null, budget);
+            }
+        }
+        for (Long key : planned) {
+            tiles.add(decode(key));
+        }
+        return tiles;
+    }
+
+    /**
+     * Get the fractional tile column of a longitude.
+     *
+     * @param lon  the longitude.
+     * @param zoom the zoom level.
+     * @return the tile column with its fraction.
+     */
+    public static double lonToTileX(double lon, int zoom) {
+        return (lon + 180.0) / 360.0 * (1 << zoom);
+    }
+
+    /**
+     * Get the fractional tile row, in osm notation, of a latitude.
+     *
+     * @param lat  the latitude.
+     * @param zoom the zoom level.
+     * @return the tile row with its fraction.
+     */
+    public static double latToTileY(double lat, int zoom) {
+        double latRad = Math.toRadians(Math.max(-85.0511, Math.min(85.0511, lat)));
+        return (1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0 * (1 << zoom);
+    }
+
+    /**
+     * Encode a tile in a single key.
+     *
+     * @param zoom  the zoom level.
+     * @param x     the tile column.
+     * @param y_osm the tile row in osm notation.
+     * @return the key.
+     */
+    public static long encode(int zoom, int x, int y_osm) {
+        return ((long) zoom << 58) | ((long) x << 29) | y_osm;
+    }
+
+    private static int[] decode(long key) {
+        int zoom = (int) (key >>> 58);
+        int x = (int) ((key >>> 29) & 0x1FFFFFFF);
+        int y = (int) (key & 0x1FFFFFFF);
+        return new int[]{zoom, x, y};
+    }
+
+    private static void collectRect(int zoom, double minX, double minY, double maxX, double maxY, Set<Long> tiles,
+                                    Set<Long> exclude, int maxSize) {
+        int tilesCount = 1 << zoom;
+        int fromX = (int) Math.floor(minX);
+        int toX = (int) Math.floor(maxX);
+        int fromY = Math.max(0, (int) Math.floor(minY));
+        int toY = Math.min(tilesCount - 1, (int) Math.floor(maxY));
+        for (int y = fromY; y <= toY; y++) {
+            for (int x = fromX; x <= toX; x++) {
+                if (tiles.size() >= maxSize) {
+                    return;
+                }
+                // wrap around the antimeridian
+                int wrappedX = ((x % tilesCount) + tilesCount) % tilesCount;
+                long key = encode(zoom, wrappedX, y);
+                if (exclude == null || !exclude.contains(key)) {
+                    tiles.add(key);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tile cache that survives the switch between tile sources.
+ * <p/>
+ * <p>The tile caches of the map view do not know about sources and are cleared
+ * whenever a different source is selected. This cache keeps the tiles of every
+ * source under its own identity, so that going back to a recently used source
+ * does not read or render its tiles again:</p>
+ * <ul>
+ * <li>in memory, a least recently used map shared by all the sources, with a
+ * global size and a size per source</li>
+ * <li>on disk, a folder per source with a size quota, evicting the least
+ * recently used tiles by file modification time</li>
+ * </ul>
+ * <p/>
+ * <p>A source is invalidated, and its tiles removed, when the modification time
+ * or the size of the file it is read from changed since its tiles were cached.
+ * The file of an online source only describes it, so its tiles also expire after
+ * the maximum age given for the source. Expired tiles are kept until they are
+ * downloaded again, so that they can still be shown without a connection.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class SourceTileCache {
+    /**
+     * The default maximum bytes held in memory.
+     */
+    public static final long DEFAULT_MEMORY_QUOTA = 16 * 1024 * 1024;
+    /**
+     * The default maximum bytes held in memory for a single source.
+     */
+    public static final long DEFAULT_SOURCE_MEMORY_QUOTA = 8 * 1024 * 1024;
+    /**
+     * The default maximum bytes held on disk for a single source.
+     */
+    public static final long DEFAULT_SOURCE_DISK_QUOTA = 48 * 1024 * 1024;
+    /**
+     * The default age in milliseconds after which the tiles of online sources expire,
+     * the week asked by the openstreetmap tile usage policy.
+     */
+    public static final long DEFAULT_ONLINE_MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+    /**
+     * The maximum age of the tiles of sources that do not expire.
+     */
+    public static final long NO_EXPIRY = 0;
+
+    private static final String TILE_EXT = ".tile";
+    private static final String STAMP_FILE = "source.stamp";
+    /**
+     * The tile files start with the time the tile was put in the cache.
+     */
+    private static final int HEADER_SIZE = 8;
+    /**
+     * The share of the disk quota that is kept after an eviction, so that evictions do not happen on every write.
+     */
+    private static final double DISK_EVICTION_TARGET = 0.8;
+
+    private static SourceTileCache instance;
+
+    private final File folder;
+    private final long memoryQuota;
+    private final long sourceMemoryQuota;
+    private final long sourceDiskQuota;
+    private final Map<String, Source> sources = new HashMap<String, Source>();
+    private final LinkedHashMap<String, CachedTile> memory = new LinkedHashMap<String, CachedTile>(64, 0.75f, true);
+    private long memoryBytes;
+
+    private static class CachedTile {
+        final byte[] bytes;
+        final long time;
+
+        CachedTile(byte[] bytes, long time) {
+            this.bytes = bytes;
+            this.time = time;
+        }
+    }
+
+    /**
+     * The cached tiles of a source.
+     */
+    public class Source {
+        private final String name;
+        private final File sourceFolder;
+        private volatile long maxAge = NO_EXPIRY;
+        private long memoryBytes;
+        private long diskBytes = -1;
+
+        private Source(String name) {
+            this.name = name;
+            sourceFolder = new File(folder, name);
+        }
+
+        /**
+         * Get a tile that has not expired.
+         *
+         * @param tileKey the key of the tile inside the source, usable as file name.
+         * @return the tile bytes or <code>null</code> if not cached or expired.
+         */
+        public byte[] get(String tileKey) {
+            return get(tileKey, false);
+        }
+
+        /**
+         * Get a tile.
+         *
+         * @param tileKey       the key of the tile inside the source, usable as file name.
+         * @param acceptExpired  if <code>true</code>, also an expired tile is returned, as when it can't be downloaded again.
+         * @return the tile bytes or <code>null</code> if not cached.
+         */
+        public byte[] get(String tileKey, boolean acceptExpired) {
+            CachedTile tile;
+            synchronized (SourceTileCache.this) {
+                tile = memory.get(memoryKey(tileKey));
+            }
+            if (tile == null) {
+                File tileFile = new File(sourceFolder, tileKey + TILE_EXT);
+                if (!tileFile.exists()) {
+                    return null;
+                }
+                try {
+                    tile = readTile(tileFile);
+                } catch (IOException e) {
+                    return null;
+                }
+                // mark it as recently used
+                tileFile.setLastModified(System.currentTimeMillis());
+                putInMemory(tileKey, tile);
+            }
+            if (!acceptExpired && isExpired(tile)) {
+                return null;
+            }
+            return tile.bytes;
+        }
+
+        /**
+         * Put a tile.
+         *
+         * @param tileKey the key of the tile inside the source, usable as file name.
+         * @param bytes   the tile bytes.
+         */
+        public void put(String tileKey, byte[] bytes) {
+            if (bytes == null) {
+                return;
+            }
+            CachedTile tile = new CachedTile(bytes, System.currentTimeMillis());
+            putInMemory(tileKey, tile);
+            try {
+                writeToDisk(tileKey, tile);
+            } catch (IOException e) {
+                // the memory copy is still there
+            }
+        }
+
+        /**
+         * Remove all the tiles of the source.
+         */
+        public void clear() {
+            synchronized (SourceTileCache.this) {
+                Iterator<Map.Entry<String, CachedTile>> iterator = memory.entrySet().iterator();
+                String prefix = name + "/";
+                while (iterator.hasNext()) {
+                    Map.Entry<String, CachedTile> entry = iterator.next();
+                    if (entry.getKey().startsWith(prefix)) {
+                        removeFromMemory(this, entry.getValue());
+                        iterator.remove();
+                    }
+                }
+            }
+            synchronized (this) {
+                for (File file : listTiles()) {
+                    file.delete();
+                }
+                diskBytes = 0;
+            }
+        }
+
+        private String memoryKey(String tileKey) {
+            return name + "/" + tileKey;
+        }
+
+        private boolean isExpired(CachedTile tile) {
+            long age = maxAge;
+            return age > 0 && System.currentTimeMillis() - tile.time > age;
+        }
+
+        private void putInMemory(String tileKey, CachedTile tile) {
+            synchronized (SourceTileCache.this) {
+                CachedTile old = memory.put(memoryKey(tileKey), tile);
+                if (old != null) {
+                    removeFromMemory(this, old);
+                }
+                memoryBytes += tile.bytes.length;
+                SourceTileCache.this.memoryBytes += tile.bytes.length;
+                evictMemory(this);
+            }
+        }
+
+        private synchronized void writeToDisk(String tileKey, CachedTile tile) throws IOException {
+            if (!sourceFolder.exists() && !sourceFolder.mkdirs()) {
+                throw new IOException("Unable to create: " + sourceFolder);
+            }
+            if (diskBytes < 0) {
+                diskBytes = 0;
+                for (File file : listTiles()) {
+                    diskBytes += file.length();
+                }
+            }
+            File tileFile = new File(sourceFolder, tileKey + TILE_EXT);
+            File tmpFile = new File(sourceFolder, tileKey + ".tmp");
+            FileOutputStream out = new FileOutputStream(tmpFile);
+            try {
+                byte[] header = new byte[HEADER_SIZE];
+                for (int i = 0; i < HEADER_SIZE; i++) {
+                    header[i] = (byte) (tile.time >>> (8 * (HEADER_SIZE - 1 - i)));
+                }
+                out.write(header);
+                out.write(tile.bytes);
+            } finally {
+                out.close();
+            }
+            long previous = tileFile.exists() ? tileFile.length() : 0;
+            if (!tmpFile.renameTo(tileFile)) {
+                tmpFile.delete();
+                throw new IOException("Unable to write: " + tileFile);
+            }
+            diskBytes += HEADER_SIZE + tile.bytes.length - previous;
+            if (diskBytes > sourceDiskQuota) {
+                evictDisk();
+            }
+        }
+
+        private void evictDisk() {
+            File[] tiles = listTiles();
+            Arrays.sort(tiles, new Comparator<File>() {
+                public int compare(File f1, File f2) {
+                    long m1 = f1.lastModified();
+                    long m2 = f2.lastModified();
+                    return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+                }
+            });
+            long target = (long) (sourceDiskQuota * DISK_EVICTION_TARGET);
+            for (File tile : tiles) {
+                if (diskBytes <= target) {
+                    break;
+                }
+                long length = tile.length();
+                if (tile.delete()) {
+                    diskBytes -= length;
+                }
+            }
+        }
+
+        private File[] listTiles() {
+            File[] tiles = sourceFolder.listFiles(new java.io.FilenameFilter() {
+                public boolean accept(File dir, String fileName) {
+                    return fileName.endsWith(TILE_EXT);
+                }
+            });
+            return tiles == null ? new File[0] : tiles;
+        }
+    }
+
+    private SourceTileCache(File folder, long memoryQuota, long sourceMemoryQuota, long sourceDiskQuota) {
+        this.folder = folder;
+        this.memoryQuota = memoryQuota;
+        this.sourceMemoryQuota = sourceMemoryQuota;
+        this.sourceDiskQuota = sourceDiskQuota;
+    }
+
+    /**
+     * Initialize the cache with the default quotas.
+     *
+     * @param folder the folder holding the cached tiles.
+     */
+    public static synchronized void init(File folder) {
+        init(folder, DEFAULT_MEMORY_QUOTA, DEFAULT_SOURCE_MEMORY_QUOTA, DEFAULT_SOURCE_DISK_QUOTA);
+    }
+
+    /**
+     * Initialize the cache.
+     *
+     * @param folder            the folder holding the cached tiles.
+     * @param memoryQuota       the maximum bytes held in memory.
+     * @param sourceMemoryQuota the maximum bytes held in memory for a single source.
+     * @param sourceDiskQuota   the maximum bytes held on disk for a single source.
+     */
+    public static synchronized void init(File folder, long memoryQuota, long sourceMemoryQuota, long sourceDiskQuota) {
+        if (instance != null && instance.folder.equals(folder)) {
+            return;
+        }
+        instance = new SourceTileCache(folder, memoryQuota, sourceMemoryQuota, sourceDiskQuota);
+    }
+
+    /**
+     * @return the cache, in the temporary folder if it has not been initialized.
+     */
+    public static synchronized SourceTileCache getInstance() {
+        if (instance == null) {
+            init(new File(System.getProperty("java.io.tmpdir"), "tilecache"));
+        }
+        return instance;
+    }
+
+    /**
+     * Get the cached tiles of a source that do not expire, removing them if the source changed.
+     *
+     * @param sourceId   the identity of the source, like the path of its file and the table.
+     * @param sourceFile the file the tiles are read from, to check for changes.
+     * @return the source.
+     */
+    public Source getSource(String sourceId, File sourceFile) {
+        return getSource(sourceId, sourceFile, NO_EXPIRY);
+    }
+
+    /**
+     * Get the cached tiles of a source, removing them if the source changed.
+     *
+     * @param sourceId   the identity of the source, like the path of its file and the table.
+     * @param sourceFile the file the tiles are read from or that describes the source, to check for changes.
+     * @param maxAge     the age in milliseconds after which the tiles expire, {@link #NO_EXPIRY} to keep them.
+     * @return the source.
+     */
+    public synchronized Source getSource(String sourceId, File sourceFile, long maxAge) {
+        String name = toFolderName(sourceId);
+        Source source = sources.get(name);
+        if (source == null) {
+            source = new Source(name);
+            sources.put(name, source);
+        }
+        source.maxAge = maxAge;
+        String stamp = sourceFile == null ? "" : sourceFile.lastModified() + ":" + sourceFile.length();
+        File stampFile = new File(source.sourceFolder, STAMP_FILE);
+        String cachedStamp = null;
+        if (stampFile.exists()) {
+            try {
+                cachedStamp = new String(readFile(stampFile), "UTF-8");
+            } catch (IOException e) {
+                // treat as changed
+            }
+        }
+        if (!stamp.equals(cachedStamp)) {
+            source.clear();
+            try {
+                if (source.sourceFolder.exists() || source.sourceFolder.mkdirs()) {
+                    FileOutputStream out = new FileOutputStream(stampFile);
+                    try {
+                        out.write(stamp.getBytes("UTF-8"));
+                    } finally {
+                        out.close();
+                    }
+                }
+            } catch (IOException e) {
+                // checked again next time
+            }
+        }
+        return source;
+    }
+
+    private void removeFromMemory(Source source, CachedTile tile) {
+        source.memoryBytes -= tile.bytes.length;
+        memoryBytes -= tile.bytes.length;
+    }
+
+    private void evictMemory(Source source) {
+        Iterator<Map.Entry<String, CachedTile>> iterator = memory.entrySet().iterator();
+        String prefix = source.name + "/";
+        while ((memoryBytes > memoryQuota || source.memoryBytes > sourceMemoryQuota) && iterator.hasNext()) {
+            Map.Entry<String, CachedTile> entry = iterator.next();
+            String key = entry.getKey();
+            boolean ofSource = key.startsWith(prefix);
+            if (memoryBytes > memoryQuota || ofSource) {
+                Source owner = ofSource ? source : sources.get(key.substring(0, key.indexOf('/')));
+                if (owner != null) {
+                    removeFromMemory(owner, entry.getValue());
+                } else {
+                    memoryBytes -= entry.getValue().bytes.length;
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String toFolderName(String sourceId) {
+        StringBuilder sb = new StringBuilder();
+        int start = Math.max(0, sourceId.length() - 48);
+        for (int i = start; i < sourceId.length(); i++) {
+            char c = sourceId.charAt(i);
+            sb.append(Character.isLetterOrDigit(c) ? c : '_');
+        }
+        sb.append('_').append(Integer.toHexString(sourceId.hashCode()));
+        return sb.toString();
+    }
+
+    private static CachedTile readTile(File file) throws IOException {
+        byte[] fileBytes = readFile(file);
+        if (fileBytes.length < HEADER_SIZE) {
+            throw new IOException("Truncated file: " + file);
+        }
+        long time = 0;
+        for (int i = 0; i < HEADER_SIZE; i++) {
+            time = (time << 8) | (fileBytes[i] & 0xFF);
+        }
+        byte[] bytes = new byte[fileBytes.length - HEADER_SIZE];
+        System.arraycopy(fileBytes, HEADER_SIZE, bytes, 0, bytes.length);
+        return new CachedTile(bytes, time);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    throw new IOException("Truncated file: " + file);
+                }
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+}
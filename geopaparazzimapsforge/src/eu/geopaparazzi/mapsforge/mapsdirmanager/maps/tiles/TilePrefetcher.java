@@ -0,0 +1,277 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles;
+
+import android.graphics.Bitmap;
+
+import org.mapsforge.android.maps.MapView;
+import org.mapsforge.android.maps.mapgenerator.MapGenerator;
+import org.mapsforge.android.maps.mapgenerator.MapGeneratorJob;
+import org.mapsforge.android.maps.mapgenerator.TileCache;
+import org.mapsforge.android.maps.mapgenerator.tiledownloader.TileDownloader;
+import org.mapsforge.core.model.GeoPoint;
+import org.mapsforge.core.model.Tile;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * Low priority prefetch of the tiles ahead of the gps position.
+ * <p/>
+ * <p>On every fix the {@link PrefetchPlanner} plans the tiles of a cone ahead of the user
+ * and of the next zoom level. A single background thread renders them through the
+ * map generator of the view into the file system tile cache of the view, which the view
+ * checks before queueing a job. Tiles are only fetched while the job queue of the view is
+ * empty, so the on demand tiles always come first.</p>
+ * <p/>
+ * <p>The work is bounded: one reused bitmap, at most {@link #MAX_TILES_PER_PLAN} tiles
+ * per plan, well below the capacity of the file system cache, and at most
+ * {@link #MAX_TILES_PER_MINUTE} fetched tiles. A plan is dropped as soon as a newer fix
+ * arrives or the view is zoomed or moved away from the planned area.</p>
+ * <p/>
+ * <p>Only tile downloaders are supported, the generators of map files are not thread safe.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TilePrefetcher implements Runnable {
+    /**
+     * The maximum number of tiles of a plan.
+     */
+    public static final int MAX_TILES_PER_PLAN = 40;
+    /**
+     * The maximum number of tiles fetched per minute.
+     */
+    public static final int MAX_TILES_PER_MINUTE = 120;
+    private static final long IDLE_WAIT = 200;
+
+    private static volatile MapGeneratorJob lastMapJob;
+
+    private final MapView mapView;
+    private final PrefetchPlanner planner = new PrefetchPlanner();
+    private final Object lock = new Object();
+    private Thread thread;
+    private boolean running;
+    private Plan pendingPlan;
+    private volatile int generation;
+    private Bitmap bitmap;
+    private long lastFetchTime;
+
+    /**
+     * A planned set of tiles, valid for a zoom level and area of the view.
+     */
+    private static class Plan {
+        final int generation;
+        final byte zoom;
+        final List<int[]> tiles;
+        final long[] centerTile;
+        final double maxShiftX;
+        final double maxShiftY;
+        final Set<Long> area = new HashSet<Long>();
+
+        Plan(int generation, byte zoom, List<int[]> tiles, long[] centerTile, double viewTilesX, double viewTilesY) {
+            this.generation = generation;
+            this.zoom = zoom;
+            this.tiles = tiles;
+            this.centerTile = centerTile;
+            maxShiftX = viewTilesX / 2.0 + 1;
+            maxShiftY = viewTilesY / 2.0 + 1;
+            for (int[] tile : tiles) {
+                if (tile[0] == zoom) {
+                    area.add(PrefetchPlanner.encode(tile[0], tile[1], tile[2]));
+                }
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the view centered on the tile is still covered by the plan.
+         */
+        boolean covers(long[] tile) {
+            if (Math.abs(tile[0] - centerTile[0]) <= maxShiftX && Math.abs(tile[1] - centerTile[1]) <= maxShiftY) {
+                return true;
+            }
+            return area.contains(PrefetchPlanner.encode(zoom, (int) tile[0], (int) tile[1]));
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param mapView the view to prefetch for.
+     */
+    public TilePrefetcher(MapView mapView) {
+        this.mapView = mapView;
+    }
+
+    /**
+     * Remember the job mapsforge requested last, to build the cache keys of the prefetched tiles.
+     * <p/>
+     * <p>Called by the tile downloaders when executing a job.</p>
+     *
+     * @param mapGeneratorJob the job.
+     */
+    public static void setLastMapJob(MapGeneratorJob mapGeneratorJob) {
+        lastMapJob = mapGeneratorJob;
+    }
+
+    /**
+     * Start the prefetch thread.
+     */
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            thread = new Thread(this, "tile-prefetcher");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the prefetch thread and drop the pending plan.
+     */
+    public void stop() {
+        synchronized (lock) {
+            running = false;
+            pendingPlan = null;
+            generation++;
+            lock.notifyAll();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Plan the prefetch for a new gps fix, replacing the previous plan.
+     *
+     * @param lon     the longitude.
+     * @param lat     the latitude.
+     * @param speed   the speed in m/s.
+     * @param bearing the bearing in degrees.
+     */
+    public void onGpsUpdate(double lon, double lat, float speed, float bearing) {
+        MapGenerator mapGenerator = mapView.getMapGenerator();
+        if (!(mapGenerator instanceof TileDownloader) || mapView.getWidth() <= 0 || mapView.getHeight() <= 0) {
+            return;
+        }
+        byte zoom = mapView.getMapPosition().getZoomLevel();
+        int maxZoom = mapGenerator.getZoomLevelMax();
+        double viewTilesX = (double) mapView.getWidth() / Tile.TILE_SIZE;
+        double viewTilesY = (double) mapView.getHeight() / Tile.TILE_SIZE;
+        List<int[]> tiles = planner.plan(zoom, maxZoom, lon, lat, speed, bearing, viewTilesX, viewTilesY,
+                MAX_TILES_PER_PLAN);
+        synchronized (lock) {
+            generation++;
+            pendingPlan = tiles.isEmpty() ? null : new Plan(generation, zoom, tiles, getCenterTile(zoom), viewTilesX,
+                    viewTilesY);
+            lock.notifyAll();
+        }
+    }
+
+    public void run() {
+        while (true) {
+            Plan plan;
+            synchronized (lock) {
+                while (running && pendingPlan == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // check running
+                    }
+                }
+                if (!running) {
+                    break;
+                }
+                plan = pendingPlan;
+                pendingPlan = null;
+            }
+            try {
+                executePlan(plan);
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (Exception e) {
+                GPLog.error(this, "Tile prefetch failed", e); //$NON-NLS-1$
+            }
+        }
+        if (bitmap != null) {
+            bitmap.recycle();
+            bitmap = null;
+        }
+    }
+
+    private void executePlan(Plan plan) throws InterruptedException {
+        for (int[] plannedTile : plan.tiles) {
+            // wait for the on demand tiles to be done
+            while (!mapView.getJobQueue().isEmpty()) {
+                if (!isCurrent(plan)) {
+                    return;
+                }
+                Thread.sleep(IDLE_WAIT);
+            }
+            long wait = lastFetchTime + 60000 / MAX_TILES_PER_MINUTE - System.currentTimeMillis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+            if (!isCurrent(plan)) {
+                return;
+            }
+            MapGenerator mapGenerator = mapView.getMapGenerator();
+            MapGeneratorJob template = lastMapJob;
+            if (!(mapGenerator instanceof TileDownloader) || template == null) {
+                return;
+            }
+            Tile tile = new Tile(plannedTile[1], plannedTile[2], (byte) plannedTile[0]);
+            MapGeneratorJob job = new MapGeneratorJob(tile, ((TileDownloader) mapGenerator).getHostName(),
+                    template.jobParameters, template.debugSettings);
+            TileCache fileSystemTileCache = mapView.getFileSystemTileCache();
+            if (mapView.getInMemoryTileCache().containsKey(job) || fileSystemTileCache.containsKey(job)) {
+                continue;
+            }
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(Tile.TILE_SIZE, Tile.TILE_SIZE, Bitmap.Config.RGB_565);
+            }
+            lastFetchTime = System.currentTimeMillis();
+            if (mapGenerator.executeJob(job, bitmap) && isCurrent(plan)) {
+                fileSystemTileCache.put(job, bitmap);
+            }
+        }
+    }
+
+    private boolean isCurrent(Plan plan) {
+        if (plan.generation != generation || !running) {
+            return false;
+        }
+        // zoomed or moved away from the planned area
+        byte zoom = mapView.getMapPosition().getZoomLevel();
+        return zoom == plan.zoom && plan.covers(getCenterTile(zoom));
+    }
+
+    private long[] getCenterTile(byte zoom) {
+        GeoPoint center = mapView.getMapPosition().getMapCenter();
+        long x = (long) PrefetchPlanner.lonToTileX(center.getLongitude(), zoom);
+        long y = (long) PrefetchPlanner.latToTileY(center.getLatitude(), zoom);
+        return new long[]{x, y};
+    }
+}
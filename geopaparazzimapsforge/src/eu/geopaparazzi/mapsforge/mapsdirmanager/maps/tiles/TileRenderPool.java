@@ -0,0 +1,246 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.mapsforge.mapsdirmanager.maps.tiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of helper threads rendering tiles next to the thread of the map view.
+ * <p/>
+ * <p>Every helper has its own renderer, since renderers and the databases they read
+ * are not thread safe. A batch gives one job to each helper and is awaited before the
+ * next one is submitted, so the work queued is never more than the helpers and the result
+ * of a helper stays in its renderer until the batch has been delivered. A job that is no
+ * longer visible when its helper gets to it is dropped.</p>
+ *
+ * @param <J> the type of the jobs.
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TileRenderPool<J> {
+    /**
+     * The maximum number of rendering threads, including the one of the map view.
+     */
+    public static final int MAX_THREADS = 4;
+
+    /**
+     * Renders a job, keeping the result until the next job.
+     *
+     * @param <J> the type of the jobs.
+     */
+    public interface Renderer<J> {
+        /**
+         * Render a job.
+         *
+         * @param job the job.
+         * @return <code>true</code> if the job has been rendered.
+         * @throws Exception if something goes wrong.
+         */
+        boolean render(J job) throws Exception;
+
+        /**
+         * Release the resources of the renderer.
+         */
+        void cleanup();
+    }
+
+    /**
+     * Creates the renderers of the helpers.
+     *
+     * @param <J> the type of the jobs.
+     */
+    public interface RendererFactory<J> {
+        /**
+         * @return a new renderer.
+         * @throws Exception if something goes wrong.
+         */
+        Renderer<J> createRenderer() throws Exception;
+    }
+
+    /**
+     * Tells if a job is still worth rendering.
+     *
+     * @param <J> the type of the jobs.
+     */
+    public interface VisibilityCheck<J> {
+        /**
+         * @param job the job.
+         * @return <code>true</code> if the tile of the job is still visible.
+         */
+        boolean isVisible(J job);
+    }
+
+    /**
+     * The jobs submitted together to the helpers.
+     *
+     * @param <J> the type of the jobs.
+     */
+    public static class Batch<J> {
+        private final List<Renderer<J>> renderers;
+        private final List<Future<Boolean>> futures;
+        private final List<Exception> errors = new ArrayList<Exception>();
+
+        private Batch(List<Renderer<J>> renderers, List<Future<Boolean>> futures) {
+            this.renderers = renderers;
+            this.futures = futures;
+        }
+
+        /**
+         * Wait for the helpers to be done.
+         * <p/>
+         * <p>The wait is not interruptible, since a renderer must not be reused while it is
+         * still rendering. The interrupted status is set again before returning.</p>
+         *
+         * @return for every job the renderer holding its result, <code>null</code> if it
+         * has been dropped or has failed.
+         */
+        public List<Renderer<J>> await() {
+            List<Renderer<J>> rendered = new ArrayList<Renderer<J>>();
+            boolean interrupted = false;
+            for (int i = 0; i < futures.size(); i++) {
+                Boolean done = null;
+                while (true) {
+                    try {
+                        done = futures.get(i).get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        errors.add(cause instanceof Exception ? (Exception) cause : e);
+                        break;
+                    }
+                }
+                rendered.add(done != null && done ? renderers.get(i) : null);
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return rendered;
+        }
+
+        /**
+         * @return the errors of the failed jobs, after {@link #await()}.
+         */
+        public List<Exception> getErrors() {
+            return errors;
+        }
+    }
+
+    private final int helpersCount;
+    private final RendererFactory<J> rendererFactory;
+    private final VisibilityCheck<J> visibilityCheck;
+    private final List<Renderer<J>> renderers = new ArrayList<Renderer<J>>();
+    private ExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param threads         the rendering threads, including the one of the caller.
+     * @param rendererFactory the factory of the renderers of the helpers.
+     * @param visibilityCheck the check of the jobs, before they are rendered.
+     */
+    public TileRenderPool(int threads, RendererFactory<J> rendererFactory, VisibilityCheck<J> visibilityCheck) {
+        this.helpersCount = Math.max(0, Math.min(MAX_THREADS, threads) - 1);
+        this.rendererFactory = rendererFactory;
+        this.visibilityCheck = visibilityCheck;
+    }
+
+    /**
+     * @return the number of rendering threads for the cores of the device.
+     */
+    public static int getDefaultThreads() {
+        return Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @return the number of jobs a batch can take.
+     */
+    public int getHelpersCount() {
+        return helpersCount;
+    }
+
+    /**
+     * Submit a batch of jobs, one for each helper.
+     *
+     * @param jobs the jobs, at most {@link #getHelpersCount()}.
+     * @return the batch to await.
+     * @throws Exception if the renderers could not be created.
+     */
+    public synchronized Batch<J> submit(List<J> jobs) throws Exception {
+        if (jobs.size() > helpersCount) {
+            throw new IllegalArgumentException("More jobs than helpers: " + jobs.size());
+        }
+        if (executor == null && helpersCount > 0) {
+            executor = Executors.newFixedThreadPool(helpersCount, new ThreadFactory() {
+                private int count;
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "tile-render-helper-" + (++count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        while (renderers.size() < jobs.size()) {
+            renderers.add(rendererFactory.createRenderer());
+        }
+        List<Renderer<J>> batchRenderers = new ArrayList<Renderer<J>>();
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < jobs.size(); i++) {
+            final J job = jobs.get(i);
+            final Renderer<J> renderer = renderers.get(i);
+            batchRenderers.add(renderer);
+            futures.add(executor.submit(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    if (visibilityCheck != null && !visibilityCheck.isVisible(job)) {
+                        return false;
+                    }
+                    return renderer.render(job);
+                }
+            }));
+        }
+        return new Batch<J>(batchRenderers, futures);
+    }
+
+    /**
+     * Stop the helpers and release their renderers.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        for (Renderer<J> renderer : renderers) {
+            renderer.cleanup();
+        }
+        renderers.clear();
+    }
+}
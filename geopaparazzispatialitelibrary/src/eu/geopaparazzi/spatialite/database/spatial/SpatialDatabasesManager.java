@@ -32,6 +32,7 @@ import eu.geopaparazzi.library.util.ResourcesManager;
 import eu.geopaparazzi.library.util.Utilities;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.MbtilesDatabaseHandler;
+import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.Rasterlite2TileCache;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialRasterTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
@@ -350,6 +351,7 @@ public class SpatialDatabasesManager {
         for( AbstractSpatialDatabaseHandler sdbHandler : spatialDbHandlers ) {
             sdbHandler.close();
         }
+        Rasterlite2TileCache.closeAll();
     }
 
 }
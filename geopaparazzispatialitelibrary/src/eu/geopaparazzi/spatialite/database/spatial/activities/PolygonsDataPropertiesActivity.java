@@ -22,16 +22,22 @@ import android.os.Bundle;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.ArrayAdapter;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.Spinner;
 
 import java.util.ArrayList;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.StringAsyncTask;
+import eu.geopaparazzi.library.util.Utilities;
 import eu.geopaparazzi.spatialite.R;
 import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.DaoSpatialite;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SimplifiedGeometries;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteLibraryConstants;
+import jsqlite.Database;
 import jsqlite.Exception;
 
 /**
@@ -47,6 +53,7 @@ public class PolygonsDataPropertiesActivity extends Activity {
     private Spinner fillColorSpinner;
     private Spinner fillAlphaSpinner;
     private EditText decimationText;
+    private CheckBox simplifiedLevelsCheck;
     private Spinner minZoomSpinner;
     private Spinner maxZoomSpinner;
     private EditText dashPatternText;
@@ -122,6 +129,10 @@ public class PolygonsDataPropertiesActivity extends Activity {
         decimationText = (EditText) findViewById(R.id.decimation_text);
         decimationText.setText(decimation);
 
+        simplifiedLevelsCheck = (CheckBox) findViewById(R.id.simplified_levels_check);
+        simplifiedLevelsCheck.setChecked(spatialTable.hasSimplifiedLevels());
+        simplifiedLevelsCheck.setEnabled(SimplifiedGeometries.isSupported(spatialTable));
+
         int minZoom = spatialTable.getMinZoom(); // spatialTable.getStyle().minZoom;
         int tableMinZoom = 0; // spatialTable.getMinZoom();
         int tableMaxZoom = 22; // spatialTable.getMaxZoom();
@@ -198,10 +209,47 @@ public class PolygonsDataPropertiesActivity extends Activity {
 
         try {
             SpatialDatabasesManager.getInstance().updateStyle(spatialTable);
-            finish();
         } catch (Exception e) {
             GPLog.error(this, null, e);
+            return;
+        }
+        final boolean buildLevels = simplifiedLevelsCheck.isChecked();
+        if (buildLevels == spatialTable.hasSimplifiedLevels()) {
+            finish();
+            return;
         }
+        StringAsyncTask task = new StringAsyncTask(this) {
+            protected String doBackgroundWork() {
+                try {
+                    Database database = DaoSpatialite.getDatabaseFromUniqueTableName(spatialTable
+                            .getUniqueNameBasedOnDbFilePath());
+                    if (buildLevels) {
+                        SimplifiedGeometries.createLevels(database, spatialTable);
+                    } else {
+                        SimplifiedGeometries.dropLevels(database, spatialTable);
+                    }
+                } catch (java.lang.Exception e) {
+                    GPLog.error(this, null, e);
+                    return "ERROR: " + e.getLocalizedMessage();
+                }
+                return "";
+            }
+
+            protected void doUiPostWork(String response) {
+                dispose();
+                if (response.length() != 0) {
+                    Utilities.warningDialog(PolygonsDataPropertiesActivity.this, response, new Runnable() {
+                        public void run() {
+                            finish();
+                        }
+                    });
+                } else {
+                    finish();
+                }
+            }
+        };
+        task.startProgressDialog(null, getString(R.string.building_simplified_levels), false, null);
+        task.execute();
     }
 
     public void onCancelClick( View view ) {
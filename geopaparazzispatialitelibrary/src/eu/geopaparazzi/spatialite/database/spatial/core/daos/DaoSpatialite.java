@@ -19,6 +19,7 @@ package eu.geopaparazzi.spatialite.database.spatial.core.daos;
 
 import com.vividsolutions.jts.geom.Geometry;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -26,6 +27,7 @@ import java.util.Locale;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.features.Feature;
+import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.DataType;
 import eu.geopaparazzi.spatialite.database.spatial.SpatialDatabasesManager;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.AbstractSpatialDatabaseHandler;
@@ -33,6 +35,7 @@ import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTabl
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.SpatialiteDatabaseHandler;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryType;
 import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
+import jsqlite.Constants;
 import jsqlite.Database;
 import jsqlite.Exception;
 import jsqlite.Stmt;
@@ -48,6 +51,11 @@ import jsqlite.Stmt;
 @SuppressWarnings("nls")
 public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
 
+    /**
+     * The max number of ids put in a single <code>in</code> clause.
+     */
+    public static final int IDS_PER_QUERY = 500;
+
     /**
      * Collects the fields of a given table.
      * <p/>
@@ -245,6 +253,15 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
 
         String updateQuery = sbIn.toString();
         database.exec(updateQuery, null);
+
+        SpatialVectorTable spatialVectorTable = SpatialDatabasesManager.getInstance().getVectorTableByName(uniqueTableName);
+        if (spatialVectorTable != null && spatialVectorTable.hasSimplifiedLevels()) {
+            List<Long> fids = new ArrayList<Long>();
+            for (Feature feature : features) {
+                fids.add(Long.parseLong(feature.getId()));
+            }
+            SimplifiedGeometries.deleteFeatures(database, spatialVectorTable, fids);
+        }
     }
 
     /**
@@ -255,9 +272,10 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
      * @param geometry           the geometry that will create the new record.
      * @param geometrySrid       the srid of the geometry without the EPSG prefix.
      * @param spatialVectorTable the table into which to insert the record.
+     * @return the id of the new record.
      * @throws Exception if something goes wrong.
      */
-    public static void addNewFeatureByGeometry(Geometry geometry, String geometrySrid, SpatialVectorTable spatialVectorTable)
+    public static long addNewFeatureByGeometry(Geometry geometry, String geometrySrid, SpatialVectorTable spatialVectorTable)
             throws Exception {
         String uniqueTableName = spatialVectorTable.getUniqueNameBasedOnDbFilePath();
         Database database = getDatabaseFromUniqueTableName(uniqueTableName);
@@ -332,6 +350,10 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
 //        System.out.println(insertQuery);
 
         database.exec(insertQuery, null);
+        long rowId = database.last_insert_rowid();
+        updateTableBounds(database, spatialVectorTable, rowId);
+        SimplifiedGeometries.updateFeature(database, spatialVectorTable, rowId);
+        return rowId;
     }
 
     /**
@@ -437,6 +459,88 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
         sbIn.append(id);
         String insertQuery = sbIn.toString();
         database.exec(insertQuery, null);
+        long rowId = Long.parseLong(id);
+        updateTableBounds(database, spatialVectorTable, rowId);
+        SimplifiedGeometries.updateFeature(database, spatialVectorTable, rowId);
+    }
+
+    /**
+     * Grow the bounds of a table to include a written feature.
+     * <p/>
+     * <p>The in memory bounds of the table are used to skip the tables outside of the
+     * map view, so they have to follow the edits. The extent in the statistics table
+     * is also grown, so that the next session starts with the right bounds. Both only
+     * grow, which keeps them a valid superset of the data also after moving a feature.
+     * Unknown bounds, and a <code>NULL</code> extent, are left as they are, since a
+     * single feature can't tell the extent of the table.</p>
+     *
+     * @param database           the database of the table.
+     * @param spatialVectorTable the table.
+     * @param rowId              the {@link SpatialiteUtilities#SPATIALTABLE_ID_FIELD} of the written feature.
+     */
+    private static void updateTableBounds(Database database, SpatialVectorTable spatialVectorTable, long rowId) {
+        String tableName = spatialVectorTable.getTableName();
+        String geometryFieldName = spatialVectorTable.getGeomName();
+        String srid = spatialVectorTable.getSrid();
+        String wgsGeometry = geometryFieldName;
+        if (!srid.equals(LibraryConstants.SRID_WGS84_4326)) {
+            wgsGeometry = "ST_Transform(" + geometryFieldName + "," + LibraryConstants.SRID_WGS84_4326 + ")";
+        }
+        String boundsQuery = "SELECT MbrMinX(" + geometryFieldName + "),MbrMinY(" + geometryFieldName + "),MbrMaxX("
+                + geometryFieldName + "),MbrMaxY(" + geometryFieldName + "),MbrMinX(" + wgsGeometry + "),MbrMinY("
+                + wgsGeometry + "),MbrMaxX(" + wgsGeometry + "),MbrMaxY(" + wgsGeometry + ") FROM " + tableName
+                + " WHERE " + SpatialiteUtilities.SPATIALTABLE_ID_FIELD + "=" + rowId;
+        double[] nativeBounds = new double[4];
+        try {
+            Stmt statement = database.prepare(boundsQuery);
+            try {
+                if (!statement.step() || statement.column_type(0) == Constants.SQLITE_NULL) {
+                    // empty geometry, nothing to include
+                    return;
+                }
+                for (int i = 0; i < 4; i++) {
+                    nativeBounds[i] = statement.column_double(i);
+                }
+                spatialVectorTable.expandBounds(statement.column_double(4), statement.column_double(5),
+                        statement.column_double(6), statement.column_double(7));
+            } finally {
+                statement.close();
+            }
+        } catch (java.lang.Exception e) {
+            GPLog.error("DAOSPATIALIE", "updateTableBounds sql[" + boundsQuery + "] db[" + database.getFilename() + "]", e);
+            return;
+        }
+
+        if (spatialVectorTable.isView() || !spatialVectorTable.hasValidBounds()) {
+            // the extent was missing or 0,0,0,0 when the table was read
+            return;
+        }
+        String updateQuery = "UPDATE geometry_columns_statistics SET " //
+                + "extent_min_x = CASE WHEN extent_min_x > ? THEN ? ELSE extent_min_x END, "
+                + "extent_min_y = CASE WHEN extent_min_y > ? THEN ? ELSE extent_min_y END, "
+                + "extent_max_x = CASE WHEN extent_max_x < ? THEN ? ELSE extent_max_x END, "
+                + "extent_max_y = CASE WHEN extent_max_y < ? THEN ? ELSE extent_max_y END "
+                + "WHERE Lower(f_table_name) = Lower(?) AND Lower(f_geometry_column) = Lower(?) "
+                + "AND extent_min_x IS NOT NULL AND extent_min_y IS NOT NULL "
+                + "AND extent_max_x IS NOT NULL AND extent_max_y IS NOT NULL";
+        try {
+            Stmt statement = database.prepare(updateQuery);
+            try {
+                int index = 1;
+                for (int i = 0; i < 4; i++) {
+                    statement.bind(index++, nativeBounds[i]);
+                    statement.bind(index++, nativeBounds[i]);
+                }
+                statement.bind(index++, tableName);
+                statement.bind(index, geometryFieldName);
+                statement.step();
+            } finally {
+                statement.close();
+            }
+        } catch (java.lang.Exception e) {
+            // older databases have no statistics table, the bounds are then recalculated on load
+            GPLog.error("DAOSPATIALIE", "updateTableBounds sql[" + updateQuery + "] db[" + database.getFilename() + "]", e);
+        }
     }
 
     /**
@@ -484,4 +588,65 @@ public class DaoSpatialite implements ISpatialiteTableAndFieldsNames {
         }
         return null;
     }
+
+    /**
+     * Get the area and length in original units of several features.
+     * <p/>
+     * <p>The values are read with one query per {@link #IDS_PER_QUERY} ids instead of one per feature.</p>
+     *
+     * @param ids                the ids of the features, as defined by field
+     *                           {@link eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities#SPATIALTABLE_ID_FIELD}
+     * @param spatialVectorTable the table in which the features reside.
+     * @return the map of id to the array with [area, length]. Features that are not found are missing.
+     * @throws Exception if something goes wrong.
+     */
+    public static HashMap<String, double[]> getAreaAndLengthByIds(List<String> ids, SpatialVectorTable spatialVectorTable)
+            throws Exception {
+        String uniqueTableName = spatialVectorTable.getUniqueNameBasedOnDbFilePath();
+        Database database = getDatabaseFromUniqueTableName(uniqueTableName);
+        String tableName = spatialVectorTable.getTableName();
+        String geomName = spatialVectorTable.getGeomName();
+
+        HashMap<String, double[]> areaLengthMap = new HashMap<String, double[]>();
+        for (int from = 0; from < ids.size(); from = from + IDS_PER_QUERY) {
+            int to = Math.min(from + IDS_PER_QUERY, ids.size());
+            StringBuilder sbIn = new StringBuilder();
+            sbIn.append("SELECT ");
+            sbIn.append(SpatialiteUtilities.SPATIALTABLE_ID_FIELD).append(",");
+            sbIn.append("Area(").append(geomName).append("),");
+            sbIn.append("Length(").append(geomName).append(")");
+            sbIn.append(" from ").append(tableName);
+            sbIn.append(" where ");
+            sbIn.append(SpatialiteUtilities.SPATIALTABLE_ID_FIELD).append(" in (");
+            for (int i = from; i < to; i++) {
+                if (i > from) {
+                    sbIn.append(",");
+                }
+                sbIn.append(ids.get(i));
+            }
+            sbIn.append(")");
+
+            String selectQuery = sbIn.toString();
+            Stmt statement = null;
+            try {
+                statement = database.prepare(selectQuery);
+                while (statement.step()) {
+                    String id = statement.column_string(0);
+                    double area = statement.column_double(1);
+                    double length = statement.column_double(2);
+                    areaLengthMap.put(id, new double[]{area, length});
+                }
+            } catch (jsqlite.Exception e_stmt) {
+                GPLog.error("DAOSPATIALIE",
+                        "getAreaAndLengthByIds[" + tableName + "] sql[" + selectQuery + "] db[" + database.getFilename()
+                                + "]", e_stmt
+                );
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        }
+        return areaLengthMap;
+    }
 }
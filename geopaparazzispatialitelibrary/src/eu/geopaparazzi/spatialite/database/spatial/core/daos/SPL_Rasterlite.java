@@ -38,6 +38,11 @@ public class SPL_Rasterlite {
      */
     public static String Rasterlite2Version_CPU = "";
 
+    /**
+     * The style used to render the tiles.
+     */
+    public static final String TILE_STYLE = "default";
+
     /*
      * @return true, if there is rasterlite support.
      */
@@ -81,7 +86,7 @@ public class SPL_Rasterlite {
     public static byte[] rl2_GetMapImageFromRasterTile(Database sqlite_db, String destSrid, String coverageName, double[] tileBounds,
                                              int i_tile_size) {
         return rl2_GetMapImageFromRaster(sqlite_db, "4326", destSrid, coverageName, i_tile_size, i_tile_size, tileBounds,
-                "default", "image/jpeg", "#ffffff", 0, 80, 1);
+                TILE_STYLE, "image/jpeg", "#ffffff", 0, 80, 1);
     }
 
 
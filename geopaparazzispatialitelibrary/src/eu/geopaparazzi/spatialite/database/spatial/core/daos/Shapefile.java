@@ -28,10 +28,9 @@ import java.util.Map;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.util.FileUtilities;
-import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryType;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialiteVersion;
+import eu.geopaparazzi.spatialite.database.spatial.util.CancellationToken;
 import jsqlite.Database;
-import jsqlite.Stmt;
 
 /**
  * Created by hydrologis on 18/07/14.
@@ -47,62 +46,33 @@ public class Shapefile {
     /**
      * Create geometry Table from Shape Table.
      * <p/>
-     * <p>'RegisterVirtualGeometry' needs SpatiaLite 4.0.0
+     * <p>The records are streamed in chunks by the {@link ShapefileImporter}, the spatial
+     * index is built once at the end.
      *
      * @param sqlite_db    Database connection to use
      * @param s_table_path full path to Shape-Table [without .shp]
      * @param s_table_name Table name of Shape-Table [without path]
      * @param s_char_set   Characterset used in Shape [default 'CP1252', Windows Latin 1]
      * @param i_srid       srid of Shape-Table
+     * @param listener     the listener of the progress of the import, can be <code>null</code>.
+     * @param token        the token to cancel the import, can be <code>null</code>.
      * @return i_rc 0 or last_error from Database
      */
     private static int createShapeTable(Database sqlite_db, String s_table_path, String s_table_name, String s_char_set,
-                                        int i_srid) {
+                                        int i_srid, ShapefileImporter.ProgressListener listener, CancellationToken token) {
         int i_rc = 0;
-        Stmt this_stmt = null;
-        int i_geometry_type = 0;
         if (s_char_set.equals(""))
             s_char_set = "CP1252";
-        String s_table_name_work = s_table_name + "_work";
-        // GPLog.androidLog(-1,"SpatialiteUtilities create_shape_table[" + s_table_name +
-        // "] srid["+i_srid+"] ["+s_table_path+"]");
-        // CREATE VIRTUAL TABLE roads using virtualshape('/sdcard/maps/roads',CP1252,3857);
-        String s_sql_command = "CREATE VIRTUAL TABLE " + s_table_name_work + " USING VirtualShape('" + s_table_path + "',"
-                + s_char_set + "," + i_srid + ");";
-        // GPLog.androidLog(-1,"SpatialiteUtilities create_shape_table[" + s_sql_command+"]");
+        File shp_file = new File(s_table_path + ".shp");
         try {
-            sqlite_db.exec(s_sql_command, null);
-            // SELECT RegisterVirtualGeometry('roads');
-            s_sql_command = "SELECT RegisterVirtualGeometry('" + s_table_name_work + "');";
-            sqlite_db.exec(s_sql_command, null);
-            // CREATE TABLE myroads AS SELECT * FROM roads;
-            s_sql_command = "CREATE TABLE " + s_table_name + " AS SELECT * FROM " + s_table_name_work + ";";
-            sqlite_db.exec(s_sql_command, null);
-            s_sql_command = "SELECT geometry_type FROM vector_layers WHERE table_name='" + s_table_name + "'";
-            this_stmt = sqlite_db.prepare(s_sql_command);
-            try {
-                if (this_stmt.step()) {
-                    i_geometry_type = this_stmt.column_int(0);
-                }
-            } catch (jsqlite.Exception e_stmt) {
-                i_rc = sqlite_db.last_error();
-                GPLog.androidLog(4, "SpatialiteUtilities: create_shape_table sql[" + s_sql_command + "] rc=" + i_rc + "]", e_stmt);
-            }
-            GeometryType geometry_type = GeometryType.forValue(i_geometry_type);
-            String s_geometry_type = geometry_type.toString();
-            // SELECT RecoverGeometryColumn('myroads','Geometry',3857,'LINESTRING')
-            s_sql_command = "SELECT RecoverGeometryColumn('" + s_table_name + "', 'Geometry'," + i_srid + ",'" + s_geometry_type
-                    + "');";
-            sqlite_db.exec(s_sql_command, null);
-            // SELECT CreateSpatialIndex('myroads','Geometry');
-            s_sql_command = "SELECT CreateSpatialIndex('" + s_table_name + "', 'Geometry');";
-            sqlite_db.exec(s_sql_command, null);
-            // SELECT DropVirtualGeometry('berlin_ortsteile_2010_work');
-            s_sql_command = "SELECT DropVirtualGeometry('" + s_table_name_work + "');";
-            sqlite_db.exec(s_sql_command, null);
+            ShapefileImporter.importShapefile(sqlite_db, shp_file, s_table_name, s_char_set, i_srid,
+                    ShapefileImporter.DEFAULT_CHUNK_SIZE, listener, token);
         } catch (jsqlite.Exception e_stmt) {
             i_rc = sqlite_db.last_error();
-            GPLog.androidLog(4, "SpatialiteUtilities: create_shape_table sql[" + s_sql_command + "] rc=" + i_rc + "]", e_stmt);
+            GPLog.androidLog(4, "SpatialiteUtilities: create_shape_table[" + shp_file + "] rc=" + i_rc + "]", e_stmt);
+        } catch (IOException e) {
+            i_rc = -1;
+            GPLog.androidLog(4, "SpatialiteUtilities: create_shape_table[" + shp_file + "]", e);
         }
         return i_rc;
     }
@@ -186,10 +156,15 @@ public class Shapefile {
      * - - the Directory name is the Database-Name<br>
      * - each Shape-Table must have a '.shp','.prj','.shx' and '.dbf'<br>
      * - the name with extention is the Table-Name<br>
+     * <p/>
+     * <p>If the import gets cancelled the database is removed, so that the next search creates it again.</p>
      *
      * @param prjFile2ParentFolderMap File as found '.prj' files, File as directory
+     * @param listener                the listener of the progress of the imports, can be <code>null</code>.
+     * @param token                   the token to cancel the imports, can be <code>null</code>.
      */
-    private static void createDbForShapefile(HashMap<File, File> prjFile2ParentFolderMap) {
+    private static void createDbForShapefile(HashMap<File, File> prjFile2ParentFolderMap,
+                                             ShapefileImporter.ProgressListener listener, CancellationToken token) {
         File shape_db = null;
         File shape_dir = null;
         Database sqlite_db = null;
@@ -198,6 +173,9 @@ public class Shapefile {
         String s_shape_path = "";
         String s_shape_name = "";
         for (Map.Entry<File, File> shape_list : prjFile2ParentFolderMap.entrySet()) {
+            if (token != null && token.isCancelled()) {
+                break;
+            }
             File file_prj = shape_list.getKey();
             File file_directory = shape_list.getValue();
             if (sqlite_db == null) {
@@ -234,7 +212,8 @@ public class Shapefile {
                     String s_char_set = "CP1252";
                     if (i_srid > 0) {
                         String s_table_path = s_shape_path + File.separator + s_shape_name + File.separator + s_table_name;
-                        int i_rc = createShapeTable(sqlite_db, s_table_path, s_table_name, s_char_set, i_srid);
+                        int i_rc = createShapeTable(sqlite_db, s_table_path, s_table_name, s_char_set, i_srid, listener,
+                                token);
                         // GPLog.androidLog(-1,"SpatialiteUtilities create_shape_db[" + s_table_name
                         // + "] srid["+i_srid+"]");
                     }
@@ -250,6 +229,10 @@ public class Shapefile {
                 GPLog.androidLog(4, "SpatialiteUtilities: create_shape_db: close() : failed", e_stmt);
             }
             sqlite_db = null;
+            if (token != null && token.isCancelled() && !shape_db.delete()) {
+                GPLog.androidLog(4, "SpatialiteUtilities: create_shape_db: unable to remove [" + shape_db.getAbsolutePath()
+                        + "]");
+            }
         }
     }
 
@@ -261,12 +244,19 @@ public class Shapefile {
      * - - the Directory name is the Database-Name<br>
      * - each Shape-Table must have a '.shp','.prj','.shx' and '.dbf'<br>
      * - the name with extension is the Table-Name<br>
+     * <p/>
+     * <p>The shapefiles of the folders found are imported while searching, so this is
+     * meant to run in the background task that scans the maps, which follows the imports
+     * through the listener and can stop them through the token.</p>
      *
-     * @param context 'this' of Application Activity class
-     * @param mapsDir Directory to search [ResourcesManager.getInstance(this).getMapsDir();]
+     * @param context  'this' of Application Activity class
+     * @param mapsDir  Directory to search [ResourcesManager.getInstance(this).getMapsDir();]
+     * @param listener the listener of the progress of the imports, can be <code>null</code>.
+     * @param token    the token to cancel the search and the imports, can be <code>null</code>.
      * @return shapes_list: a {@link HashMap} that maps the prj file to the parent folder file.
      */
-    public static HashMap<File, File> findShapefilePrjFiles(Context context, File mapsDir) {
+    public static HashMap<File, File> findShapefilePrjFiles(Context context, File mapsDir,
+                                                            ShapefileImporter.ProgressListener listener, CancellationToken token) {
         File[] list_files = mapsDir.listFiles(new FilenameFilter() {
             public boolean accept(File dir, String filename) {
                 return filename.endsWith(PRJ_EXTENSION);
@@ -276,16 +266,19 @@ public class Shapefile {
         HashMap<File, File> shapes_list = new HashMap<File, File>();
         File this_directoy = mapsDir;
         for (File this_file : list_files) {
+            if (token != null && token.isCancelled()) {
+                break;
+            }
             if (this_file.isDirectory()) {
                 // read recursive directories inside the sdcard/maps directory
-                shapes_list = findShapefilePrjFiles(context, this_file);
+                shapes_list = findShapefilePrjFiles(context, this_file, listener, token);
                 if (shapes_list.size() > 0) {
                     // shape file Directory has been found: do something
                     // with it
                     // GPLog.androidLog(-1,"SpatialiteUtilities find_shapes["
                     // + this_file.getAbsolutePath() + "] shapes[" +
                     // shapes_list.size() + "]");
-                    createDbForShapefile(shapes_list);
+                    createDbForShapefile(shapes_list, listener, token);
                 }
             } else {
                 // store each prj file and the directory found
@@ -0,0 +1,265 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.daos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.geopaparazzi.spatialite.database.spatial.util.CancellationToken;
+import jsqlite.Database;
+import jsqlite.Exception;
+import jsqlite.Stmt;
+
+/**
+ * Bulk import of shapefiles into spatial tables.
+ * <p/>
+ * <p>The records are streamed from the .shp and .dbf through a {@link ShapefileReader}
+ * and inserted with a single prepared statement, in transactions of a chunk of records each,
+ * so that memory stays bound and progress can be reported and the import cancelled
+ * between chunks. The table is registered with <code>AddGeometryColumn</code> before
+ * the load, and its spatial index is built once, from all the rows, at the end.</p>
+ * <p/>
+ * <p>The table has the same columns the <code>VirtualShape</code> import gave:
+ * {@link #ID_COLUMN} with the record number, {@link #GEOMETRY_COLUMN} and the dbf fields.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ShapefileImporter {
+    /**
+     * The default number of records inserted per transaction.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * The name of the geometry column.
+     */
+    public static final String GEOMETRY_COLUMN = "Geometry";
+
+    /**
+     * The name of the id column.
+     */
+    public static final String ID_COLUMN = "PKUID";
+
+    /**
+     * Listener of the progress of an import.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after every committed chunk.
+         *
+         * @param imported the records imported so far.
+         * @param total    the records of the shapefile, deleted ones included.
+         */
+        void onProgress(int imported, int total);
+    }
+
+    /**
+     * Import a shapefile into a new table.
+     * <p/>
+     * <p>If the import fails or gets cancelled the table is removed.</p>
+     *
+     * @param database         the spatial database to import into.
+     * @param shpFile          the .shp file.
+     * @param tableName        the name of the table to create.
+     * @param charset          the charset of the text of the dbf.
+     * @param srid             the srid of the geometries.
+     * @param chunkSize        the records inserted per transaction.
+     * @param progressListener the listener of the progress, can be <code>null</code>.
+     * @param token            the token to cancel the import, can be <code>null</code>.
+     * @return the number of imported records, <code>-1</code> if the import has been cancelled.
+     * @throws IOException       if the shapefile could not be read.
+     * @throws jsqlite.Exception if the records could not be inserted.
+     */
+    public static int importShapefile(Database database, File shpFile, String tableName, String charset, int srid,
+                                      int chunkSize, ProgressListener progressListener, CancellationToken token)
+            throws IOException, Exception {
+        ShapefileReader reader = new ShapefileReader(shpFile, charset);
+        try {
+            createTable(database, reader, tableName, srid);
+            int imported;
+            try {
+                imported = insertRecords(database, reader, tableName, srid, Math.max(1, chunkSize), progressListener, token);
+                if (imported >= 0 && (token == null || !token.isCancelled())) {
+                    // a single bulk build instead of updating the index for every insert
+                    database.exec("SELECT CreateSpatialIndex('" + tableName + "','" + GEOMETRY_COLUMN + "');", null);
+                } else {
+                    imported = -1;
+                }
+            } catch (IOException e) {
+                dropTableQuietly(database, tableName);
+                throw e;
+            } catch (Exception e) {
+                dropTableQuietly(database, tableName);
+                throw e;
+            }
+            if (imported < 0) {
+                dropTable(database, tableName);
+            } else if (progressListener != null) {
+                progressListener.onProgress(imported, reader.getRecordsCount());
+            }
+            return imported;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void createTable(Database database, ShapefileReader reader, String tableName, int srid)
+            throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("CREATE TABLE \"").append(tableName).append("\" (");
+        sb.append(ID_COLUMN).append(" INTEGER PRIMARY KEY");
+        List<ShapefileReader.Field> fields = reader.getFields();
+        String[] columns = getColumnNames(fields);
+        for (int i = 0; i < fields.size(); i++) {
+            sb.append(", \"").append(columns[i]).append("\" ").append(fields.get(i).getSqlType());
+        }
+        sb.append(");");
+        database.exec(sb.toString(), null);
+
+        String dimension = reader.hasZ() ? "XYZ" : "XY";
+        String sql = "SELECT AddGeometryColumn('" + tableName + "','" + GEOMETRY_COLUMN + "'," + srid + ",'"
+                + reader.getGeometryType() + "','" + dimension + "');";
+        try {
+            Stmt statement = database.prepare(sql);
+            try {
+                if (!statement.step() || statement.column_int(0) != 1) {
+                    throw new Exception("Unable to add the geometry column: " + sql);
+                }
+            } finally {
+                statement.close();
+            }
+        } catch (Exception e) {
+            dropTableQuietly(database, tableName);
+            throw e;
+        }
+    }
+
+    private static int insertRecords(Database database, ShapefileReader reader, String tableName, int srid,
+                                     int chunkSize, ProgressListener progressListener, CancellationToken token)
+            throws IOException, Exception {
+        List<ShapefileReader.Field> fields = reader.getFields();
+        String[] columns = getColumnNames(fields);
+        StringBuilder sbColumns = new StringBuilder();
+        StringBuilder sbValues = new StringBuilder();
+        sbColumns.append(ID_COLUMN).append(", ").append(GEOMETRY_COLUMN);
+        sbValues.append("?, GeomFromWKB(?, ").append(srid).append(")");
+        for (String column : columns) {
+            sbColumns.append(", \"").append(column).append("\"");
+            sbValues.append(", ?");
+        }
+        String sql = "INSERT INTO \"" + tableName + "\" (" + sbColumns + ") VALUES (" + sbValues + ");";
+
+        int imported = 0;
+        Stmt insertStmt = database.prepare(sql);
+        try {
+            boolean hasNext = reader.next();
+            while (hasNext) {
+                if (token != null && token.isCancelled()) {
+                    return -1;
+                }
+                database.exec("BEGIN TRANSACTION;", null);
+                try {
+                    int inChunk = 0;
+                    while (hasNext && inChunk < chunkSize) {
+                        insertStmt.reset();
+                        insertStmt.bind(1, reader.getRecordNumber());
+                        byte[] geometry = reader.getGeometry();
+                        if (geometry == null) {
+                            insertStmt.bind(2);
+                        } else {
+                            insertStmt.bind(2, geometry);
+                        }
+                        for (int i = 0; i < columns.length; i++) {
+                            bindValue(insertStmt, i + 3, reader.getValue(i));
+                        }
+                        insertStmt.step();
+                        inChunk++;
+                        hasNext = reader.next();
+                    }
+                    database.exec("COMMIT;", null);
+                    imported += inChunk;
+                } catch (IOException e) {
+                    database.exec("ROLLBACK;", null);
+                    throw e;
+                } catch (Exception e) {
+                    database.exec("ROLLBACK;", null);
+                    throw e;
+                }
+                if (progressListener != null) {
+                    progressListener.onProgress(imported, reader.getRecordsCount());
+                }
+            }
+        } finally {
+            insertStmt.close();
+        }
+        return imported;
+    }
+
+    private static void bindValue(Stmt statement, int index, Object value) throws Exception {
+        if (value == null) {
+            statement.bind(index);
+        } else if (value instanceof Long) {
+            statement.bind(index, (Long) value);
+        } else if (value instanceof Double) {
+            statement.bind(index, (Double) value);
+        } else {
+            statement.bind(index, value.toString());
+        }
+    }
+
+    /**
+     * Get the column names of the fields, renaming the ones that clash with other columns.
+     */
+    private static String[] getColumnNames(List<ShapefileReader.Field> fields) {
+        Set<String> used = new HashSet<String>();
+        used.add(ID_COLUMN.toLowerCase());
+        used.add(GEOMETRY_COLUMN.toLowerCase());
+        String[] columns = new String[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            String name = fields.get(i).getName().replace("\"", "");
+            if (name.length() == 0) {
+                name = "field";
+            }
+            String column = name;
+            int suffix = 1;
+            while (used.contains(column.toLowerCase())) {
+                column = name + "_" + suffix++;
+            }
+            used.add(column.toLowerCase());
+            columns[i] = column;
+        }
+        return columns;
+    }
+
+    private static void dropTable(Database database, String tableName) throws Exception {
+        database.exec("SELECT DiscardGeometryColumn('" + tableName + "','" + GEOMETRY_COLUMN + "');", null);
+        database.exec("DROP TABLE IF EXISTS \"" + tableName + "\";", null);
+    }
+
+    private static void dropTableQuietly(Database database, String tableName) {
+        try {
+            dropTable(database, tableName);
+        } catch (Exception e) {
+            // the error of the import is the one to report
+        }
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.daos;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming reader of the records of a shapefile and of its attributes.
+ * <p/>
+ * <p>The .shp and the .dbf are read sequentially, one record at a time, so that
+ * shapefiles of any size can be read with the memory of a single record. The geometry
+ * of every record is given as WKB, as spatialite reads it with <code>GeomFromWKB</code>:
+ * <ul>
+ * <li>points as POINT</li>
+ * <li>multipoints as MULTIPOINT</li>
+ * <li>polylines as MULTILINESTRING</li>
+ * <li>polygons as MULTIPOLYGON, the clockwise rings being shells and the following
+ * counterclockwise ones their holes</li>
+ * </ul>
+ * The z values of the Z shape types are kept, the measures are dropped.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ShapefileReader {
+    private static final int SHP_FILE_CODE = 9994;
+    private static final int SHP_HEADER_SIZE = 100;
+
+    private static final int WKB_POINT = 1;
+    private static final int WKB_LINESTRING = 2;
+    private static final int WKB_POLYGON = 3;
+    private static final int WKB_MULTIPOINT = 4;
+    private static final int WKB_MULTILINESTRING = 5;
+    private static final int WKB_MULTIPOLYGON = 6;
+    /**
+     * Added to the WKB type codes of geometries with z, as spatialite does.
+     */
+    private static final int WKB_Z = 1000;
+
+    /**
+     * A field of the dbf.
+     */
+    public static class Field {
+        private final String name;
+        private final char type;
+        private final int length;
+        private final int decimals;
+
+        Field(String name, char type, int length, int decimals) {
+            this.name = name;
+            this.type = type;
+            this.length = length;
+            this.decimals = decimals;
+        }
+
+        /**
+         * @return the name of the field.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the dbf type of the field.
+         */
+        public char getType() {
+            return type;
+        }
+
+        /**
+         * @return the sql type of the values of the field.
+         */
+        public String getSqlType() {
+            switch (type) {
+                case 'N':
+                case 'F':
+                    return isInteger() ? "INTEGER" : "DOUBLE";
+                case 'L':
+                    return "INTEGER";
+                default:
+                    return "TEXT";
+            }
+        }
+
+        private boolean isInteger() {
+            return type == 'N' && decimals == 0 && length <= 18;
+        }
+    }
+
+    private final DataInputStream shpStream;
+    private final DataInputStream dbfStream;
+    private final String charset;
+    private final int shapeType;
+    private final boolean hasZ;
+    private final int recordsCount;
+    private final List<Field> fields = new ArrayList<Field>();
+    private final int[] fieldOffsets;
+    private final byte[] dbfRecord;
+
+    private byte[] shpRecord = new byte[1024];
+    private ByteBuffer wkb = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+    private int recordNumber;
+    private byte[] geometry;
+
+    /**
+     * Constructor.
+     *
+     * @param shpFile the .shp file, the .dbf is expected next to it.
+     * @param charset the charset of the text of the dbf.
+     * @throws IOException if the files could not be read or are not a shapefile.
+     */
+    public ShapefileReader(File shpFile, String charset) throws IOException {
+        this.charset = charset;
+        String path = shpFile.getAbsolutePath();
+        File dbfFile = new File(path.substring(0, path.length() - 4) + ".dbf");
+        if (!dbfFile.exists()) {
+            dbfFile = new File(path.substring(0, path.length() - 4) + ".DBF");
+        }
+        shpStream = new DataInputStream(new BufferedInputStream(new FileInputStream(shpFile), 65536));
+        DataInputStream dbf = null;
+        try {
+            dbf = new DataInputStream(new BufferedInputStream(new FileInputStream(dbfFile), 65536));
+            dbfStream = dbf;
+
+            byte[] shpHeader = new byte[SHP_HEADER_SIZE];
+            shpStream.readFully(shpHeader);
+            ByteBuffer header = ByteBuffer.wrap(shpHeader);
+            if (header.getInt(0) != SHP_FILE_CODE) {
+                throw new IOException("Not a shapefile: " + shpFile);
+            }
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            shapeType = header.getInt(32);
+            hasZ = shapeType == 11 || shapeType == 13 || shapeType == 15 || shapeType == 18;
+            if (getWkbType() == 0) {
+                throw new IOException("Unsupported shape type " + shapeType + ": " + shpFile);
+            }
+
+            byte[] dbfHeader = new byte[32];
+            dbfStream.readFully(dbfHeader);
+            header = ByteBuffer.wrap(dbfHeader).order(ByteOrder.LITTLE_ENDIAN);
+            recordsCount = header.getInt(4);
+            int headerLength = header.getShort(8) & 0xFFFF;
+            int recordLength = header.getShort(10) & 0xFFFF;
+            byte[] descriptors = new byte[headerLength - 32];
+            dbfStream.readFully(descriptors);
+            List<Integer> offsets = new ArrayList<Integer>();
+            // the first byte of a record is the deletion flag
+            int offset = 1;
+            for (int i = 0; i + 32 <= descriptors.length && descriptors[i] != 0x0D; i += 32) {
+                int nameLength = 0;
+                while (nameLength < 11 && descriptors[i + nameLength] != 0) {
+                    nameLength++;
+                }
+                String name = new String(descriptors, i, nameLength, "US-ASCII").trim();
+                char type = (char) descriptors[i + 11];
+                int length = descriptors[i + 16] & 0xFF;
+                int decimals = descriptors[i + 17] & 0xFF;
+                fields.add(new Field(name, type, length, decimals));
+                offsets.add(offset);
+                offset += length;
+            }
+            fieldOffsets = new int[offsets.size() + 1];
+            for (int i = 0; i < offsets.size(); i++) {
+                fieldOffsets[i] = offsets.get(i);
+            }
+            fieldOffsets[offsets.size()] = offset;
+            dbfRecord = new byte[Math.max(recordLength, offset)];
+        } catch (IOException e) {
+            close(shpStream, dbf);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the shape type of the shapefile.
+     */
+    public int getShapeType() {
+        return shapeType;
+    }
+
+    /**
+     * @return <code>true</code> if the geometries have z values.
+     */
+    public boolean hasZ() {
+        return hasZ;
+    }
+
+    /**
+     * @return the geometry type of the geometries as spatialite names it.
+     */
+    public String getGeometryType() {
+        switch (getWkbType()) {
+            case WKB_POINT:
+                return "POINT";
+            case WKB_MULTIPOINT:
+                return "MULTIPOINT";
+            case WKB_MULTILINESTRING:
+                return "MULTILINESTRING";
+            default:
+                return "MULTIPOLYGON";
+        }
+    }
+
+    /**
+     * @return the number of records in the dbf, deleted ones included.
+     */
+    public int getRecordsCount() {
+        return recordsCount;
+    }
+
+    /**
+     * @return the fields of the dbf.
+     */
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * Move to the next record that is not deleted.
+     *
+     * @return <code>false</code> if there are no more records.
+     * @throws IOException if the files could not be read.
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            try {
+                recordNumber = shpStream.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            int contentLength = shpStream.readInt() * 2;
+            if (shpRecord.length < contentLength) {
+                shpRecord = new byte[contentLength];
+            }
+            shpStream.readFully(shpRecord, 0, contentLength);
+            try {
+                dbfStream.readFully(dbfRecord);
+            } catch (EOFException e) {
+                return false;
+            }
+            if (dbfRecord[0] == '*') {
+                continue;
+            }
+            geometry = readGeometry(ByteBuffer.wrap(shpRecord, 0, contentLength).order(ByteOrder.LITTLE_ENDIAN));
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of the current record in the .shp, starting from 1.
+     */
+    public int getRecordNumber() {
+        return recordNumber;
+    }
+
+    /**
+     * @return the WKB of the geometry of the current record, <code>null</code> for a null shape.
+     */
+    public byte[] getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * Get an attribute of the current record.
+     *
+     * @param field the index of the field.
+     * @return a {@link String}, {@link Long} or {@link Double} value, as the sql type of the field,
+     * or <code>null</code> if the value is empty.
+     * @throws IOException if the text could not be decoded.
+     */
+    public Object getValue(int field) throws IOException {
+        int start = fieldOffsets[field];
+        int end = fieldOffsets[field + 1];
+        Field dbfField = fields.get(field);
+        switch (dbfField.type) {
+            case 'N':
+            case 'F': {
+                String text = new String(dbfRecord, start, end - start, "US-ASCII").trim();
+                if (text.length() == 0 || text.charAt(0) == '*') {
+                    return null;
+                }
+                try {
+                    if (dbfField.isInteger()) {
+                        return Long.parseLong(text);
+                    }
+                    return Double.parseDouble(text);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            case 'L': {
+                char value = (char) dbfRecord[start];
+                if (value == 'T' || value == 't' || value == 'Y' || value == 'y') {
+                    return 1L;
+                } else if (value == 'F' || value == 'f' || value == 'N' || value == 'n') {
+                    return 0L;
+                }
+                return null;
+            }
+            case 'D': {
+                String text = new String(dbfRecord, start, end - start, "US-ASCII").trim();
+                return text.length() == 0 ? null : text;
+            }
+            default: {
+                while (end > start && (dbfRecord[end - 1] == ' ' || dbfRecord[end - 1] == 0)) {
+                    end--;
+                }
+                return new String(dbfRecord, start, end - start, charset);
+            }
+        }
+    }
+
+    /**
+     * Close the files.
+     */
+    public void close() {
+        close(shpStream, dbfStream);
+    }
+
+    private static void close(DataInputStream shp, DataInputStream dbf) {
+        try {
+            shp.close();
+        } catch (IOException e) {
+            // nothing to do on a read only file
+        }
+        if (dbf != null) {
+            try {
+                dbf.close();
+            } catch (IOException e) {
+                // nothing to do on a read only file
+            }
+        }
+    }
+
+    private int getWkbType() {
+        if (shapeType > 28) {
+            // multipatches
+            return 0;
+        }
+        switch (shapeType % 10) {
+            case 1:
+                return WKB_POINT;
+            case 3:
+                return WKB_MULTILINESTRING;
+            case 5:
+                return WKB_MULTIPOLYGON;
+            case 8:
+                return WKB_MULTIPOINT;
+            default:
+                return 0;
+        }
+    }
+
+    private byte[] readGeometry(ByteBuffer record) {
+        int recordShapeType = record.getInt(0);
+        if (recordShapeType == 0) {
+            return null;
+        }
+        wkb.clear();
+        int pointSize = hasZ ? 24 : 16;
+        switch (getWkbType()) {
+            case WKB_POINT: {
+                ensureWkb(5 + pointSize);
+                double x = record.getDouble(4);
+                double y = record.getDouble(12);
+                putPoint(x, y, hasZ ? record.getDouble(20) : 0);
+                break;
+            }
+            case WKB_MULTIPOINT: {
+                int numPoints = record.getInt(36);
+                int xyStart = 40;
+                int zStart = xyStart + 16 * numPoints + 16;
+                ensureWkb(9 + numPoints * (5 + pointSize));
+                putHeader(WKB_MULTIPOINT);
+                wkb.putInt(numPoints);
+                for (int i = 0; i < numPoints; i++) {
+                    putPoint(record.getDouble(xyStart + 16 * i), record.getDouble(xyStart + 16 * i + 8),
+                            hasZ ? record.getDouble(zStart + 8 * i) : 0);
+                }
+                break;
+            }
+            default: {
+                int numParts = record.getInt(36);
+                int numPoints = record.getInt(40);
+                int partsStart = 44;
+                int xyStart = partsStart + 4 * numParts;
+                int zStart = xyStart + 16 * numPoints + 16;
+                int[] parts = new int[numParts + 1];
+                for (int i = 0; i < numParts; i++) {
+                    parts[i] = record.getInt(partsStart + 4 * i);
+                }
+                parts[numParts] = numPoints;
+                if (getWkbType() == WKB_MULTILINESTRING) {
+                    ensureWkb(9 + numParts * 9 + numPoints * pointSize);
+                    putHeader(WKB_MULTILINESTRING);
+                    wkb.putInt(numParts);
+                    for (int i = 0; i < numParts; i++) {
+                        putHeader(WKB_LINESTRING);
+                        putCoordinates(record, xyStart, zStart, parts[i], parts[i + 1]);
+                    }
+                } else {
+                    putPolygons(record, xyStart, zStart, parts, pointSize);
+                }
+                break;
+            }
+        }
+        return Arrays.copyOf(wkb.array(), wkb.position());
+    }
+
+    private void putPolygons(ByteBuffer record, int xyStart, int zStart, int[] parts, int pointSize) {
+        int numParts = parts.length - 1;
+        boolean[] shells = new boolean[numParts];
+        boolean anyClockwise = false;
+        for (int i = 0; i < numParts; i++) {
+            shells[i] = isClockwise(record, xyStart, parts[i], parts[i + 1]);
+            anyClockwise = anyClockwise || shells[i];
+        }
+        int numPolygons = 0;
+        for (int i = 0; i < numParts; i++) {
+            // rings of writers that do not orient them are all taken as shells
+            if (i == 0 || !anyClockwise) {
+                shells[i] = true;
+            }
+            if (shells[i]) {
+                numPolygons++;
+            }
+        }
+        ensureWkb(9 + numPolygons * 9 + numParts * 4 + parts[numParts] * pointSize);
+        putHeader(WKB_MULTIPOLYGON);
+        wkb.putInt(numPolygons);
+        int part = 0;
+        while (part < numParts) {
+            int end = part + 1;
+            while (end < numParts && !shells[end]) {
+                end++;
+            }
+            putHeader(WKB_POLYGON);
+            wkb.putInt(end - part);
+            for (int i = part; i < end; i++) {
+                putCoordinates(record, xyStart, zStart, parts[i], parts[i + 1]);
+            }
+            part = end;
+        }
+    }
+
+    private boolean isClockwise(ByteBuffer record, int xyStart, int from, int to) {
+        double area = 0;
+        for (int i = from; i < to - 1; i++) {
+            double x1 = record.getDouble(xyStart + 16 * i);
+            double y1 = record.getDouble(xyStart + 16 * i + 8);
+            double x2 = record.getDouble(xyStart + 16 * (i + 1));
+            double y2 = record.getDouble(xyStart + 16 * (i + 1) + 8);
+            area += x1 * y2 - x2 * y1;
+        }
+        return area < 0;
+    }
+
+    private void putCoordinates(ByteBuffer record, int xyStart, int zStart, int from, int to) {
+        wkb.putInt(to - from);
+        for (int i = from; i < to; i++) {
+            wkb.putDouble(record.getDouble(xyStart + 16 * i));
+            wkb.putDouble(record.getDouble(xyStart + 16 * i + 8));
+            if (hasZ) {
+                wkb.putDouble(record.getDouble(zStart + 8 * i));
+            }
+        }
+    }
+
+    private void putPoint(double x, double y, double z) {
+        putHeader(WKB_POINT);
+        wkb.putDouble(x);
+        wkb.putDouble(y);
+        if (hasZ) {
+            wkb.putDouble(z);
+        }
+    }
+
+    private void putHeader(int wkbType) {
+        wkb.put((byte) 1);
+        wkb.putInt(hasZ ? wkbType + WKB_Z : wkbType);
+    }
+
+    private void ensureWkb(int size) {
+        if (wkb.capacity() < size) {
+            wkb = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.daos;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.LibraryConstants;
+import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
+import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
+import jsqlite.Database;
+import jsqlite.Exception;
+import jsqlite.Stmt;
+
+/**
+ * Pyramid of simplified geometries of a vector table.
+ * <p/>
+ * <p>Every level holds the geometries of the table simplified for a zoom level, so that
+ * zoomed out views read a fraction of the vertices. The levels live in a side table
+ * named after the table and its geometry column, not registered as spatial table:
+ * <ul>
+ * <li>level: the zoom level the geometry has been simplified for</li>
+ * <li>fid: the {@link SpatialiteUtilities#SPATIALTABLE_ID_FIELD} of the feature</li>
+ * <li>geometry: the simplified geometry as wgs84 xy WKB, ready to be drawn</li>
+ * </ul>
+ * The features are still selected through the spatial index of the table.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class SimplifiedGeometries {
+
+    /**
+     * The zoom levels that get a simplified level, ascending.
+     * <p/>
+     * <p>Above the last one the full resolution geometries are used.</p>
+     */
+    public static final int[] LEVEL_ZOOMS = {4, 7, 10, 13};
+
+    /**
+     * The suffix of the side tables.
+     */
+    public static final String TABLE_SUFFIX = "_gpsimplified";
+
+    /**
+     * The simplification tolerance in pixels.
+     */
+    private static final double TOLERANCE_PIXELS = 0.5;
+
+    /**
+     * Get the name of the side table of a vector table.
+     *
+     * @param table the vector table.
+     * @return the side table name.
+     */
+    public static String getTableName(SpatialVectorTable table) {
+        return table.getTableName() + "_" + table.getGeomName() + TABLE_SUFFIX;
+    }
+
+    /**
+     * Get the level to use at a zoom level.
+     *
+     * @param zoom the draw zoom level.
+     * @return the zoom of the level or <code>-1</code> if the full resolution has to be used.
+     */
+    public static int getLevelForZoom(int zoom) {
+        for (int levelZoom : LEVEL_ZOOMS) {
+            if (zoom <= levelZoom) {
+                return levelZoom;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the simplification tolerance of a level.
+     * <p/>
+     * <p>The tolerance is a fraction of the size of a 256 pixels tile pixel at the level zoom.</p>
+     *
+     * @param levelZoom the zoom of the level.
+     * @return the tolerance in degrees.
+     */
+    public static double getTolerance(int levelZoom) {
+        return TOLERANCE_PIXELS * 360.0 / (256.0 * Math.pow(2, levelZoom));
+    }
+
+    /**
+     * Check if simplified levels can be built for a table.
+     *
+     * @param table the vector table.
+     * @return <code>true</code> for line and polygon tables.
+     */
+    public static boolean isSupported(SpatialVectorTable table) {
+        return !table.isView() && !table.isPoint();
+    }
+
+    /**
+     * Set the simplified levels flag of the tables of a database.
+     *
+     * @param database the database.
+     * @param tables   the vector tables of the database.
+     */
+    public static void checkTables(Database database, List<SpatialVectorTable> tables) {
+        Set<String> sideTables = new HashSet<String>();
+        String query = "SELECT name FROM sqlite_master WHERE type='table' AND name LIKE '%" + TABLE_SUFFIX + "'";
+        try {
+            Stmt statement = database.prepare(query);
+            try {
+                while (statement.step()) {
+                    sideTables.add(statement.column_string(0).toLowerCase());
+                }
+            } finally {
+                statement.close();
+            }
+        } catch (Exception e) {
+            GPLog.error("SIMPLIFIEDGEOMETRIES", "checkTables sql[" + query + "] db[" + database.getFilename() + "]", e);
+        }
+        for (SpatialVectorTable table : tables) {
+            table.setHasSimplifiedLevels(isSupported(table) && sideTables.contains(getTableName(table).toLowerCase()));
+        }
+    }
+
+    /**
+     * Build the simplified levels of a table, replacing existing ones.
+     *
+     * @param database the database of the table.
+     * @param table    the vector table.
+     * @return the number of simplified features.
+     * @throws Exception if something goes wrong.
+     */
+    public static int createLevels(Database database, SpatialVectorTable table) throws Exception {
+        String sideTable = getTableName(table);
+        String geomName = table.getGeomName();
+        StringBuilder sbSelect = new StringBuilder();
+        sbSelect.append("SELECT ").append(SpatialiteUtilities.SPATIALTABLE_ID_FIELD);
+        sbSelect.append(", ").append(getWgs84WkbExpression(table));
+        sbSelect.append(" FROM ").append(table.getTableName());
+        sbSelect.append(" WHERE ").append(geomName).append(" IS NOT NULL");
+
+        int count = 0;
+        database.exec("BEGIN TRANSACTION;", null);
+        try {
+            database.exec("DROP TABLE IF EXISTS \"" + sideTable + "\";", null);
+            database.exec("CREATE TABLE \"" + sideTable + "\" (level INTEGER NOT NULL, fid INTEGER NOT NULL, "
+                    + "geometry BLOB, PRIMARY KEY (level, fid));", null);
+            Stmt insertStmt = database.prepare(getInsertQuery(sideTable));
+            Stmt selectStmt = database.prepare(sbSelect.toString());
+            try {
+                WKBReader wkbReader = new WKBReader();
+                WKBWriter wkbWriter = new WKBWriter();
+                while (selectStmt.step()) {
+                    long fid = selectStmt.column_long(0);
+                    byte[] geomBytes = selectStmt.column_bytes(1);
+                    if (geomBytes == null) {
+                        continue;
+                    }
+                    Geometry geometry = wkbReader.read(geomBytes);
+                    insertLevels(insertStmt, wkbWriter, fid, geometry);
+                    count++;
+                }
+            } finally {
+                selectStmt.close();
+                insertStmt.close();
+            }
+            database.exec("COMMIT;", null);
+        } catch (java.lang.Exception e) {
+            database.exec("ROLLBACK;", null);
+            GPLog.error("SIMPLIFIEDGEOMETRIES", "createLevels table[" + table.getTableName() + "] db["
+                    + database.getFilename() + "]", e);
+            if (e instanceof Exception) {
+                throw (Exception) e;
+            }
+            throw new Exception(e.getLocalizedMessage());
+        }
+        table.setHasSimplifiedLevels(true);
+        return count;
+    }
+
+    /**
+     * Remove the simplified levels of a table.
+     *
+     * @param database the database of the table.
+     * @param table    the vector table.
+     * @throws Exception if something goes wrong.
+     */
+    public static void dropLevels(Database database, SpatialVectorTable table) throws Exception {
+        // stop the drawing from reading the levels first
+        table.setHasSimplifiedLevels(false);
+        database.exec("DROP TABLE IF EXISTS \"" + getTableName(table) + "\";", null);
+    }
+
+    /**
+     * Rebuild the simplified levels of a written feature.
+     *
+     * @param database the database of the table.
+     * @param table    the vector table.
+     * @param fid      the {@link SpatialiteUtilities#SPATIALTABLE_ID_FIELD} of the feature.
+     * @throws Exception if something goes wrong.
+     */
+    public static void updateFeature(Database database, SpatialVectorTable table, long fid) throws Exception {
+        if (!table.hasSimplifiedLevels()) {
+            return;
+        }
+        String sideTable = getTableName(table);
+        database.exec("DELETE FROM \"" + sideTable + "\" WHERE fid=" + fid + ";", null);
+        String query = "SELECT " + getWgs84WkbExpression(table) + " FROM " + table.getTableName() + " WHERE "
+                + SpatialiteUtilities.SPATIALTABLE_ID_FIELD + "=" + fid;
+        Stmt selectStmt = database.prepare(query);
+        try {
+            if (!selectStmt.step()) {
+                return;
+            }
+            byte[] geomBytes = selectStmt.column_bytes(0);
+            if (geomBytes == null) {
+                return;
+            }
+            Geometry geometry = new WKBReader().read(geomBytes);
+            Stmt insertStmt = database.prepare(getInsertQuery(sideTable));
+            try {
+                insertLevels(insertStmt, new WKBWriter(), fid, geometry);
+            } finally {
+                insertStmt.close();
+            }
+        } catch (com.vividsolutions.jts.io.ParseException e) {
+            throw new Exception(e.getLocalizedMessage());
+        } finally {
+            selectStmt.close();
+        }
+    }
+
+    /**
+     * Remove the simplified levels of deleted features.
+     *
+     * @param database the database of the table.
+     * @param table    the vector table.
+     * @param fids     the {@link SpatialiteUtilities#SPATIALTABLE_ID_FIELD}s of the features.
+     * @throws Exception if something goes wrong.
+     */
+    public static void deleteFeatures(Database database, SpatialVectorTable table, List<Long> fids) throws Exception {
+        if (!table.hasSimplifiedLevels() || fids.size() == 0) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("DELETE FROM \"").append(getTableName(table)).append("\" WHERE fid IN (");
+        for (int i = 0; i < fids.size(); i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(fids.get(i));
+        }
+        sb.append(");");
+        database.exec(sb.toString(), null);
+    }
+
+    private static String getWgs84WkbExpression(SpatialVectorTable table) {
+        String geomName = table.getGeomName();
+        if (table.getSrid().equals(LibraryConstants.SRID_WGS84_4326)) {
+            return "ST_AsBinary(CastToXY(" + geomName + "))";
+        }
+        return "ST_AsBinary(CastToXY(ST_Transform(" + geomName + "," + LibraryConstants.SRID_WGS84_4326 + ")))";
+    }
+
+    private static String getInsertQuery(String sideTable) {
+        return "INSERT INTO \"" + sideTable + "\" (level, fid, geometry) VALUES (?,?,?)";
+    }
+
+    private static void insertLevels(Stmt insertStmt, WKBWriter wkbWriter, long fid, Geometry geometry)
+            throws Exception {
+        Geometry previous = geometry;
+        // every level is simplified from the previous, more detailed, one
+        for (int i = LEVEL_ZOOMS.length - 1; i >= 0; i--) {
+            int levelZoom = LEVEL_ZOOMS[i];
+            Geometry simplified = TopologyPreservingSimplifier.simplify(previous, getTolerance(levelZoom));
+            if (simplified.isEmpty()) {
+                // collapsed below the tolerance, keep what is still visible
+                simplified = previous;
+            }
+            insertStmt.reset();
+            insertStmt.bind(1, levelZoom);
+            insertStmt.bind(2, fid);
+            insertStmt.bind(3, wkbWriter.write(simplified));
+            insertStmt.step();
+            previous = simplified;
+        }
+    }
+}
@@ -103,6 +103,8 @@ public abstract class AbstractSpatialDatabaseHandler {
      */
     protected boolean isDatabaseValid = false;
 
+    private final Object lock = new Object();
+
     /**
      * Constructor.
      * 
@@ -119,6 +121,16 @@ public abstract class AbstractSpatialDatabaseHandler {
         databaseFileNameNoExtension = databaseFile.getName().substring(0, databaseFile.getName().lastIndexOf("."));
     }
 
+    /**
+     * Get the lock to hold while using the database from a thread other than the
+     * one drawing the map, since the layers are drawn and queried concurrently.
+     *
+     * @return the lock of the database.
+     */
+    public Object getLock() {
+        return lock;
+    }
+
     /**
      * Open the database, with all default tasks
      */
@@ -36,6 +36,7 @@ import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTabl
 import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.MBTilesDroidSpitter;
 import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.MBtilesAsync;
 import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.MbTilesMetadata;
+import eu.geopaparazzi.spatialite.database.spatial.core.mbtiles.TileSetPlanner;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialDataType;
 import jsqlite.Exception;
 
@@ -605,6 +606,43 @@ public class MbtilesDatabaseHandler extends AbstractSpatialDatabaseHandler {
         return new ArrayList<String>();
     }
 
+    /**
+      * Plans a request of the tiles of a zoom-level inside a tile range.
+      * 
+      * <p>The result is a compact set of tiles, that can be visited without
+      * creating a 'tile_id' for each tile in advance.
+      * 
+      * @param i_zoom_level zoom level of tiles
+      * @param i_min_x a column bound of the range
+      * @param i_min_y_osm a row bound of the range [osm notation]
+      * @param i_max_x the other column bound of the range
+      * @param i_max_y_osm the other row bound of the range [osm notation]
+      * @param s_request_type request type ['fill','replace','exists']
+      * @return the set of the requested tiles
+      */
+    public TileSetPlanner planRequest( int i_zoom_level, int i_min_x, int i_min_y_osm, int i_max_x, int i_max_y_osm,
+            String s_request_type ) {
+        if (mbtilesSplitter != null) {
+            return mbtilesSplitter.plan_request(i_zoom_level, i_min_x, i_min_y_osm, i_max_x, i_max_y_osm, s_request_type);
+        }
+        return new TileSetPlanner(i_zoom_level, i_min_x, i_min_y_osm, i_min_x, i_min_y_osm);
+    }
+
+    /**
+      * Creates the 'tile_id' of a tile, as used in the request_url table.
+      * 
+      * @param i_z zoom_level
+      * @param i_x x_tile
+      * @param i_y_osm y_tile [in osm notation]
+      * @return the tile_id [z-x-y.osm/tms]
+      */
+    public String getTileId( int i_z, int i_x, int i_y_osm ) {
+        if (mbtilesSplitter != null) {
+            return mbtilesSplitter.get_tile_id_from_zxy(i_z, i_x, i_y_osm);
+        }
+        return "";
+    }
+
     /**
       * House-keeping tasks for Database.
       * 
@@ -46,8 +46,12 @@ import eu.geopaparazzi.spatialite.database.spatial.core.enums.GeometryType;
 import eu.geopaparazzi.spatialite.database.spatial.core.daos.DaoSpatialite;
 import eu.geopaparazzi.spatialite.database.spatial.core.daos.DatabaseCreationAndProperties;
 import eu.geopaparazzi.spatialite.database.spatial.core.daos.GeopaparazziDatabaseProperties;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SimplifiedGeometries;
 import eu.geopaparazzi.spatialite.database.spatial.util.comparators.OrderComparator;
 import eu.geopaparazzi.spatialite.database.spatial.core.enums.SpatialiteDatabaseType;
+import eu.geopaparazzi.spatialite.database.spatial.util.CancellationToken;
+import eu.geopaparazzi.spatialite.database.spatial.util.QueryProgressHandler;
+import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteQueryBuilder;
 import eu.geopaparazzi.spatialite.database.spatial.util.SpatialiteUtilities;
 import eu.geopaparazzi.spatialite.database.spatial.util.Style;
 import jsqlite.Database;
@@ -74,6 +78,8 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
 
     private Database dbJava;
 
+    private QueryProgressHandler queryProgressHandler;
+
     private HashMap<String, Paint> fillPaints = new HashMap<String, Paint>();
     private HashMap<String, Paint> strokePaints = new HashMap<String, Paint>();
 
@@ -118,6 +124,7 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
             dbJava = new jsqlite.Database();
             try {
                 dbJava.open(databasePath, jsqlite.Constants.SQLITE_OPEN_READWRITE | jsqlite.Constants.SQLITE_OPEN_CREATE);
+                queryProgressHandler = QueryProgressHandler.install(dbJava);
                 isDatabaseValid = true;
             } catch (Exception e) {
                 GPLog.error(this, "Database marked as invalid: " + databasePath, e);
@@ -382,9 +389,46 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      */
     public GeometryIterator getGeometryIteratorInBounds(String destSrid, SpatialVectorTable table, double n, double s, double e,
                                                         double w) {
-        String query = SpatialiteUtilities.buildGeometriesInBoundsQuery(destSrid, false, table, n, s, e, w);
+        return getGeometryIteratorInBounds(destSrid, table, n, s, e, w, null);
+    }
+
+    /**
+     * Get the {@link GeometryIterator} of a table in a given bound, abandoning the query if the token gets cancelled.
+     *
+     * @param destSrid the srid to which to transform to.
+     * @param table    the table to use.
+     * @param n        north bound.
+     * @param s        south bound.
+     * @param e        east bound.
+     * @param w        west bound.
+     * @param token    the cancellation token, can be <code>null</code>.
+     * @return the geometries iterator.
+     */
+    public GeometryIterator getGeometryIteratorInBounds(String destSrid, SpatialVectorTable table, double n, double s, double e,
+                                                        double w, CancellationToken token) {
+        return getGeometryIteratorInBounds(destSrid, table, n, s, e, w, -1, token);
+    }
+
+    /**
+     * Get the {@link GeometryIterator} of a table in a given bound as seen at a zoom level.
+     * <p/>
+     * <p>If the table has simplified levels, the geometries of the level matching the zoom are returned.</p>
+     *
+     * @param destSrid the srid to which to transform to.
+     * @param table    the table to use.
+     * @param n        north bound.
+     * @param s        south bound.
+     * @param e        east bound.
+     * @param w        west bound.
+     * @param zoom     the draw zoom level, <code>-1</code> for the full resolution geometries.
+     * @param token    the cancellation token, can be <code>null</code>.
+     * @return the geometries iterator.
+     */
+    public GeometryIterator getGeometryIteratorInBounds(String destSrid, SpatialVectorTable table, double n, double s, double e,
+                                                        double w, int zoom, CancellationToken token) {
+        String query = SpatialiteUtilities.buildGeometriesInBoundsQuery(destSrid, false, table, n, s, e, w, zoom);
         // GPLog.androidLog(-1,"GeopaparazziOverlay.getGeometryIteratorInBounds query["+query+"]");
-        return new GeometryIterator(dbJava, query);
+        return new GeometryIterator(dbJava, query, queryProgressHandler, token);
     }
 
     public void close() throws Exception {
@@ -441,7 +485,6 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
      */
     public static String getIntersectionQueryBBOX(String boundsSrid, SpatialVectorTable spatialTable, double n, double s,
                                                   double e, double w) {
-        boolean doTransform = false;
         String fieldNamesList = SpatialiteUtilities.SPATIALTABLE_ID_FIELD;
         // List of non-blob fields
         for (String field : spatialTable.getTableFieldNamesList()) {
@@ -449,35 +492,8 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
             if (!ignore)
                 fieldNamesList += "," + field;
         }
-        if (!spatialTable.getSrid().equals(boundsSrid)) {
-            doTransform = true;
-        }
-        StringBuilder sbQ = new StringBuilder();
-        sbQ.append("SELECT ");
-        sbQ.append(fieldNamesList);
-        sbQ.append(" FROM ").append(spatialTable.getTableName());
-        sbQ.append(" WHERE ST_Intersects(");
-        if (doTransform)
-            sbQ.append("ST_Transform(");
-        sbQ.append("BuildMBR(");
-        sbQ.append(w);
-        sbQ.append(",");
-        sbQ.append(s);
-        sbQ.append(",");
-        sbQ.append(e);
-        sbQ.append(",");
-        sbQ.append(n);
-        if (doTransform) {
-            sbQ.append(",");
-            sbQ.append(boundsSrid);
-            sbQ.append("),");
-            sbQ.append(spatialTable.getSrid());
-        }
-        sbQ.append("),");
-        sbQ.append(spatialTable.getGeomName());
-        sbQ.append(");");
-
-        return sbQ.toString();
+        return SpatialiteQueryBuilder.buildIntersectionQuery(boundsSrid, spatialTable.getSrid(),
+                spatialTable.getTableName(), spatialTable.getGeomName(), fieldNamesList, n, s, e, w);
     }
 
     // public void intersectionToString4Polygon( String queryPointSrid, SpatialVectorTable
@@ -865,6 +881,7 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
                         spatialTable.setStyle(style4Table);
                     }
                 }
+                SimplifiedGeometries.checkTables(dbJava, vectorTableList);
                 OrderComparator orderComparator = new OrderComparator();
                 Collections.sort(vectorTableList, orderComparator);
             }
@@ -905,4 +922,13 @@ public class SpatialiteDatabaseHandler extends AbstractSpatialDatabaseHandler {
         return dbJava;
     }
 
+    /**
+     * Getter for the progress handler that abandons cancelled queries.
+     *
+     * @return the handler, <code>null</code> if the database could not be opened.
+     */
+    public QueryProgressHandler getQueryProgressHandler() {
+        return queryProgressHandler;
+    }
+
 }
@@ -23,6 +23,8 @@ import com.vividsolutions.jts.io.WKBReader;
 import java.util.Iterator;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.spatialite.database.spatial.util.CancellationToken;
+import eu.geopaparazzi.spatialite.database.spatial.util.QueryProgressHandler;
 import jsqlite.Constants;
 import jsqlite.Database;
 import jsqlite.Exception;
@@ -37,7 +39,11 @@ import jsqlite.Stmt;
 public class GeometryIterator implements Iterator<Geometry> {
     private WKBReader wkbReader = new WKBReader();
     private Stmt stmt;
-    private String labelText = "";
+    private QueryProgressHandler progressHandler;
+    private CancellationToken token;
+    private int columnCount = 0;
+    private String labelText = null;
+    private final StringBuilder labelBuilder = new StringBuilder();
     /**
      * Returns Label String (if any)
      *
@@ -45,9 +51,14 @@ public class GeometryIterator implements Iterator<Geometry> {
      * - if any label is being supported, will build s_label from column 1 to end<br>
      * -- each column (after 1) will have a ', ' inserted<br>
      * -- s_label will be empty if no label was requested<br>
+     * - the label is read from the current row only when asked for, so it has to
+     *   be called before the next {@link #hasNext()}<br>
      * @return s_label
     */
     public String getLabelText() {
+        if (labelText == null) {
+            labelText = buildLabelText(stmt);
+        }
         return labelText;
     }
     /**
@@ -57,41 +68,42 @@ public class GeometryIterator implements Iterator<Geometry> {
      * - assumes that column 0 is ALWAYS a Geometry<br>
      * - if any label is being supported, will build s_label from column 1 to end<br>
      * -- each column (after 1) will have a ', ' inserted<br>
-     * -- s_label will be set to blank before filling<br>
      * @param stmt statement being executed
+     * @return the label, empty if there are no label columns.
      */
-    private void setLabelText( Stmt stmt ) {
-        labelText = "";
+    private String buildLabelText( Stmt stmt ) {
+        if (stmt == null || columnCount <= 1) {
+            return "";
+        }
+        labelBuilder.setLength(0);
         int i = 1;
-        int columnCount = 0;
         try {
-            if ((stmt != null) && (columnCount = stmt.column_count()) > 1) {
-                for( i = 1; i < columnCount; i++ ) {
-                    if (!labelText.equals("")) {
-                        labelText += ", ";
-                    }
-                    switch( stmt.column_type(i) ) {
-                    case Constants.SQLITE_INTEGER: {
-                        labelText = labelText + stmt.column_int(i);
-                    }
-                        break;
-                    case Constants.SQLITE_FLOAT: {
-                        labelText += String.format("%.5f", stmt.column_double(i));
-                    }
-                        break;
-                    case Constants.SQLITE_BLOB: { // not supported
-                    }
-                        break;
-                    case Constants.SQLITE3_TEXT: {
-                        labelText += stmt.column_string(i);
-                    }
-                        break;
-                    }
+            for( i = 1; i < columnCount; i++ ) {
+                if (labelBuilder.length() > 0) {
+                    labelBuilder.append(", ");
+                }
+                switch( stmt.column_type(i) ) {
+                case Constants.SQLITE_INTEGER: {
+                    labelBuilder.append(stmt.column_int(i));
+                }
+                    break;
+                case Constants.SQLITE_FLOAT: {
+                    labelBuilder.append(String.format("%.5f", stmt.column_double(i)));
+                }
+                    break;
+                case Constants.SQLITE_BLOB: { // not supported
+                }
+                    break;
+                case Constants.SQLITE3_TEXT: {
+                    labelBuilder.append(stmt.column_string(i));
+                }
+                    break;
                 }
             }
         } catch (Exception e) {
             GPLog.error(this, "GeometryIterator.setLabelText column_count[" + columnCount + "] column[" + i + "]", e);
         }
+        return labelBuilder.toString();
     }
     /**
      * Constructor.
@@ -100,8 +112,29 @@ public class GeometryIterator implements Iterator<Geometry> {
      * @param query the query to use.
      */
     public GeometryIterator( Database database, String query ) {
+        this(database, query, null, null);
+    }
+
+    /**
+     * Constructor for an iterator that stops when a token gets cancelled.
+     *
+     * <p>The iterator has to be used and closed on the thread that created it.
+     *
+     * @param database the database to use.
+     * @param query the query to use.
+     * @param progressHandler the progress handler registered on the database, can be <code>null</code>.
+     * @param token the cancellation token, can be <code>null</code>.
+     */
+    public GeometryIterator( Database database, String query, QueryProgressHandler progressHandler, CancellationToken token ) {
+        if (progressHandler != null && token != null) {
+            this.progressHandler = progressHandler;
+            this.token = token;
+            progressHandler.begin(token);
+        }
         try {
             stmt = database.prepare(query);
+            // the shape of the result is known after prepare, no need to ask for every row
+            columnCount = stmt.column_count();
         } catch (Exception e) {
             GPLog.error(this, "GeometryIterator.creation sql[" + query + "]", e);
         }
@@ -112,10 +145,14 @@ public class GeometryIterator implements Iterator<Geometry> {
         if (stmt == null) {
             return false;
         }
+        if (token != null && token.isCancelled()) {
+            return false;
+        }
         try { // sqlite-amalgamation-3080100 allways returns false with BLOBS
             return stmt.step();
         } catch (Exception e) {
-            GPLog.error(this, "GeometryIterator.hasNext()[stmt.step() failed]", e);
+            if (token == null || !token.isCancelled())
+                GPLog.error(this, "GeometryIterator.hasNext()[stmt.step() failed]", e);
             return false;
         }
     }
@@ -126,11 +163,10 @@ public class GeometryIterator implements Iterator<Geometry> {
             GPLog.androidLog(4, "GeometryIterator.next() [stmt=null]");
             return null;
         }
+        labelText = null;
         try {
             byte[] geomBytes = stmt.column_bytes(0);
-            Geometry geometry = wkbReader.read(geomBytes);
-            setLabelText(stmt);
-            return geometry;
+            return wkbReader.read(geomBytes);
         } catch (java.lang.Exception e) {
             GPLog.error(this, "GeometryIterator.next()[wkbReader.read() failed]", e);
         }
@@ -158,7 +194,14 @@ public class GeometryIterator implements Iterator<Geometry> {
      * @throws Exception  if something goes wrong.
      */
     public void close() throws Exception {
-        if (stmt != null)
-            stmt.close();
+        try {
+            if (stmt != null)
+                stmt.close();
+        } finally {
+            if (progressHandler != null) {
+                progressHandler.end(token);
+                progressHandler = null;
+            }
+        }
     }
 }
@@ -252,9 +252,7 @@ public class MBTilesDroidSpitter {
         // db_lock.readLock().lock();
         byte[] blob_data = null;
         try {
-            final Cursor c = db_mbtiles.rawQuery(
-                    "select tile_data from tiles where tile_column=? and tile_row=? and zoom_level=?",
-                    new String[]{s_x, s_y, s_z});
+            final Cursor c = db_mbtiles.rawQuery(MbTilesSchema.SELECT_TILE, new String[]{s_x, s_y, s_z});
             if (!c.moveToFirst()) {
                 c.close();
                 // db_lock.readLock().unlock();
@@ -342,15 +340,6 @@ public class MBTilesDroidSpitter {
         }
         if (i_force_unique > 1)
             i_force_unique = 0;
-        String s_images_tablename = "images";
-        String s_map_tablename = "map";
-        String s_tiles_tablename = "tiles";
-        String s_mbtiles_field_tile_id = "tile_id";
-        String s_mbtiles_field_grid_id = "grid_id";
-        String s_mbtiles_field_tile_data = "tile_data";
-        String s_mbtiles_field_zoom_level = "zoom_level";
-        String s_mbtiles_field_tile_column = "tile_column";
-        String s_mbtiles_field_tile_row = "tile_row";
         String s_grid_id = "";
         // The use of 'i_force_unique == 1' will probely slow things down to a craw
         // GPLog.androidLog(1,"insertTile  tile_id["+s_tile_id+"] force_unique["+i_force_unique+"] unique["+b_unique+"]");
@@ -385,10 +374,7 @@ public class MBTilesDroidSpitter {
             try {
                 if (b_unique) { // We do not have this image, add it
                     if (i_type_tiles == 1) {
-                        ContentValues image_values = new ContentValues();
-                        image_values.put(s_mbtiles_field_tile_data, ba_tile_data);
-                        image_values.put(s_mbtiles_field_tile_id, s_tile_id);
-                        db_mbtiles.insertOrThrow(s_images_tablename, null, image_values);
+                        db_mbtiles.execSQL(MbTilesSchema.INSERT_IMAGE, new Object[]{ba_tile_data, s_tile_id});
                     }
                 }
                 if (i_type_tiles == 1) { // 'tiles' is a view
@@ -402,22 +388,14 @@ public class MBTilesDroidSpitter {
                     // RGB)
                     // --- this image will be stored 1 time in 'images', but
                     // will be used 15 times in 'map'
-                    ContentValues map_values = new ContentValues();
-                    map_values.put(s_mbtiles_field_zoom_level, i_z);
-                    map_values.put(s_mbtiles_field_tile_column, i_x);
-                    map_values.put(s_mbtiles_field_tile_row, i_y);
-                    map_values.put(s_mbtiles_field_tile_id, s_tile_id);
-                    if (b_grid_id)
-                        map_values.put(s_mbtiles_field_grid_id, s_grid_id);
-                    db_mbtiles.insertOrThrow(s_map_tablename, null, map_values);
+                    if (b_grid_id) {
+                        db_mbtiles.execSQL(MbTilesSchema.INSERT_MAP_WITH_GRID, new Object[]{i_z, i_x, i_y, s_tile_id, s_grid_id});
+                    } else {
+                        db_mbtiles.execSQL(MbTilesSchema.INSERT_MAP, new Object[]{i_z, i_x, i_y, s_tile_id});
+                    }
                 }
                 if (i_type_tiles == 0) { // 'tiles' is a table
-                    ContentValues tiles_values = new ContentValues();
-                    tiles_values.put(s_mbtiles_field_zoom_level, i_z);
-                    tiles_values.put(s_mbtiles_field_tile_column, i_x);
-                    tiles_values.put(s_mbtiles_field_tile_row, i_y);
-                    tiles_values.put(s_mbtiles_field_tile_data, ba_tile_data);
-                    db_mbtiles.insertOrThrow(s_tiles_tablename, null, tiles_values);
+                    db_mbtiles.execSQL(MbTilesSchema.INSERT_TILE, new Object[]{i_z, i_x, i_y, ba_tile_data});
                 }
                 db_mbtiles.setTransactionSuccessful();
             } catch (Exception e) {
@@ -748,139 +726,133 @@ public class MBTilesDroidSpitter {
      * tile_id : created with: get_tile_id_from_zxy
      * - will be read and parsed with: get_zxy_from_tile_id in on_request_create_url
      * s_request_type: 'fill': only missing tiles ; 'replace' all tiles ; 'exists' tiles that exist
+     * - for big areas use plan_request, that does not create a String for each tile
      *
      * @param request_bounds bounds of request area
      * @param i_zoom_level   zoom level of tiles
      * @param s_request_type request type ['fill','replace','exists']
      * @return ist_tile_id [list of 'tile_id' needed]
      */
-    public List<String> build_request_list(double[] request_bounds, int i_zoom_level, String s_request_type,
-                                           String s_url_source, String s_request_y_type) {
-        List<String> list_tile_id = new ArrayList<String>(); // this will be the final object -
-        // depending on type
-        if ((!s_request_type.equals("fill")) && (!s_request_type.equals("replace")) && (!s_request_type.equals("exists")))
-            s_request_type = "exists"; // set default, if invalid
+    public List<String> build_request_list(double[] request_bounds, int i_zoom_level, final String s_request_type,
+                                           final String s_url_source, final String s_request_y_type) {
         int[] tile_bounds = LatLonBounds_to_TileBounds(request_bounds, i_zoom_level);
         // i_zoom=tile_bounds[0];
         int i_min_x = tile_bounds[1];
         int i_min_y_osm = tile_bounds[2];
         int i_max_x = tile_bounds[3];
         int i_max_y_osm = tile_bounds[4];
-        int i_min_y_tms = i_min_y_osm;
-        int i_max_y_tms = i_max_y_osm;
-        int i_min_y = i_min_y_osm;
-        int i_max_y = i_max_y_osm;
-        int i_count_x = i_max_x - i_max_x;
-        int i_count_y = i_max_y_osm - i_max_y_osm;
-        if (s_tile_row_type.equals("tms")) {
-            int[] tmsTileXY = MBTilesDroidSpitter.googleTile2TmsTile(i_min_x, i_min_y_osm, i_zoom_level);
-            i_min_y_tms = tmsTileXY[1];
-            i_min_y = i_min_y_tms;
-            tmsTileXY = MBTilesDroidSpitter.googleTile2TmsTile(i_max_x, i_max_y_osm, i_zoom_level);
-            i_max_y_tms = tmsTileXY[1];
-            i_max_y = i_max_y_tms;
-        }
-        if ((s_request_type.equals("fill")) || (s_request_type.equals("replace"))) { // Sorted from
-            // West to East
-            // ; North to
-            // South
-            for (int x = i_min_x; x <= i_max_x; x++) { // fill the list will all possible
-                // combinations : will be the result of
-                // 'replace'
-                // the osm number for north[max] is smaller
-                // that south[min]
-                for (int y = i_max_y_osm; y <= i_min_y_osm; y++) { // input must be y with
-                    // osm-notation - returned will
-                    // be the notation based on the
-                    // active database
-                    String s_tile_id = get_tile_id_from_zxy(i_zoom_level, x, y);
-                    if (!s_url_source.equals("")) { // We are adding from an existing set of tiles,
-                        // the tile must exist
-                        String s_file = s_url_source;
-                        int[] zxy_osm_tms = get_zxy_from_tile_id(s_tile_id);
-                        if ((zxy_osm_tms != null) && (zxy_osm_tms.length == 4)) {
-                            int i_z = zxy_osm_tms[0];
-                            int i_x = zxy_osm_tms[1];
-                            int i_y_osm = zxy_osm_tms[2];
-                            int i_y_tms = zxy_osm_tms[3];
-                            int i_y = i_y_osm;
-                            if (s_request_y_type.equals("tms")) {
-                                i_y = i_y_tms;
-                            }
-                            int indexOfZ = s_file.indexOf("ZZZ");
-                            if (indexOfZ != -1) { // tile-server: replace ZZZ,XXX,YYY
-                                s_file = s_file.replaceFirst("ZZZ", String.valueOf(i_z)); //$NON-NLS-1$
-                                s_file = s_file.replaceFirst("XXX", String.valueOf(i_x)); //$NON-NLS-1$
-                                s_file = s_file.replaceFirst("YYY", String.valueOf(i_y)); //$NON-NLS-1$
-                                File file_tile = new File(s_file);
-                                if (!file_tile.exists()) { // if the tile-file does not exist, do
-                                    // not add
-                                    s_tile_id = "";
-                                }
-                            }
-                        }
-                    }
-                    if (!s_tile_id.equals("")) {
-                        list_tile_id.add(s_tile_id);
-                    }
+        TileSetPlanner planner = plan_request(i_zoom_level, i_min_x, i_min_y_osm, i_max_x, i_max_y_osm, s_request_type);
+        final List<String> list_tile_id = new ArrayList<String>(planner.size());
+        planner.forEach(new TileSetPlanner.TileVisitor() {
+            public boolean visitTile(int z, int x, int y_osm) {
+                String s_tile_id = get_tile_id_from_zxy(z, x, y_osm);
+                if (s_request_type.equals("exists") || tile_source_exists(s_tile_id, s_url_source, s_request_y_type)) {
+                    list_tile_id.add(s_tile_id);
                 }
+                return true;
             }
-            if (s_request_type.equals("replace")) {
-                return list_tile_id; // returns all posibilities
-            }
+        });
+        return list_tile_id;
+    }
+    // -----------------------------------------------
+
+    /**
+     * Plans a request of the tiles of a zoom-level inside a tile range
+     * s_request_type: 'fill': only missing tiles ; 'replace' all tiles ; 'exists' tiles that exist
+     * - the existing tiles are read with one query and kept as bits, the missing ones computed by inverting them
+     * - the range must not have more than TileSetPlanner.MAX_TILES tiles
+     *
+     * @param i_zoom_level   zoom level of tiles
+     * @param i_min_x        a column bound of the range
+     * @param i_min_y_osm    a row bound of the range [osm notation]
+     * @param i_max_x        the other column bound of the range
+     * @param i_max_y_osm    the other row bound of the range [osm notation]
+     * @param s_request_type request type ['fill','replace','exists']
+     * @return the set of the requested tiles
+     */
+    public TileSetPlanner plan_request(int i_zoom_level, int i_min_x, int i_min_y_osm, int i_max_x, int i_max_y_osm,
+                                       String s_request_type) {
+        TileSetPlanner planner = new TileSetPlanner(i_zoom_level, i_min_x, i_min_y_osm, i_max_x, i_max_y_osm);
+        if ((!s_request_type.equals("fill")) && (!s_request_type.equals("replace")) && (!s_request_type.equals("exists")))
+            s_request_type = "exists"; // set default, if invalid
+        if (s_request_type.equals("replace")) {
+            planner.addAll(); // returns all posibilities
+            return planner;
+        }
+        int i_min_y = Math.min(i_min_y_osm, i_max_y_osm);
+        int i_max_y = Math.max(i_min_y_osm, i_max_y_osm);
+        boolean b_tms = s_tile_row_type.equals("tms");
+        if (b_tms) {
+            int i_tms_min_y = MBTilesDroidSpitter.googleTile2TmsTile(i_min_x, i_max_y, i_zoom_level)[1];
+            i_max_y = MBTilesDroidSpitter.googleTile2TmsTile(i_min_x, i_min_y, i_zoom_level)[1];
+            i_min_y = i_tms_min_y;
         }
-        List<String> list_tile_id_exists = new ArrayList<String>();
         String s_table = "map";
         if (i_type_tiles == 0) { // mbtiles is only valid if 'i_type_tiles' == 0 or 1 [table or
             // view]
             s_table = "tiles"; // map will not exist
         }
-        String s_select_where = "WHERE ((zoom_level = " + i_zoom_level + ") AND ";
-        s_select_where = s_select_where + "((tile_column >= " + i_min_x + ") AND (tile_column <= " + i_max_x + ")) AND ";
-        if (s_tile_row_type.equals("tms")) { // tms: Sorted from West to East ; North to South
-            s_select_where = s_select_where + "((tile_row >= " + i_min_y + ") AND (tile_row <= " + i_max_y + "))) ";
-            s_select_where = s_select_where + "ORDER BY tile_column ASC,tile_row DESC";
-        } else { // osm: Sorted from West to East ; North to South
-            s_select_where = s_select_where + "((tile_row >= " + i_max_y + ") AND (tile_row <= " + i_min_y + "))) ";
-            s_select_where = s_select_where + "ORDER BY tile_column ASC,tile_row ASC";
-        }
-        String s_select_sql = "SELECT tile_column,tile_row FROM " + s_table + " " + s_select_where;
-        // SELECT tile_column,tile_row FROM map
-        // WHERE ((zoom_level = 15) AND
-        // ((tile_column >= 1759) AND (tile_column <= 17608)) AND
-        // ((tile_row >= 22013) AND (tile_row <= 22026)))
-        // ORDER BY tile_column ASC,tile_row DESC
+        String s_select_sql = MbTilesSchema.buildTilesInRangeQuery(s_table, i_zoom_level, Math.min(i_min_x, i_max_x), i_min_y,
+                Math.max(i_min_x, i_max_x), i_max_y);
         db_lock.readLock().lock();
         try {
             Cursor c_tiles = db_mbtiles.rawQuery(s_select_sql, null);
-            if ((c_tiles != null) && (c_tiles.getColumnCount() > 0) && (c_tiles.getCount() > 0)) {
+            try {
                 if (c_tiles.moveToFirst()) {
-                    do { // map : do the fields zoom_level [z], tile_column [x], tile_row [y] and
-                        // tile_id exist
-                        int i_tile_column = c_tiles.getInt(c_tiles.getColumnIndex("tile_column"));
-                        int i_tile_row = c_tiles.getInt(c_tiles.getColumnIndex("tile_row"));
-                        String s_tile_id = i_zoom_level + "-" + i_tile_column + "-" + i_tile_row + "." + s_tile_row_type;
-                        list_tile_id_exists.add(s_tile_id);
+                    int i_column_index = c_tiles.getColumnIndex("tile_column");
+                    int i_row_index = c_tiles.getColumnIndex("tile_row");
+                    do {
+                        if (b_tms) {
+                            planner.addTms(c_tiles.getInt(i_column_index), c_tiles.getInt(i_row_index));
+                        } else {
+                            planner.add(c_tiles.getInt(i_column_index), c_tiles.getInt(i_row_index));
+                        }
                     } while (c_tiles.moveToNext());
                 }
+            } finally {
+                c_tiles.close();
             }
-            c_tiles.close();
         } catch (Exception e) {
             GPLog.error(this, null, e);
         } finally {
             db_lock.readLock().unlock();
         }
-        // GPLog.androidLog(-1,"build_request_list["+s_request_type+"] all["+list_tile_id.size()+"] exists["+list_tile_id_exists.size()+"] sql["+s_select_sql+"]");
-        if (s_request_type.equals("exists")) {
-            list_tile_id.clear();
-            return list_tile_id_exists; // returns all that exist
+        if (s_request_type.equals("fill")) {
+            planner.invert(); // the missing ones
         }
-        // 'fill' remove existing from the compleate list and return the missing
-        for (String s_tile_id : list_tile_id_exists) {
-            list_tile_id.remove(s_tile_id);
+        return planner;
+    }
+    // -----------------------------------------------
+
+    /**
+     * Checks if the source of a tile exists, when adding from an existing set of tile files
+     *
+     * @param s_tile_id        tile_id to check
+     * @param s_url_source     the file source with placeholders for ZZZ,XXX,YYY, "" for no check
+     * @param s_request_y_type 'tms' or 'osm' notation of the source
+     * @return true if the tile can be requested
+     */
+    private boolean tile_source_exists(String s_tile_id, String s_url_source, String s_request_y_type) {
+        if (s_url_source.equals("")) {
+            return true;
         }
-        list_tile_id_exists.clear();
-        return list_tile_id;
+        int[] zxy_osm_tms = get_zxy_from_tile_id(s_tile_id);
+        if ((zxy_osm_tms == null) || (zxy_osm_tms.length != 4)) {
+            return true;
+        }
+        String s_file = s_url_source;
+        int indexOfZ = s_file.indexOf("ZZZ");
+        if (indexOfZ != -1) { // tile-server: replace ZZZ,XXX,YYY
+            int i_y = zxy_osm_tms[2];
+            if (s_request_y_type.equals("tms")) {
+                i_y = zxy_osm_tms[3];
+            }
+            s_file = s_file.replaceFirst("ZZZ", String.valueOf(zxy_osm_tms[0])); //$NON-NLS-1$
+            s_file = s_file.replaceFirst("XXX", String.valueOf(zxy_osm_tms[1])); //$NON-NLS-1$
+            s_file = s_file.replaceFirst("YYY", String.valueOf(i_y)); //$NON-NLS-1$
+            return new File(s_file).exists();
+        }
+        return true;
     }
     // -----------------------------------------------
 
@@ -1216,87 +1188,12 @@ public class MBTilesDroidSpitter {
      */
     public int create_mbtiles_tables(SQLiteDatabase mbtiles_db, String mbtiles_name) throws IOException {
         int i_rc = 0;
-        String s_mbtiles_field_tile_data = "tile_data";
-        String s_mbtiles_field_zoom_level = "zoom_level";
-        String s_mbtiles_field_tile_column = "tile_column";
-        String s_mbtiles_field_tile_row = "tile_row";
-        String s_mbtiles_field_tile_id = "tile_id";
-        String s_mbtiles_field_grid_id = "grid_id";
-        String s_mbtiles_field_name = "name";
-        String s_mbtiles_field_value = "value";
-        String s_metadata_tablename = "metadata";
-        String s_images_tablename = "images";
-        String s_tiles_tablename = "tiles";
-        String s_map_tablename = "map";
-        // -----------------------------------------------
-        String s_sql_create_grid_key = "CREATE TABLE IF NOT EXISTS grid_key (" + s_mbtiles_field_grid_id + " TEXT,key_name TEXT)";
-        String s_sql_create_grid_utfgrid = "CREATE TABLE IF NOT EXISTS grid_utfgrid (" + s_mbtiles_field_grid_id
-                + " TEXT,grid_utfgrid BLOB)";
-        String s_sql_create_images = "CREATE TABLE IF NOT EXISTS " + s_images_tablename + " (" + s_mbtiles_field_tile_data
-                + " blob," + s_mbtiles_field_tile_id + " text)";
-        String s_sql_create_keymap = "CREATE TABLE IF NOT EXISTS keymap (key_name TEXT,key_json TEXT)";
-        String s_sql_create_map = "CREATE TABLE IF NOT EXISTS " + s_map_tablename + " (" + s_mbtiles_field_zoom_level
-                + " INTEGER," + s_mbtiles_field_tile_column + " INTEGER," + s_mbtiles_field_tile_row + " INTEGER,"
-                + s_mbtiles_field_tile_id + " TEXT," + s_mbtiles_field_grid_id + " TEXT)";
-        String s_sql_create_metadata = "CREATE TABLE IF NOT EXISTS " + s_metadata_tablename + " (" + s_mbtiles_field_name
-                + " text," + s_mbtiles_field_value + " text)";
-        // CREATE VIEW tiles AS SELECT map.zoom_level AS zoom_level,map.tile_column AS
-        // tile_column,map.tile_row AS tile_row,images.tile_data AS tile_data FROM map JOIN images
-        // ON images.tile_id = map.tile_id ORDER BY zoom_level,tile_column,tile_row
-        String s_sql_create_view_tiles = "CREATE VIEW IF NOT EXISTS " + s_tiles_tablename + " AS SELECT " + s_map_tablename + "."
-                + s_mbtiles_field_zoom_level + " AS " + s_mbtiles_field_zoom_level + "," + s_map_tablename + "."
-                + s_mbtiles_field_tile_column + " AS " + s_mbtiles_field_tile_column + "," + s_map_tablename + "."
-                + s_mbtiles_field_tile_row + " AS " + s_mbtiles_field_tile_row + "," + s_images_tablename + "."
-                + s_mbtiles_field_tile_data + " AS " + s_mbtiles_field_tile_data + " FROM " + s_map_tablename + " JOIN "
-                + s_images_tablename + " ON " + s_images_tablename + "." + s_mbtiles_field_tile_id + " = " + s_map_tablename
-                + "." + s_mbtiles_field_tile_id + " ORDER BY " + s_mbtiles_field_zoom_level + "," + s_mbtiles_field_tile_column
-                + "," + s_mbtiles_field_tile_row;
-        String s_sql_create_view_grids = "CREATE VIEW IF NOT EXISTS grids AS SELECT " + s_map_tablename + "."
-                + s_mbtiles_field_zoom_level + " AS " + s_mbtiles_field_zoom_level + "," + s_map_tablename + "."
-                + s_mbtiles_field_tile_column + " AS " + s_mbtiles_field_tile_column + "," + s_map_tablename + "."
-                + s_mbtiles_field_tile_row + " AS " + s_mbtiles_field_tile_row + ",grid_utfgrid.grid_utfgrid AS grid FROM "
-                + s_map_tablename + " JOIN grid_utfgrid ON grid_utfgrid." + s_mbtiles_field_grid_id + " = " + s_map_tablename
-                + "." + s_mbtiles_field_grid_id;
-        String s_sql_create_view_grid_data = "CREATE VIEW IF NOT EXISTS grid_data AS SELECT " + s_map_tablename + "."
-                + s_mbtiles_field_zoom_level + " AS " + s_mbtiles_field_zoom_level + "," + s_map_tablename + "."
-                + s_mbtiles_field_tile_column + " AS " + s_mbtiles_field_tile_column + "," + s_map_tablename + "."
-                + s_mbtiles_field_tile_row + " AS " + s_mbtiles_field_tile_row
-                + ",keymap.key_name AS key_name,keymap.key_json AS key_json FROM " + s_map_tablename + " JOIN grid_key ON "
-                + s_map_tablename + "." + s_mbtiles_field_grid_id + " = grid_key." + s_mbtiles_field_grid_id
-                + " JOIN keymap ON grid_key.key_name = keymap.key_name";
-        String s_sql_create_index_grid_key_lookup = "CREATE UNIQUE INDEX IF NOT EXISTS grid_key_lookup ON grid_key ("
-                + s_mbtiles_field_grid_id + ",key_name)";
-        String s_sql_create_index_grid_utfgrid_lookup = "CREATE UNIQUE INDEX IF NOT EXISTS grid_utfgrid_lookup ON grid_utfgrid ("
-                + s_mbtiles_field_grid_id + ")";
-        String s_sql_create_index_images = "CREATE UNIQUE INDEX IF NOT EXISTS " + s_images_tablename + "_id ON "
-                + s_images_tablename + " (" + s_mbtiles_field_tile_id + " )";
-        String s_sql_create_index_keymap_lookup = "CREATE UNIQUE INDEX IF NOT EXISTS keymap_lookup ON keymap (key_name)";
-        String s_sql_create_index_map = "CREATE UNIQUE INDEX IF NOT EXISTS " + s_map_tablename + "_index ON " + s_map_tablename
-                + " (" + s_mbtiles_field_zoom_level + "," + s_mbtiles_field_tile_column + "," + s_mbtiles_field_tile_row + ")";
-        String s_sql_create_index_metadata = "CREATE UNIQUE INDEX IF NOT EXISTS " + s_metadata_tablename + "_index ON "
-                + s_metadata_tablename + " (" + s_mbtiles_field_name + ")";
-        // String
-        // s_sql_create_android_metadata="CREATE TABLE IF NOT EXISTS android_"+s_metadata_tablename+" (locale text)";
-        // mj10777: not needed in android - done with sqlite_db.setLocale(Locale.getDefault());
-        // ----------------------------------------------
         db_lock.writeLock().lock();
         mbtiles_db.beginTransaction();
         try {
-            mbtiles_db.execSQL(s_sql_create_grid_key);
-            mbtiles_db.execSQL(s_sql_create_grid_utfgrid);
-            mbtiles_db.execSQL(s_sql_create_images);
-            mbtiles_db.execSQL(s_sql_create_keymap);
-            mbtiles_db.execSQL(s_sql_create_map);
-            mbtiles_db.execSQL(s_sql_create_metadata);
-            mbtiles_db.execSQL(s_sql_create_view_tiles);
-            mbtiles_db.execSQL(s_sql_create_view_grids);
-            mbtiles_db.execSQL(s_sql_create_view_grid_data);
-            mbtiles_db.execSQL(s_sql_create_index_grid_key_lookup);
-            mbtiles_db.execSQL(s_sql_create_index_grid_utfgrid_lookup);
-            mbtiles_db.execSQL(s_sql_create_index_images);
-            mbtiles_db.execSQL(s_sql_create_index_keymap_lookup);
-            mbtiles_db.execSQL(s_sql_create_index_map);
-            mbtiles_db.execSQL(s_sql_create_index_metadata);
+            for (String s_sql_create : MbTilesSchema.getCreateStatements()) {
+                mbtiles_db.execSQL(s_sql_create);
+            }
             // mbtiles_db.execSQL(s_sql_create_android_metadata);
             mbtiles_db.setTransactionSuccessful();
         } catch (Exception e) {
@@ -1586,7 +1483,7 @@ public class MBTilesDroidSpitter {
             int[] tmsTileXY = MBTilesDroidSpitter.googleTile2TmsTile(i_x, i_y_osm, i_z);
             i_y = tmsTileXY[1];
         }
-        return i_z + "-" + i_x + "-" + i_y + "." + s_tile_row_type; // 'tms' or 'osm';
+        return MbTilesSchema.getTileId(i_z, i_x, i_y, s_tile_row_type); // 'tms' or 'osm';
     }
     // -----------------------------------------------
 
@@ -5,6 +5,7 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -20,6 +21,7 @@ import java.util.Map;
 import eu.geopaparazzi.library.GPApplication;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.network.NetworkUtilities;
+import eu.geopaparazzi.library.network.TileHttpPool;
 import eu.geopaparazzi.spatialite.database.spatial.core.databasehandlers.MbtilesDatabaseHandler;
 /**
 // http://www.vogella.com/articles/AndroidBackgroundProcessing/article.html
@@ -36,6 +38,9 @@ public class MBtilesAsync extends AsyncTask<MbtilesDatabaseHandler.AsyncTasks, S
     private List<MbtilesDatabaseHandler.AsyncTasks> async_parms = null;
     private HashMap<String, String> async_mbtiles_metadata = null;
     private HashMap<String, String> mbtiles_request_url = null;
+    private static final int REQUEST_URL_BATCH = 100; // 'request_url' records stored at once
+    private int i_request_limit = 0; // 'request_url' records collected since the last store
+    private int i_request_count_total = 0; // records in 'request_url'
     private String s_request_url_source = "";
     private String s_request_protocol = ""; // 'file' or 'http'
     private int i_tile_server = 0; // if no 'SSS' is found, server logic will not be called
@@ -439,7 +444,6 @@ public class MBtilesAsync extends AsyncTask<MbtilesDatabaseHandler.AsyncTasks, S
             // "][" + this_url.getProtocol() + "] ["+ s_tile_url + "] toExternalForm[" +
             // this_url.toExternalForm()+"]");
             InputStream input_stream = null;
-            HttpURLConnection this_http = null;
             try {
                 if (this_url.getProtocol().equals("file")) {
                     input_stream = this_url.openStream();
@@ -449,18 +453,15 @@ public class MBtilesAsync extends AsyncTask<MbtilesDatabaseHandler.AsyncTasks, S
                     // db_mbtiles.getName() + "][" + this_url.getProtocol() + "] ["+ s_tile_url +
                     // "] toExternalForm[" + this_url.toExternalForm()+"]");
                 } else {
-                    this_http = (HttpURLConnection) this_url.openConnection();
-                    if (this_http != null) {
-                        this_http.setDoInput(true);
-                        i_content_length = this_http.getContentLength(); // the size of the gziped
-                                                                         // value
-                                                                         // returned
-                        input_stream = this_http.getInputStream();
-                        s_http_message = this_http.getResponseMessage();
-                        i_http_code = this_http.getResponseCode();
-                    } else {
-                        s_http_message = "this_url.openConnection() failed";
-                        i_http_code = 778;
+                    // shared keep-alive connections, the body is already read
+                    TileHttpPool.Response http_response = TileHttpPool.getInstance().get(s_tile_url);
+                    i_content_length = http_response.contentLength; // the size of the gziped
+                                                                     // value
+                                                                     // returned
+                    s_http_message = http_response.message;
+                    i_http_code = http_response.code;
+                    if (http_response.body != null) {
+                        input_stream = new ByteArrayInputStream(http_response.body);
                     }
                 }
                 if (input_stream != null) {
@@ -478,7 +479,7 @@ public class MBtilesAsync extends AsyncTask<MbtilesDatabaseHandler.AsyncTasks, S
                     } else {
                         i_image_null = 0;
                     }
-                } else {
+                } else if (i_http_code == HttpURLConnection.HTTP_OK) {
                     s_http_message = "input_stream is null";
                     i_http_code = 779;
                 }
@@ -597,104 +598,85 @@ public class MBtilesAsync extends AsyncTask<MbtilesDatabaseHandler.AsyncTasks, S
      */
     private int on_request_create() {
         int i_rc = 0;
-        int i_max_limit = 100;
-        int i_limit = 0;
-        int i_count_tiles_total = db_mbtiles.getRequestUrlCount(1);
-        int i_count_tiles_level = 0;
-        String s_url = "";
-        String s_request_y = "";
-        if (s_request_protocol.equals("file")) { // We are adding from an existing set of tiles, the
-                                                 // tile must exist
-            s_url = s_request_url_source;
-            s_request_y = s_request_y_type;
-        }
+        i_request_limit = 0;
+        i_request_count_total = db_mbtiles.getRequestUrlCount(1);
         mbtiles_request_url = new LinkedHashMap<String, String>();
         s_message = "-I-> on_request_create[" + s_request_type + "," + s_request_protocol + "][" + db_mbtiles.getName()
-                + "]: zoom_levels[" + zoom_levels.size() + "] file_url[" + s_url + "] file_y[" + s_request_y + "]";
+                + "]: zoom_levels[" + zoom_levels.size() + "] file_y[" + s_request_y_type + "]";
         publishProgress(s_message);
         for( int i = 0; i < zoom_levels.size(); i++ ) { // for all selected zoom levels
             int i_zoom_level = zoom_levels.get(i);
             if (isCancelled()) {
                 i_rc = 2777;
-                s_message = "-W-> on_request_create[" + db_mbtiles.getName() + "]: zoom_level[" + i_zoom_level + "] tiles["
-                        + i_count_tiles_level + "] total[" + i_count_tiles_total + "] rc=" + i_rc;
+                s_message = "-W-> on_request_create[" + db_mbtiles.getName() + "]: zoom_level[" + i_zoom_level + "] total["
+                        + i_request_count_total + "] rc=" + i_rc;
                 return i_rc;
             }
-            // retrieve list of missing[fill] or compleate list[replace] of tiles to retrieve
-            // This is still a full list (without limit) which could cause memory problems
-            //
-            String s_tile_id = "";
-            // TODO: build in better logic to avoid TimeOut situations
+            // the missing[fill], existing[exists] or compleate[replace] set of tiles is kept as bits
+            // and streamed into 'request_url', without a list of all the tile_ids
             int[] tile_bounds = MBTilesDroidSpitter.LatLonBounds_to_TileBounds(request_bounds, i_zoom_level);
             int i_min_x = tile_bounds[1];
             int i_min_y_osm = tile_bounds[2];
             int i_max_x = tile_bounds[3];
             int i_max_y_osm = tile_bounds[4];
-            for( int x = i_min_x; x <= i_max_x; x++ ) { // collect for each y column ; we are
-                                                        // hoping, that after each return from
-                                                        // another thread will avoid a TimeOut
-                double[] x_request_bounds = MBTilesDroidSpitter.TileBounds_to_LatLonBounds(new int[]{x, i_min_y_osm, x + 1,
-                        i_max_y_osm}, i_zoom_level);
-                int i_column_left = i_max_x - x;
-                List<String> list_tile_id = db_mbtiles.buildRequestList(x_request_bounds, i_zoom_level, s_request_type, s_url,
-                        s_request_y);
+            int i_columns = TileSetPlanner.getMaxColumns(Math.abs(i_min_y_osm - i_max_y_osm) + 1);
+            for( int x = i_min_x; x <= i_max_x; x += i_columns ) {
+                int i_last_x = Math.min(i_max_x, x + i_columns - 1);
+                TileSetPlanner planner = db_mbtiles.planRequest(i_zoom_level, x, i_min_y_osm, i_last_x, i_max_y_osm,
+                        s_request_type);
                 s_message = "-I-> on_request_create[" + s_request_type + "," + s_request_protocol + "][" + db_mbtiles.getName()
-                        + "]: list_tile_id.size[" + list_tile_id.size() + "] x=" + x + " ; " + i_column_left + " columns left";
+                        + "]: tiles[" + planner.size() + "] x=" + x + "-" + i_last_x + " ; " + (i_max_x - i_last_x)
+                        + " columns left";
                 publishProgress(s_message);
-                for( int j = 0; j < list_tile_id.size(); j++ ) {
-                    if (isCancelled()) {
-                        i_rc = 2778;
-                        s_message = "-W-> on_request_create[" + db_mbtiles.getName() + "]: zoom_level[" + i_zoom_level
-                                + "] tiles[" + i_count_tiles_level + "] total[" + i_count_tiles_total + "] rc=" + i_rc;
-                        return i_rc;
-                    }
-                    s_tile_id = list_tile_id.get(j);
-                    if (!s_tile_id.equals("")) { // Avoid error: code 19 constraint failed when
-                                                 // inserting image more than once
-                                                 // for each tile send tile_id[from which to
-                                                 // position
-                                                 // will be calculated[wms] or the tile-numbers set]
-                                                 // - these values be set in the given url
-                                                 // -- the tile_id and created url will be added to
-                                                 // 'mbtiles_request_url'
-                        on_request_create_url(s_tile_id, s_request_url_source);
-                        i_limit++;
-                    }
-                    if (i_limit >= i_max_limit) { // save reguraly to avoid excess memory usage
-                        if ((mbtiles_request_url.size()) > 0) {
-                            i_count_tiles_total = db_mbtiles.bulkInsertFromUrlsTilesInTable(mbtiles_request_url);
-                            // clear 'mbtiles_request_url' that have been stored
-                            mbtiles_request_url.clear();
-                            s_message = "-I-> on_request_create[" + db_mbtiles.getName() + "]: [" + j + "] tile_id[" + s_tile_id
-                                    + "] zoom_level[" + i_zoom_level + "] tiles_level[" + i_count_tiles_level + "] total["
-                                    + i_count_tiles_total + "]";
-                            publishProgress(s_message);
+                boolean b_completed = planner.forEach(new TileSetPlanner.TileVisitor(){
+                    public boolean visitTile( int i_z, int i_x, int i_y_osm ) {
+                        if (isCancelled()) {
+                            return false;
+                        }
+                        // for each tile send tile_id[from which to position will be calculated[wms]
+                        // or the tile-numbers set] - these values be set in the given url
+                        // -- the tile_id and created url will be added to 'mbtiles_request_url'
+                        on_request_create_url(db_mbtiles.getTileId(i_z, i_x, i_y_osm), s_request_url_source);
+                        i_request_limit++;
+                        if (i_request_limit >= REQUEST_URL_BATCH) { // save reguraly to avoid excess memory usage
+                            on_request_store_url(i_z);
                         }
-                        i_limit = 0;
+                        return true;
                     }
+                });
+                if (!b_completed) {
+                    i_rc = 2778;
+                    s_message = "-W-> on_request_create[" + db_mbtiles.getName() + "]: zoom_level[" + i_zoom_level + "] total["
+                            + i_request_count_total + "] rc=" + i_rc;
+                    return i_rc;
                 }
-                list_tile_id.clear();
-                if ((mbtiles_request_url.size()) > 0) { // nothing may have been found
-                                                        // save 'mbtiles_request_url' to the
-                                                        // database
-                    i_count_tiles_level = db_mbtiles.getRequestUrlCount(0);
-                    i_count_tiles_total = db_mbtiles.bulkInsertFromUrlsTilesInTable(mbtiles_request_url);
-                    i_count_tiles_level = i_count_tiles_total - i_count_tiles_level;
-                    // clear 'mbtiles_request_url' that have been stored
-                    mbtiles_request_url.clear();
-                    s_message = "-I-> on_request_create[" + db_mbtiles.getName() + "]: zoom_level[" + i_zoom_level + "] tile_id["
-                            + s_tile_id + "] total[" + i_count_tiles_total + "]";
-                    publishProgress(s_message);
-                }
+                // nothing may have been found
+                on_request_store_url(i_zoom_level);
             }
         }
-        i_count_tiles_total = db_mbtiles.getRequestUrlCount(1);
+        i_request_count_total = db_mbtiles.getRequestUrlCount(1);
         s_message = "-I-> on_request_create[" + s_request_type + "][" + db_mbtiles.getName() + "]:  requested tiles["
-                + i_count_tiles_total + "] exist.";
+                + i_request_count_total + "] exist.";
         publishProgress(s_message);
         return i_rc;
     }
     // -----------------------------------------------
+    /**
+      * Save the collected 'mbtiles_request_url' to the database and clear them
+      * @param i_zoom_level the zoom level being collected, for the progress message
+     */
+    private void on_request_store_url( int i_zoom_level ) {
+        i_request_limit = 0;
+        if ((mbtiles_request_url.size()) > 0) {
+            i_request_count_total = db_mbtiles.bulkInsertFromUrlsTilesInTable(mbtiles_request_url);
+            // clear 'mbtiles_request_url' that have been stored
+            mbtiles_request_url.clear();
+            s_message = "-I-> on_request_create[" + db_mbtiles.getName() + "]: zoom_level[" + i_zoom_level + "] total["
+                    + i_request_count_total + "]";
+            publishProgress(s_message);
+        }
+    }
+    // -----------------------------------------------
     /**
       * Parse s_request_bounds string
       * - Sample of supported formats:
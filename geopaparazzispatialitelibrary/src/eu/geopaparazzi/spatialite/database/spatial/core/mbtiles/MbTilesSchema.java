@@ -0,0 +1,115 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.mbtiles;
+
+/**
+ * The schema and statements of the mbtiles databases written by {@link MBTilesDroidSpitter}.
+ * <p/>
+ * <p><code>tiles</code> is a view joining <code>map</code> and <code>images</code>, so that
+ * a tile image can be referenced by more tiles. Older databases can have a <code>tiles</code>
+ * table instead.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class MbTilesSchema {
+    /**
+     * Read of a tile, binding the tile column, tile row and zoom level.
+     */
+    public static final String SELECT_TILE = "select tile_data from tiles where tile_column=? and tile_row=? and zoom_level=?";
+    /**
+     * Insert of a tile image, binding the tile data and the tile id.
+     */
+    public static final String INSERT_IMAGE = "INSERT INTO images (tile_data,tile_id) VALUES (?,?)";
+    /**
+     * Insert of a tile reference, binding the zoom level, tile column, tile row and tile id.
+     */
+    public static final String INSERT_MAP = "INSERT INTO map (zoom_level,tile_column,tile_row,tile_id) VALUES (?,?,?,?)";
+    /**
+     * Insert of a tile reference, binding the zoom level, tile column, tile row, tile id and grid id.
+     */
+    public static final String INSERT_MAP_WITH_GRID = "INSERT INTO map (zoom_level,tile_column,tile_row,tile_id,grid_id) VALUES (?,?,?,?,?)";
+    /**
+     * Insert of a tile in a <code>tiles</code> table, binding the zoom level, tile column, tile row and tile data.
+     */
+    public static final String INSERT_TILE = "INSERT INTO tiles (zoom_level,tile_column,tile_row,tile_data) VALUES (?,?,?,?)";
+
+    private static final String[] CREATE_STATEMENTS = new String[]{ //
+            "CREATE TABLE IF NOT EXISTS grid_key (grid_id TEXT,key_name TEXT)", //
+            "CREATE TABLE IF NOT EXISTS grid_utfgrid (grid_id TEXT,grid_utfgrid BLOB)", //
+            "CREATE TABLE IF NOT EXISTS images (tile_data blob,tile_id text)", //
+            "CREATE TABLE IF NOT EXISTS keymap (key_name TEXT,key_json TEXT)", //
+            "CREATE TABLE IF NOT EXISTS map (zoom_level INTEGER,tile_column INTEGER,tile_row INTEGER,tile_id TEXT,grid_id TEXT)", //
+            "CREATE TABLE IF NOT EXISTS metadata (name text,value text)", //
+            "CREATE VIEW IF NOT EXISTS tiles AS SELECT map.zoom_level AS zoom_level,map.tile_column AS tile_column,"
+                    + "map.tile_row AS tile_row,images.tile_data AS tile_data FROM map JOIN images ON images.tile_id = map.tile_id "
+                    + "ORDER BY zoom_level,tile_column,tile_row", //
+            "CREATE VIEW IF NOT EXISTS grids AS SELECT map.zoom_level AS zoom_level,map.tile_column AS tile_column,"
+                    + "map.tile_row AS tile_row,grid_utfgrid.grid_utfgrid AS grid FROM map JOIN grid_utfgrid ON "
+                    + "grid_utfgrid.grid_id = map.grid_id", //
+            "CREATE VIEW IF NOT EXISTS grid_data AS SELECT map.zoom_level AS zoom_level,map.tile_column AS tile_column,"
+                    + "map.tile_row AS tile_row,keymap.key_name AS key_name,keymap.key_json AS key_json FROM map JOIN grid_key ON "
+                    + "map.grid_id = grid_key.grid_id JOIN keymap ON grid_key.key_name = keymap.key_name", //
+            "CREATE UNIQUE INDEX IF NOT EXISTS grid_key_lookup ON grid_key (grid_id,key_name)", //
+            "CREATE UNIQUE INDEX IF NOT EXISTS grid_utfgrid_lookup ON grid_utfgrid (grid_id)", //
+            "CREATE UNIQUE INDEX IF NOT EXISTS images_id ON images (tile_id )", //
+            "CREATE UNIQUE INDEX IF NOT EXISTS keymap_lookup ON keymap (key_name)", //
+            "CREATE UNIQUE INDEX IF NOT EXISTS map_index ON map (zoom_level,tile_column,tile_row)", //
+            "CREATE UNIQUE INDEX IF NOT EXISTS metadata_index ON metadata (name)" //
+    };
+
+    private MbTilesSchema() {
+    }
+
+    /**
+     * @return the statements creating the tables, views and indexes of an empty database, in order.
+     */
+    public static String[] getCreateStatements() {
+        return CREATE_STATEMENTS.clone();
+    }
+
+    /**
+     * Get the id under which a tile image is stored.
+     *
+     * @param z           the zoom level.
+     * @param x           the tile column.
+     * @param y           the tile row, in the notation of the database.
+     * @param tileRowType the notation of the tile rows, 'tms' or 'osm'.
+     * @return the tile id.
+     */
+    public static String getTileId(int z, int x, int y, String tileRowType) {
+        return z + "-" + x + "-" + y + "." + tileRowType;
+    }
+
+    /**
+     * Build a query of the column and row of the tiles of a zoom level inside a tile range.
+     *
+     * @param table the table to read, 'map' or 'tiles'.
+     * @param z     the zoom level.
+     * @param minX  the min tile column.
+     * @param minY  the min tile row, in the notation of the database.
+     * @param maxX  the max tile column.
+     * @param maxY  the max tile row, in the notation of the database.
+     * @return the query.
+     */
+    public static String buildTilesInRangeQuery(String table, int z, int minX, int minY, int maxX, int maxY) {
+        return "SELECT tile_column,tile_row FROM " + table + " WHERE ((zoom_level = " + z + ") AND ((tile_column >= "
+                + minX + ") AND (tile_column <= " + maxX + ")) AND ((tile_row >= " + minY + ") AND (tile_row <= " + maxY
+                + ")))";
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.mbtiles;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * Sidecar store of the tiles rendered from a Rasterlite2 database.
+ * <p/>
+ * <p>Rendering a Rasterlite2 tile decodes, resamples and encodes the raster every time.
+ * The rendered tiles are kept in a mbtiles like database next to the Rasterlite2
+ * database, named after it with the <code>.rl2tiles</code> extension, with the coverage and
+ * the style as part of the key. Rows are in tms notation, as in mbtiles.</p>
+ * <p/>
+ * <p>The modification time and size of the Rasterlite2 database are kept in the metadata:
+ * when they changed, all the tiles are removed on open.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class Rasterlite2TileCache {
+    /**
+     * The extension of the sidecar file.
+     */
+    public static final String EXTENSION = ".rl2tiles";
+
+    private static final String METADATA_SOURCE_STAMP = "source_stamp";
+    private static final Map<String, Rasterlite2TileCache> caches = new HashMap<String, Rasterlite2TileCache>();
+
+    private final File sourceFile;
+    private final File cacheFile;
+    private SQLiteDatabase db_cache;
+
+    private Rasterlite2TileCache(File sourceFile, File cacheFile) {
+        this.sourceFile = sourceFile;
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Get the tile cache of a Rasterlite2 database, opening it if needed.
+     *
+     * @param databaseFile the Rasterlite2 database.
+     * @return the cache or <code>null</code> if the sidecar could not be created.
+     */
+    public static synchronized Rasterlite2TileCache getInstance(File databaseFile) {
+        String s_path = databaseFile.getAbsolutePath();
+        Rasterlite2TileCache cache = caches.get(s_path);
+        if (cache == null) {
+            File cacheFile = new File(databaseFile.getParentFile(), databaseFile.getName() + EXTENSION);
+            cache = new Rasterlite2TileCache(databaseFile, cacheFile);
+            try {
+                cache.open();
+            } catch (Exception e) {
+                GPLog.error("Rasterlite2TileCache", "Unable to open the tile cache: " + cacheFile, e);
+                return null;
+            }
+            caches.put(s_path, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Close all the opened caches.
+     * <p/>
+     * <p>Holders of a closed cache can check it with {@link #isOpen()} and get the
+     * cache again through {@link #getInstance(File)}.</p>
+     */
+    public static synchronized void closeAll() {
+        for (Rasterlite2TileCache cache : caches.values()) {
+            cache.close();
+        }
+        caches.clear();
+    }
+
+    private void open() throws Exception {
+        db_cache = SQLiteDatabase.openOrCreateDatabase(cacheFile, null);
+        db_cache.execSQL("CREATE TABLE IF NOT EXISTS metadata (name TEXT PRIMARY KEY, value TEXT)");
+        db_cache.execSQL("CREATE TABLE IF NOT EXISTS tiles (coverage_name TEXT, style_name TEXT, zoom_level INTEGER,"
+                + " tile_column INTEGER, tile_row INTEGER, tile_data BLOB,"
+                + " PRIMARY KEY (coverage_name, style_name, zoom_level, tile_column, tile_row))");
+        String s_stamp = sourceFile.lastModified() + ":" + sourceFile.length();
+        String s_cached_stamp = null;
+        Cursor c = db_cache.rawQuery("SELECT value FROM metadata WHERE name=?", new String[]{METADATA_SOURCE_STAMP});
+        try {
+            if (c.moveToFirst()) {
+                s_cached_stamp = c.getString(0);
+            }
+        } finally {
+            c.close();
+        }
+        if (!s_stamp.equals(s_cached_stamp)) {
+            // the source changed, the rendered tiles are stale
+            db_cache.beginTransaction();
+            try {
+                db_cache.delete("tiles", null, null);
+                ContentValues values = new ContentValues();
+                values.put("name", METADATA_SOURCE_STAMP);
+                values.put("value", s_stamp);
+                db_cache.insertWithOnConflict("metadata", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                db_cache.setTransactionSuccessful();
+            } finally {
+                db_cache.endTransaction();
+            }
+        }
+    }
+
+    private synchronized void close() {
+        if (db_cache != null) {
+            db_cache.close();
+            db_cache = null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the cache has not been closed.
+     */
+    public synchronized boolean isOpen() {
+        return db_cache != null;
+    }
+
+    /**
+     * Get a rendered tile.
+     *
+     * @param coverageName the coverage.
+     * @param styleName    the style the tile was rendered with.
+     * @param i_x          the tile column.
+     * @param i_y_osm      the tile row in osm notation.
+     * @param i_z          the zoom level.
+     * @return the tile bytes or <code>null</code> if not cached.
+     */
+    public synchronized byte[] getTile(String coverageName, String styleName, int i_x, int i_y_osm, int i_z) {
+        if (db_cache == null) {
+            return null;
+        }
+        int[] tmsTileXY = MBTilesDroidSpitter.googleTile2TmsTile(i_x, i_y_osm, i_z);
+        Cursor c = null;
+        try {
+            c = db_cache.rawQuery("SELECT tile_data FROM tiles WHERE coverage_name=? AND style_name=? AND zoom_level=?"
+                            + " AND tile_column=? AND tile_row=?",
+                    new String[]{coverageName, styleName, Integer.toString(i_z), Integer.toString(i_x),
+                            Integer.toString(tmsTileXY[1])});
+            if (c.moveToFirst()) {
+                return c.getBlob(0);
+            }
+        } catch (Exception e) {
+            GPLog.error(this, "Rasterlite2TileCache.getTile[" + coverageName + "]", e);
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        return null;
+    }
+
+    /**
+     * Store a rendered tile.
+     *
+     * @param coverageName the coverage.
+     * @param styleName    the style the tile was rendered with.
+     * @param i_x          the tile column.
+     * @param i_y_osm      the tile row in osm notation.
+     * @param i_z          the zoom level.
+     * @param tileData     the tile bytes.
+     */
+    public synchronized void putTile(String coverageName, String styleName, int i_x, int i_y_osm, int i_z, byte[] tileData) {
+        if (db_cache == null || tileData == null) {
+            return;
+        }
+        int[] tmsTileXY = MBTilesDroidSpitter.googleTile2TmsTile(i_x, i_y_osm, i_z);
+        ContentValues values = new ContentValues();
+        values.put("coverage_name", coverageName);
+        values.put("style_name", styleName);
+        values.put("zoom_level", i_z);
+        values.put("tile_column", i_x);
+        values.put("tile_row", tmsTileXY[1]);
+        values.put("tile_data", tileData);
+        try {
+            db_cache.insertWithOnConflict("tiles", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (Exception e) {
+            GPLog.error(this, "Rasterlite2TileCache.putTile[" + coverageName + "]", e);
+        }
+    }
+}
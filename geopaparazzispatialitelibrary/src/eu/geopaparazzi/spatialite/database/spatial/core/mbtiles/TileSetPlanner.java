@@ -0,0 +1,196 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.core.mbtiles;
+
+import java.util.BitSet;
+
+/**
+ * Compact set of tiles of a zoom level inside a rectangular tile range.
+ * <p/>
+ * <p>Every tile of the range is a bit, so a range of a million tiles takes
+ * 125KB, and the set operations needed to plan a request are linear:
+ * <ul>
+ * <li>replace: {@link #addAll()}</li>
+ * <li>exists: {@link #add(int, int)} for every tile found in the database</li>
+ * <li>fill: the existing tiles, then {@link #invert()}</li>
+ * </ul>
+ * The tiles are visited from West to East and North to South, with y in osm notation.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TileSetPlanner {
+    /**
+     * Receives the tiles of a set.
+     */
+    public interface TileVisitor {
+        /**
+         * Visit a tile.
+         *
+         * @param z     the zoom level.
+         * @param x     the tile column.
+         * @param y_osm the tile row in osm notation.
+         * @return <code>false</code> to stop the visit.
+         */
+        public boolean visitTile(int z, int x, int y_osm);
+    }
+
+    /**
+     * The maximum number of tiles of a range, 2MB of bits.
+     */
+    public static final int MAX_TILES = 1 << 24;
+
+    private final int zoom;
+    private final int minX;
+    private final int maxX;
+    private final int minYOsm;
+    private final int maxYOsm;
+    private final int rows;
+    private final int tilesCount;
+    private final BitSet tiles;
+
+    /**
+     * Constructor of an empty set.
+     * <p/>
+     * <p>Min and max values may be swapped, they are sorted.</p>
+     *
+     * @param zoom  the zoom level.
+     * @param x1    a column bound of the range.
+     * @param y1Osm a row bound of the range, in osm notation.
+     * @param x2    the other column bound of the range.
+     * @param y2Osm the other row bound of the range, in osm notation.
+     * @throws IllegalArgumentException if the range has more than {@link #MAX_TILES} tiles.
+     */
+    public TileSetPlanner(int zoom, int x1, int y1Osm, int x2, int y2Osm) {
+        this.zoom = zoom;
+        minX = Math.min(x1, x2);
+        maxX = Math.max(x1, x2);
+        minYOsm = Math.min(y1Osm, y2Osm);
+        maxYOsm = Math.max(y1Osm, y2Osm);
+        rows = maxYOsm - minYOsm + 1;
+        long count = (long) (maxX - minX + 1) * rows;
+        if (count > MAX_TILES) {
+            throw new IllegalArgumentException("Tile range too big: " + count + " tiles");
+        }
+        tilesCount = (int) count;
+        tiles = new BitSet(tilesCount);
+    }
+
+    /**
+     * Get the number of columns that can be planned at once.
+     *
+     * @param rowsCount the number of rows of the range.
+     * @return the maximum number of columns of a range with the given rows.
+     */
+    public static int getMaxColumns(int rowsCount) {
+        return Math.max(1, MAX_TILES / Math.max(1, rowsCount));
+    }
+
+    /**
+     * @return the zoom level.
+     */
+    public int getZoom() {
+        return zoom;
+    }
+
+    /**
+     * @return the number of tiles of the range.
+     */
+    public int getTilesCount() {
+        return tilesCount;
+    }
+
+    /**
+     * @return the number of tiles in the set.
+     */
+    public int size() {
+        return tiles.cardinality();
+    }
+
+    /**
+     * Add a tile, ignored if it is outside of the range.
+     *
+     * @param x     the tile column.
+     * @param y_osm the tile row in osm notation.
+     */
+    public void add(int x, int y_osm) {
+        int index = indexOf(x, y_osm);
+        if (index >= 0) {
+            tiles.set(index);
+        }
+    }
+
+    /**
+     * Add a tile given in tms notation, ignored if it is outside of the range.
+     *
+     * @param x     the tile column.
+     * @param y_tms the tile row in tms notation.
+     */
+    public void addTms(int x, int y_tms) {
+        add(x, (1 << zoom) - 1 - y_tms);
+    }
+
+    /**
+     * Add all the tiles of the range.
+     */
+    public void addAll() {
+        tiles.set(0, tilesCount);
+    }
+
+    /**
+     * Replace the set with the tiles of the range that are not in it.
+     */
+    public void invert() {
+        tiles.flip(0, tilesCount);
+    }
+
+    /**
+     * Check if a tile is in the set.
+     *
+     * @param x     the tile column.
+     * @param y_osm the tile row in osm notation.
+     * @return <code>true</code> if the tile is in the set.
+     */
+    public boolean contains(int x, int y_osm) {
+        int index = indexOf(x, y_osm);
+        return index >= 0 && tiles.get(index);
+    }
+
+    /**
+     * Visit the tiles of the set.
+     *
+     * @param visitor the visitor.
+     * @return <code>false</code> if the visitor stopped the visit.
+     */
+    public boolean forEach(TileVisitor visitor) {
+        for (int index = tiles.nextSetBit(0); index >= 0; index = tiles.nextSetBit(index + 1)) {
+            int x = minX + index / rows;
+            int y_osm = minYOsm + index % rows;
+            if (!visitor.visitTile(zoom, x, y_osm)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(int x, int y_osm) {
+        if (x < minX || x > maxX || y_osm < minYOsm || y_osm > maxYOsm) {
+            return -1;
+        }
+        return (x - minX) * rows + (y_osm - minYOsm);
+    }
+}
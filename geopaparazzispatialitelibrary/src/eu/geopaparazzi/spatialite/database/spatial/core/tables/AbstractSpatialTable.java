@@ -383,12 +383,64 @@ public abstract class AbstractSpatialTable implements Serializable {
      *
      * @return the {@link Envelope}.
      */
-    public Envelope getTableEnvelope() {
-        float w = (float) boundsWest;
-        float s = (float) boundsSouth;
-        float e = (float) boundsEast;
-        float n = (float) boundsNorth;
-        return new Envelope(w, e, s, n);
+    public synchronized Envelope getTableEnvelope() {
+        return new Envelope(boundsWest, boundsEast, boundsSouth, boundsNorth);
+    }
+
+    /**
+     * Check if the table bounds are known.
+     * <p/>
+     * <p>Bounds read from missing or unparsable statistics are left at 0,0,0,0.</p>
+     *
+     * @return <code>true</code> if the bounds describe a real extent.
+     */
+    public synchronized boolean hasValidBounds() {
+        if (Double.isNaN(boundsWest) || Double.isNaN(boundsSouth) || Double.isNaN(boundsEast)
+                || Double.isNaN(boundsNorth)) {
+            return false;
+        }
+        if (boundsWest == 0.0 && boundsSouth == 0.0 && boundsEast == 0.0 && boundsNorth == 0.0) {
+            return false;
+        }
+        return boundsWest <= boundsEast && boundsSouth <= boundsNorth;
+    }
+
+    /**
+     * Check if the table may have data inside an envelope.
+     * <p/>
+     * <p>Tables with unknown bounds are always considered intersecting.</p>
+     *
+     * @param envelope the wgs84 envelope to check.
+     * @return <code>false</code> only if the table surely has no data in the envelope.
+     */
+    public synchronized boolean mayIntersect(Envelope envelope) {
+        if (!hasValidBounds()) {
+            return true;
+        }
+        return envelope.intersects(getTableEnvelope());
+    }
+
+    /**
+     * Grow the table bounds to include the bounds of a new or changed feature.
+     * <p/>
+     * <p>The bounds never shrink, so they stay a valid superset of the data. Unknown
+     * bounds are left unknown: the feature alone says nothing about the rest of the table.</p>
+     *
+     * @param west  western bound of the feature in wgs84.
+     * @param south southern bound of the feature in wgs84.
+     * @param east  eastern bound of the feature in wgs84.
+     * @param north northern bound of the feature in wgs84.
+     */
+    public synchronized void expandBounds(double west, double south, double east, double north) {
+        if (!hasValidBounds()) {
+            return;
+        }
+        boundsWest = Math.min(boundsWest, west);
+        boundsSouth = Math.min(boundsSouth, south);
+        boundsEast = Math.max(boundsEast, east);
+        boundsNorth = Math.max(boundsNorth, north);
+        centerX = boundsWest + (boundsEast - boundsWest) / 2.0;
+        centerY = boundsSouth + (boundsNorth - boundsSouth) / 2.0;
     }
 
     /**
@@ -60,6 +60,8 @@ public class SpatialVectorTable extends AbstractSpatialTable implements Serializ
     private boolean isLine = false;
     private boolean isPoint = false;
     private boolean isGeometryCollection = false;
+    // simplified geometries exist for the zoomed out views
+    private volatile boolean hasSimplifiedLevels = false;
     /**
      * {@link HashMap} of all fields of this table [name,type]
      */
@@ -416,6 +418,20 @@ public class SpatialVectorTable extends AbstractSpatialTable implements Serializ
         return isGeometryCollection;
     }
 
+    /**
+     * @return <code>true</code> if the simplified geometry levels have been built for the table.
+     */
+    public boolean hasSimplifiedLevels() {
+        return hasSimplifiedLevels;
+    }
+
+    /**
+     * @param hasSimplifiedLevels <code>true</code> if the simplified geometry levels exist.
+     */
+    public void setHasSimplifiedLevels(boolean hasSimplifiedLevels) {
+        this.hasSimplifiedLevels = hasSimplifiedLevels;
+    }
+
     private void checkType() {
         if (checkDone) {
             return;
@@ -0,0 +1,48 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.util;
+
+/**
+ * Token to abandon the queries of a piece of work that is no longer needed.
+ * <p/>
+ * <p>Queries run with a token through a {@link QueryProgressHandler} are checked
+ * every few SQLite opcodes and abort as soon as {@link #isCancelled()} returns
+ * <code>true</code>.</p>
+ * <p/>
+ * <p>Subclasses can override {@link #isCancelled()} to add conditions that are
+ * polled, like a drawing thread that has been asked to redraw.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class CancellationToken {
+    private volatile boolean cancelled = false;
+
+    /**
+     * Cancel the work, aborting the queries that are running with this token.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return <code>true</code> if the work has been cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.util;
+
+import jsqlite.Database;
+import jsqlite.ProgressHandler;
+
+/**
+ * Progress handler of a database that abandons the queries whose {@link CancellationToken} got cancelled.
+ * <p/>
+ * <p>SQLite calls the handler on the thread that is stepping a statement, so the token
+ * is kept per thread between {@link #begin(CancellationToken)} and {@link #end(CancellationToken)}
+ * and several threads can share the same database.</p>
+ * <p/>
+ * <p>Cancelling never calls {@link Database#interrupt()}: that aborts every statement of
+ * the connection, also the ones run without a token, like the edits of features. A
+ * cancelled query stops at the next progress check instead.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class QueryProgressHandler implements ProgressHandler {
+    /**
+     * The number of SQLite VM opcodes between two checks of the token.
+     */
+    public static final int OPCODES_PER_CHECK = 1000;
+
+    private final ThreadLocal<CancellationToken> currentToken = new ThreadLocal<CancellationToken>();
+
+    private QueryProgressHandler() {
+    }
+
+    /**
+     * Create a handler and register it on the database.
+     *
+     * @param database the database.
+     * @return the registered handler.
+     */
+    public static QueryProgressHandler install(Database database) {
+        QueryProgressHandler handler = new QueryProgressHandler();
+        database.progress_handler(OPCODES_PER_CHECK, handler);
+        return handler;
+    }
+
+    /**
+     * Start running queries with a token on the current thread.
+     *
+     * @param token the token, if <code>null</code> nothing is done.
+     */
+    public void begin(CancellationToken token) {
+        if (token == null) {
+            return;
+        }
+        currentToken.set(token);
+    }
+
+    /**
+     * Stop running queries with a token on the current thread.
+     *
+     * @param token the token passed to {@link #begin(CancellationToken)}.
+     */
+    public void end(CancellationToken token) {
+        if (token == null) {
+            return;
+        }
+        if (currentToken.get() == token) {
+            currentToken.remove();
+        }
+    }
+
+    @Override
+    public boolean progress() {
+        CancellationToken token = currentToken.get();
+        return token == null || !token.isCancelled();
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.util;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.index.ItemVisitor;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the vertices and segments of the features of an area, to snap to them while editing.
+ * <p/>
+ * <p>Every segment of the features is kept in a {@link Quadtree}, points as segments of
+ * length zero, so that a snap only looks at the few segments around the touched position
+ * instead of all the vertices in view. Unlike a packed tree, the quadtree takes inserts and
+ * removals, so the features changed by an edit are replaced without building the index again.</p>
+ * <p/>
+ * <p>The index knows the area it has been filled for, see {@link #covers(Envelope)}.
+ * It is safe to query it while another thread replaces features.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class SnappingIndex {
+
+    /**
+     * The result of a snap.
+     */
+    public static class Snap {
+        /**
+         * The snapped position.
+         */
+        public final Coordinate coordinate;
+        /**
+         * <code>true</code> if the position is a vertex of the feature, <code>false</code> if it lies on a segment.
+         */
+        public final boolean isVertex;
+        /**
+         * The distance of the snapped position from the queried one.
+         */
+        public final double distance;
+        /**
+         * The layer of the feature snapped to.
+         */
+        public final String layer;
+        /**
+         * The id of the feature snapped to.
+         */
+        public final long featureId;
+
+        private Snap(Coordinate coordinate, boolean isVertex, double distance, Segment segment) {
+            this.coordinate = coordinate;
+            this.isVertex = isVertex;
+            this.distance = distance;
+            this.layer = segment.layer;
+            this.featureId = segment.featureId;
+        }
+    }
+
+    private static class Segment {
+        final String layer;
+        final long featureId;
+        final LineSegment lineSegment;
+        final Envelope envelope;
+
+        Segment(String layer, long featureId, Coordinate p0, Coordinate p1) {
+            this.layer = layer;
+            this.featureId = featureId;
+            lineSegment = new LineSegment(p0, p1);
+            envelope = new Envelope(p0, p1);
+        }
+    }
+
+    private final Quadtree tree = new Quadtree();
+    private final Map<String, List<Segment>> segmentsByFeature = new HashMap<String, List<Segment>>();
+    private final Envelope coveredEnvelope;
+    private int segmentsCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param coveredEnvelope the area the index is filled for.
+     */
+    public SnappingIndex(Envelope coveredEnvelope) {
+        this.coveredEnvelope = new Envelope(coveredEnvelope);
+    }
+
+    /**
+     * @return the area the index is filled for.
+     */
+    public Envelope getCoveredEnvelope() {
+        return new Envelope(coveredEnvelope);
+    }
+
+    /**
+     * @param envelope the area to check.
+     * @return <code>true</code> if the index has been filled for the whole area.
+     */
+    public boolean covers(Envelope envelope) {
+        return coveredEnvelope.contains(envelope);
+    }
+
+    /**
+     * @return the number of indexed segments.
+     */
+    public synchronized int getSegmentsCount() {
+        return segmentsCount;
+    }
+
+    /**
+     * Add a feature, replacing its previous geometry.
+     *
+     * @param layer     the unique name of the layer of the feature.
+     * @param featureId the id of the feature.
+     * @param geometry  the geometry of the feature.
+     */
+    public synchronized void putFeature(String layer, long featureId, Geometry geometry) {
+        removeFeature(layer, featureId);
+        List<Segment> segments = new ArrayList<Segment>();
+        addSegments(layer, featureId, geometry, segments);
+        for (Segment segment : segments) {
+            tree.insert(segment.envelope, segment);
+        }
+        segmentsByFeature.put(getKey(layer, featureId), segments);
+        segmentsCount += segments.size();
+    }
+
+    /**
+     * Remove a feature.
+     *
+     * @param layer     the unique name of the layer of the feature.
+     * @param featureId the id of the feature.
+     * @return <code>true</code> if the feature was in the index.
+     */
+    public synchronized boolean removeFeature(String layer, long featureId) {
+        List<Segment> segments = segmentsByFeature.remove(getKey(layer, featureId));
+        if (segments == null) {
+            return false;
+        }
+        for (Segment segment : segments) {
+            tree.remove(segment.envelope, segment);
+        }
+        segmentsCount -= segments.size();
+        return true;
+    }
+
+    /**
+     * Snap to the nearest vertex.
+     *
+     * @param coordinate the position to snap.
+     * @param tolerance  the maximum distance of the vertex.
+     * @return the snap or <code>null</code> if no vertex is within the tolerance.
+     */
+    public Snap snapToVertex(final Coordinate coordinate, final double tolerance) {
+        final Segment[] nearestSegment = new Segment[1];
+        final Coordinate[] nearest = new Coordinate[1];
+        final double[] nearestDistance = {tolerance};
+        query(coordinate, tolerance, new ItemVisitor() {
+            public void visitItem(Object item) {
+                Segment segment = (Segment) item;
+                for (int i = 0; i < 2; i++) {
+                    Coordinate vertex = segment.lineSegment.getCoordinate(i);
+                    double distance = vertex.distance(coordinate);
+                    if (distance <= nearestDistance[0]) {
+                        nearestDistance[0] = distance;
+                        nearest[0] = vertex;
+                        nearestSegment[0] = segment;
+                    }
+                }
+            }
+        });
+        if (nearest[0] == null) {
+            return null;
+        }
+        return new Snap(new Coordinate(nearest[0]), true, nearestDistance[0], nearestSegment[0]);
+    }
+
+    /**
+     * Snap to the nearest point of a segment.
+     *
+     * @param coordinate the position to snap.
+     * @param tolerance  the maximum distance of the segment.
+     * @return the snap or <code>null</code> if no segment is within the tolerance.
+     */
+    public Snap snapToSegment(final Coordinate coordinate, final double tolerance) {
+        final Segment[] nearest = new Segment[1];
+        final double[] nearestDistance = {tolerance};
+        query(coordinate, tolerance, new ItemVisitor() {
+            public void visitItem(Object item) {
+                Segment segment = (Segment) item;
+                double distance = segment.lineSegment.distance(coordinate);
+                if (distance <= nearestDistance[0]) {
+                    nearestDistance[0] = distance;
+                    nearest[0] = segment;
+                }
+            }
+        });
+        if (nearest[0] == null) {
+            return null;
+        }
+        return new Snap(nearest[0].lineSegment.closestPoint(coordinate), false, nearestDistance[0], nearest[0]);
+    }
+
+    /**
+     * Snap to the nearest vertex or, if there is none within the tolerance, to the nearest segment.
+     *
+     * @param coordinate the position to snap.
+     * @param tolerance  the maximum distance of the vertex or segment.
+     * @return the snap or <code>null</code> if nothing is within the tolerance.
+     */
+    public Snap snap(Coordinate coordinate, double tolerance) {
+        Snap snap = snapToVertex(coordinate, tolerance);
+        if (snap == null) {
+            snap = snapToSegment(coordinate, tolerance);
+        }
+        return snap;
+    }
+
+    private synchronized void query(Coordinate coordinate, double tolerance, ItemVisitor visitor) {
+        Envelope searchEnvelope = new Envelope(coordinate);
+        searchEnvelope.expandBy(tolerance);
+        // the quadtree visits all the items of the nodes that intersect the search area
+        tree.query(searchEnvelope, visitor);
+    }
+
+    private static void addSegments(String layer, long featureId, Geometry geometry, List<Segment> segments) {
+        if (geometry == null || geometry.isEmpty()) {
+            return;
+        }
+        if (geometry instanceof Point) {
+            Coordinate coordinate = geometry.getCoordinate();
+            segments.add(new Segment(layer, featureId, coordinate, coordinate));
+        } else if (geometry instanceof LineString) {
+            Coordinate[] coordinates = ((LineString) geometry).getCoordinates();
+            if (coordinates.length == 1) {
+                segments.add(new Segment(layer, featureId, coordinates[0], coordinates[0]));
+            }
+            for (int i = 1; i < coordinates.length; i++) {
+                segments.add(new Segment(layer, featureId, coordinates[i - 1], coordinates[i]));
+            }
+        } else if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            addSegments(layer, featureId, polygon.getExteriorRing(), segments);
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                addSegments(layer, featureId, polygon.getInteriorRingN(i), segments);
+            }
+        } else {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                addSegments(layer, featureId, geometry.getGeometryN(i), segments);
+            }
+        }
+    }
+
+    private static String getKey(String layer, long featureId) {
+        return layer + "#" + featureId;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2010  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.spatialite.database.spatial.util;
+
+/**
+ * Builders of the spatial queries run on the vector tables.
+ * <p/>
+ * <p>They take the plain names of the table, so that they can be used also where no
+ * {@link eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable} is available.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class SpatialiteQueryBuilder {
+    /**
+     * Name of the table field that is used to identify the record.
+     */
+    public static final String SPATIALTABLE_ID_FIELD = "ROWID";
+
+    private SpatialiteQueryBuilder() {
+    }
+
+    /**
+     * Build the MBR of some bounds in the srid of a table.
+     *
+     * @param boundsSrid the srid of the bounds.
+     * @param tableSrid  the srid of the table.
+     * @param n          north bound.
+     * @param s          south bound.
+     * @param e          east bound.
+     * @param w          west bound.
+     * @return the MBR expression.
+     */
+    public static String buildMbr( String boundsSrid, String tableSrid, double n, double s, double e, double w ) {
+        boolean doTransform = !tableSrid.equals(boundsSrid);
+        StringBuilder mbrSb = new StringBuilder();
+        if (doTransform)
+            mbrSb.append("ST_Transform(");
+        mbrSb.append("BuildMBR(");
+        mbrSb.append(w);
+        mbrSb.append(",");
+        mbrSb.append(n);
+        mbrSb.append(",");
+        mbrSb.append(e);
+        mbrSb.append(",");
+        mbrSb.append(s);
+        if (doTransform) {
+            mbrSb.append(",");
+            mbrSb.append(boundsSrid);
+            mbrSb.append("),");
+            mbrSb.append(tableSrid);
+        }
+        mbrSb.append(")");
+        return mbrSb.toString();
+    }
+
+    /**
+     * Build a query to retrieve the full resolution geometries of a table in a given bound.
+     *
+     * @param destSrid   the destination srid.
+     * @param tableSrid  the srid of the table.
+     * @param tableName  the name of the table.
+     * @param geomName   the name of the geometry column.
+     * @param rowId      the name of the primary key used by the spatial index.
+     * @param withRowId  if <code>true</code>, the ROWID is added in position 0 of the query.
+     * @param labelField the field to read after the geometry, <code>null</code> for none.
+     * @param n          north bound.
+     * @param s          south bound.
+     * @param e          east bound.
+     * @param w          west bound.
+     * @return the query.
+     */
+    public static String buildGeometriesInBoundsQuery( String destSrid, String tableSrid, String tableName, String geomName,
+            String rowId, boolean withRowId, String labelField, double n, double s, double e, double w ) {
+        boolean doTransform = !tableSrid.equals(destSrid);
+        String mbr = buildMbr(destSrid, tableSrid, n, s, e, w);
+        StringBuilder qSb = new StringBuilder();
+        qSb.append("SELECT ");
+        if (withRowId) {
+            qSb.append(SPATIALTABLE_ID_FIELD).append(",");
+        }
+        qSb.append("ST_AsBinary(CastToXY(");
+        if (doTransform)
+            qSb.append("ST_Transform(");
+        qSb.append(geomName);
+        if (doTransform) {
+            qSb.append(",");
+            qSb.append(destSrid);
+            qSb.append(")");
+        }
+        qSb.append("))");
+        if (labelField != null) {
+            qSb.append(",");
+            qSb.append(labelField);
+        }
+        qSb.append(" FROM ");
+        qSb.append(tableName);
+        // the SpatialIndex would be searching for a square, the ST_Intersects the Geometry
+        // the SpatialIndex could be fulfilled, but checking the Geometry could return the result
+        // that it is not
+        qSb.append(" WHERE ST_Intersects(");
+        qSb.append(geomName);
+        qSb.append(", ");
+        qSb.append(mbr);
+        qSb.append(") = 1 AND ");
+        qSb.append(rowId);
+        qSb.append("  IN (SELECT ");
+        qSb.append(rowId);
+        qSb.append(" FROM Spatialindex WHERE f_table_name ='");
+        qSb.append(tableName);
+        qSb.append("'");
+        // if a table has more than 1 geometry, the column-name MUST be given, otherwise no results.
+        qSb.append(" AND f_geometry_column = '");
+        qSb.append(geomName);
+        qSb.append("'");
+        qSb.append(" AND search_frame = ");
+        qSb.append(mbr);
+        qSb.append(");");
+        return qSb.toString();
+    }
+
+    /**
+     * Build a query to retrieve the fields of the features of a table intersecting a bounding box.
+     *
+     * @param boundsSrid     the srid of the bounds requested.
+     * @param tableSrid      the srid of the table.
+     * @param tableName      the name of the table.
+     * @param geomName       the name of the geometry column.
+     * @param fieldNamesList the comma separated fields to read.
+     * @param n              north bound.
+     * @param s              south bound.
+     * @param e              east bound.
+     * @param w              west bound.
+     * @return the query.
+     */
+    public static String buildIntersectionQuery( String boundsSrid, String tableSrid, String tableName, String geomName,
+            String fieldNamesList, double n, double s, double e, double w ) {
+        boolean doTransform = !tableSrid.equals(boundsSrid);
+        StringBuilder sbQ = new StringBuilder();
+        sbQ.append("SELECT ");
+        sbQ.append(fieldNamesList);
+        sbQ.append(" FROM ").append(tableName);
+        sbQ.append(" WHERE ST_Intersects(");
+        if (doTransform)
+            sbQ.append("ST_Transform(");
+        sbQ.append("BuildMBR(");
+        sbQ.append(w);
+        sbQ.append(",");
+        sbQ.append(s);
+        sbQ.append(",");
+        sbQ.append(e);
+        sbQ.append(",");
+        sbQ.append(n);
+        if (doTransform) {
+            sbQ.append(",");
+            sbQ.append(boundsSrid);
+            sbQ.append("),");
+            sbQ.append(tableSrid);
+        }
+        sbQ.append("),");
+        sbQ.append(geomName);
+        sbQ.append(");");
+        return sbQ.toString();
+    }
+}
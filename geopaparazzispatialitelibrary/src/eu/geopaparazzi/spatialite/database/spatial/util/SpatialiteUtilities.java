@@ -23,6 +23,8 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.WKBReader;
 
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.LibraryConstants;
+import eu.geopaparazzi.spatialite.database.spatial.core.daos.SimplifiedGeometries;
 import eu.geopaparazzi.spatialite.database.spatial.core.tables.SpatialVectorTable;
 import jsqlite.Database;
 import jsqlite.Stmt;
@@ -37,7 +39,7 @@ public class SpatialiteUtilities {
     /**
      * Name of the table field that s used to identify the record.
      */
-    public static final String SPATIALTABLE_ID_FIELD = "ROWID"; //$NON-NLS-1$
+    public static final String SPATIALTABLE_ID_FIELD = SpatialiteQueryBuilder.SPATIALTABLE_ID_FIELD;
 
     /**
      * Array of fields that will be ingored in attributes handling.
@@ -80,73 +82,75 @@ public class SpatialiteUtilities {
      */
     public static String buildGeometriesInBoundsQuery( String destSrid, boolean withRowId, SpatialVectorTable table, double n,
             double s, double e, double w ) {
-        boolean doTransform = false;
-        if (!table.getSrid().equals(destSrid)) {
-            doTransform = true;
-        }
-        StringBuilder mbrSb = new StringBuilder();
-        if (doTransform)
-            mbrSb.append("ST_Transform(");
-        mbrSb.append("BuildMBR(");
-        mbrSb.append(w);
-        mbrSb.append(",");
-        mbrSb.append(n);
-        mbrSb.append(",");
-        mbrSb.append(e);
-        mbrSb.append(",");
-        mbrSb.append(s);
-        if (doTransform) {
-            mbrSb.append(",");
-            mbrSb.append(destSrid);
-            mbrSb.append("),");
-            mbrSb.append(table.getSrid());
+        return buildGeometriesInBoundsQuery(destSrid, withRowId, table, n, s, e, w, -1);
+    }
+
+    /**
+     * Build a query to retrieve geometries from a table in a given bound, as seen at a zoom level.
+     *
+     * <p>If the table has simplified levels and the destination is wgs84, the geometries
+     * are read from the level matching the zoom. The features are then selected by the
+     * spatial index only, since an exact intersection check would need to read the full
+     * resolution geometries again.
+     *
+     * @param destSrid the destination srid.
+     * @param withRowId if <code>true</code>, the ROWID is added in position 0 of the query.
+     * @param table the table to use.
+     * @param n north bound.
+     * @param s south bound.
+     * @param e east bound.
+     * @param w west bound.
+     * @param zoom the draw zoom level, <code>-1</code> to always use the full resolution.
+     * @return the query.
+     */
+    public static String buildGeometriesInBoundsQuery( String destSrid, boolean withRowId, SpatialVectorTable table, double n,
+            double s, double e, double w, int zoom ) {
+        int level = -1;
+        if (zoom >= 0 && table.hasSimplifiedLevels() && destSrid.equals(LibraryConstants.SRID_WGS84_4326)) {
+            level = SimplifiedGeometries.getLevelForZoom(zoom);
         }
-        mbrSb.append(")");
-        String mbr = mbrSb.toString();
+        String mbr = SpatialiteQueryBuilder.buildMbr(destSrid, table.getSrid(), n, s, e, w);
         StringBuilder qSb = new StringBuilder();
-        qSb.append("SELECT ");
-        if (withRowId) {
-            qSb.append(SPATIALTABLE_ID_FIELD).append(",");
-        }
-        qSb.append("ST_AsBinary(CastToXY(");
-        if (doTransform)
-            qSb.append("ST_Transform(");
-        qSb.append(table.getGeomName());
-        if (doTransform) {
-            qSb.append(",");
-            qSb.append(destSrid);
-            qSb.append(")");
+        if (level != -1) {
+            boolean withLabel = table.getStyle().labelvisible == 1;
+            qSb.append("SELECT ");
+            if (withRowId) {
+                qSb.append("g.fid,");
+            }
+            qSb.append("g.geometry");
+            if (withLabel) {
+                qSb.append(",t.");
+                qSb.append(table.getStyle().labelfield);
+            }
+            qSb.append(" FROM \"");
+            qSb.append(SimplifiedGeometries.getTableName(table));
+            qSb.append("\" g");
+            if (withLabel) {
+                qSb.append(" JOIN ");
+                qSb.append(table.getTableName());
+                qSb.append(" t ON t.");
+                qSb.append(SPATIALTABLE_ID_FIELD);
+                qSb.append(" = g.fid");
+            }
+            qSb.append(" WHERE g.level = ");
+            qSb.append(level);
+            qSb.append(" AND g.fid IN (SELECT ");
+            qSb.append(table.getROWID());
+            qSb.append(" FROM Spatialindex WHERE f_table_name ='");
+            qSb.append(table.getTableName());
+            qSb.append("' AND f_geometry_column = '");
+            qSb.append(table.getGeomName());
+            qSb.append("' AND search_frame = ");
+            qSb.append(mbr);
+            qSb.append(");");
+            return qSb.toString();
         }
-        qSb.append("))");
+        String labelField = null;
         if (table.getStyle().labelvisible == 1) {
-            qSb.append(",");
-            qSb.append(table.getStyle().labelfield);
+            labelField = table.getStyle().labelfield;
         }
-        qSb.append(" FROM ");
-        qSb.append(table.getTableName());
-        // the SpatialIndex would be searching for a square, the ST_Intersects the Geometry
-        // the SpatialIndex could be fulfilled, but checking the Geometry could return the result
-        // that it is not
-        qSb.append(" WHERE ST_Intersects(");
-        qSb.append(table.getGeomName());
-        qSb.append(", ");
-        qSb.append(mbr);
-        qSb.append(") = 1 AND ");
-        qSb.append(table.getROWID());
-        qSb.append("  IN (SELECT ");
-        qSb.append(table.getROWID());
-        qSb.append(" FROM Spatialindex WHERE f_table_name ='");
-        qSb.append(table.getTableName());
-        qSb.append("'");
-        // if a table has more than 1 geometry, the column-name MUST be given, otherwise no results.
-        qSb.append(" AND f_geometry_column = '");
-        qSb.append(table.getGeomName());
-        qSb.append("'");
-        qSb.append(" AND search_frame = ");
-        qSb.append(mbr);
-        qSb.append(");");
-        String q = qSb.toString();
-        return q;
+        return SpatialiteQueryBuilder.buildGeometriesInBoundsQuery(destSrid, table.getSrid(), table.getTableName(),
+                table.getGeomName(), table.getROWID(), withRowId, labelField, n, s, e, w);
     }
 
     /**